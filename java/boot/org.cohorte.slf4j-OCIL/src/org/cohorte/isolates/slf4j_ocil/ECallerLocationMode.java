@@ -0,0 +1,45 @@
+package org.cohorte.isolates.slf4j_ocil;
+
+/**
+ * The ways an OCIL logger adapter can find the class and the method which
+ * called it
+ *
+ * @author ogattaz
+ *
+ */
+public enum ECallerLocationMode {
+
+	/**
+	 * No location capture: the source class of the records is the name of the
+	 * logger and the source method is not set
+	 */
+	NONE,
+
+	/**
+	 * Walks only the frames up to the first one outside the adapter using the
+	 * StackWalker of the jvm (java 9 and more). Falls back on THROWABLE if
+	 * the StackWalker isn't available.
+	 */
+	STACKWALKER,
+
+	/**
+	 * Builds the whole stack trace of a new Throwable (the historical way)
+	 */
+	THROWABLE;
+
+	/**
+	 * @param aName
+	 *            the name of a mode (case insensitive)
+	 * @return the mode or null if the name is unknown
+	 */
+	public static ECallerLocationMode fromName(final String aName) {
+		if (aName != null) {
+			for (final ECallerLocationMode wMode : values()) {
+				if (wMode.name().equalsIgnoreCase(aName.trim())) {
+					return wMode;
+				}
+			}
+		}
+		return null;
+	}
+}
@@ -12,6 +12,16 @@ public interface IOcilManager {
 
 	String NO_LOGGER_NAME_FILTER = null;
 
+	/**
+	 * The framework property setting the default caller location mode of the
+	 * adapters: "STACKWALKER" (default), "THROWABLE" or "NONE"
+	 *
+	 * <pre>
+	 * -Dcohorte.slf4j.ocil.caller.location=NONE
+	 * </pre>
+	 */
+	String PROP_CALLER_LOCATION_MODE = "cohorte.slf4j.ocil.caller.location";
+
 	/**
 	 * @param aSB
 	 * @return
@@ -33,6 +43,24 @@ public interface IOcilManager {
 	 */
 	java.util.logging.Logger getParentJulLogger();
 
+	/**
+	 * Sets the way the Adapters matching the filter find the class and the
+	 * method which called them. The mode is also applied to the Adapters
+	 * created later whose name match the filter.
+	 *
+	 * Use the mode NONE to turn off the location capture of hot loggers.
+	 *
+	 * @param aMode
+	 *            the caller location mode
+	 * @param aAdapterNameFilter
+	 *            The filter to apply. Test the string equality by default. If
+	 *            the last char is a star "*", the filter is used as prefix. If
+	 *            null, the mode becomes the default one of all the Adapters.
+	 * @return the number of Adapters modified
+	 */
+	int setCallerLocationMode(final ECallerLocationMode aMode,
+			final String aAdapterNameFilter);
+
 	/**
 	 * @param aJulLevel
 	 * @return
@@ -0,0 +1,251 @@
+package org.slf4j.impl;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Iterator;
+import java.util.function.Function;
+import java.util.logging.LogRecord;
+import java.util.stream.Stream;
+
+import org.cohorte.isolates.slf4j_ocil.ECallerLocationMode;
+
+/**
+ * Finds the class and the method which called an OCIL logger adapter.
+ *
+ * The bundle targets java 8, so the java 9 StackWalker is reached through
+ * method handles resolved once. If it isn't available, the STACKWALKER mode
+ * falls back on the historical walk of a Throwable stack trace.
+ *
+ * @author ogattaz
+ *
+ */
+final class CCallerLocator {
+
+	/**
+	 * The function given to StackWalker.walk(): returns the first frame
+	 * following the frames of the logging boundary (the adapter or the wrapper
+	 * given as callerFQCN). The frames are pulled lazily, so the walk stops
+	 * there.
+	 */
+	private static class CFrameFinder implements
+			Function<Stream<Object>, Object> {
+
+		private final String pCallerFQCN;
+
+		/**
+		 * @param aCallerFQCN
+		 */
+		CFrameFinder(final String aCallerFQCN) {
+			pCallerFQCN = aCallerFQCN;
+		}
+
+		@Override
+		public Object apply(final Stream<Object> aFrames) {
+
+			boolean wInBoundary = false;
+			final Iterator<Object> wIterator = aFrames.iterator();
+			while (wIterator.hasNext()) {
+				final Object wFrame = wIterator.next();
+				final String wClassName = getFrameClassName(wFrame);
+				if (isBoundary(wClassName, pCallerFQCN)) {
+					wInBoundary = true;
+				} else if (wInBoundary) {
+					return wFrame;
+				}
+			}
+			return null;
+		}
+	}
+
+	/** the finder used by all the direct calls of the adapter */
+	private static final CFrameFinder FINDER_SELF = new CFrameFinder(
+			COcilLoggerAdapter.SELF);
+
+	/** StackFrame.getClassName() as (Object)String */
+	private static final MethodHandle sGetClassName;
+
+	/** StackFrame.getMethodName() as (Object)String */
+	private static final MethodHandle sGetMethodName;
+
+	/** StackWalker.walk(Function) as (Object,Function)Object */
+	private static final MethodHandle sWalk;
+
+	/** the StackWalker instance, null if not available */
+	private static final Object sWalker;
+
+	static {
+		Object wWalker = null;
+		MethodHandle wWalk = null;
+		MethodHandle wGetClassName = null;
+		MethodHandle wGetMethodName = null;
+		try {
+			final MethodHandles.Lookup wLookup = MethodHandles.lookup();
+			final Class<?> wWalkerClass = Class.forName("java.lang.StackWalker");
+			final Class<?> wFrameClass = Class
+					.forName("java.lang.StackWalker$StackFrame");
+
+			wWalker = wWalkerClass.getMethod("getInstance").invoke(null);
+			wWalk = wLookup.findVirtual(wWalkerClass, "walk",
+					MethodType.methodType(Object.class, Function.class))
+					.asType(MethodType.methodType(Object.class, Object.class,
+							Function.class));
+			wGetClassName = wLookup.findVirtual(wFrameClass, "getClassName",
+					MethodType.methodType(String.class)).asType(
+					MethodType.methodType(String.class, Object.class));
+			wGetMethodName = wLookup.findVirtual(wFrameClass, "getMethodName",
+					MethodType.methodType(String.class)).asType(
+					MethodType.methodType(String.class, Object.class));
+		} catch (final Exception e) {
+			// java 8: no StackWalker
+			wWalker = null;
+		}
+		sWalker = wWalker;
+		sWalk = wWalk;
+		sGetClassName = wGetClassName;
+		sGetMethodName = wGetMethodName;
+	}
+
+	/**
+	 * Fills the source class and method of the record according to the mode
+	 *
+	 * @param aMode
+	 *            the location mode of the adapter
+	 * @param aCallerFQCN
+	 *            the fully qualified name of the class which is the boundary
+	 *            of the logging system
+	 * @param aLoggerName
+	 *            the name of the logger used as source class in the NONE mode
+	 * @param aRecord
+	 *            The record to update
+	 */
+	static void fillCallerData(final ECallerLocationMode aMode,
+			final String aCallerFQCN, final String aLoggerName,
+			final LogRecord aRecord) {
+
+		if (aMode == ECallerLocationMode.NONE) {
+			// setting the class name has the side effect of setting the
+			// needToInferCaller variable of the record to false.
+			aRecord.setSourceClassName(aLoggerName);
+			aRecord.setSourceMethodName(null);
+			return;
+		}
+		if (aMode == ECallerLocationMode.STACKWALKER && isStackWalkerAvailable()) {
+			fillCallerDataStackWalker(aCallerFQCN, aRecord);
+			return;
+		}
+		fillCallerDataThrowable(aCallerFQCN, aRecord);
+	}
+
+	/**
+	 * @param aCallerFQCN
+	 * @param aRecord
+	 */
+	private static void fillCallerDataStackWalker(final String aCallerFQCN,
+			final LogRecord aRecord) {
+
+		final CFrameFinder wFinder = COcilLoggerAdapter.SELF
+				.equals(aCallerFQCN) ? FINDER_SELF : new CFrameFinder(
+				aCallerFQCN);
+		final Object wFrame;
+		try {
+			wFrame = sWalk.invokeExact(sWalker, (Function) wFinder);
+		} catch (final Throwable e) {
+			fillCallerDataThrowable(aCallerFQCN, aRecord);
+			return;
+		}
+		if (wFrame != null) {
+			// setting the class name has the side effect of setting
+			// the needToInferCaller variable to false.
+			aRecord.setSourceClassName(getFrameClassName(wFrame));
+			aRecord.setSourceMethodName(getFrameMethodName(wFrame));
+		}
+	}
+
+	/**
+	 * The historical way: builds the whole stack trace of a new Throwable.
+	 *
+	 * @param aCallerFQCN
+	 * @param aRecord
+	 */
+	static void fillCallerDataThrowable(final String aCallerFQCN,
+			final LogRecord aRecord) {
+
+		final StackTraceElement[] steArray = new Throwable().getStackTrace();
+
+		int selfIndex = -1;
+		for (int i = 0; i < steArray.length; i++) {
+			if (isBoundary(steArray[i].getClassName(), aCallerFQCN)) {
+				selfIndex = i;
+				break;
+			}
+		}
+
+		int found = -1;
+		for (int i = selfIndex + 1; i < steArray.length; i++) {
+			if (!isBoundary(steArray[i].getClassName(), aCallerFQCN)) {
+				found = i;
+				break;
+			}
+		}
+
+		if (found != -1) {
+			final StackTraceElement ste = steArray[found];
+			// setting the class name has the side effect of setting
+			// the needToInferCaller variable to false.
+			aRecord.setSourceClassName(ste.getClassName());
+			aRecord.setSourceMethodName(ste.getMethodName());
+		}
+	}
+
+	/**
+	 * @param aFrame
+	 *            a StackWalker.StackFrame
+	 * @return the class name of the frame
+	 */
+	private static String getFrameClassName(final Object aFrame) {
+		try {
+			return (String) sGetClassName.invokeExact(aFrame);
+		} catch (final Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param aFrame
+	 *            a StackWalker.StackFrame
+	 * @return the method name of the frame
+	 */
+	private static String getFrameMethodName(final Object aFrame) {
+		try {
+			return (String) sGetMethodName.invokeExact(aFrame);
+		} catch (final Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param aClassName
+	 * @param aCallerFQCN
+	 * @return true if the class is a part of the logging system
+	 */
+	private static boolean isBoundary(final String aClassName,
+			final String aCallerFQCN) {
+		return aClassName.equals(aCallerFQCN)
+				|| aClassName.equals(COcilLoggerAdapter.SUPER);
+	}
+
+	/**
+	 * @return true if the jvm provides the StackWalker (java 9 and more)
+	 */
+	static boolean isStackWalkerAvailable() {
+		return sWalker != null;
+	}
+
+	/**
+	 * no instance
+	 */
+	private CCallerLocator() {
+		super();
+	}
+}
@@ -27,11 +27,9 @@ package org.slf4j.impl;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Optional;
-import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
 
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Instantiate;
@@ -39,6 +37,9 @@ import org.apache.felix.ipojo.annotations.Invalidate;
 import org.apache.felix.ipojo.annotations.Provides;
 import org.apache.felix.ipojo.annotations.Requires;
 import org.apache.felix.ipojo.annotations.Validate;
+import org.osgi.framework.BundleContext;
+import org.cohorte.isolates.slf4j_ocil.Activator;
+import org.cohorte.isolates.slf4j_ocil.ECallerLocationMode;
 import org.cohorte.isolates.slf4j_ocil.IOcilManager;
 import org.psem2m.utilities.logging.CActivityLoggerBasicConsole;
 import org.psem2m.utilities.logging.CXJulUtils;
@@ -59,6 +60,34 @@ import org.slf4j.Logger;
 @Provides(specifications = { IOcilManager.class })
 public class CCpntOcilLoggerFactory implements ILoggerFactory, IOcilManager {
 
+	/**
+	 * The node of the logger names trie: the adapter having the name and the
+	 * parent loggers and the caller location modes set with a filter equal to
+	 * the name ("exact") or with a prefix filter equal to the name + ".*"
+	 * ("prefix").
+	 */
+	private static class CLoggerNode {
+
+		COcilLoggerAdapter pAdapter;
+
+		ECallerLocationMode pExactCallerLocationMode;
+
+		java.util.logging.Logger pExactParentLogger;
+
+		final String pName;
+
+		ECallerLocationMode pPrefixCallerLocationMode;
+
+		java.util.logging.Logger pPrefixParentLogger;
+
+		/**
+		 * @param aName
+		 */
+		CLoggerNode(final String aName) {
+			pName = aName;
+		}
+	}
+
 	private static CCpntOcilLoggerFactory sMe = new CCpntOcilLoggerFactory();
 
 	/**
@@ -83,15 +112,20 @@ public class CCpntOcilLoggerFactory implements ILoggerFactory, IOcilManager {
 	@Requires(filter = "(julname=org.chohorte.isolate.logger.svc)")
 	private IActivityLoggerJul pActivityLogger = null;
 
+	/** the caller location mode of the adapters not matching a filter */
+	private volatile ECallerLocationMode pDefaultCallerLocationMode = ECallerLocationMode.STACKWALKER;
+
 	private java.util.logging.Logger pGlobalParentJulLogger;
 
 	/**
-	 * map that associate filter to loggerJul in order to automatically assign the
-	 * right logger while a new slf4j logger is created
+	 * trie over the names of the adapters and of the filters. It associates the
+	 * filters to parent loggerJul and caller location modes in order to
+	 * automatically set them while a new slf4j logger is created, and allows to
+	 * apply a switch to the adapters of a subtree. Guarded by its own monitor.
 	 */
-	private final Map<String, java.util.logging.Logger> pMapFilterParentLogger = new ConcurrentHashMap<>();
+	private final CLoggerNameTrie<CLoggerNode> pLoggerTrie = new CLoggerNameTrie<>();
 
-	// key: name (String), value: a JDK14LoggerAdapter;
+	// key: name (String), value: a JDK14LoggerAdapter; the lock-free lookup
 	private final ConcurrentMap<String, COcilLoggerAdapter> pOcilLoggerMap = new ConcurrentHashMap<>();
 
 	/**
@@ -120,13 +154,15 @@ public class CCpntOcilLoggerFactory implements ILoggerFactory, IOcilManager {
 
 		try {
 
-			final Map<String, COcilLoggerAdapter> treeMap = new TreeMap<>(pOcilLoggerMap);
-
-			int wIdx = 0;
-			for (final Entry<String, COcilLoggerAdapter> wLoggerEntry : treeMap.entrySet()) {
-
-				aSB.append(String.format("\n%3d %s ", wIdx, formatOneLogger(wLoggerEntry.getValue())));
-				wIdx++;
+			// the trie is visited in the lexicographic order of the names
+			final int[] wIdx = { 0 };
+			synchronized (pLoggerTrie) {
+				pLoggerTrie.visitSubtree("", wNode -> {
+					if (wNode.pAdapter != null) {
+						aSB.append(String.format("\n%3d %s ", wIdx[0], formatOneLogger(wNode.pAdapter)));
+						wIdx[0]++;
+					}
+				});
 			}
 		} catch (final Exception e) {
 
@@ -151,23 +187,46 @@ public class CCpntOcilLoggerFactory implements ILoggerFactory, IOcilManager {
 	}
 
 	/**
-	 * @param aLogger
+	 * Visits the adapters matching the filter.
+	 *
+	 * MUST be called holding the monitor of the trie
+	 *
 	 * @param aFilter
-	 * @return
+	 *            null or empty: all the adapters, "xxx.*" or "xxx*": the adapters
+	 *            of the subtree "xxx", otherwise: the adapter named "xxx"
+	 * @param aVisitor
+	 * @return the number of visited adapters
 	 */
-	private boolean filterLogger(final Logger aLogger, final String aFilter) {
-		return filterLoggerName(aLogger.getName(), aFilter);
-	}
+	private int applyToAdapters(final String aFilter, final Consumer<COcilLoggerAdapter> aVisitor) {
 
-	private boolean filterLoggerName(final String aLoggerName, final String aFilter) {
+		final int[] wNb = { 0 };
+		final Consumer<CLoggerNode> wNodeVisitor = wNode -> {
+			if (wNode.pAdapter != null) {
+				aVisitor.accept(wNode.pAdapter);
+				wNb[0]++;
+			}
+		};
 		if (aFilter == null || aFilter.isEmpty()) {
-			return true;
-		}
-		if (aFilter.endsWith("*")) {
-			final String wFilterPrefix = aFilter.substring(0, aFilter.length() - 2);
-			return aLoggerName.startsWith(wFilterPrefix);
+			pLoggerTrie.visitSubtree("", wNodeVisitor);
+		} else if (isPrefixFilter(aFilter)) {
+			pLoggerTrie.visitSubtree(toFilterPrefix(aFilter), wNodeVisitor);
+		} else {
+			final CLoggerNode wNode = pLoggerTrie.get(aFilter);
+			if (wNode != null) {
+				wNodeVisitor.accept(wNode);
+			}
 		}
-		return aLoggerName.equals(aFilter);
+		return wNb[0];
+	}
+
+	/**
+	 * @param aFilter
+	 *            a not null and not empty filter
+	 * @return the node of the trie storing the values of the filter
+	 */
+	private CLoggerNode filterNode(final String aFilter) {
+		final String wKey = isPrefixFilter(aFilter) ? toFilterPrefix(aFilter) : aFilter;
+		return pLoggerTrie.getOrCreate(wKey, () -> new CLoggerNode(wKey));
 	}
 
 	/**
@@ -175,8 +234,9 @@ public class CCpntOcilLoggerFactory implements ILoggerFactory, IOcilManager {
 	 * @return
 	 */
 	private String formatOneLogger(final COcilLoggerAdapter aOcilLoggerAdapter) {
-		return String.format("slf4jlogger:[%-70s %s]  slf4jlevel:[%-5s] > %s", aOcilLoggerAdapter.getName(),
-				aOcilLoggerAdapter.getClass().getSimpleName(), getLevelOfLogger(aOcilLoggerAdapter),
+		return String.format("slf4jlogger:[%-70s %s]  slf4jlevel:[%-5s] location:[%-11s] > %s",
+				aOcilLoggerAdapter.getName(), aOcilLoggerAdapter.getClass().getSimpleName(),
+				getLevelOfLogger(aOcilLoggerAdapter), aOcilLoggerAdapter.getCallerLocationMode(),
 				CXJulUtils.toString(aOcilLoggerAdapter.getJulLogger()));
 	}
 
@@ -221,32 +281,60 @@ public class CCpntOcilLoggerFactory implements ILoggerFactory, IOcilManager {
 		COcilLoggerAdapter wSlf4jLogger = pOcilLoggerMap.get(name);
 		if (wSlf4jLogger != null) {
 			return wSlf4jLogger;
-		} else {
-			final java.util.logging.Logger wJulLogger = java.util.logging.Logger.getLogger(name);
+		}
 
-			// if the filter is already defined and assign by a switch we assign
-			// the correct parent julLogger
-			Optional<String> wOptKey = pMapFilterParentLogger.keySet().stream().filter(wKey -> {
-				return filterLoggerName(wLogName, wKey);
-			}).findFirst();
+		final java.util.logging.Logger wJulLogger = java.util.logging.Logger.getLogger(name);
+		final String wKey = name;
+		final CLoggerNode[] wMatching = new CLoggerNode[2];
+		synchronized (pLoggerTrie) {
+			// double check: created by another thread while waiting the trie
+			wSlf4jLogger = pOcilLoggerMap.get(name);
+			if (wSlf4jLogger != null) {
+				return wSlf4jLogger;
+			}
 
-			if (wOptKey.isPresent()) {
-				pActivityLogger.logInfo(this, "getLogger", "set parent logger matching filter [%s]", wOptKey.get());
-				wJulLogger.setParent(pMapFilterParentLogger.get(wOptKey.get()));
+			// if filters are already defined and assigned by a switch we assign
+			// the parent julLogger and the mode of the most specific ones: the
+			// filter equal to the name, then the longest prefix filter.
+			final java.util.logging.Logger wParentLogger;
+			final java.util.logging.Logger[] wPrefixParent = { null };
+			final ECallerLocationMode[] wPrefixMode = { null };
+			pLoggerTrie.visitPrefixes(name, wPrefixNode -> {
+				if (wPrefixNode.pPrefixParentLogger != null) {
+					wPrefixParent[0] = wPrefixNode.pPrefixParentLogger;
+					wMatching[0] = wPrefixNode;
+				}
+				if (wPrefixNode.pPrefixCallerLocationMode != null) {
+					wPrefixMode[0] = wPrefixNode.pPrefixCallerLocationMode;
+				}
+			});
+			final CLoggerNode wNode = pLoggerTrie.getOrCreate(wKey, () -> new CLoggerNode(wKey));
+			if (wNode.pExactParentLogger != null) {
+				wParentLogger = wNode.pExactParentLogger;
+				wMatching[1] = wNode;
 			} else {
-				wJulLogger.setParent(pGlobalParentJulLogger);
+				wParentLogger = wPrefixParent[0];
 			}
+			final ECallerLocationMode wMode = (wNode.pExactCallerLocationMode != null) ? wNode.pExactCallerLocationMode : wPrefixMode[0];
 
-			final COcilLoggerAdapter newInstance = new COcilLoggerAdapter(name, wJulLogger);
-			final COcilLoggerAdapter oldInstance = pOcilLoggerMap.putIfAbsent(name, newInstance);
+			wJulLogger.setParent((wParentLogger != null) ? wParentLogger : pGlobalParentJulLogger);
 
-			wSlf4jLogger = (oldInstance == null) ? newInstance : oldInstance;
-
-			pActivityLogger.logInfo(this, "getLogger", "Create %s %s", formatOneLogger(wSlf4jLogger),
-					CXJulUtils.toString(wSlf4jLogger.getJulLogger()));
+			wSlf4jLogger = new COcilLoggerAdapter(name, wJulLogger);
+			wSlf4jLogger.setCallerLocationMode((wMode != null) ? wMode : pDefaultCallerLocationMode);
+			wNode.pAdapter = wSlf4jLogger;
+			// all the adapters are created holding the monitor of the trie
+			pOcilLoggerMap.put(name, wSlf4jLogger);
+		}
 
-			return wSlf4jLogger;
+		if (wMatching[1] != null) {
+			pActivityLogger.logInfo(this, "getLogger", "set parent logger matching filter [%s]", wLogName);
+		} else if (wMatching[0] != null) {
+			pActivityLogger.logInfo(this, "getLogger", "set parent logger matching filter [%s.*]",
+					wMatching[0].pName);
 		}
+		pActivityLogger.logInfo(this, "getLogger", "Create %s %s", formatOneLogger(wSlf4jLogger),
+				CXJulUtils.toString(wSlf4jLogger.getJulLogger()));
+		return wSlf4jLogger;
 	}
 
 	/*
@@ -269,6 +357,14 @@ public class CCpntOcilLoggerFactory implements ILoggerFactory, IOcilManager {
 		return pGlobalParentJulLogger;
 	}
 
+	/**
+	 * @param aFilter
+	 * @return true if the last char of the filter is a star
+	 */
+	private boolean isPrefixFilter(final String aFilter) {
+		return aFilter.endsWith("*");
+	}
+
 	@Invalidate
 	void invalidate() {
 		pActivityLogger.logInfo(this, "invalidate", "invalidating...");
@@ -281,6 +377,36 @@ public class CCpntOcilLoggerFactory implements ILoggerFactory, IOcilManager {
 		pActivityLogger.logInfo(this, "invalidate", "invalidated");
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.cohorte.isolates.slf4j_ocil.IOcilManager#setCallerLocationMode(org.
+	 * cohorte.isolates.slf4j_ocil.ECallerLocationMode, java.lang.String)
+	 */
+	@Override
+	public int setCallerLocationMode(final ECallerLocationMode aMode, final String aLoggerNameFilter) {
+
+		final int wNbSet;
+		synchronized (pLoggerTrie) {
+			if (aLoggerNameFilter == null || aLoggerNameFilter.isEmpty()) {
+				pDefaultCallerLocationMode = aMode;
+				pLoggerTrie.visitSubtree("", wNode -> {
+					wNode.pExactCallerLocationMode = null;
+					wNode.pPrefixCallerLocationMode = null;
+				});
+			} else if (isPrefixFilter(aLoggerNameFilter)) {
+				filterNode(aLoggerNameFilter).pPrefixCallerLocationMode = aMode;
+			} else {
+				filterNode(aLoggerNameFilter).pExactCallerLocationMode = aMode;
+			}
+			wNbSet = applyToAdapters(aLoggerNameFilter, wAdapter -> wAdapter.setCallerLocationMode(aMode));
+		}
+		pActivityLogger.logInfo(this, "setCallerLocationMode", "Mode=[%s] Filter=[%s] NbSet=[%d]", aMode,
+				aLoggerNameFilter, wNbSet);
+		return wNbSet;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -302,19 +428,9 @@ public class CCpntOcilLoggerFactory implements ILoggerFactory, IOcilManager {
 	@Override
 	public int setLevel(final java.util.logging.Level aJulLevel, final String aLoggerNameFilter) {
 
-		int wNbSet = 0;
-
-		for (final Entry<String, COcilLoggerAdapter> wEntry : pOcilLoggerMap.entrySet()) {
-
-			if (filterLogger(wEntry.getValue(), aLoggerNameFilter)) {
-				final COcilLoggerAdapter wOcilLogger = wEntry.getValue();
-
-				wOcilLogger.setLevel(aJulLevel);
-				wNbSet++;
-			}
+		synchronized (pLoggerTrie) {
+			return applyToAdapters(aLoggerNameFilter, wAdapter -> wAdapter.setLevel(aJulLevel));
 		}
-		return wNbSet;
-
 	}
 
 	/*
@@ -360,20 +476,30 @@ public class CCpntOcilLoggerFactory implements ILoggerFactory, IOcilManager {
 	@Override
 	public int switchParentJulLogger(final java.util.logging.Logger aParentJulLogger, final String aLoggerNameFilter) {
 
-		int wNbSwitch = 0;
-		if (aLoggerNameFilter != null) {
-			pMapFilterParentLogger.put(aLoggerNameFilter, aParentJulLogger);
-		}
-		for (final Entry<String, COcilLoggerAdapter> wEntry : pOcilLoggerMap.entrySet()) {
-			if (filterLogger(wEntry.getValue(), aLoggerNameFilter)) {
-				final COcilLoggerAdapter wOcilLogger = wEntry.getValue();
+		synchronized (pLoggerTrie) {
+			if (aLoggerNameFilter != null && !aLoggerNameFilter.isEmpty()) {
+				if (isPrefixFilter(aLoggerNameFilter)) {
+					filterNode(aLoggerNameFilter).pPrefixParentLogger = aParentJulLogger;
+				} else {
+					filterNode(aLoggerNameFilter).pExactParentLogger = aParentJulLogger;
+				}
+			}
+			return applyToAdapters(aLoggerNameFilter, wOcilLogger -> {
 				pActivityLogger.logInfo(this, "switchParentJulLogger", "OcilLogger:[%-65s] set to:[%-60s]",
 						wOcilLogger.getName(), aParentJulLogger.getName());
 				wOcilLogger.setParentJulLogger(aParentJulLogger);
-				wNbSwitch++;
-			}
+			});
 		}
-		return wNbSwitch;
+	}
+
+	/**
+	 * @param aFilter
+	 *            a prefix filter: "xxx.*" or "xxx*"
+	 * @return the prefix "xxx"
+	 */
+	private String toFilterPrefix(final String aFilter) {
+		final String wPrefix = aFilter.substring(0, aFilter.length() - 1);
+		return wPrefix.endsWith(".") ? wPrefix.substring(0, wPrefix.length() - 1) : wPrefix;
 	}
 
 	@Validate
@@ -381,6 +507,16 @@ public class CCpntOcilLoggerFactory implements ILoggerFactory, IOcilManager {
 		pActivityLogger.logInfo(this, "validate", "validating...");
 		try {
 
+			// set the default caller location mode
+			final BundleContext wContext = Activator.getContext();
+			final String wModeName = (wContext != null) ? wContext.getProperty(PROP_CALLER_LOCATION_MODE) : null;
+			final ECallerLocationMode wMode = ECallerLocationMode.fromName(wModeName);
+			if (wMode != null) {
+				setCallerLocationMode(wMode, NO_LOGGER_NAME_FILTER);
+			}
+			pActivityLogger.logInfo(this, "validate", "Default caller location mode=[%s] StackWalker=[%b]",
+					pDefaultCallerLocationMode, CCallerLocator.isStackWalkerAvailable());
+
 			// set the current parent Jul Logger
 			setParentJulLogger(pActivityLogger.getJulLogger());
 			pActivityLogger.logInfo(this, "validate", "Current parent jul logger=[%s]", getParentJulLogger().getName());
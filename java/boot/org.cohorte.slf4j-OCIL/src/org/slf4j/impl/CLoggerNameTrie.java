@@ -0,0 +1,281 @@
+package org.slf4j.impl;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A radix tree (compressed prefix trie) over logger names.
+ *
+ * Each node stores an optional value associated to the name formed by the
+ * labels from the root to the node. The children of a node are sorted by the
+ * first char of their label, so a pre-order visit returns the values in the
+ * lexicographic order of their names.
+ *
+ * The lookups are in O(name length). This class isn't thread safe: the
+ * factory guards it with its own monitor.
+ *
+ * @author ogattaz
+ *
+ * @param <T>
+ *            the type of the values
+ */
+class CLoggerNameTrie<T> {
+
+	/**
+	 * @param <T>
+	 */
+	private static class CNode<T> {
+
+		/** the children of the leaves, shared */
+		private static final CNode<?>[] NO_CHILDREN = new CNode<?>[0];
+
+		/**
+		 * @return the empty children array, typed
+		 */
+		@SuppressWarnings("unchecked")
+		private static <T> CNode<T>[] noChildren() {
+			return (CNode<T>[]) NO_CHILDREN;
+		}
+
+		private CNode<T>[] pChildren = noChildren();
+
+		private String pLabel;
+
+		private T pValue;
+
+		/**
+		 * @param aLabel
+		 */
+		CNode(final String aLabel) {
+			pLabel = aLabel;
+		}
+
+		/**
+		 * @param aChild
+		 */
+		void addChild(final CNode<T> aChild) {
+
+			final int wIdx = -(indexOfChild(aChild.pLabel.charAt(0)) + 1);
+			final CNode<T>[] wChildren = Arrays.copyOf(pChildren,
+					pChildren.length + 1);
+			System.arraycopy(wChildren, wIdx, wChildren, wIdx + 1,
+					pChildren.length - wIdx);
+			wChildren[wIdx] = aChild;
+			pChildren = wChildren;
+		}
+
+		/**
+		 * @param aChar
+		 * @return the child whose label starts with the char or null
+		 */
+		CNode<T> getChild(final char aChar) {
+			final int wIdx = indexOfChild(aChar);
+			return (wIdx >= 0) ? pChildren[wIdx] : null;
+		}
+
+		/**
+		 * binary search on the first char of the labels of the children
+		 *
+		 * @param aChar
+		 * @return the index of the child or (-(insertion point) - 1)
+		 */
+		int indexOfChild(final char aChar) {
+
+			int wLow = 0;
+			int wHigh = pChildren.length - 1;
+			while (wLow <= wHigh) {
+				final int wMid = (wLow + wHigh) >>> 1;
+				final char wMidChar = pChildren[wMid].pLabel.charAt(0);
+				if (wMidChar < aChar) {
+					wLow = wMid + 1;
+				} else if (wMidChar > aChar) {
+					wHigh = wMid - 1;
+				} else {
+					return wMid;
+				}
+			}
+			return -(wLow + 1);
+		}
+
+		/**
+		 * @param aIdx
+		 * @param aChild
+		 */
+		void setChild(final int aIdx, final CNode<T> aChild) {
+			pChildren[aIdx] = aChild;
+		}
+	}
+
+	private final CNode<T> pRoot = new CNode<T>("");
+
+	private int pSize = 0;
+
+	/**
+	 * @param aName
+	 * @return the node of the name or null
+	 */
+	private CNode<T> findNode(final String aName) {
+
+		CNode<T> wNode = pRoot;
+		int wPos = 0;
+		while (wPos < aName.length()) {
+			final CNode<T> wChild = wNode.getChild(aName.charAt(wPos));
+			if (wChild == null || !aName.startsWith(wChild.pLabel, wPos)) {
+				return null;
+			}
+			wPos += wChild.pLabel.length();
+			wNode = wChild;
+		}
+		return wNode;
+	}
+
+	/**
+	 * @param aName
+	 * @return the value associated to the name or null
+	 */
+	T get(final String aName) {
+
+		final CNode<T> wNode = findNode(aName);
+		return (wNode != null) ? wNode.pValue : null;
+	}
+
+	/**
+	 * @param aName
+	 * @param aSupplier
+	 *            called if there is no value associated to the name
+	 * @return the value associated to the name
+	 */
+	T getOrCreate(final String aName, final Supplier<T> aSupplier) {
+
+		final CNode<T> wNode = getOrCreateNode(aName);
+		if (wNode.pValue == null) {
+			wNode.pValue = aSupplier.get();
+			pSize++;
+		}
+		return wNode.pValue;
+	}
+
+	/**
+	 * @param aName
+	 * @return the node of the name, created if necessary
+	 */
+	private CNode<T> getOrCreateNode(final String aName) {
+
+		CNode<T> wNode = pRoot;
+		int wPos = 0;
+		while (wPos < aName.length()) {
+			final int wIdx = wNode.indexOfChild(aName.charAt(wPos));
+			if (wIdx < 0) {
+				final CNode<T> wLeaf = new CNode<T>(aName.substring(wPos));
+				wNode.addChild(wLeaf);
+				return wLeaf;
+			}
+			final CNode<T> wChild = wNode.pChildren[wIdx];
+			final String wLabel = wChild.pLabel;
+
+			// length of the common part of the label and of the rest of name
+			int wCommon = 1;
+			final int wMax = Math.min(wLabel.length(), aName.length() - wPos);
+			while (wCommon < wMax
+					&& wLabel.charAt(wCommon) == aName.charAt(wPos + wCommon)) {
+				wCommon++;
+			}
+
+			if (wCommon < wLabel.length()) {
+				// split the child: "abcd" => "ab" + "cd"
+				final CNode<T> wSplit = new CNode<T>(wLabel.substring(0,
+						wCommon));
+				wChild.pLabel = wLabel.substring(wCommon);
+				wSplit.addChild(wChild);
+				wNode.setChild(wIdx, wSplit);
+				wNode = wSplit;
+			} else {
+				wNode = wChild;
+			}
+			wPos += wCommon;
+		}
+		return wNode;
+	}
+
+	/**
+	 * @return the number of values stored in the trie
+	 */
+	int size() {
+		return pSize;
+	}
+
+	/**
+	 * @param aNode
+	 * @param aVisitor
+	 */
+	private void visitNode(final CNode<T> aNode, final Consumer<T> aVisitor) {
+
+		if (aNode.pValue != null) {
+			aVisitor.accept(aNode.pValue);
+		}
+		for (final CNode<T> wChild : aNode.pChildren) {
+			visitNode(wChild, aVisitor);
+		}
+	}
+
+	/**
+	 * Visits the values associated to the prefixes of the name, from the
+	 * shortest one to the name itself.
+	 *
+	 * @param aName
+	 * @param aVisitor
+	 */
+	void visitPrefixes(final String aName, final Consumer<T> aVisitor) {
+
+		CNode<T> wNode = pRoot;
+		int wPos = 0;
+		while (true) {
+			if (wNode.pValue != null) {
+				aVisitor.accept(wNode.pValue);
+			}
+			if (wPos >= aName.length()) {
+				return;
+			}
+			final CNode<T> wChild = wNode.getChild(aName.charAt(wPos));
+			if (wChild == null || !aName.startsWith(wChild.pLabel, wPos)) {
+				return;
+			}
+			wPos += wChild.pLabel.length();
+			wNode = wChild;
+		}
+	}
+
+	/**
+	 * Visits, in lexicographic order, the values associated to the names
+	 * starting with the prefix.
+	 *
+	 * @param aPrefix
+	 * @param aVisitor
+	 */
+	void visitSubtree(final String aPrefix, final Consumer<T> aVisitor) {
+
+		CNode<T> wNode = pRoot;
+		int wPos = 0;
+		while (wPos < aPrefix.length()) {
+			final CNode<T> wChild = wNode.getChild(aPrefix.charAt(wPos));
+			if (wChild == null) {
+				return;
+			}
+			final int wRest = aPrefix.length() - wPos;
+			if (wRest <= wChild.pLabel.length()) {
+				// the prefix ends inside the label of the child
+				if (wChild.pLabel.startsWith(aPrefix.substring(wPos))) {
+					visitNode(wChild, aVisitor);
+				}
+				return;
+			}
+			if (!aPrefix.startsWith(wChild.pLabel, wPos)) {
+				return;
+			}
+			wPos += wChild.pLabel.length();
+			wNode = wChild;
+		}
+		visitNode(wNode, aVisitor);
+	}
+}
@@ -27,6 +27,7 @@ package org.slf4j.impl;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 
+import org.cohorte.isolates.slf4j_ocil.ECallerLocationMode;
 import org.cohorte.isolates.slf4j_ocil.IOcilLoggerAdapter;
 import org.slf4j.Logger;
 import org.slf4j.Marker;
@@ -55,6 +56,9 @@ public final class COcilLoggerAdapter extends MarkerIgnoringBase implements
 
 	static String SUPER = MarkerIgnoringBase.class.getName();
 
+	/** the way the caller class and method are found (STACKWALKER by default) */
+	private volatile ECallerLocationMode pCallerLocationMode = ECallerLocationMode.STACKWALKER;
+
 	private final transient java.util.logging.Logger pJulLogger;
 
 	// WARN: JDK14LoggerAdapter constructor should have only package access so
@@ -289,39 +293,11 @@ public final class COcilLoggerAdapter extends MarkerIgnoringBase implements
 	}
 
 	/**
-	 * Fill in caller data if possible.
-	 *
-	 * @param record
-	 *            The record to update
+	 * @return the way this adapter finds the class and the method which
+	 *         called it
 	 */
-	final private void fillCallerData(String callerFQCN, LogRecord record) {
-		final StackTraceElement[] steArray = new Throwable().getStackTrace();
-
-		int selfIndex = -1;
-		for (int i = 0; i < steArray.length; i++) {
-			final String className = steArray[i].getClassName();
-			if (className.equals(callerFQCN) || className.equals(SUPER)) {
-				selfIndex = i;
-				break;
-			}
-		}
-
-		int found = -1;
-		for (int i = selfIndex + 1; i < steArray.length; i++) {
-			final String className = steArray[i].getClassName();
-			if (!(className.equals(callerFQCN) || className.equals(SUPER))) {
-				found = i;
-				break;
-			}
-		}
-
-		if (found != -1) {
-			final StackTraceElement ste = steArray[found];
-			// setting the class name has the side effect of setting
-			// the needToInferCaller variable to false.
-			record.setSourceClassName(ste.getClassName());
-			record.setSourceMethodName(ste.getMethodName());
-		}
+	public ECallerLocationMode getCallerLocationMode() {
+		return pCallerLocationMode;
 	}
 
 	public java.util.logging.Logger getJulLogger() {
@@ -522,10 +498,21 @@ public final class COcilLoggerAdapter extends MarkerIgnoringBase implements
 		record.setThrown(t);
 		// Note: parameters in record are not set because SLF4J only
 		// supports a single formatting style
-		fillCallerData(callerFQCN, record);
+		CCallerLocator.fillCallerData(pCallerLocationMode, callerFQCN,
+				getName(), record);
 		pJulLogger.log(record);
 	}
 
+	/**
+	 * @param aMode
+	 *            the way this adapter finds the class and the method which
+	 *            called it. NONE turns the location capture off.
+	 */
+	public void setCallerLocationMode(final ECallerLocationMode aMode) {
+		pCallerLocationMode = (aMode != null) ? aMode
+				: ECallerLocationMode.STACKWALKER;
+	}
+
 	/**
 	 * @param aJulLevel
 	 */
@@ -16,8 +16,22 @@
 
 package org.psem2m.isolates.base.admin;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
 
 import org.apache.felix.ipojo.ComponentInstance;
 import org.apache.felix.ipojo.Factory;
@@ -35,8 +49,13 @@ import org.cohorte.herald.MessageReceived;
 //import org.cohorte.herald.http.IHttpServiceAvailabilityChecker;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
 import org.psem2m.isolates.base.IIsolateLoggerAdmin;
 import org.psem2m.isolates.base.IIsolateLoggerSvc;
+import org.psem2m.isolates.services.monitoring.IServiceRegistryIndex;
+import org.psem2m.isolates.services.monitoring.IThreadsActivityMonitor;
 import org.psem2m.utilities.files.CXFile;
 import org.psem2m.utilities.files.CXFileText;
 import org.psem2m.utilities.json.JSONArray;
@@ -54,6 +73,33 @@ import org.psem2m.utilities.json.JSONObject;
 @Instantiate(name = "cohorte-isolate-base-admin-agent-java")
 public class CAdminAgent implements IAdminAgent, IMessageListener {
 
+	/** the max number of matches returned by a search in a log */
+	private static final int MAX_LOG_MATCHES = 1000;
+
+	/** the max number of bytes of a page of log */
+	private static final int MAX_LOG_PAGE_BYTES = 256 * 1024;
+
+	/** the max number of lines of a page of log */
+	private static final int MAX_LOG_PAGE_LINES = 5000;
+
+	/** the max number of threads of a top list of the threads activity */
+	private static final int MAX_ACTIVITY_THREADS = 100;
+
+	/** the number of lines of a page of log if not specified */
+	private static final int NB_LOG_PAGE_LINES = 100;
+
+	/** the number of threads of a top list if not specified */
+	private static final int NB_ACTIVITY_THREADS = 10;
+
+	/** the duration of a profiling if not specified */
+	private static final long PROFILE_DURATION_MS = 5000;
+
+	/** the interval between two samples of a profiling if not specified */
+	private static final long PROFILE_INTERVAL_MS = 10;
+
+	/** the max depth of the sampled stacks if not specified */
+	private static final int PROFILE_MAX_DEPTH = 128;
+
 	/** List of available Architecture service. */
 	@Requires(optional = true, specification = Architecture.class)
 	private List<Architecture> pArchs;
@@ -81,6 +127,23 @@ public class CAdminAgent implements IAdminAgent, IMessageListener {
 	@Requires
 	private IIsolateLoggerAdmin pLoggerAdmin;
 
+	/** the line indexes of the log files, by path */
+	private final ConcurrentMap<String, CLogFileIndex> pLogIndexes = new ConcurrentHashMap<String, CLogFileIndex>();
+
+	/** the thread running the profilings, out of the herald threads */
+	private ExecutorService pProfiler;
+
+	/** true while a profiling of the threads is running */
+	private final AtomicBoolean pProfiling = new AtomicBoolean();
+
+	/** the index of the service registry, if any */
+	@Requires(optional = true, nullable = false)
+	private IServiceRegistryIndex pServicesIndex;
+
+	/** the threads activity monitor of the slave agent, if any */
+	@Requires(optional = true, nullable = false)
+	private IThreadsActivityMonitor pThreadsActivity;
+
 	/** HttpService Availability Checker service */
 	// @Requires
 	// private IHttpServiceAvailabilityChecker pHttpServiceAvailabilityChecker;
@@ -89,6 +152,38 @@ public class CAdminAgent implements IAdminAgent, IMessageListener {
 		pBundleContext = aBundleContext;
 	}
 
+	/**
+	 * Appends the description of a service: its id, its bundle, its
+	 * specifications and its ranking
+	 *
+	 * @param aServices
+	 * @param aReference
+	 */
+	private void addService(final JSONArray aServices,
+			final ServiceReference<?> aReference) {
+
+		final Bundle wBundle = aReference.getBundle();
+		if (wBundle == null) {
+			// unregistered meanwhile
+			return;
+		}
+
+		final JSONObject wService = new JSONObject();
+		wService.put("id", aReference.getProperty(Constants.SERVICE_ID));
+		wService.put("bundle-id", wBundle.getBundleId());
+		wService.put("bundle-name", wBundle.getSymbolicName());
+		final JSONArray wSpecs = new JSONArray();
+		for (final String wSpec : (String[]) aReference
+				.getProperty(Constants.OBJECTCLASS)) {
+			wSpecs.put(wSpec);
+		}
+		wService.put("specifications", wSpecs);
+		final Object wRanking = aReference
+				.getProperty(Constants.SERVICE_RANKING);
+		wService.put("ranking", (wRanking instanceof Integer) ? wRanking : 0);
+		aServices.put(wService);
+	}
+
 	@Override
 	public String getBundleDetail(final int aBundleNumber) {
 		// TODO Auto-generated method stub
@@ -290,33 +385,42 @@ public class CAdminAgent implements IAdminAgent, IMessageListener {
 		// return wResult.toString();
 	}
 
+	/**
+	 * @param aLogId
+	 *            the name without extension of a file of the isolate logger
+	 * @return the file or null
+	 * @throws JSONException
+	 */
+	private File findLogFile(final String aLogId) throws JSONException {
+
+		final JSONObject wLoggerInfosJson = new JSONObject(
+				pLoggerAdmin.getLoggerInfos("application/json"));
+		final JSONArray wFiles = (JSONArray) wLoggerInfosJson.get("files");
+		for (int i = 0; i < wFiles.length(); i++) {
+			final JSONObject wFileMeta = (JSONObject) wFiles.get(i);
+			final Object wPath = wFileMeta.get("path");
+			if (wPath != null) {
+				final CXFile wFile = new CXFile(wPath.toString());
+				if (aLogId.equalsIgnoreCase(wFile.getNameWithoutExtension())) {
+					return wFile;
+				}
+			}
+		}
+		return null;
+	}
+
 	@Override
 	public String getIsolateLog(final String aLogId) {
 		JSONObject wResult = new JSONObject();
 
-		String wLoggerInfos = pLoggerAdmin.getLoggerInfos("application/json");
-
 		try {
-			JSONObject wLoggerInfosJson = new JSONObject(wLoggerInfos);
-			JSONArray wFiles = (JSONArray) wLoggerInfosJson.get("files");
-			for (int i = 0; i < wFiles.length(); i++) {
-				JSONObject wFileMeta = (JSONObject) wFiles.get(i);
-				Object wLogId = wFileMeta.get("path");
-				JSONObject wFile = new JSONObject();
-				if (wLogId != null) {
-					CXFile file = new CXFile(wLogId.toString());
-					if (file != null) {
-						if (aLogId.equalsIgnoreCase(file
-								.getNameWithoutExtension())) {
-							CXFileText wFileResult = new CXFileText(file);
-							try {
-								wResult.put("content", wFileResult.readAll());
-							} catch (IOException e) {
-								e.printStackTrace();
-							}
-						}
-
-					}
+			final File wFile = findLogFile(aLogId);
+			if (wFile != null) {
+				CXFileText wFileResult = new CXFileText(wFile);
+				try {
+					wResult.put("content", wFileResult.readAll());
+				} catch (IOException e) {
+					e.printStackTrace();
 				}
 			}
 		} catch (JSONException e) {
@@ -326,6 +430,48 @@ public class CAdminAgent implements IAdminAgent, IMessageListener {
 
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.psem2m.isolates.base.admin.IAdminAgent#getIsolateLogPage(java.lang
+	 * .String, int, int)
+	 */
+	@Override
+	public String getIsolateLogPage(final String aLogId, final int aFromLine,
+			final int aMaxLines) {
+
+		try {
+			final CLogFileIndex wIndex = getLogIndex(aLogId);
+			return toLogResult(aLogId, wIndex, wIndex.readPage(aFromLine,
+					Math.min(aMaxLines, MAX_LOG_PAGE_LINES),
+					MAX_LOG_PAGE_BYTES));
+		} catch (final Exception e) {
+			return toLogError(aLogId, "getIsolateLogPage", e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.psem2m.isolates.base.admin.IAdminAgent#getIsolateLogRange(java.lang
+	 * .String, long, int)
+	 */
+	@Override
+	public String getIsolateLogRange(final String aLogId,
+			final long aFromByte, final int aMaxBytes) {
+
+		try {
+			final CLogFileIndex wIndex = getLogIndex(aLogId);
+			return toLogResult(aLogId, wIndex, wIndex.readPage(
+					wIndex.getLineAt(aFromByte), MAX_LOG_PAGE_LINES,
+					Math.min(aMaxBytes, MAX_LOG_PAGE_BYTES)));
+		} catch (final Exception e) {
+			return toLogError(aLogId, "getIsolateLogRange", e);
+		}
+	}
+
 	@Override
 	public String getIsolateLogs() {
 		JSONObject wResult = new JSONObject();
@@ -361,20 +507,161 @@ public class CAdminAgent implements IAdminAgent, IMessageListener {
 		return wResult.toString();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.psem2m.isolates.base.admin.IAdminAgent#getIsolateLogTail(java.lang
+	 * .String, int)
+	 */
+	@Override
+	public String getIsolateLogTail(final String aLogId, final int aNbLines) {
+
+		try {
+			final CLogFileIndex wIndex = getLogIndex(aLogId);
+			return toLogResult(aLogId, wIndex, wIndex.readTail(
+					Math.min(aNbLines, MAX_LOG_PAGE_LINES), MAX_LOG_PAGE_BYTES));
+		} catch (final Exception e) {
+			return toLogError(aLogId, "getIsolateLogTail", e);
+		}
+	}
+
+	/**
+	 * @param aLogId
+	 * @return the line index of the log file, built or refreshed if the file
+	 *         changed since the last request
+	 * @throws IOException
+	 *             if the log doesn't exist or can't be read
+	 */
+	private CLogFileIndex getLogIndex(final String aLogId) throws IOException {
+
+		final File wFile = findLogFile(aLogId);
+		if (wFile == null) {
+			throw new IOException(String.format("Unknown log [%s]", aLogId));
+		}
+		final String wPath = wFile.getAbsolutePath();
+		final CLogFileIndex wIndex = pLogIndexes.get(wPath);
+		final CLogFileIndex wCurrentIndex = (wIndex != null) ? wIndex
+				.refresh() : CLogFileIndex.of(wFile);
+		if (wCurrentIndex != wIndex) {
+			pLogIndexes.put(wPath, wCurrentIndex);
+		}
+		return wCurrentIndex;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.psem2m.isolates.base.admin.IAdminAgent#getServices()
+	 */
 	@Override
 	public String getServices() {
-		// TODO Auto-generated method stub
-		JSONObject wResult = new JSONObject();
+
+		final JSONArray wResult = new JSONArray();
+		final IServiceRegistryIndex wIndex = pServicesIndex;
+		if (wIndex != null) {
+			for (final ServiceReference<?> wReference : wIndex.getReferences()) {
+				addService(wResult, wReference);
+			}
+
+		} else {
+			// no index: query the registry
+			try {
+				final ServiceReference<?>[] wReferences = pBundleContext
+						.getAllServiceReferences(null, null);
+				if (wReferences != null) {
+					for (final ServiceReference<?> wReference : wReferences) {
+						addService(wResult, wReference);
+					}
+				}
+			} catch (final InvalidSyntaxException e) {
+				// can't happen without filter
+				pLogger.logSevere(this, "getServices", "ERROR: %s", e);
+			}
+		}
 		return wResult.toString();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.psem2m.isolates.base.admin.IAdminAgent#getThreads()
+	 */
 	@Override
 	public String getThreads() {
-		// TODO Auto-generated method stub
-		JSONObject wResult = new JSONObject();
+
+		final ThreadMXBean wThreadMXBean = ManagementFactory.getThreadMXBean();
+		final boolean wCpuTime = wThreadMXBean.isThreadCpuTimeSupported()
+				&& wThreadMXBean.isThreadCpuTimeEnabled();
+
+		final JSONArray wResult = new JSONArray();
+		for (final ThreadInfo wInfo : wThreadMXBean.dumpAllThreads(false,
+				false)) {
+			final JSONObject wThread = new JSONObject();
+			wThread.put("id", wInfo.getThreadId());
+			wThread.put("name", wInfo.getThreadName());
+			wThread.put("state", wInfo.getThreadState().name());
+			wThread.put("cpu-time-ms", wCpuTime ? wThreadMXBean
+					.getThreadCpuTime(wInfo.getThreadId()) / 1000000L : -1);
+			wThread.put("blocked-count", wInfo.getBlockedCount());
+			wThread.put("waited-count", wInfo.getWaitedCount());
+			if (wInfo.getLockName() != null) {
+				wThread.put("lock", wInfo.getLockName());
+				wThread.put("lock-owner-id", wInfo.getLockOwnerId());
+			}
+			final JSONArray wStack = new JSONArray();
+			for (final StackTraceElement wElement : wInfo.getStackTrace()) {
+				wStack.put(wElement.toString());
+			}
+			wThread.put("stack", wStack);
+			wResult.put(wThread);
+		}
 		return wResult.toString();
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.psem2m.isolates.base.admin.IAdminAgent#getThreadsActivity(int)
+	 */
+	@Override
+	public String getThreadsActivity(final int aMaxThreads) {
+
+		final IThreadsActivityMonitor wMonitor = pThreadsActivity;
+		if (wMonitor == null) {
+			final JSONObject wResult = new JSONObject();
+			wResult.put("error", "No threads activity monitor");
+			return wResult.toString();
+		}
+		return toJson(
+				wMonitor.getActivityReport(Math.min(aMaxThreads,
+						MAX_ACTIVITY_THREADS))).toString();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.psem2m.isolates.base.admin.IAdminAgent#grepIsolateLog(java.lang.String
+	 * , java.lang.String, boolean, int, int)
+	 */
+	@Override
+	public String grepIsolateLog(final String aLogId, final String aRegex,
+			final boolean aIgnoreCase, final int aFromLine,
+			final int aMaxMatches) {
+
+		try {
+			final Pattern wPattern = Pattern.compile(aRegex,
+					aIgnoreCase ? Pattern.CASE_INSENSITIVE : 0);
+			final CLogFileIndex wIndex = getLogIndex(aLogId);
+			return toLogResult(aLogId, wIndex, wIndex.searchLines(wPattern,
+					aFromLine, Math.min(aMaxMatches, MAX_LOG_MATCHES)));
+		} catch (final Exception e) {
+			return toLogError(aLogId, "grepIsolateLog", e);
+		}
+	}
+
 	@Override
 	public void heraldMessage(final IHerald aHerald,
 			final MessageReceived aMessage) throws HeraldException {
@@ -404,11 +691,45 @@ public class CAdminAgent implements IAdminAgent, IMessageListener {
 			wReply = getServices();
 		} else if (wMessageSubject.equalsIgnoreCase(SUBJECT_GET_THREADS)) {
 			wReply = getThreads();
+		} else if (wMessageSubject.equalsIgnoreCase(SUBJECT_PROFILE_THREADS)) {
+			// replied by the profiler thread once the profiling is done
+			profileThreadsAsync(aHerald, aMessage,
+					toJsonContent(aMessage.getContent()));
+			return;
+		} else if (wMessageSubject
+				.equalsIgnoreCase(SUBJECT_GET_THREADS_ACTIVITY)) {
+			final JSONObject wRequest = toJsonContent(aMessage.getContent());
+			wReply = getThreadsActivity(wRequest.optInt("max-threads",
+					NB_ACTIVITY_THREADS));
 		} else if (wMessageSubject.equalsIgnoreCase(SUBJECT_GET_ISOLATE_LOGS)) {
 			wReply = getIsolateLogs();
 		} else if (wMessageSubject.equalsIgnoreCase(SUBJECT_GET_ISOLATE_LOG)) {
 			Object wLogId = aMessage.getContent();
 			wReply = getIsolateLog(wLogId.toString());
+		} else if (wMessageSubject
+				.equalsIgnoreCase(SUBJECT_GET_ISOLATE_LOG_PAGE)) {
+			final JSONObject wRequest = toJsonContent(aMessage.getContent());
+			if (wRequest.has("from-byte")) {
+				wReply = getIsolateLogRange(wRequest.optString("log-id"),
+						wRequest.optLong("from-byte", 0),
+						wRequest.optInt("max-bytes", MAX_LOG_PAGE_BYTES));
+			} else {
+				wReply = getIsolateLogPage(wRequest.optString("log-id"),
+						wRequest.optInt("from-line", 0),
+						wRequest.optInt("max-lines", NB_LOG_PAGE_LINES));
+			}
+		} else if (wMessageSubject
+				.equalsIgnoreCase(SUBJECT_GET_ISOLATE_LOG_TAIL)) {
+			final JSONObject wRequest = toJsonContent(aMessage.getContent());
+			wReply = getIsolateLogTail(wRequest.optString("log-id"),
+					wRequest.optInt("lines", NB_LOG_PAGE_LINES));
+		} else if (wMessageSubject.equalsIgnoreCase(SUBJECT_GREP_ISOLATE_LOG)) {
+			final JSONObject wRequest = toJsonContent(aMessage.getContent());
+			wReply = grepIsolateLog(wRequest.optString("log-id"),
+					wRequest.optString("pattern", ""),
+					wRequest.optBoolean("ignore-case", false),
+					wRequest.optInt("from-line", 0),
+					wRequest.optInt("max-matches", NB_LOG_PAGE_LINES));
 		} else if (wMessageSubject
 				.equalsIgnoreCase(SUBJECT_GET_ISOLATE_DIRECTORY)) {
 			wReply = getIsolateDirectory();
@@ -436,6 +757,106 @@ public class CAdminAgent implements IAdminAgent, IMessageListener {
 		if (pHerald != null) {
 			pHerald.removeMessageListener(this);
 		}
+		// interrupts the running profiling, which replies an error
+		pProfiler.shutdownNow();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.psem2m.isolates.base.admin.IAdminAgent#profileThreads(long,
+	 * long, int, boolean, boolean, java.lang.String)
+	 */
+	@Override
+	public String profileThreads(final long aDurationMs,
+			final long aIntervalMs, final int aMaxDepth,
+			final boolean aRunnableOnly, final boolean aPerThread,
+			final String aThreadFilter) {
+
+		final JSONObject wResult = new JSONObject();
+		if (!pProfiling.compareAndSet(false, true)) {
+			wResult.put("error", "A profiling is already running");
+			return wResult.toString();
+		}
+		try {
+			final Pattern wFilter = (aThreadFilter == null || aThreadFilter
+					.isEmpty()) ? null : Pattern.compile(aThreadFilter);
+			final CStackSampler wSampler = new CStackSampler(
+					ManagementFactory.getThreadMXBean(), aMaxDepth,
+					aRunnableOnly, aPerThread, wFilter);
+
+			pLogger.logInfo(this, "profileThreads",
+					"Profiling the threads during %d ms, every %d ms",
+					aDurationMs, aIntervalMs);
+			return wSampler.run(aDurationMs, aIntervalMs).toString();
+
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			wResult.put("error", "Profiling interrupted");
+			return wResult.toString();
+		} catch (final Exception e) {
+			pLogger.logSevere(this, "profileThreads", "Error! %s",
+					e.getMessage());
+			wResult.put("error", String.valueOf(e.getMessage()));
+			return wResult.toString();
+		} finally {
+			pProfiling.set(false);
+		}
+	}
+
+	/**
+	 * Runs a profiling requested by a herald message on the profiler thread,
+	 * and replies its result once done: the herald thread isn't blocked
+	 * during the profiling.
+	 *
+	 * @param aHerald
+	 * @param aMessage
+	 *            the request
+	 * @param aRequest
+	 *            the options of the profiling
+	 * @throws HeraldException
+	 */
+	private void profileThreadsAsync(final IHerald aHerald,
+			final MessageReceived aMessage, final JSONObject aRequest)
+			throws HeraldException {
+
+		if (pProfiling.get()) {
+			// don't queue a request behind the running profiling
+			final JSONObject wResult = new JSONObject();
+			wResult.put("error", "A profiling is already running");
+			aHerald.reply(aMessage, wResult.toString());
+			return;
+		}
+
+		final ExecutorService wProfiler = pProfiler;
+		try {
+			wProfiler.execute(new Runnable() {
+				@Override
+				public void run() {
+					final String wReply = profileThreads(
+							aRequest.optLong("duration-ms",
+									PROFILE_DURATION_MS),
+							aRequest.optLong("interval-ms",
+									PROFILE_INTERVAL_MS),
+							aRequest.optInt("max-depth", PROFILE_MAX_DEPTH),
+							aRequest.optBoolean("runnable-only", true),
+							aRequest.optBoolean("per-thread", false),
+							aRequest.optString("thread-filter", null));
+					try {
+						aHerald.reply(aMessage, wReply);
+					} catch (final HeraldException e) {
+						pLogger.logSevere(CAdminAgent.this,
+								"profileThreadsAsync",
+								"Unable to reply the profiling: %s", e);
+					}
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			// the agent is being invalidated
+			final JSONObject wResult = new JSONObject();
+			wResult.put("error", "The admin agent is stopping");
+			aHerald.reply(aMessage, wResult.toString());
+		}
 	}
 
 	/*
@@ -454,12 +875,104 @@ public class CAdminAgent implements IAdminAgent, IMessageListener {
 		return wResult.toString();
 	}
 
+	/**
+	 * @param aValue
+	 *            a value made of maps, collections, strings and numbers
+	 * @return the value as json (json object, json array or the value itself)
+	 */
+	private Object toJson(final Object aValue) {
+
+		if (aValue instanceof Map) {
+			final JSONObject wObject = new JSONObject();
+			for (final Map.Entry<?, ?> wEntry : ((Map<?, ?>) aValue)
+					.entrySet()) {
+				wObject.put(String.valueOf(wEntry.getKey()),
+						toJson(wEntry.getValue()));
+			}
+			return wObject;
+		}
+		if (aValue instanceof Collection) {
+			final JSONArray wArray = new JSONArray();
+			for (final Object wItem : (Collection<?>) aValue) {
+				wArray.put(toJson(wItem));
+			}
+			return wArray;
+		}
+		return aValue;
+	}
+
+	/**
+	 * @param aContent
+	 *            the content of a message: a map or a json object as string
+	 * @return the content as a json object
+	 */
+	private JSONObject toJsonContent(final Object aContent) {
+
+		if (aContent instanceof Map) {
+			return new JSONObject((Map<?, ?>) aContent);
+		}
+		if (aContent instanceof JSONObject) {
+			return (JSONObject) aContent;
+		}
+		try {
+			return new JSONObject(String.valueOf(aContent));
+		} catch (final JSONException e) {
+			// a plain log id
+			final JSONObject wRequest = new JSONObject();
+			wRequest.put("log-id", String.valueOf(aContent));
+			return wRequest;
+		}
+	}
+
+	/**
+	 * @param aLogId
+	 * @param aWhat
+	 * @param aError
+	 * @return the reply of a failed log request
+	 */
+	private String toLogError(final String aLogId, final String aWhat,
+			final Exception aError) {
+
+		pLogger.logSevere(this, aWhat, "Error! log=[%s] %s", aLogId,
+				aError.getMessage());
+		final JSONObject wResult = new JSONObject();
+		wResult.put("log-id", aLogId);
+		wResult.put("error", String.valueOf(aError.getMessage()));
+		return wResult.toString();
+	}
+
+	/**
+	 * @param aLogId
+	 * @param aIndex
+	 * @param aResult
+	 *            a page or the result of a search
+	 * @return the reply of a log request
+	 */
+	private String toLogResult(final String aLogId,
+			final CLogFileIndex aIndex, final JSONObject aResult) {
+
+		aResult.put("log-id", aLogId);
+		aResult.put("size", aIndex.getSize());
+		aResult.put("nblines", aIndex.getNbLines());
+		return aResult.toString();
+	}
+
 	/**
 	 * Component validated
 	 */
 	@Validate
 	public void validate() {
 
+		pProfiler = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable aRunnable) {
+				final Thread wThread = new Thread(aRunnable,
+						"cohorte-admin-agent-profiler");
+				wThread.setDaemon(true);
+				return wThread;
+			}
+		});
+
 		// register herald listener
 		String[] wFilters = { SUBJECT_MATCH_ALL };
 		pHerald.addMessageListener(this, wFilters);
@@ -0,0 +1,474 @@
+/**
+ * Copyright 2016 Cohorte Technologies (ex. isandlaTech)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.isolates.base.admin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import org.psem2m.utilities.json.JSONArray;
+import org.psem2m.utilities.json.JSONObject;
+
+/**
+ * The line-offset index of a log file, used to read a page of lines without
+ * reading the whole file.
+ *
+ * The index is built lazily by a scan of the file through a FileChannel and
+ * is valid for a modification time. As the log files are only appended, a
+ * file grown since the index was built is only scanned after the indexed
+ * size. A file replaced by the rotation of the file handler (other file key,
+ * or smaller size) is indexed again.
+ *
+ * The instances are immutable: see {@link #refresh()}.
+ *
+ * @author ogattaz
+ *
+ */
+final class CLogFileIndex {
+
+	/**
+	 * Receives the lines read by {@link CLogFileIndex#scanLines}
+	 */
+	interface ILineVisitor {
+
+		/**
+		 * @param aLineIdx
+		 *            the index of the line in the file
+		 * @param aLine
+		 *            the text of the line without its line feed
+		 * @return false to stop the scan
+		 */
+		boolean visit(int aLineIdx, String aLine);
+	}
+
+	/** the size of the buffer used to scan the file */
+	static final int BUFFER_SIZE = 64 * 1024;
+
+	/** the encoding of the files written by the jul file handlers */
+	private static final Charset CHARSET = Charset.defaultCharset();
+
+	/**
+	 * @param aFile
+	 * @return the file key of the file (its inode on unix systems) or null
+	 */
+	private static Object fileKey(final File aFile) {
+
+		try {
+			return Files.readAttributes(aFile.toPath(),
+					BasicFileAttributes.class).fileKey();
+		} catch (final IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param aFile
+	 * @return a new index of the file
+	 * @throws IOException
+	 */
+	static CLogFileIndex of(final File aFile) throws IOException {
+
+		return new CLogFileIndex(aFile, fileKey(aFile), aFile.lastModified(),
+				new long[1024], 0, 0);
+	}
+
+	private final File pFile;
+
+	private final Object pFileKey;
+
+	private final long pLastModified;
+
+	/**
+	 * the offsets of the beginnings of the lines. The last one is equal to the
+	 * size of the file if it ends with a line feed.
+	 */
+	private final long[] pLineStarts;
+
+	/** the number of valid offsets in pLineStarts */
+	private final int pNbStarts;
+
+	/** the indexed size of the file */
+	private final long pSize;
+
+	/**
+	 * Indexes the file after the given size, keeping the offsets already
+	 * found before it
+	 *
+	 * @param aFile
+	 * @param aFileKey
+	 * @param aLastModified
+	 * @param aLineStarts
+	 *            the offsets found by a previous scan (reused)
+	 * @param aNbStarts
+	 * @param aIndexedSize
+	 *            the size already scanned
+	 * @throws IOException
+	 */
+	private CLogFileIndex(final File aFile, final Object aFileKey,
+			final long aLastModified, final long[] aLineStarts,
+			final int aNbStarts, final long aIndexedSize) throws IOException {
+
+		super();
+		pFile = aFile;
+		pFileKey = aFileKey;
+		pLastModified = aLastModified;
+
+		long[] wStarts = aLineStarts;
+		int wNbStarts = aNbStarts;
+		final FileChannel wChannel = FileChannel.open(aFile.toPath(),
+				StandardOpenOption.READ);
+		try {
+			final long wSize = wChannel.size();
+			if (wNbStarts == 0 && wSize > 0) {
+				wStarts[wNbStarts++] = 0;
+			}
+			final ByteBuffer wBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+			long wPos = aIndexedSize;
+			while (wPos < wSize) {
+				wBuffer.clear();
+				final int wRead = wChannel.read(wBuffer, wPos);
+				if (wRead < 0) {
+					break;
+				}
+				final byte[] wBytes = wBuffer.array();
+				for (int wIdx = 0; wIdx < wRead; wIdx++) {
+					if (wBytes[wIdx] == '\n') {
+						if (wNbStarts == wStarts.length) {
+							wStarts = Arrays.copyOf(wStarts,
+									wStarts.length * 2);
+						}
+						wStarts[wNbStarts++] = wPos + wIdx + 1;
+					}
+				}
+				wPos += wRead;
+			}
+			pSize = wPos;
+		} finally {
+			wChannel.close();
+		}
+		pLineStarts = wStarts;
+		pNbStarts = wNbStarts;
+	}
+
+	/**
+	 * @return the indexed file
+	 */
+	File getFile() {
+		return pFile;
+	}
+
+	/**
+	 * @return the modification time of the file when it was indexed
+	 */
+	long getLastModified() {
+		return pLastModified;
+	}
+
+	/**
+	 * @param aOffset
+	 * @return the index of the first line beginning at or after the offset
+	 */
+	int getLineAt(final long aOffset) {
+
+		final int wIdx = Arrays.binarySearch(pLineStarts, 0, pNbStarts,
+				Math.max(0, aOffset));
+		return Math.min((wIdx >= 0) ? wIdx : -wIdx - 1, getNbLines());
+	}
+
+	/**
+	 * @param aLineIdx
+	 * @return the offset of the beginning of the line (the indexed size after
+	 *         the last line)
+	 */
+	long getLineStart(final int aLineIdx) {
+
+		return (aLineIdx < getNbLines()) ? pLineStarts[aLineIdx] : pSize;
+	}
+
+	/**
+	 * @return the number of lines of the file, including a last line without
+	 *         line feed
+	 */
+	int getNbLines() {
+
+		if (pNbStarts > 0 && pLineStarts[pNbStarts - 1] == pSize) {
+			return pNbStarts - 1;
+		}
+		return pNbStarts;
+	}
+
+	/**
+	 * @return the indexed size of the file
+	 */
+	long getSize() {
+		return pSize;
+	}
+
+	/**
+	 * Reads a page of lines.
+	 *
+	 * <pre>
+	 * {
+	 *   "from-line": 100, "next-line": 150,
+	 *   "from-byte": 8712, "next-byte": 13035,
+	 *   "lines": [ "...", ... ],
+	 *   "truncated": false
+	 * }
+	 * </pre>
+	 *
+	 * "truncated" is true if the only line of the page is longer than the max
+	 * number of bytes.
+	 *
+	 * @param aFirstLine
+	 *            the index of the first line of the page
+	 * @param aMaxLines
+	 *            the max number of lines
+	 * @param aMaxBytes
+	 *            the max number of bytes (at least one line is read)
+	 * @return the page
+	 * @throws IOException
+	 */
+	JSONObject readPage(final int aFirstLine, final int aMaxLines,
+			final int aMaxBytes) throws IOException {
+
+		final int wFirst = Math.max(0, Math.min(aFirstLine, getNbLines()));
+		final long wStart = getLineStart(wFirst);
+
+		// the lines fitting in the max number of bytes
+		int wNext = Math.min(getNbLines(), wFirst + Math.max(0, aMaxLines));
+		while (wNext > wFirst + 1 && getLineStart(wNext) - wStart > aMaxBytes) {
+			wNext--;
+		}
+		long wEnd = getLineStart(wNext);
+		final boolean wTruncated = (wEnd - wStart > aMaxBytes);
+		if (wTruncated) {
+			wEnd = wStart + aMaxBytes;
+		}
+
+		final JSONArray wLines = new JSONArray();
+		scanLines(wFirst, wEnd, new ILineVisitor() {
+			@Override
+			public boolean visit(final int aLineIdx, final String aLine) {
+				wLines.put(aLine);
+				return true;
+			}
+		});
+
+		final JSONObject wPage = new JSONObject();
+		wPage.put("from-line", wFirst);
+		wPage.put("next-line", wNext);
+		wPage.put("from-byte", wStart);
+		wPage.put("next-byte", getLineStart(wNext));
+		wPage.put("lines", wLines);
+		wPage.put("truncated", wTruncated);
+		return wPage;
+	}
+
+	/**
+	 * Reads the last lines of the file, going back from its end while they fit
+	 * in the max number of bytes.
+	 *
+	 * @param aMaxLines
+	 * @param aMaxBytes
+	 * @return the page of the last lines (see readPage)
+	 * @throws IOException
+	 */
+	JSONObject readTail(final int aMaxLines, final int aMaxBytes)
+			throws IOException {
+
+		final int wNbLines = getNbLines();
+		int wFirst = Math.max(0, wNbLines - Math.max(0, aMaxLines));
+		while (wFirst < wNbLines - 1
+				&& pSize - getLineStart(wFirst) > aMaxBytes) {
+			wFirst++;
+		}
+		return readPage(wFirst, wNbLines - wFirst, aMaxBytes);
+	}
+
+	/**
+	 * @return this index if the file didn't change, an index extended to the
+	 *         appended lines or a new index of the replaced file
+	 * @throws IOException
+	 */
+	CLogFileIndex refresh() throws IOException {
+
+		final long wLastModified = pFile.lastModified();
+		final long wLength = pFile.length();
+		if (wLastModified == pLastModified && wLength == pSize) {
+			return this;
+		}
+		final Object wFileKey = fileKey(pFile);
+		final boolean wSameFile = (wFileKey == null || wFileKey
+				.equals(pFileKey));
+		if (wSameFile && wLength >= pSize) {
+			// appended: the offsets already found stay valid
+			return new CLogFileIndex(pFile, wFileKey, wLastModified,
+					Arrays.copyOf(pLineStarts,
+							Math.max(pLineStarts.length, pNbStarts + 1)),
+					pNbStarts, pSize);
+		}
+		return new CLogFileIndex(pFile, wFileKey, wLastModified,
+				new long[pLineStarts.length], 0, 0);
+	}
+
+	/**
+	 * Reads the lines from a line to an offset, through a FileChannel and a
+	 * buffer of BUFFER_SIZE bytes (a longer line is accumulated).
+	 *
+	 * @param aFirstLine
+	 *            the index of the first line to read
+	 * @param aEnd
+	 *            the offset where the scan stops (at most the indexed size)
+	 * @param aVisitor
+	 * @return the index of the line following the last visited one
+	 * @throws IOException
+	 */
+	int scanLines(final int aFirstLine, final long aEnd,
+			final ILineVisitor aVisitor) throws IOException {
+
+		final long wEnd = Math.min(aEnd, pSize);
+		int wLineIdx = Math.max(0, Math.min(aFirstLine, getNbLines()));
+		long wPos = getLineStart(wLineIdx);
+
+		final FileChannel wChannel = FileChannel.open(pFile.toPath(),
+				StandardOpenOption.READ);
+		try {
+			final ByteBuffer wBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+			// the beginning of a line longer than the buffer
+			byte[] wPending = new byte[0];
+			while (wPos < wEnd) {
+				wBuffer.clear();
+				wBuffer.limit((int) Math.min(BUFFER_SIZE, wEnd - wPos));
+				final int wRead = wChannel.read(wBuffer, wPos);
+				if (wRead < 0) {
+					break;
+				}
+				final byte[] wBytes = wBuffer.array();
+				int wLineBegin = 0;
+				for (int wIdx = 0; wIdx < wRead; wIdx++) {
+					if (wBytes[wIdx] != '\n') {
+						continue;
+					}
+					final String wLine = toLine(wPending, wBytes, wLineBegin,
+							wIdx);
+					wPending = new byte[0];
+					wLineBegin = wIdx + 1;
+					if (!aVisitor.visit(wLineIdx++, wLine)) {
+						return wLineIdx;
+					}
+				}
+				if (wLineBegin < wRead) {
+					final int wNbPending = wPending.length;
+					wPending = Arrays.copyOf(wPending, wNbPending + wRead
+							- wLineBegin);
+					System.arraycopy(wBytes, wLineBegin, wPending, wNbPending,
+							wRead - wLineBegin);
+				}
+				wPos += wRead;
+			}
+			// the last line without line feed or cut by the end offset
+			if (wPending.length > 0) {
+				aVisitor.visit(wLineIdx++,
+						toLine(new byte[0], wPending, 0, wPending.length));
+			}
+		} finally {
+			wChannel.close();
+		}
+		return wLineIdx;
+	}
+
+	/**
+	 * Scans the lines from a line to the end of the indexed file and returns
+	 * the ones matching the pattern.
+	 *
+	 * <pre>
+	 * {
+	 *   "from-line": 0, "next-line": 5230,
+	 *   "matches": [ { "line": 12, "text": "..." }, ... ],
+	 *   "complete": false
+	 * }
+	 * </pre>
+	 *
+	 * "complete" is false if the scan stopped on the max number of matches:
+	 * it can be resumed from "next-line".
+	 *
+	 * @param aPattern
+	 * @param aFirstLine
+	 * @param aMaxMatches
+	 * @return the matching lines
+	 * @throws IOException
+	 */
+	JSONObject searchLines(final Pattern aPattern, final int aFirstLine,
+			final int aMaxMatches) throws IOException {
+
+		final JSONArray wMatches = new JSONArray();
+		final int wFirst = Math.max(0, Math.min(aFirstLine, getNbLines()));
+		final int wNext = scanLines(wFirst, pSize, new ILineVisitor() {
+			@Override
+			public boolean visit(final int aLineIdx, final String aLine) {
+				if (aPattern.matcher(aLine).find()) {
+					final JSONObject wMatch = new JSONObject();
+					wMatch.put("line", aLineIdx);
+					wMatch.put("text", aLine);
+					wMatches.put(wMatch);
+				}
+				return wMatches.length() < aMaxMatches;
+			}
+		});
+
+		final JSONObject wResult = new JSONObject();
+		wResult.put("from-line", wFirst);
+		wResult.put("next-line", wNext);
+		wResult.put("matches", wMatches);
+		wResult.put("complete", wNext >= getNbLines());
+		return wResult;
+	}
+
+	/**
+	 * @param aPending
+	 *            the beginning of the line read in the previous buffers
+	 * @param aBytes
+	 * @param aBegin
+	 * @param aEnd
+	 * @return the decoded line without its carriage return
+	 */
+	private String toLine(final byte[] aPending, final byte[] aBytes,
+			final int aBegin, final int aEnd) {
+
+		byte[] wBytes = aBytes;
+		int wBegin = aBegin;
+		int wEnd = aEnd;
+		if (aPending.length > 0) {
+			wBytes = Arrays.copyOf(aPending, aPending.length + aEnd - aBegin);
+			System.arraycopy(aBytes, aBegin, wBytes, aPending.length, aEnd
+					- aBegin);
+			wBegin = 0;
+			wEnd = wBytes.length;
+		}
+		if (wEnd > wBegin && wBytes[wEnd - 1] == '\r') {
+			wEnd--;
+		}
+		return new String(wBytes, wBegin, wEnd - wBegin, CHARSET);
+	}
+}
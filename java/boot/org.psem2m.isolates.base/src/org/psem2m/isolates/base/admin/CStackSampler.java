@@ -0,0 +1,345 @@
+/**
+ * Copyright 2016 Cohorte Technologies (ex. isandlaTech)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.isolates.base.admin;
+
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.psem2m.utilities.json.JSONArray;
+import org.psem2m.utilities.json.JSONObject;
+
+/**
+ * A sampling profiler: takes the stacks of the threads at a fixed interval
+ * and aggregates them in collapsed stacks ("frame;frame;frame count", the
+ * input of the flame graph tools).
+ *
+ * The frames are interned: a stack element is named once ("class.method"),
+ * and the samples are counted in a tree of frame ids, without building a
+ * string per sample. The tree is bounded: the samples which would need more
+ * nodes are only counted as truncated.
+ *
+ * An instance is used by one thread, for one profiling.
+ *
+ * @author ogattaz
+ *
+ */
+final class CStackSampler {
+
+	/**
+	 * A node of the tree of stacks: a frame called by its parent
+	 */
+	private static final class CNode {
+
+		/** the callees, their frame ids in pChildFrames */
+		private CNode[] pChildren = new CNode[2];
+
+		private int[] pChildFrames = new int[2];
+
+		/** the frame id of the node, -1 for the root */
+		private final int pFrame;
+
+		private int pNbChildren;
+
+		/** the number of samples ending on this node */
+		private int pNbSamples;
+
+		CNode(final int aFrame) {
+			pFrame = aFrame;
+		}
+
+		/**
+		 * @param aFrame
+		 * @return the callee node of the frame, null if not seen yet
+		 */
+		CNode getChild(final int aFrame) {
+
+			for (int i = 0; i < pNbChildren; i++) {
+				if (pChildFrames[i] == aFrame) {
+					return pChildren[i];
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * @param aFrame
+		 * @return the new callee node of the frame
+		 */
+		CNode newChild(final int aFrame) {
+
+			if (pNbChildren == pChildren.length) {
+				pChildren = Arrays.copyOf(pChildren, pNbChildren * 2);
+				pChildFrames = Arrays.copyOf(pChildFrames, pNbChildren * 2);
+			}
+			final CNode wChild = new CNode(aFrame);
+			pChildren[pNbChildren] = wChild;
+			pChildFrames[pNbChildren] = aFrame;
+			pNbChildren++;
+			return wChild;
+		}
+	}
+
+	/** the max duration of a profiling */
+	static final long MAX_DURATION_MS = 60000;
+
+	/** the max number of nodes of the tree of stacks */
+	static final int MAX_NODES = 200000;
+
+	/** the max depth of the sampled stacks */
+	static final int MAX_STACK_DEPTH = 256;
+
+	/** the min interval between two samples */
+	static final long MIN_INTERVAL_MS = 1;
+
+	/** the frame id of a stack element */
+	private final Map<StackTraceElement, Integer> pFrameIds = new HashMap<StackTraceElement, Integer>();
+
+	/** the frame names, by frame id */
+	private final List<String> pFrameNames = new ArrayList<String>();
+
+	/** the frame id of a frame name */
+	private final Map<String, Integer> pInternedNames = new HashMap<String, Integer>();
+
+	private final int pMaxDepth;
+
+	private int pNbNodes;
+
+	private int pNbSamples;
+
+	private int pNbTruncated;
+
+	private final boolean pPerThread;
+
+	private final boolean pRunnableOnly;
+
+	private final CNode pRoot = new CNode(-1);
+
+	/** the threads to sample (by name), null for all */
+	private final Pattern pThreadFilter;
+
+	private final ThreadMXBean pThreadMXBean;
+
+	/**
+	 * @param aThreadMXBean
+	 * @param aMaxDepth
+	 *            the max number of frames of a stack (the outermost callers
+	 *            are dropped)
+	 * @param aRunnableOnly
+	 *            only sample the RUNNABLE threads (the hot stacks)
+	 * @param aPerThread
+	 *            the name of the thread is the root frame of its stacks
+	 * @param aThreadFilter
+	 *            the threads to sample (by name), null for all
+	 */
+	CStackSampler(final ThreadMXBean aThreadMXBean, final int aMaxDepth,
+			final boolean aRunnableOnly, final boolean aPerThread,
+			final Pattern aThreadFilter) {
+
+		pThreadMXBean = aThreadMXBean;
+		pMaxDepth = Math.max(1, Math.min(aMaxDepth, MAX_STACK_DEPTH));
+		pRunnableOnly = aRunnableOnly;
+		pPerThread = aPerThread;
+		pThreadFilter = aThreadFilter;
+	}
+
+	/**
+	 * Appends the collapsed stacks of a subtree
+	 *
+	 * @param aNode
+	 * @param aPrefix
+	 *            the collapsed stack of the parent of the node
+	 * @param aLines
+	 */
+	private void collapse(final CNode aNode, final StringBuilder aPrefix,
+			final JSONArray aLines) {
+
+		final int wPrefixLength = aPrefix.length();
+		if (aNode.pFrame != -1) {
+			if (wPrefixLength > 0) {
+				aPrefix.append(';');
+			}
+			aPrefix.append(pFrameNames.get(aNode.pFrame));
+		}
+		if (aNode.pNbSamples > 0) {
+			aLines.put(aPrefix.toString() + ' ' + aNode.pNbSamples);
+		}
+		for (int i = 0; i < aNode.pNbChildren; i++) {
+			collapse(aNode.pChildren[i], aPrefix, aLines);
+		}
+		aPrefix.setLength(wPrefixLength);
+	}
+
+	/**
+	 * @param aElement
+	 * @return the frame id of the stack element, named "class.method"
+	 */
+	private int frameId(final StackTraceElement aElement) {
+
+		final Integer wId = pFrameIds.get(aElement);
+		if (wId != null) {
+			return wId.intValue();
+		}
+		final int wNewId = intern(aElement.getClassName() + '.'
+				+ aElement.getMethodName());
+		pFrameIds.put(aElement, Integer.valueOf(wNewId));
+		return wNewId;
+	}
+
+	/**
+	 * @param aName
+	 * @return the interned frame id of the name
+	 */
+	private int intern(final String aName) {
+
+		final Integer wId = pInternedNames.get(aName);
+		if (wId != null) {
+			return wId.intValue();
+		}
+		final int wNewId = pFrameNames.size();
+		pFrameNames.add(aName);
+		pInternedNames.put(aName, Integer.valueOf(wNewId));
+		return wNewId;
+	}
+
+	/**
+	 * Counts a stack in the tree
+	 *
+	 * @param aInfo
+	 */
+	private void record(final ThreadInfo aInfo) {
+
+		final StackTraceElement[] wStack = aInfo.getStackTrace();
+		CNode wNode = pRoot;
+		if (pPerThread) {
+			wNode = step(wNode, intern('[' + aInfo.getThreadName() + ']'));
+		}
+		// from the caller to the callee
+		for (int i = wStack.length - 1; i >= 0 && wNode != null; i--) {
+			wNode = step(wNode, frameId(wStack[i]));
+		}
+		if (wNode == null) {
+			pNbTruncated++;
+			return;
+		}
+		wNode.pNbSamples++;
+		pNbSamples++;
+	}
+
+	/**
+	 * Samples the threads at the given interval during the given duration
+	 *
+	 * @param aDurationMs
+	 * @param aIntervalMs
+	 * @return the result of the profiling
+	 * @throws InterruptedException
+	 */
+	JSONObject run(final long aDurationMs, final long aIntervalMs)
+			throws InterruptedException {
+
+		final long wDurationMs = Math.max(0,
+				Math.min(aDurationMs, MAX_DURATION_MS));
+		final long wIntervalMs = Math.max(aIntervalMs, MIN_INTERVAL_MS);
+		final long wSelfId = Thread.currentThread().getId();
+
+		final long wStart = System.nanoTime();
+		final long wEnd = wStart + wDurationMs * 1000000L;
+		long wSamplingNanos = 0;
+		int wNbTicks = 0;
+		do {
+			final long wTickStart = System.nanoTime();
+			sample(wSelfId);
+			wNbTicks++;
+			final long wTickEnd = System.nanoTime();
+			wSamplingNanos += wTickEnd - wTickStart;
+
+			// keep the rate: the time spent to sample is part of the interval
+			final long wSleepMs = wIntervalMs - (wTickEnd - wTickStart)
+					/ 1000000L;
+			if (wTickEnd + wSleepMs * 1000000L >= wEnd) {
+				break;
+			}
+			if (wSleepMs > 0) {
+				Thread.sleep(wSleepMs);
+			}
+		} while (System.nanoTime() < wEnd);
+
+		final JSONObject wResult = new JSONObject();
+		wResult.put("duration-ms", (System.nanoTime() - wStart) / 1000000L);
+		wResult.put("interval-ms", wIntervalMs);
+		wResult.put("ticks", wNbTicks);
+		wResult.put("sampling-ms", wSamplingNanos / 1000000L);
+		wResult.put("samples", pNbSamples);
+		wResult.put("truncated", pNbTruncated);
+		wResult.put("frames", pFrameNames.size());
+		final JSONArray wLines = new JSONArray();
+		collapse(pRoot, new StringBuilder(), wLines);
+		wResult.put("collapsed", wLines);
+		return wResult;
+	}
+
+	/**
+	 * Takes one sample of the stacks of the threads
+	 *
+	 * @param aSelfId
+	 *            the id of the sampling thread, not sampled
+	 */
+	private void sample(final long aSelfId) {
+
+		final ThreadInfo[] wInfos = pThreadMXBean.getThreadInfo(
+				pThreadMXBean.getAllThreadIds(), pMaxDepth);
+		for (final ThreadInfo wInfo : wInfos) {
+			if (wInfo == null || wInfo.getThreadId() == aSelfId) {
+				// dead thread, or the profiler itself
+				continue;
+			}
+			if (pRunnableOnly
+					&& wInfo.getThreadState() != Thread.State.RUNNABLE) {
+				continue;
+			}
+			if (pThreadFilter != null
+					&& !pThreadFilter.matcher(wInfo.getThreadName()).find()) {
+				continue;
+			}
+			record(wInfo);
+		}
+	}
+
+	/**
+	 * @param aNode
+	 * @param aFrame
+	 * @return the callee node of the frame, created if needed, or null if the
+	 *         tree is full
+	 */
+	private CNode step(final CNode aNode, final int aFrame) {
+
+		final CNode wChild = aNode.getChild(aFrame);
+		if (wChild != null) {
+			return wChild;
+		}
+		if (pNbNodes >= MAX_NODES) {
+			return null;
+		}
+		pNbNodes++;
+		return aNode.newChild(aFrame);
+	}
+}
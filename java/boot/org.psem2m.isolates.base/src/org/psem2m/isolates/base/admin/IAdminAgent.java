@@ -71,6 +71,21 @@ public interface IAdminAgent {
 	String SUBJECT_GET_ISOLATE_LOG = String.format("%s/get_isolate_log",
 			PREFIX_SUBJECT);
 
+	/**
+	 * Signal to request a page of an isolate log. Content:
+	 * {"log-id":"...","from-line":0,"max-lines":100} or
+	 * {"log-id":"...","from-byte":0,"max-bytes":65536}
+	 */
+	String SUBJECT_GET_ISOLATE_LOG_PAGE = String.format(
+			"%s/get_isolate_log_page", PREFIX_SUBJECT);
+
+	/**
+	 * Signal to request the last lines of an isolate log. Content:
+	 * {"log-id":"...","lines":100}
+	 */
+	String SUBJECT_GET_ISOLATE_LOG_TAIL = String.format(
+			"%s/get_isolate_log_tail", PREFIX_SUBJECT);
+
 	/** Signal to request the list of isolate logs */
 	String SUBJECT_GET_ISOLATE_LOGS = String.format("%s/get_isolate_logs",
 			PREFIX_SUBJECT);
@@ -83,6 +98,29 @@ public interface IAdminAgent {
 	String SUBJECT_GET_THREADS = String
 			.format("%s/get_threads", PREFIX_SUBJECT);
 
+	/**
+	 * Signal to request the top offenders of the threads activity monitor.
+	 * Content: {"max-threads":10}
+	 */
+	String SUBJECT_GET_THREADS_ACTIVITY = String.format(
+			"%s/get_threads_activity", PREFIX_SUBJECT);
+
+	/**
+	 * Signal to search the lines of an isolate log matching a regular
+	 * expression. Content:
+	 * {"log-id":"...","pattern":"...","ignore-case":false,"from-line":0,"max-matches":100}
+	 */
+	String SUBJECT_GREP_ISOLATE_LOG = String.format("%s/grep_isolate_log",
+			PREFIX_SUBJECT);
+
+	/**
+	 * Signal to profile the threads by sampling their stacks. Content:
+	 * {"duration-ms":5000,"interval-ms":10,"max-depth":128,"runnable-only":true,"per-thread":false,"thread-filter":"regex"}
+	 * The profiling runs on its own thread: the reply is sent once it ends.
+	 */
+	String SUBJECT_PROFILE_THREADS = String.format("%s/profile_threads",
+			PREFIX_SUBJECT);
+
 	/** Filter to match agent signals */
 	String SUBJECT_MATCH_ALL = String.format("%s/*", PREFIX_SUBJECT);
 
@@ -205,12 +243,154 @@ public interface IAdminAgent {
 
 	String getIsolateLog(String aLogId);
 
+	/**
+	 * <pre>
+	 * 	{
+	 * 	  "log-id": "...",
+	 * 	  "size": 1048576,
+	 * 	  "nblines": 9321,
+	 * 	  "from-line": 100,
+	 * 	  "next-line": 200,
+	 * 	  "from-byte": 8712,
+	 * 	  "next-byte": 17301,
+	 * 	  "lines": [ "..." ],
+	 * 	  "truncated": false
+	 * 	}
+	 * </pre>
+	 *
+	 * @param aLogId
+	 * @param aFromLine
+	 *            the index of the first line
+	 * @param aMaxLines
+	 * @return a page of lines of the log
+	 */
+	String getIsolateLogPage(String aLogId, int aFromLine, int aMaxLines);
+
+	/**
+	 * @param aLogId
+	 * @param aFromByte
+	 *            the page begins with the first line beginning at or after
+	 *            this offset
+	 * @param aMaxBytes
+	 * @return a page of whole lines of the log (see getIsolateLogPage)
+	 */
+	String getIsolateLogRange(String aLogId, long aFromByte, int aMaxBytes);
+
 	String getIsolateLogs();
 
+	/**
+	 * @param aLogId
+	 * @param aNbLines
+	 * @return the last lines of the log (see getIsolateLogPage)
+	 */
+	String getIsolateLogTail(String aLogId, int aNbLines);
+
+	/**
+	 * @return a json array of the registered services (id, bundle-id,
+	 *         bundle-name, specifications, ranking) sorted by service id
+	 */
 	String getServices();
 
+	/**
+	 * <pre>
+	 * 	[
+	 * 	  {
+	 * 		"id": 12,
+	 * 		"name": "...",
+	 * 		"state": "...",
+	 * 		"cpu-time-ms": 1234,
+	 * 		"blocked-count": 3,
+	 * 		"waited-count": 5,
+	 * 		"lock": "...",
+	 * 		"lock-owner-id": 14,
+	 * 		"stack": [ "class.method(file:line)", ... ]
+	 * 	  }
+	 * 	]
+	 * </pre>
+	 *
+	 * @return a dump of the threads of the isolate
+	 */
 	String getThreads();
 
+	/**
+	 * <pre>
+	 * 	{
+	 * 	  "window-ms": 60000,
+	 * 	  "nb-threads": 42,
+	 * 	  "allocation": [ { "id": 12, "name": "...", "state": "...", ... } ],
+	 * 	  "blocked": [ ... ],
+	 * 	  "waited": [ ... ],
+	 * 	  "lock-chains": [ { "lock": "...", "threads": [], "deadlock": false } ]
+	 * 	}
+	 * </pre>
+	 *
+	 * @param aMaxThreads
+	 *            the max number of threads of each top list
+	 * @return the report of the threads activity monitor (see
+	 *         IThreadsActivityMonitor), or an "error" if there is no monitor
+	 */
+	String getThreadsActivity(int aMaxThreads);
+
+	/**
+	 * <pre>
+	 * 	{
+	 * 	  "log-id": "...",
+	 * 	  "size": 1048576,
+	 * 	  "nblines": 9321,
+	 * 	  "from-line": 0,
+	 * 	  "next-line": 5230,
+	 * 	  "matches": [ { "line": 12, "text": "..." } ],
+	 * 	  "complete": false
+	 * 	}
+	 * </pre>
+	 *
+	 * @param aLogId
+	 * @param aRegex
+	 * @param aIgnoreCase
+	 * @param aFromLine
+	 * @param aMaxMatches
+	 * @return the lines of the log matching the regular expression. If the
+	 *         search isn't complete, it can be resumed from "next-line".
+	 */
+	String grepIsolateLog(String aLogId, String aRegex, boolean aIgnoreCase,
+			int aFromLine, int aMaxMatches);
+
+	/**
+	 * Samples the stacks of the threads at the given interval during the given
+	 * duration, and aggregates them in collapsed stacks (the input of the
+	 * flame graph tools). Only one profiling runs at a time.
+	 *
+	 * <pre>
+	 * 	{
+	 * 	  "duration-ms": 5000,
+	 * 	  "interval-ms": 10,
+	 * 	  "ticks": 498,
+	 * 	  "sampling-ms": 120,
+	 * 	  "samples": 2431,
+	 * 	  "truncated": 0,
+	 * 	  "frames": 812,
+	 * 	  "collapsed": [ "java.lang.Thread.run;...;foo.Bar.baz 42", ... ]
+	 * 	}
+	 * </pre>
+	 *
+	 * @param aDurationMs
+	 *            the duration of the profiling (at most 60 s)
+	 * @param aIntervalMs
+	 *            the interval between two samples
+	 * @param aMaxDepth
+	 *            the max number of frames of a stack
+	 * @param aRunnableOnly
+	 *            only sample the RUNNABLE threads
+	 * @param aPerThread
+	 *            the name of the thread is the root frame of its stacks
+	 * @param aThreadFilter
+	 *            a regular expression matching the names of the threads to
+	 *            sample, null or empty for all
+	 * @return the collapsed stacks, or an "error"
+	 */
+	String profileThreads(long aDurationMs, long aIntervalMs, int aMaxDepth,
+			boolean aRunnableOnly, boolean aPerThread, String aThreadFilter);
+
 	String setIsolateLogsLevel(String aLogLevel);
 
 }
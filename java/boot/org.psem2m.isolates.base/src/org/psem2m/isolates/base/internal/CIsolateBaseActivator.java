@@ -48,6 +48,7 @@ import org.psem2m.isolates.base.bundles.IBundleFinderSvc;
 import org.psem2m.isolates.base.bundles.impl.CBundleFinderSvc;
 import org.psem2m.isolates.base.dirs.impl.CFileFinderSvc;
 import org.psem2m.isolates.base.dirs.impl.CPlatformDirsSvc;
+import org.psem2m.isolates.base.internal.CIsolateLoggerAsyncFileHandler.EOverflowPolicy;
 import org.psem2m.isolates.constants.IPlatformProperties;
 import org.psem2m.isolates.services.dirs.IFileFinderSvc;
 import org.psem2m.isolates.services.dirs.IPlatformDirsSvc;
@@ -240,6 +241,49 @@ public class CIsolateBaseActivator implements BundleActivator, IIsolateBaseActiv
 		pActivityLogger = null;
 	}
 
+	/**
+	 * @param aBundleContext
+	 * @param aReport
+	 * @return the capacity of the ring of the asynchronous isolate logger
+	 *         channel
+	 */
+	private int getAsyncCapacity(final BundleContext aBundleContext, final StringBuilder aReport) {
+
+		final String wCapacity = aBundleContext.getProperty(IPlatformProperties.PROP_ISOLATE_LOGGER_ASYNC_CAPACITY);
+		if (wCapacity != null && !wCapacity.isEmpty()) {
+			try {
+				return Integer.parseInt(wCapacity.trim());
+			} catch (final NumberFormatException e) {
+				addLineInReport(aReport, "ERROR: The system property [%s] isn't a valid number [%s]",
+						IPlatformProperties.PROP_ISOLATE_LOGGER_ASYNC_CAPACITY, wCapacity);
+			}
+		}
+		return CIsolateLoggerAsyncFileHandler.DEFAULT_CAPACITY;
+	}
+
+	/**
+	 * @param aBundleContext
+	 * @param aReport
+	 * @return the overflow policy of the asynchronous isolate logger channel or
+	 *         null if the channel must be synchronous
+	 */
+	private EOverflowPolicy getAsyncPolicy(final BundleContext aBundleContext, final StringBuilder aReport) {
+
+		final String wPolicyName = aBundleContext.getProperty(IPlatformProperties.PROP_ISOLATE_LOGGER_ASYNC);
+		if (wPolicyName == null || wPolicyName.isEmpty()) {
+			return null;
+		}
+		final EOverflowPolicy wPolicy = EOverflowPolicy.fromName(wPolicyName);
+		if (wPolicy == null) {
+			addLineInReport(aReport, "ERROR: The system property [%s] contains an unknown policy [%s]",
+					IPlatformProperties.PROP_ISOLATE_LOGGER_ASYNC, wPolicyName);
+		} else {
+			addLineInReport(aReport, "The system property [%s] contains [%s]",
+					IPlatformProperties.PROP_ISOLATE_LOGGER_ASYNC, wPolicy.getName());
+		}
+		return wPolicy;
+	}
+
 	/**
 	 * Creates or retrieves an instance of the bundle finder
 	 *
@@ -312,6 +356,25 @@ public class CIsolateBaseActivator implements BundleActivator, IIsolateBaseActiv
 		return pActivityLogger;
 	}
 
+	/**
+	 * @return the number of OSGi log entries to keep or 0 to use the default
+	 *         one
+	 */
+	private int getLogHistorySize() {
+
+		final String wSize = (pBundleContext != null) ? pBundleContext.getProperty(
+				IPlatformProperties.PROP_ISOLATE_LOG_HISTORY_SIZE) : null;
+		if (wSize != null && !wSize.isEmpty()) {
+			try {
+				return Integer.parseInt(wSize.trim());
+			} catch (final NumberFormatException e) {
+				getLogger().logSevere(this, "getLogHistorySize", "The system property [%s] isn't a valid number [%s]",
+						IPlatformProperties.PROP_ISOLATE_LOG_HISTORY_SIZE, wSize);
+			}
+		}
+		return 0;
+	}
+
 	/**
 	 * Creates or retrieves an instance of the internal log handler
 	 *
@@ -322,7 +385,10 @@ public class CIsolateBaseActivator implements BundleActivator, IIsolateBaseActiv
 	public CLogInternal getLogInternal() throws Exception {
 
 		if (pLogInternal == null) {
-			pLogInternal = new CLogInternal(getLogger());
+			pLogInternal = new CLogInternal(getLogger(), getLogHistorySize());
+			pLogInternal.setWhoFromEntry(pBundleContext != null
+					&& CLogInternal.CALLER_BUNDLE.equalsIgnoreCase(
+							pBundleContext.getProperty(IPlatformProperties.PROP_ISOLATE_LOG_CALLER)));
 		}
 
 		return pLogInternal;
@@ -485,9 +551,13 @@ public class CIsolateBaseActivator implements BundleActivator, IIsolateBaseActiv
 
 			final String wFilePathPattern = wSB.toString();
 
+			// the optional asynchronous mode
+			final EOverflowPolicy wAsyncPolicy = getAsyncPolicy(aBundleContext, wReport);
+			final int wAsyncCapacity = getAsyncCapacity(aBundleContext, wReport);
+
 			// level ALL by default !
 			pActivityLogger = new CIsolateLoggerChannel(wLoggerName, wFilePathPattern, IActivityLoggerBase.ALL,
-					LOG_FILES_SIZE, LOG_FILES_COUNT);
+					LOG_FILES_SIZE, LOG_FILES_COUNT, wAsyncPolicy, wAsyncCapacity);
 
 			addLineInReport(wReport, "ActivityLogger opened : %s",
 					((CIsolateLoggerChannel) pActivityLogger).toDescription());
@@ -812,6 +882,11 @@ public class CIsolateBaseActivator implements BundleActivator, IIsolateBaseActiv
 
 		pRegisteredServicesInfos.clear();
 
+		// stop the dispatcher of the OSGi log listeners
+		if (hasLogInternal()) {
+			pLogInternal.close();
+		}
+
 		getLogger().logInfo(this, "stop", "STOP ENDED");
 
 		// The end of the isolate
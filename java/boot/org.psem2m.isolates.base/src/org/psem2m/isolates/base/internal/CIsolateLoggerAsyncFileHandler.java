@@ -0,0 +1,558 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.isolates.base.internal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.ErrorManager;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.psem2m.utilities.json.JSONException;
+import org.psem2m.utilities.json.JSONObject;
+import org.psem2m.utilities.logging.CActivityFileHandler;
+
+/**
+ * An asynchronous version of the file handler of the isolate logger channel.
+ *
+ * The records published by the caller threads are stored in a bounded ring of
+ * preallocated slots. A single writer thread drains the ring by batches and
+ * does the formatting and the file I/O, so the caller threads never wait for
+ * the disk nor for the lock of the underlying stream handler.
+ *
+ * When the ring is full, the behavior depends on the {@link EOverflowPolicy}.
+ *
+ * What the formatter would resolve from the calling thread is captured before
+ * the record is stored: the caller class and method are inferred, the
+ * arguments which aren't immutable values are rendered as strings (in a copy
+ * of the record, the other handlers keep the original one), and the name of
+ * the calling thread is kept with the record. The writer thread takes this
+ * name while it writes the record, for the formatters reading the name of the
+ * current thread.
+ *
+ * @author ogattaz
+ *
+ */
+public class CIsolateLoggerAsyncFileHandler extends CActivityFileHandler {
+
+	/**
+	 * The policies applied when a record is published while the ring is full
+	 */
+	public enum EOverflowPolicy {
+		/** the caller waits for a free slot */
+		BLOCK("block"),
+		/**
+		 * the records finer than INFO are dropped as soon as the ring is 3/4
+		 * full, the others records wait for a free slot
+		 */
+		DROP_DEBUG_FIRST("drop-debug-first"),
+		/** the oldest record of the ring is overwritten */
+		DROP_OLDEST("drop-oldest");
+
+		/**
+		 * @param aName
+		 *            the name of a policy (eg. "drop-oldest")
+		 * @return the policy or null if the name is unknown
+		 */
+		public static EOverflowPolicy fromName(final String aName) {
+			if (aName != null) {
+				for (final EOverflowPolicy wPolicy : values()) {
+					if (wPolicy.pName.equalsIgnoreCase(aName.trim())) {
+						return wPolicy;
+					}
+				}
+			}
+			return null;
+		}
+
+		private final String pName;
+
+		/**
+		 * @param aName
+		 */
+		private EOverflowPolicy(final String aName) {
+			pName = aName;
+		}
+
+		/**
+		 * @return the name of the policy used in the framework property
+		 */
+		public String getName() {
+			return pName;
+		}
+	}
+
+	/** The default number of slots of the ring */
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	/** The max time to wait for the writer thread when the handler is closed */
+	private static final long CLOSE_TIMEOUT_MS = 5000;
+
+	/** The max time the writer thread sleeps when the ring is empty */
+	private static final long IDLE_WAIT_MS = 500;
+
+	/** The level under which a record is considered as a debug one */
+	private static final int LEVEL_DEBUG_LIMIT = Level.INFO.intValue();
+
+	/** the local buffer of the drainer (guarded by its own monitor) */
+	private final LogRecord[] pBatch;
+
+	/** the names of the calling threads of the records of the local buffer */
+	private final String[] pBatchThreadNames;
+
+	/** true when the handler is closing or closed */
+	private volatile boolean pClosing = false;
+
+	/** number of records currently in the ring (guarded by pLock) */
+	private int pCount = 0;
+
+	/** index of the oldest record in the ring (guarded by pLock) */
+	private int pHead = 0;
+
+	/** the lock protecting the ring indexes */
+	private final ReentrantLock pLock = new ReentrantLock();
+
+	/** counter of the records which caused a caller to wait */
+	private final AtomicLong pNbBlocked = new AtomicLong();
+
+	/** counter of the debug records dropped by the DROP_DEBUG_FIRST policy */
+	private final AtomicLong pNbDroppedDebug = new AtomicLong();
+
+	/** counter of the records overwritten by the DROP_OLDEST policy */
+	private final AtomicLong pNbDroppedOldest = new AtomicLong();
+
+	/** counter of the records written by the writer thread */
+	private final AtomicLong pNbWritten = new AtomicLong();
+
+	/** signaled when a record is stored in the empty ring */
+	private final Condition pNotEmpty = pLock.newCondition();
+
+	/** signaled when slots are freed */
+	private final Condition pNotFull = pLock.newCondition();
+
+	/** the policy applied when the ring is full */
+	private final EOverflowPolicy pPolicy;
+
+	/** the preallocated slots of the ring */
+	private final LogRecord[] pSlots;
+
+	/** the names of the calling threads of the records of the ring */
+	private final String[] pThreadNames;
+
+	/** number of slots over which the debug records are dropped */
+	private final int pWatermark;
+
+	/** The writer thread */
+	private final Thread pWriterThread;
+
+	/**
+	 * @param aFilePathPattern
+	 *            the file path pattern of the logger channel
+	 * @param aFileLimit
+	 *            the max size of a file
+	 * @param aFileCount
+	 *            the max number of files
+	 * @param aCapacity
+	 *            the number of slots of the ring
+	 * @param aPolicy
+	 *            the policy applied when the ring is full
+	 * @throws Exception
+	 */
+	public CIsolateLoggerAsyncFileHandler(final String aFilePathPattern,
+			final int aFileLimit, final int aFileCount, final int aCapacity,
+			final EOverflowPolicy aPolicy) throws Exception {
+
+		super(aFilePathPattern, aFileLimit, aFileCount);
+
+		final int wCapacity = (aCapacity > 0) ? aCapacity : DEFAULT_CAPACITY;
+		pSlots = new LogRecord[wCapacity];
+		pBatch = new LogRecord[wCapacity];
+		pThreadNames = new String[wCapacity];
+		pBatchThreadNames = new String[wCapacity];
+		pWatermark = Math.max(1, (wCapacity * 3) / 4);
+		pPolicy = (aPolicy != null) ? aPolicy : EOverflowPolicy.BLOCK;
+
+		pWriterThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writerLoop();
+			}
+		}, "cohorte-isolate-logger-writer");
+		pWriterThread.setDaemon(true);
+		pWriterThread.start();
+	}
+
+	/**
+	 * Drains the ring then closes the underlying file handler
+	 *
+	 * @see java.util.logging.FileHandler#close()
+	 */
+	@Override
+	public void close() throws SecurityException {
+
+		if (!pClosing) {
+			pClosing = true;
+			pLock.lock();
+			try {
+				pNotEmpty.signalAll();
+				pNotFull.signalAll();
+			} finally {
+				pLock.unlock();
+			}
+			if (Thread.currentThread() != pWriterThread) {
+				try {
+					pWriterThread.join(CLOSE_TIMEOUT_MS);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			// writes the records published during the stop of the writer
+			drain();
+		}
+		super.close();
+	}
+
+	/**
+	 * Fixes the parts of the record the formatter would otherwise resolve on
+	 * the writer thread: the caller class and method, inferred from the stack
+	 * of the calling thread, and the arguments, rendered in their state at the
+	 * time of the call.
+	 *
+	 * @param aRecord
+	 *            the published record
+	 * @return the record, or a copy of it with the rendered arguments
+	 */
+	private static LogRecord captureCallerInfos(final LogRecord aRecord) {
+
+		// infers the caller now if it isn't set
+		aRecord.getSourceClassName();
+
+		final Object[] wParams = aRecord.getParameters();
+		if (wParams == null) {
+			return aRecord;
+		}
+		Object[] wRendered = null;
+		for (int wIdx = 0; wIdx < wParams.length; wIdx++) {
+			if (!isImmutable(wParams[wIdx])) {
+				if (wRendered == null) {
+					wRendered = wParams.clone();
+				}
+				wRendered[wIdx] = String.valueOf(wParams[wIdx]);
+			}
+		}
+		if (wRendered == null) {
+			return aRecord;
+		}
+
+		final LogRecord wCopy = new LogRecord(aRecord.getLevel(),
+				aRecord.getMessage());
+		wCopy.setLoggerName(aRecord.getLoggerName());
+		wCopy.setMillis(aRecord.getMillis());
+		wCopy.setParameters(wRendered);
+		wCopy.setResourceBundle(aRecord.getResourceBundle());
+		wCopy.setResourceBundleName(aRecord.getResourceBundleName());
+		wCopy.setSequenceNumber(aRecord.getSequenceNumber());
+		wCopy.setSourceClassName(aRecord.getSourceClassName());
+		wCopy.setSourceMethodName(aRecord.getSourceMethodName());
+		wCopy.setThreadID(aRecord.getThreadID());
+		wCopy.setThrown(aRecord.getThrown());
+		return wCopy;
+	}
+
+	/**
+	 * @param aValue
+	 *            an argument of a record
+	 * @return true if the argument can't change until it is formatted
+	 */
+	private static boolean isImmutable(final Object aValue) {
+
+		return aValue == null || aValue instanceof String
+				|| aValue instanceof Integer || aValue instanceof Long
+				|| aValue instanceof Boolean || aValue instanceof Double
+				|| aValue instanceof Float || aValue instanceof Short
+				|| aValue instanceof Byte || aValue instanceof Character
+				|| aValue instanceof Enum || aValue instanceof Class;
+	}
+
+	/**
+	 * Takes all the records of the ring and writes them. Called by the writer
+	 * thread, and by the callers of flush() and close().
+	 */
+	private void drain() {
+
+		// one drainer at a time: the local buffer is shared
+		synchronized (pBatch) {
+			writeBatch(takeBatch());
+		}
+	}
+
+	/**
+	 * Writes the records published before this call, then flushes the
+	 * underlying stream.
+	 *
+	 * @see java.util.logging.StreamHandler#flush()
+	 */
+	@Override
+	public void flush() {
+
+		if (Thread.currentThread() != pWriterThread) {
+			drain();
+		}
+		super.flush();
+	}
+
+	/**
+	 * @return the number of records waiting in the ring
+	 */
+	public int getBacklog() {
+		pLock.lock();
+		try {
+			return pCount;
+		} finally {
+			pLock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of slots of the ring
+	 */
+	public int getCapacity() {
+		return pSlots.length;
+	}
+
+	/**
+	 * @return the number of records which caused a caller to wait
+	 */
+	public long getNbBlocked() {
+		return pNbBlocked.get();
+	}
+
+	/**
+	 * @return the number of debug records dropped by the DROP_DEBUG_FIRST
+	 *         policy
+	 */
+	public long getNbDroppedDebug() {
+		return pNbDroppedDebug.get();
+	}
+
+	/**
+	 * @return the number of records overwritten by the DROP_OLDEST policy
+	 */
+	public long getNbDroppedOldest() {
+		return pNbDroppedOldest.get();
+	}
+
+	/**
+	 * @return the number of records written in the files
+	 */
+	public long getNbWritten() {
+		return pNbWritten.get();
+	}
+
+	/**
+	 * @return the policy applied when the ring is full
+	 */
+	public EOverflowPolicy getPolicy() {
+		return pPolicy;
+	}
+
+	/**
+	 * Stores the record in the ring, with the infos of the calling thread. The
+	 * formatting and the writing are done by the writer thread.
+	 *
+	 * @see java.util.logging.FileHandler#publish(java.util.logging.LogRecord)
+	 */
+	@Override
+	public void publish(final LogRecord aRecord) {
+
+		if (aRecord == null || !isLoggable(aRecord)) {
+			return;
+		}
+		// once closing, the caller writes itself
+		if (pClosing) {
+			super.publish(aRecord);
+			return;
+		}
+
+		final boolean wIsDebug = aRecord.getLevel().intValue() < LEVEL_DEBUG_LIMIT;
+		boolean wWriteDirect = false;
+
+		// captured on the calling thread, outside the lock
+		final LogRecord wRecord = captureCallerInfos(aRecord);
+		final String wThreadName = Thread.currentThread().getName();
+
+		pLock.lock();
+		try {
+			if (pPolicy == EOverflowPolicy.DROP_DEBUG_FIRST && wIsDebug
+					&& pCount >= pWatermark) {
+				pNbDroppedDebug.incrementAndGet();
+				return;
+			}
+
+			if (pCount == pSlots.length) {
+				if (pPolicy == EOverflowPolicy.DROP_OLDEST) {
+					pSlots[pHead] = null;
+					pThreadNames[pHead] = null;
+					pHead = (pHead + 1) % pSlots.length;
+					pCount--;
+					pNbDroppedOldest.incrementAndGet();
+				} else {
+					pNbBlocked.incrementAndGet();
+					while (pCount == pSlots.length && !pClosing) {
+						pNotFull.await();
+					}
+				}
+			}
+
+			if (pClosing) {
+				// the writer is stopping: no more room to wait for
+				wWriteDirect = true;
+			} else {
+				final int wSlot = (pHead + pCount) % pSlots.length;
+				pSlots[wSlot] = wRecord;
+				pThreadNames[wSlot] = wThreadName;
+				pCount++;
+				if (pCount == 1) {
+					pNotEmpty.signal();
+				}
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			pLock.unlock();
+		}
+
+		if (wWriteDirect) {
+			super.publish(aRecord);
+		}
+	}
+
+	/**
+	 * Moves all the records of the ring in the local buffer of the drainer.
+	 *
+	 * @return the number of records moved
+	 */
+	private int takeBatch() {
+
+		pLock.lock();
+		try {
+			final int wNb = pCount;
+			for (int wIdx = 0; wIdx < wNb; wIdx++) {
+				final int wSlot = (pHead + wIdx) % pSlots.length;
+				pBatch[wIdx] = pSlots[wSlot];
+				pBatchThreadNames[wIdx] = pThreadNames[wSlot];
+				pSlots[wSlot] = null;
+				pThreadNames[wSlot] = null;
+			}
+			pHead = 0;
+			pCount = 0;
+			if (wNb > 0) {
+				pNotFull.signalAll();
+			}
+			return wNb;
+		} finally {
+			pLock.unlock();
+		}
+	}
+
+	/**
+	 * <pre>
+	 * {"async":true,"policy":"drop-oldest","capacity":8192,"backlog":0,
+	 *  "written":1234,"blocked":0,"droppeddebug":0,"droppedoldest":12}
+	 * </pre>
+	 *
+	 * @return the counters of the handler
+	 * @throws JSONException
+	 */
+	public JSONObject toJson() throws JSONException {
+
+		final JSONObject wInfos = new JSONObject();
+		wInfos.put("async", true);
+		wInfos.put("policy", pPolicy.getName());
+		wInfos.put("capacity", getCapacity());
+		wInfos.put("backlog", getBacklog());
+		wInfos.put("written", getNbWritten());
+		wInfos.put("blocked", getNbBlocked());
+		wInfos.put("droppeddebug", getNbDroppedDebug());
+		wInfos.put("droppedoldest", getNbDroppedOldest());
+		return wInfos;
+	}
+
+	/**
+	 * Writes the records stored in the local buffer of the drainer. The
+	 * current thread takes the name of the calling thread of each record
+	 * while it writes it.
+	 *
+	 * @param aNb
+	 *            the number of records to write
+	 */
+	private void writeBatch(final int aNb) {
+
+		if (aNb == 0) {
+			return;
+		}
+		final Thread wThread = Thread.currentThread();
+		final String wOwnName = wThread.getName();
+		String wName = wOwnName;
+		try {
+			for (int wIdx = 0; wIdx < aNb; wIdx++) {
+				final LogRecord wRecord = pBatch[wIdx];
+				final String wThreadName = pBatchThreadNames[wIdx];
+				pBatch[wIdx] = null;
+				pBatchThreadNames[wIdx] = null;
+				if (wThreadName != null && !wThreadName.equals(wName)) {
+					wName = wThreadName;
+					wThread.setName(wName);
+				}
+				try {
+					super.publish(wRecord);
+					pNbWritten.incrementAndGet();
+				} catch (final RuntimeException e) {
+					reportError(null, e, ErrorManager.WRITE_FAILURE);
+				}
+			}
+		} finally {
+			if (wName != wOwnName) {
+				wThread.setName(wOwnName);
+			}
+		}
+		super.flush();
+	}
+
+	/**
+	 * The loop of the writer thread
+	 */
+	private void writerLoop() {
+
+		while (!pClosing) {
+			pLock.lock();
+			try {
+				if (pCount == 0) {
+					pNotEmpty.await(IDLE_WAIT_MS, TimeUnit.MILLISECONDS);
+				}
+			} catch (final InterruptedException e) {
+				// stops on interruption
+				pClosing = true;
+			} finally {
+				pLock.unlock();
+			}
+			drain();
+		}
+	}
+}
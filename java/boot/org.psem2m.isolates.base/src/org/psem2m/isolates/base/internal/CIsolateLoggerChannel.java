@@ -18,6 +18,7 @@ package org.psem2m.isolates.base.internal;
 
 import java.util.logging.Formatter;
 
+import org.psem2m.isolates.base.internal.CIsolateLoggerAsyncFileHandler.EOverflowPolicy;
 import org.psem2m.utilities.CXDateTime;
 import org.psem2m.utilities.json.JSONArray;
 import org.psem2m.utilities.json.JSONException;
@@ -33,6 +34,12 @@ import org.psem2m.utilities.logging.CActivityLoggerBasic;
  */
 public class CIsolateLoggerChannel extends CActivityLoggerBasic {
 
+	/** the number of slots of the ring of the asynchronous mode **/
+	private final int pAsyncCapacity;
+
+	/** the overflow policy of the asynchronous mode, null if synchronous **/
+	private final EOverflowPolicy pAsyncPolicy;
+
 	/**
 	 * @param aLoggerName
 	 * @param aFilePathPattern
@@ -45,11 +52,47 @@ public class CIsolateLoggerChannel extends CActivityLoggerBasic {
 			final String aFilePathPattern, final String aLevel,
 			final int aFileLimit, final int aFileCount) throws Exception {
 
+		this(aLoggerName, aFilePathPattern, aLevel, aFileLimit, aFileCount,
+				null, 0);
+	}
+
+	/**
+	 * @param aLoggerName
+	 * @param aFilePathPattern
+	 * @param aLevel
+	 * @param aFileLimit
+	 * @param aFileCount
+	 * @param aAsyncPolicy
+	 *            the overflow policy of the asynchronous mode. If null, the
+	 *            records are written by the caller threads
+	 * @param aAsyncCapacity
+	 *            the number of slots of the ring of the asynchronous mode
+	 * @throws Exception
+	 */
+	CIsolateLoggerChannel(final String aLoggerName,
+			final String aFilePathPattern, final String aLevel,
+			final int aFileLimit, final int aFileCount,
+			final EOverflowPolicy aAsyncPolicy, final int aAsyncCapacity)
+			throws Exception {
+
 		super(aLoggerName, aFilePathPattern, aLevel, aFileLimit, aFileCount);
+		pAsyncPolicy = aAsyncPolicy;
+		pAsyncCapacity = aAsyncCapacity;
 		initFileHandler();
 		open();
 	}
 
+	/**
+	 * @return the asynchronous file handler or null if the channel is
+	 *         synchronous
+	 */
+	public CIsolateLoggerAsyncFileHandler getAsyncFileHandler() {
+
+		final CActivityFileHandler wFileHandler = getFileHandler();
+		return (wFileHandler instanceof CIsolateLoggerAsyncFileHandler) ? (CIsolateLoggerAsyncFileHandler) wFileHandler
+				: null;
+	}
+
 	/**
 	 * @return
 	 */
@@ -61,8 +104,11 @@ public class CIsolateLoggerChannel extends CActivityLoggerBasic {
 	@Override
 	protected void initFileHandler() throws Exception {
 
-		final CActivityFileHandler wFileHandler = new CActivityFileHandler(
-				getFilePathPattern(), getFileLimit(), getFileCount());
+		final CActivityFileHandler wFileHandler = (pAsyncPolicy != null) ? new CIsolateLoggerAsyncFileHandler(
+				getFilePathPattern(), getFileLimit(), getFileCount(),
+				pAsyncCapacity, pAsyncPolicy)
+				: new CActivityFileHandler(getFilePathPattern(),
+						getFileLimit(), getFileCount());
 		wFileHandler.setFormatter((Formatter) CActivityFormaterHuman
 				.getInstance());
 		super.setFileHandler(wFileHandler);
@@ -102,6 +148,11 @@ public class CIsolateLoggerChannel extends CActivityLoggerBasic {
 		wInfos.put("count", getFileCount());
 		wInfos.put("limit", getFileLimit());
 
+		final CIsolateLoggerAsyncFileHandler wAsyncFileHandler = getAsyncFileHandler();
+		if (wAsyncFileHandler != null) {
+			wInfos.put("async", wAsyncFileHandler.toJson());
+		}
+
 		final int wNbFile = getFileHandler().getExistingFileNames().size();
 		wInfos.put("nbfiles", wNbFile);
 
@@ -155,6 +206,20 @@ public class CIsolateLoggerChannel extends CActivityLoggerBasic {
 		wSB.append('\n');
 		wSB.append(String.format("FileSizeLimit=[%s]", getFileLimit()));
 
+		final CIsolateLoggerAsyncFileHandler wAsyncFileHandler = getAsyncFileHandler();
+		if (wAsyncFileHandler != null) {
+			wSB.append('\n');
+			wSB.append(String
+					.format("Async=[%s] Capacity=[%s] Backlog=[%s] Written=[%s] Blocked=[%s] DroppedDebug=[%s] DroppedOldest=[%s]",
+							wAsyncFileHandler.getPolicy().getName(),
+							wAsyncFileHandler.getCapacity(),
+							wAsyncFileHandler.getBacklog(),
+							wAsyncFileHandler.getNbWritten(),
+							wAsyncFileHandler.getNbBlocked(),
+							wAsyncFileHandler.getNbDroppedDebug(),
+							wAsyncFileHandler.getNbDroppedOldest()));
+		}
+
 		final int wNbFile = this.getFileHandler().getExistingFileNames().size();
 		wSB.append('\n');
 		wSB.append(String.format("NbExistingFiles=[%s]", wNbFile));
@@ -19,34 +19,104 @@ package org.psem2m.isolates.base.internal;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.logging.Level;
 
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
 import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogListener;
 import org.osgi.service.log.LogService;
 import org.psem2m.utilities.CXJavaCallerContext;
 import org.psem2m.utilities.CXJavaRunContext;
+import org.psem2m.utilities.json.JSONArray;
+import org.psem2m.utilities.json.JSONException;
+import org.psem2m.utilities.json.JSONObject;
 import org.psem2m.utilities.logging.IActivityLogger;
 
 /**
  * Internal log handler
  *
+ * The history is a fixed-capacity ring written without lock: each entry takes
+ * the next sequence number and the slot "sequence modulo capacity". The
+ * listeners of the log readers are notified by the threads of a dispatcher,
+ * through one bounded queue per listener (see {@link CLogListenerQueue}).
+ *
+ * The caller of the LogService is found by walking the stack only if the
+ * activity logger writes the entry. It can be replaced by the bundle of the
+ * entry (see {@link #setWhoFromEntry(boolean)}).
+ *
  * @author Thomas Calmant
  */
 public class CLogInternal {
 
-	/** Maximum stored entries */
+	/**
+	 * A slot of the history ring: the entry and its sequence number, to skip
+	 * the slots overwritten during a reading
+	 */
+	private static final class CHistorySlot {
+
+		final LogEntry pEntry;
+
+		final long pSeq;
+
+		/**
+		 * @param aSeq
+		 * @param aEntry
+		 */
+		CHistorySlot(final long aSeq, final LogEntry aEntry) {
+			pSeq = aSeq;
+			pEntry = aEntry;
+		}
+	}
+
+	/**
+	 * The value of the property "cohorte.isolate.log.caller" selecting the
+	 * bundle of the entries as "who"
+	 */
+	public static final String CALLER_BUNDLE = "bundle";
+
+	/** The name prefix of the threads of the dispatcher */
+	private static final String DISPATCHER_THREAD_NAME = "cohorte-log-dispatcher-";
+
+	/** Default max number of entries waiting to be delivered to a listener */
+	public static final int LISTENER_QUEUE_CAPACITY = 1024;
+
+	/** Default maximum stored entries */
 	public static final int MAX_ENTRIES = 100;
 
+	/** Number of threads delivering the entries to the listeners */
+	private static final int NB_DISPATCHER_THREADS = 2;
+
 	/** Log line formatter */
 	private final IActivityLogger pActivityLogger;
 
+	/** The executor delivering the entries to the listeners */
+	private final ExecutorService pDispatcher;
+
 	/** Log entries */
-	private final LinkedList<LogEntry> pLogEntries = new LinkedList<LogEntry>();
+	private final AtomicReferenceArray<CHistorySlot> pLogEntries;
 
 	/** Active log readers */
-	private final List<CLogReaderServiceImpl> pLogReaders = new ArrayList<CLogReaderServiceImpl>();
+	private final List<CLogReaderServiceImpl> pLogReaders = new CopyOnWriteArrayList<CLogReaderServiceImpl>();
+
+	/** The sequence number of the next entry */
+	private final AtomicLong pNextSeq = new AtomicLong();
+
+	/**
+	 * If true, the "who" and the "what" of the logged lines are the bundle and
+	 * the service reference of the entries instead of the caller found in the
+	 * stack
+	 */
+	private volatile boolean pWhoFromEntry = false;
 
 	/**
 	 * Prepares the internal log
@@ -56,7 +126,35 @@ public class CLogInternal {
 	 */
 	public CLogInternal(final IActivityLogger aLogger) {
 
+		this(aLogger, MAX_ENTRIES);
+	}
+
+	/**
+	 * Prepares the internal log
+	 *
+	 * @param aLogger
+	 *            The underlying logger
+	 * @param aHistorySize
+	 *            The maximum stored entries (MAX_ENTRIES if less than 1)
+	 */
+	public CLogInternal(final IActivityLogger aLogger, final int aHistorySize) {
+
 		pActivityLogger = aLogger;
+		pLogEntries = new AtomicReferenceArray<CHistorySlot>(
+				(aHistorySize > 0) ? aHistorySize : MAX_ENTRIES);
+
+		final AtomicInteger wThreadIdx = new AtomicInteger();
+		pDispatcher = Executors.newFixedThreadPool(NB_DISPATCHER_THREADS,
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable aRunnable) {
+						final Thread wThread = new Thread(aRunnable,
+								DISPATCHER_THREAD_NAME
+										+ wThreadIdx.incrementAndGet());
+						wThread.setDaemon(true);
+						return wThread;
+					}
+				});
 	}
 
 	/**
@@ -65,42 +163,52 @@ public class CLogInternal {
 	 * @param aEntry
 	 *            A log entry
 	 */
-	public synchronized void addEntry(final LogEntry aEntry) {
+	public void addEntry(final LogEntry aEntry) {
 
 		// Convert log level
 		final Level logLevel = osgiToJavaLogLevel(aEntry.getLevel());
 
-		/*
-		 * Find log caller (0-3: CXJavaCallerContext, 4: CLogInternal, 5:
-		 * CLogServiceImpl, 6: Logger)
-		 */
-		final Class<?> who = CXJavaCallerContext.getCaller(6);
-
-		// Find what
-		final String what = CXJavaRunContext.getPreCallingMethod();
-
-		// Log the entry
-		final Throwable throwable = aEntry.getException();
-
-		if (throwable != null) {
-			// Full log
-			pActivityLogger.log(logLevel, who, what, aEntry.getMessage(),
-					throwable);
-
-		} else {
-			// Ignore the throwable if it's null
-			pActivityLogger.log(logLevel, who, what, aEntry.getMessage());
+		// The stack is walked only if the activity logger writes the entry
+		if (pActivityLogger.isLoggable(logLevel)) {
+
+			final Object who;
+			final String what;
+			if (pWhoFromEntry) {
+				// The bundle and the service reference of the entry
+				who = getEntryWho(aEntry);
+				what = getEntryWhat(aEntry);
+
+			} else {
+				/*
+				 * Find log caller (0-3: CXJavaCallerContext, 4: CLogInternal,
+				 * 5: CLogServiceImpl, 6: Logger)
+				 */
+				who = CXJavaCallerContext.getCaller(6);
+
+				// Find what
+				what = CXJavaRunContext.getPreCallingMethod();
+			}
+
+			// Log the entry
+			final Throwable throwable = aEntry.getException();
+
+			if (throwable != null) {
+				// Full log
+				pActivityLogger.log(logLevel, who, what, aEntry.getMessage(),
+						throwable);
+
+			} else {
+				// Ignore the throwable if it's null
+				pActivityLogger.log(logLevel, who, what, aEntry.getMessage());
+			}
 		}
 
-		// Remove the oldest entry if needed
-		if (pLogEntries.size() == MAX_ENTRIES) {
-			pLogEntries.removeLast();
-		}
-
-		// Add the entry to the list
-		pLogEntries.addFirst(aEntry);
+		// Store the entry, overwriting the oldest one if needed
+		final long wSeq = pNextSeq.getAndIncrement();
+		pLogEntries.set((int) (wSeq % pLogEntries.length()), new CHistorySlot(
+				wSeq, aEntry));
 
-		// Notify readers
+		// Queue the entry for the listeners of the readers
 		for (final CLogReaderServiceImpl reader : pLogReaders) {
 			reader.notifyListeners(aEntry);
 		}
@@ -112,19 +220,90 @@ public class CLogInternal {
 	 * @param aReader
 	 *            LogReader to be added
 	 */
-	protected synchronized void addLogReader(final CLogReaderServiceImpl aReader) {
+	protected void addLogReader(final CLogReaderServiceImpl aReader) {
 
 		pLogReaders.add(aReader);
 	}
 
 	/**
-	 * Retrieves all stored entries as an enumeration
+	 * Stops the dispatcher. The entries waiting to be delivered are lost.
+	 */
+	public void close() {
+
+		for (final CLogReaderServiceImpl reader : pLogReaders) {
+			reader.close();
+		}
+		pLogReaders.clear();
+		pDispatcher.shutdownNow();
+	}
+
+	/**
+	 * Retrieves all stored entries as an enumeration, the most recent first
 	 * 
 	 * @return All stored entries
 	 */
-	public synchronized Enumeration<?> getEntries() {
+	public Enumeration<?> getEntries() {
+
+		final int wCapacity = pLogEntries.length();
+		final long wLast = pNextSeq.get() - 1;
+		final long wFirst = Math.max(0, wLast - wCapacity + 1);
+
+		final List<LogEntry> wEntries = new ArrayList<LogEntry>(
+				(int) (wLast - wFirst + 1));
+		for (long wSeq = wLast; wSeq >= wFirst; wSeq--) {
+			final CHistorySlot wSlot = pLogEntries
+					.get((int) (wSeq % wCapacity));
+			// not yet written or already overwritten by a newer entry
+			if (wSlot != null && wSlot.pSeq == wSeq) {
+				wEntries.add(wSlot.pEntry);
+			}
+		}
+		return Collections.enumeration(wEntries);
+	}
+
+	/**
+	 * @param aEntry
+	 *            A log entry
+	 * @return the id of the service reference of the entry or the name of the
+	 *         method of the LogService
+	 */
+	private String getEntryWhat(final LogEntry aEntry) {
+
+		final ServiceReference<?> wReference = aEntry.getServiceReference();
+		if (wReference != null) {
+			return String.format("service.id=%s",
+					wReference.getProperty(Constants.SERVICE_ID));
+		}
+		return "log";
+	}
+
+	/**
+	 * @param aEntry
+	 *            A log entry
+	 * @return the symbolic name of the bundle of the entry
+	 */
+	private Object getEntryWho(final LogEntry aEntry) {
 
-		return Collections.enumeration(pLogEntries);
+		final Bundle wBundle = aEntry.getBundle();
+		return (wBundle != null) ? wBundle.getSymbolicName() : this;
+	}
+
+	/**
+	 * @return the maximum stored entries
+	 */
+	public int getHistorySize() {
+		return pLogEntries.length();
+	}
+
+	/**
+	 * @param aListener
+	 *            a listener of a log reader
+	 * @return a new queue delivering the entries to the listener
+	 */
+	CLogListenerQueue newListenerQueue(final LogListener aListener) {
+
+		return new CLogListenerQueue(aListener, pDispatcher,
+				LISTENER_QUEUE_CAPACITY);
 	}
 
 	/**
@@ -160,15 +339,51 @@ public class CLogInternal {
 	 * @param aReader
 	 *            Log reader to remove
 	 */
-	public synchronized void removeLogReader(final CLogReaderServiceImpl aReader) {
+	public void removeLogReader(final CLogReaderServiceImpl aReader) {
 
 		pLogReaders.remove(aReader);
 	}
 
 	/**
-	 * @return
+	 * @param aWhoFromEntry
+	 *            if true, the "who" and the "what" of the logged lines are the
+	 *            bundle and the service reference of the entries instead of the
+	 *            caller found by walking the stack
+	 */
+	public void setWhoFromEntry(final boolean aWhoFromEntry) {
+		pWhoFromEntry = aWhoFromEntry;
+	}
+
+	/**
+	 * @return the number of stored entries
 	 */
 	public int size() {
-		return pLogEntries.size();
+		return (int) Math.min(pNextSeq.get(), pLogEntries.length());
+	}
+
+	/**
+	 * <pre>
+	 * {"historysize":100,"size":100,"nbentries":5678,
+	 *  "listeners":[{"listener":"org.foo.CListener","capacity":1024,...}]}
+	 * </pre>
+	 *
+	 * @return the state of the history and the counters of the listeners
+	 * @throws JSONException
+	 */
+	public JSONObject toJson() throws JSONException {
+
+		final JSONObject wInfos = new JSONObject();
+		wInfos.put("historysize", getHistorySize());
+		wInfos.put("size", size());
+		wInfos.put("nbentries", pNextSeq.get());
+		wInfos.put("whofromentry", pWhoFromEntry);
+		final JSONArray wListeners = new JSONArray();
+		for (final CLogReaderServiceImpl reader : pLogReaders) {
+			for (final CLogListenerQueue wQueue : reader.getListenerQueues()) {
+				wListeners.put(wQueue.toJson());
+			}
+		}
+		wInfos.put("listeners", wListeners);
+		return wInfos;
 	}
 }
@@ -0,0 +1,238 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.isolates.base.internal;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.service.log.LogEntry;
+import org.osgi.service.log.LogListener;
+import org.psem2m.utilities.json.JSONException;
+import org.psem2m.utilities.json.JSONObject;
+
+/**
+ * The bounded queue of the log entries waiting to be delivered to one
+ * LogListener.
+ *
+ * The entries are delivered in order by at most one task of the dispatcher
+ * of the CLogInternal at a time. A task delivers at most BATCH_SIZE entries
+ * then gives back its thread, so a slow listener only delays itself. If the
+ * queue is full, the new entries are dropped and counted.
+ *
+ * @author ogattaz
+ *
+ */
+class CLogListenerQueue implements Runnable {
+
+	/** the max number of entries delivered by one task */
+	static final int BATCH_SIZE = 64;
+
+	/** the number of entries in the queue */
+	private final AtomicInteger pBacklog = new AtomicInteger();
+
+	/** the max number of entries in the queue */
+	private final int pCapacity;
+
+	/** true if closed: the entries are no more delivered */
+	private volatile boolean pClosed = false;
+
+	/** the executor running the delivery tasks */
+	private final Executor pDispatcher;
+
+	/** the listener */
+	private final LogListener pListener;
+
+	/** the highest backlog since the creation */
+	private final AtomicInteger pMaxBacklog = new AtomicInteger();
+
+	private final AtomicLong pNbDelivered = new AtomicLong();
+
+	private final AtomicLong pNbDropped = new AtomicLong();
+
+	private final AtomicLong pNbFailures = new AtomicLong();
+
+	/** the entries */
+	private final Queue<LogEntry> pQueue = new ConcurrentLinkedQueue<LogEntry>();
+
+	/** true if a delivery task is submitted or running */
+	private final AtomicBoolean pScheduled = new AtomicBoolean(false);
+
+	/**
+	 * @param aListener
+	 *            the listener to notify
+	 * @param aDispatcher
+	 *            the executor running the delivery tasks
+	 * @param aCapacity
+	 *            the max number of entries waiting to be delivered
+	 */
+	CLogListenerQueue(final LogListener aListener, final Executor aDispatcher,
+			final int aCapacity) {
+
+		pListener = aListener;
+		pDispatcher = aDispatcher;
+		pCapacity = aCapacity;
+	}
+
+	/**
+	 * Stops the delivery and clears the queue
+	 */
+	void close() {
+
+		pClosed = true;
+		while (pQueue.poll() != null) {
+			pBacklog.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return the number of entries waiting to be delivered
+	 */
+	int getBacklog() {
+		return pBacklog.get();
+	}
+
+	/**
+	 * @return the listener
+	 */
+	LogListener getListener() {
+		return pListener;
+	}
+
+	/**
+	 * @return the number of entries delivered to the listener
+	 */
+	long getNbDelivered() {
+		return pNbDelivered.get();
+	}
+
+	/**
+	 * @return the number of entries dropped because the queue was full
+	 */
+	long getNbDropped() {
+		return pNbDropped.get();
+	}
+
+	/**
+	 * @return the number of entries whose delivery threw an exception
+	 */
+	long getNbFailures() {
+		return pNbFailures.get();
+	}
+
+	/**
+	 * Queues the entry. Never blocks the caller.
+	 *
+	 * @param aEntry
+	 *            a log entry
+	 * @return false if the entry is dropped
+	 */
+	boolean offer(final LogEntry aEntry) {
+
+		if (pClosed) {
+			return false;
+		}
+		final int wBacklog = pBacklog.incrementAndGet();
+		if (wBacklog > pCapacity) {
+			pBacklog.decrementAndGet();
+			pNbDropped.incrementAndGet();
+			return false;
+		}
+		pQueue.offer(aEntry);
+
+		int wMax = pMaxBacklog.get();
+		while (wBacklog > wMax && !pMaxBacklog.compareAndSet(wMax, wBacklog)) {
+			wMax = pMaxBacklog.get();
+		}
+		schedule();
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+
+		try {
+			LogEntry wEntry;
+			int wNb = 0;
+			while (wNb < BATCH_SIZE && (wEntry = pQueue.poll()) != null) {
+				pBacklog.decrementAndGet();
+				wNb++;
+				if (pClosed) {
+					continue;
+				}
+				try {
+					pListener.logged(wEntry);
+					pNbDelivered.incrementAndGet();
+				} catch (final Exception e) {
+					pNbFailures.incrementAndGet();
+				}
+			}
+		} finally {
+			pScheduled.set(false);
+		}
+		// entries queued during the batch or remaining after it
+		if (!pQueue.isEmpty() && !pClosed) {
+			schedule();
+		}
+	}
+
+	/**
+	 * Submits a delivery task if there isn't one already submitted or running
+	 */
+	private void schedule() {
+
+		if (pScheduled.compareAndSet(false, true)) {
+			try {
+				pDispatcher.execute(this);
+			} catch (final RejectedExecutionException e) {
+				// the dispatcher is shut down
+				pScheduled.set(false);
+			}
+		}
+	}
+
+	/**
+	 * <pre>
+	 * {"listener":"org.foo.CListener","capacity":1024,"backlog":0,"maxbacklog":12,
+	 *  "delivered":1234,"dropped":0,"failures":0}
+	 * </pre>
+	 *
+	 * @return the counters of the queue
+	 * @throws JSONException
+	 */
+	JSONObject toJson() throws JSONException {
+
+		final JSONObject wInfos = new JSONObject();
+		wInfos.put("listener", pListener.getClass().getName());
+		wInfos.put("capacity", pCapacity);
+		wInfos.put("backlog", getBacklog());
+		wInfos.put("maxbacklog", pMaxBacklog.get());
+		wInfos.put("delivered", getNbDelivered());
+		wInfos.put("dropped", getNbDropped());
+		wInfos.put("failures", getNbFailures());
+		return wInfos;
+	}
+}
@@ -16,15 +16,19 @@
 
 package org.psem2m.isolates.base.internal;
 
+import java.util.Collection;
 import java.util.Enumeration;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.osgi.service.log.LogEntry;
 import org.osgi.service.log.LogListener;
 import org.osgi.service.log.LogReaderService;
 
 /**
+ * The entries are delivered to each listener by the dispatcher of the
+ * internal log handler, through its own queue.
+ *
  * @author Thomas Calmant
  *
  */
@@ -33,8 +37,8 @@ public class CLogReaderServiceImpl implements LogReaderService {
     /** Internal log handler */
     private final CLogInternal pLogInternal;
 
-    /** Log listeners */
-    private final Set<LogListener> pLogListeners = new HashSet<LogListener>();
+    /** Log listeners and their queues */
+    private final ConcurrentMap<LogListener, CLogListenerQueue> pLogListeners = new ConcurrentHashMap<LogListener, CLogListenerQueue>();
 
     /**
      * Prepares the log reader service
@@ -57,14 +61,20 @@ public class CLogReaderServiceImpl implements LogReaderService {
     @Override
     public void addLogListener(final LogListener aListener) {
 
-        pLogListeners.add(aListener);
+        if (!pLogListeners.containsKey(aListener)) {
+            pLogListeners.putIfAbsent(aListener,
+                    pLogInternal.newListenerQueue(aListener));
+        }
     }
 
     /**
      * Clears the listeners list
      */
-    public synchronized void close() {
+    public void close() {
 
+        for (final CLogListenerQueue wQueue : pLogListeners.values()) {
+            wQueue.close();
+        }
         pLogListeners.clear();
     }
 
@@ -80,15 +90,24 @@ public class CLogReaderServiceImpl implements LogReaderService {
     }
 
     /**
-     * Notifies all listeners of the given entry
+     * @return the queues of the listeners
+     */
+    Collection<CLogListenerQueue> getListenerQueues() {
+
+        return pLogListeners.values();
+    }
+
+    /**
+     * Queues the given entry for all listeners. Never blocks the caller: the
+     * entry is dropped for the listeners whose queue is full.
      *
      * @param aEntry
      *            A log entry
      */
-    public synchronized void notifyListeners(final LogEntry aEntry) {
+    public void notifyListeners(final LogEntry aEntry) {
 
-        for (final LogListener listener : pLogListeners) {
-            listener.logged(aEntry);
+        for (final CLogListenerQueue wQueue : pLogListeners.values()) {
+            wQueue.offer(aEntry);
         }
     }
 
@@ -102,6 +121,9 @@ public class CLogReaderServiceImpl implements LogReaderService {
     @Override
     public void removeLogListener(final LogListener aListener) {
 
-        pLogListeners.remove(aListener);
+        final CLogListenerQueue wQueue = pLogListeners.remove(aListener);
+        if (wQueue != null) {
+            wQueue.close();
+        }
     }
 }
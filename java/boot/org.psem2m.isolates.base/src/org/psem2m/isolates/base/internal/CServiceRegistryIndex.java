@@ -0,0 +1,382 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.isolates.base.internal;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.apache.felix.ipojo.annotations.Validate;
+import org.osgi.framework.AllServiceListener;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+import org.psem2m.isolates.base.IIsolateLoggerSvc;
+import org.psem2m.isolates.services.monitoring.IServiceRegistryIndex;
+
+/**
+ * The live index of the service registry: loaded once on validation, then
+ * updated on each registration and unregistration.
+ *
+ * The updates are serialized (the initial load included, so that an event
+ * received during the load is applied after it); the lookups don't lock: the
+ * indexes are concurrent maps sorted by service ID. The number of services is
+ * counted on each update, as the size of a skip list walks it.
+ *
+ * An AllServiceListener is used to index the services whatever their
+ * packages are visible by this bundle or not.
+ *
+ * @author ogattaz
+ *
+ */
+@Component(name = "cohorte-isolate-base-service-registry-index-factory")
+@Instantiate(name = "cohorte-isolate-base-service-registry-index")
+@Provides(specifications = { IServiceRegistryIndex.class })
+public class CServiceRegistryIndex implements IServiceRegistryIndex,
+		AllServiceListener {
+
+	/** the empty result */
+	private static final Collection<ServiceReference<?>> NO_REFERENCES = Collections
+			.emptyList();
+
+	private final BundleContext pBundleContext;
+
+	/** bundle ID -> service ID -> reference */
+	private final ConcurrentMap<Long, ConcurrentNavigableMap<Long, ServiceReference<?>>> pByBundle = new ConcurrentHashMap<Long, ConcurrentNavigableMap<Long, ServiceReference<?>>>();
+
+	/** service ID -> reference */
+	private final ConcurrentNavigableMap<Long, ServiceReference<?>> pById = new ConcurrentSkipListMap<Long, ServiceReference<?>>();
+
+	/** specification -> service ID -> reference */
+	private final ConcurrentMap<String, ConcurrentNavigableMap<Long, ServiceReference<?>>> pBySpec = new ConcurrentHashMap<String, ConcurrentNavigableMap<Long, ServiceReference<?>>>();
+
+	/** the number of indexed services, updated under the lock */
+	private volatile int pCount;
+
+	/** the lock of the updates */
+	private final Object pLock = new Object();
+
+	@Requires
+	private IIsolateLoggerSvc pLogger;
+
+	/**
+	 * @param aBundleContext
+	 */
+	public CServiceRegistryIndex(final BundleContext aBundleContext) {
+		super();
+		pBundleContext = aBundleContext;
+	}
+
+	/**
+	 * Indexes a service
+	 *
+	 * @param aReference
+	 */
+	private void add(final ServiceReference<?> aReference) {
+
+		final Bundle wBundle = aReference.getBundle();
+		if (wBundle == null) {
+			// already unregistered
+			return;
+		}
+
+		final Long wId = (Long) aReference.getProperty(Constants.SERVICE_ID);
+		if (pById.put(wId, aReference) == null) {
+			pCount++;
+		}
+		indexOf(pByBundle, wBundle.getBundleId()).put(wId, aReference);
+		for (final String wSpec : (String[]) aReference
+				.getProperty(Constants.OBJECTCLASS)) {
+			indexOf(pBySpec, wSpec).put(wId, aReference);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.psem2m.isolates.services.monitoring.IServiceRegistryIndex#getBundleReferences
+	 * (long)
+	 */
+	@Override
+	public Collection<ServiceReference<?>> getBundleReferences(
+			final long aBundleId) {
+
+		return view(pByBundle.get(aBundleId));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.psem2m.isolates.services.monitoring.IServiceRegistryIndex#getBundleReferences
+	 * (long, long)
+	 */
+	@Override
+	public Collection<ServiceReference<?>> getBundleReferences(
+			final long aBundleId, final long aFromServiceId) {
+
+		return view(pByBundle.get(aBundleId), aFromServiceId);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.psem2m.isolates.services.monitoring.IServiceRegistryIndex#getReference
+	 * (long)
+	 */
+	@Override
+	public ServiceReference<?> getReference(final long aServiceId) {
+
+		return pById.get(aServiceId);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.psem2m.isolates.services.monitoring.IServiceRegistryIndex#getReferences
+	 * ()
+	 */
+	@Override
+	public Collection<ServiceReference<?>> getReferences() {
+
+		return view(pById);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.psem2m.isolates.services.monitoring.IServiceRegistryIndex#getReferences
+	 * (java.lang.String)
+	 */
+	@Override
+	public Collection<ServiceReference<?>> getReferences(
+			final String aSpecification) {
+
+		return view(pBySpec.get(aSpecification));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.psem2m.isolates.services.monitoring.IServiceRegistryIndex#getReferences
+	 * (java.lang.String, long)
+	 */
+	@Override
+	public Collection<ServiceReference<?>> getReferences(
+			final String aSpecification, final long aFromServiceId) {
+
+		return view((aSpecification == null) ? pById : pBySpec
+				.get(aSpecification), aFromServiceId);
+	}
+
+	/**
+	 * @param aIndexes
+	 * @param aKey
+	 * @return the index of the key, created if needed
+	 */
+	private <K> ConcurrentNavigableMap<Long, ServiceReference<?>> indexOf(
+			final ConcurrentMap<K, ConcurrentNavigableMap<Long, ServiceReference<?>>> aIndexes,
+			final K aKey) {
+
+		ConcurrentNavigableMap<Long, ServiceReference<?>> wIndex = aIndexes
+				.get(aKey);
+		if (wIndex == null) {
+			wIndex = new ConcurrentSkipListMap<Long, ServiceReference<?>>();
+			aIndexes.put(aKey, wIndex);
+		}
+		return wIndex;
+	}
+
+	/**
+	 *
+	 */
+	@Invalidate
+	public void invalidate() {
+
+		pBundleContext.removeServiceListener(this);
+		synchronized (pLock) {
+			pById.clear();
+			pBySpec.clear();
+			pByBundle.clear();
+			pCount = 0;
+		}
+		pLogger.logInfo(this, "invalidate", "invalidated");
+	}
+
+	/**
+	 * Removes a service from the index
+	 *
+	 * @param aReference
+	 */
+	private void remove(final ServiceReference<?> aReference) {
+
+		final Long wId = (Long) aReference.getProperty(Constants.SERVICE_ID);
+		if (pById.remove(wId) == null) {
+			return;
+		}
+		pCount--;
+
+		for (final String wSpec : (String[]) aReference
+				.getProperty(Constants.OBJECTCLASS)) {
+			removeFrom(pBySpec, wSpec, wId);
+		}
+
+		final Bundle wBundle = aReference.getBundle();
+		if (wBundle != null) {
+			removeFrom(pByBundle, wBundle.getBundleId(), wId);
+		} else {
+			// the registering bundle isn't known anymore
+			final Iterator<Long> wBundleIds = pByBundle.keySet().iterator();
+			while (wBundleIds.hasNext()) {
+				removeFrom(pByBundle, wBundleIds.next(), wId);
+			}
+		}
+	}
+
+	/**
+	 * Removes a service from the index of a key, and the index if it becomes
+	 * empty
+	 *
+	 * @param aIndexes
+	 * @param aKey
+	 * @param aServiceId
+	 */
+	private <K> void removeFrom(
+			final ConcurrentMap<K, ConcurrentNavigableMap<Long, ServiceReference<?>>> aIndexes,
+			final K aKey, final Long aServiceId) {
+
+		final ConcurrentNavigableMap<Long, ServiceReference<?>> wIndex = aIndexes
+				.get(aKey);
+		if (wIndex != null && wIndex.remove(aServiceId) != null
+				&& wIndex.isEmpty()) {
+			aIndexes.remove(aKey, wIndex);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.osgi.framework.ServiceListener#serviceChanged(org.osgi.framework.
+	 * ServiceEvent)
+	 */
+	@Override
+	public void serviceChanged(final ServiceEvent aEvent) {
+
+		synchronized (pLock) {
+			switch (aEvent.getType()) {
+			case ServiceEvent.REGISTERED:
+				add(aEvent.getServiceReference());
+				break;
+
+			case ServiceEvent.UNREGISTERING:
+				remove(aEvent.getServiceReference());
+				break;
+
+			default:
+				// the modified properties aren't indexed
+				break;
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.psem2m.isolates.services.monitoring.IServiceRegistryIndex#size()
+	 */
+	@Override
+	public int size() {
+
+		return pCount;
+	}
+
+	/**
+	 *
+	 */
+	@Validate
+	public void validate() {
+
+		synchronized (pLock) {
+			// listen before the load: the events received meanwhile wait for it
+			pBundleContext.addServiceListener(this);
+			try {
+				final ServiceReference<?>[] wReferences = pBundleContext
+						.getAllServiceReferences(null, null);
+				if (wReferences != null) {
+					for (final ServiceReference<?> wReference : wReferences) {
+						add(wReference);
+					}
+				}
+
+			} catch (final InvalidSyntaxException e) {
+				// can't happen without filter
+				pLogger.logSevere(this, "validate", "Can't load the services",
+						e);
+			}
+		}
+		pLogger.logInfo(this, "validate", "validated, indexed [%d] services",
+				pCount);
+	}
+
+	/**
+	 * @param aIndex
+	 * @return a read-only view of the references of the index
+	 */
+	private Collection<ServiceReference<?>> view(
+			final ConcurrentNavigableMap<Long, ServiceReference<?>> aIndex) {
+
+		if (aIndex == null) {
+			return NO_REFERENCES;
+		}
+		return Collections.unmodifiableCollection(aIndex.values());
+	}
+
+	/**
+	 * @param aIndex
+	 * @param aFromServiceId
+	 * @return a read-only view of the references of the index, starting at
+	 *         the given service ID
+	 */
+	private Collection<ServiceReference<?>> view(
+			final ConcurrentNavigableMap<Long, ServiceReference<?>> aIndex,
+			final long aFromServiceId) {
+
+		if (aIndex == null) {
+			return NO_REFERENCES;
+		}
+		return Collections.unmodifiableCollection(aIndex.tailMap(
+				aFromServiceId, true).values());
+	}
+}
@@ -27,6 +27,23 @@ public interface IRemoteShell {
     /** IP Address on which the remote shell is accessible */
     String SHELL_ADDRESS = "osgi.shell.telnet.ip";
 
+    /** Length of the queue of the connections waiting to be accepted */
+    String SHELL_BACKLOG = "cohorte.shell.remote.backlog";
+
+    /**
+     * Time given to the sessions to end when the shell stops, in milliseconds
+     */
+    String SHELL_DRAIN_TIMEOUT = "cohorte.shell.remote.drain.timeout";
+
+    /**
+     * Time after which a session waiting for a command is closed, in seconds
+     * (0 to keep idle sessions)
+     */
+    String SHELL_IDLE_TIMEOUT = "cohorte.shell.remote.idle.timeout";
+
+    /** Max number of sessions opened at the same time */
+    String SHELL_MAX_CONNECTIONS = "osgi.shell.telnet.maxconn";
+
     /** Port on which the remote shell is accessible. */
     String SHELL_PORT = "osgi.shell.telnet.port";
 
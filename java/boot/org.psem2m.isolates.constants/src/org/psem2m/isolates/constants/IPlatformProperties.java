@@ -43,6 +43,50 @@ public interface IPlatformProperties {
 	 */
 	String PROP_FORKER_HTTP_PORT = "cohorte.forker.http.port";
 	
+	/**
+	 * Selects the asynchronous mode of the isolate logger channel and its
+	 * overflow policy: "block", "drop-debug-first" or "drop-oldest".
+	 *
+	 * If absent (or unknown), the records are written synchronously by the
+	 * caller threads.
+	 *
+	 * <pre>
+	 * -Dcohorte.isolate.logger.async=drop-debug-first
+	 * </pre>
+	 */
+	String PROP_ISOLATE_LOGGER_ASYNC = "cohorte.isolate.logger.async";
+
+	/**
+	 * The number of records the ring of the asynchronous isolate logger
+	 * channel can hold (8192 by default)
+	 *
+	 * <pre>
+	 * -Dcohorte.isolate.logger.async.capacity=16384
+	 * </pre>
+	 */
+	String PROP_ISOLATE_LOGGER_ASYNC_CAPACITY = "cohorte.isolate.logger.async.capacity";
+
+	/**
+	 * The way the OSGi LogService of the isolate finds the "who" and the "what"
+	 * of the lines it writes: "stack" (default) walks the stack to find the
+	 * caller, "bundle" uses the bundle and the service reference of the entry.
+	 *
+	 * <pre>
+	 * -Dcohorte.isolate.log.caller=bundle
+	 * </pre>
+	 */
+	String PROP_ISOLATE_LOG_CALLER = "cohorte.isolate.log.caller";
+
+	/**
+	 * The number of OSGi log entries kept by the LogService of the isolate and
+	 * returned by the LogReaderService (100 by default)
+	 *
+	 * <pre>
+	 * -Dcohorte.isolate.log.history.size=1000
+	 * </pre>
+	 */
+	String PROP_ISOLATE_LOG_HISTORY_SIZE = "cohorte.isolate.log.history.size";
+
 	/**
 	 * MOD_0G_20150821
 	 *
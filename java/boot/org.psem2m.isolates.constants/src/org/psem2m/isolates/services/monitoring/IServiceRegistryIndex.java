@@ -0,0 +1,107 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.isolates.services.monitoring;
+
+import java.util.Collection;
+
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Represents a live index of the service registry of the isolate: the
+ * registered services by service ID, by specification and by bundle, updated
+ * on each service event.
+ *
+ * The returned collections are read-only views, sorted by service ID, which
+ * reflect the registrations and unregistrations made while they are
+ * iterated. Getting them doesn't depend on the number of services, and the
+ * ones taking a service ID start at it without walking the services before:
+ * a page of references is read from the last service ID of the previous page.
+ *
+ * @author ogattaz
+ */
+public interface IServiceRegistryIndex {
+
+    /**
+     * Returns the services registered by the given bundle
+     *
+     * @param aBundleId
+     *            A bundle ID
+     * @return The references of the services of the bundle (can be empty)
+     */
+    Collection<ServiceReference<?>> getBundleReferences(long aBundleId);
+
+    /**
+     * Returns the services registered by the given bundle, starting at the
+     * given service ID
+     *
+     * @param aBundleId
+     *            A bundle ID
+     * @param aFromServiceId
+     *            The ID of the first service to return, if still registered
+     * @return The references of the services of the bundle with an ID greater
+     *         than or equal to the given one (can be empty)
+     */
+    Collection<ServiceReference<?>> getBundleReferences(long aBundleId,
+            long aFromServiceId);
+
+    /**
+     * Returns the reference of the given service
+     *
+     * @param aServiceId
+     *            A service ID
+     * @return The reference of the service, or null
+     */
+    ServiceReference<?> getReference(long aServiceId);
+
+    /**
+     * Returns all the registered services
+     *
+     * @return The references of all the services
+     */
+    Collection<ServiceReference<?>> getReferences();
+
+    /**
+     * Returns the services providing the given specification
+     *
+     * @param aSpecification
+     *            A specification (interface name)
+     * @return The references of the providers (can be empty)
+     */
+    Collection<ServiceReference<?>> getReferences(String aSpecification);
+
+    /**
+     * Returns the services providing the given specification, starting at the
+     * given service ID
+     *
+     * @param aSpecification
+     *            A specification (interface name), null for all the services
+     * @param aFromServiceId
+     *            The ID of the first service to return, if still registered
+     * @return The references of the providers with an ID greater than or
+     *         equal to the given one (can be empty)
+     */
+    Collection<ServiceReference<?>> getReferences(String aSpecification,
+            long aFromServiceId);
+
+    /**
+     * Returns the number of registered services, kept by the index: getting
+     * it doesn't walk the services
+     *
+     * @return The number of services
+     */
+    int size();
+}
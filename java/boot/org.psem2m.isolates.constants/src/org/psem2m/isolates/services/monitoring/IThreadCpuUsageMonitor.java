@@ -37,6 +37,29 @@ public interface IThreadCpuUsageMonitor {
      */
     long[] getKnownThreadsIds();
 
+    /**
+     * Copies the known threads IDs, sorted, in the given array, without
+     * allocating one. Only the first IDs are copied if the array is too
+     * short.
+     *
+     * @param aThreadsIds
+     *            The array receiving the IDs
+     * @return The number of known threads, which can be greater than the
+     *         length of the array
+     */
+    int getKnownThreadsIds(long[] aThreadsIds);
+
+    /**
+     * Retrieves the allocation rate of the given thread between the two last
+     * calls to {@link #update()}, in bytes per second. Returns -1 if the thread
+     * is unknown or if the JVM doesn't measure the allocated memory.
+     *
+     * @param aThreadId
+     *            A thread ID
+     * @return The allocation rate of the given thread, -1 if not available
+     */
+    double getThreadAllocationRate(final long aThreadId);
+
     /**
      * Retrieves the average CPU usage of the given thread, between the first
      * and the last time it was seen by {@link #update()}. Returns -1 if the
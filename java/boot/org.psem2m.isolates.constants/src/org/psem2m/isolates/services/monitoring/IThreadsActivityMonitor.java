@@ -0,0 +1,132 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.isolates.services.monitoring;
+
+import java.util.Map;
+
+/**
+ * Represents a monitor of the activity of the threads of the isolate: memory
+ * allocation, contention on the locks and lock-owner chains, over a sliding
+ * window.
+ *
+ * The report is made of maps, lists, strings and numbers only, to be
+ * converted to JSON by the caller:
+ *
+ * <pre>
+ * {
+ *   "window-ms": 60000,
+ *   "nb-threads": 42,
+ *   "allocation": [ {thread}, ... ],
+ *   "blocked": [ {thread}, ... ],
+ *   "waited": [ {thread}, ... ],
+ *   "lock-chains": [ {chain}, ... ]
+ * }
+ *
+ * thread: {
+ *   "id": 12, "name": "...", "state": "BLOCKED", "cpu-usage": 12.5,
+ *   "allocated-bytes": 1048576, "blocked-count": 3, "blocked-time-ms": 42,
+ *   "waited-count": 5, "waited-time-ms": 1000
+ * }
+ *
+ * chain: {
+ *   "lock": "...", "threads": [ "name#id", ... ], "deadlock": false
+ * }
+ * </pre>
+ *
+ * The counts and the times are the ones of the window. A time is -1 if the
+ * JVM doesn't monitor the contention, the allocated bytes are -1 if the JVM
+ * doesn't measure the allocated memory.
+ *
+ * The window is only sampled, and the contention monitoring of the JVM only
+ * enabled, while it is in use: from the first call to
+ * {@link #getActivityReport(int)} until no report has been asked for a while,
+ * or permanently if the framework property {@link #PROP_ENABLED} is "true".
+ * The first report after an idle period covers an empty window.
+ *
+ * @author ogattaz
+ */
+public interface IThreadsActivityMonitor {
+
+    /** Report entry: the threads allocating the most (list of threads) */
+    String KEY_ALLOCATION = "allocation";
+
+    /** Thread entry: bytes allocated during the window */
+    String KEY_ALLOCATED_BYTES = "allocated-bytes";
+
+    /** Thread entry: times the thread was blocked during the window */
+    String KEY_BLOCKED_COUNT = "blocked-count";
+
+    /** Thread entry: time the thread was blocked during the window */
+    String KEY_BLOCKED_TIME = "blocked-time-ms";
+
+    /** Report entry: the threads the most blocked (list of threads) */
+    String KEY_BLOCKED_TOP = "blocked";
+
+    /** Thread entry: the CPU usage (%) of the thread on the last sample */
+    String KEY_CPU_USAGE = "cpu-usage";
+
+    /** Chain entry: true if the chain is a cycle */
+    String KEY_DEADLOCK = "deadlock";
+
+    /** Thread entry: the thread ID */
+    String KEY_ID = "id";
+
+    /** Chain entry: the lock the first thread of the chain waits for */
+    String KEY_LOCK = "lock";
+
+    /** Report entry: the lock-owner chains (list of chains) */
+    String KEY_LOCK_CHAINS = "lock-chains";
+
+    /** Thread entry: the thread name */
+    String KEY_NAME = "name";
+
+    /** Report entry: number of live threads */
+    String KEY_NB_THREADS = "nb-threads";
+
+    /** Thread entry: the state of the thread on the last sample */
+    String KEY_STATE = "state";
+
+    /**
+     * Chain entry: the threads of the chain ("name#id"), each one owning the
+     * lock the previous one waits for
+     */
+    String KEY_THREADS = "threads";
+
+    /** Thread entry: times the thread waited during the window */
+    String KEY_WAITED_COUNT = "waited-count";
+
+    /** Thread entry: time the thread waited during the window */
+    String KEY_WAITED_TIME = "waited-time-ms";
+
+    /** Report entry: the threads waiting the most (list of threads) */
+    String KEY_WAITED_TOP = "waited";
+
+    /** Report entry: the duration covered by the report */
+    String KEY_WINDOW = "window-ms";
+
+    /** Framework property: if "true", the window is always sampled */
+    String PROP_ENABLED = "cohorte.threads.activity.enabled";
+
+    /**
+     * Retrieves the top offenders of the current sliding window
+     *
+     * @param aMaxThreads
+     *            The max number of threads in each top list and of chains
+     * @return The activity report (see the description of the interface)
+     */
+    Map<String, Object> getActivityReport(final int aMaxThreads);
+}
@@ -16,6 +16,8 @@
 
 package org.psem2m.isolates.slave.agent;
 
+import java.util.Map;
+
 /**
  * Describes an isolate agent service
  *
@@ -28,4 +30,19 @@ public interface ISvcAgent {
      * framework and the basic bundles, and kill the process
      */
     void killIsolate();
+
+    /**
+     * Starts the given bundles at once: they are resolved together, then
+     * started concurrently, a bundle being started after the bundles it is
+     * wired to. Unknown bundles and fragments are ignored.
+     *
+     * @param aBundleIds
+     *            The IDs of the bundles to start
+     * @return Bundle ID -&gt; activation time (ms), -1 if the bundle couldn't be
+     *         started, in start order
+     * @throws InterruptedException
+     *             Interrupted while waiting for the starts
+     */
+    Map<Long, Long> startBundles(long[] aBundleIds)
+            throws InterruptedException;
 }
@@ -92,6 +92,34 @@ public class JmxMonitor implements IThreadCpuUsageMonitor {
 		return result;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.psem2m.isolates.services.monitoring.IThreadCpuUsageMonitor#
+	 * getKnownThreadsIds(long[])
+	 */
+	@Override
+	public int getKnownThreadsIds(final long[] aThreadsIds) {
+
+		final long[] threadsIds = getKnownThreadsIds();
+		System.arraycopy(threadsIds, 0, aThreadsIds, 0,
+				Math.min(threadsIds.length, aThreadsIds.length));
+		return threadsIds.length;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.psem2m.isolates.services.monitoring.IThreadCpuUsageMonitor#
+	 * getThreadAllocationRate(long)
+	 */
+	@Override
+	public double getThreadAllocationRate(final long aThreadId) {
+
+		// Not measured
+		return -1;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
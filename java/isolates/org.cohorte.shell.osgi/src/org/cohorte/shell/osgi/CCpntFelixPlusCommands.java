@@ -16,9 +16,14 @@
 
 package org.cohorte.shell.osgi;
 
-import java.lang.reflect.Array;
+import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Formatter;
+import java.util.List;
 
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Instantiate;
@@ -28,14 +33,17 @@ import org.apache.felix.ipojo.annotations.Requires;
 import org.apache.felix.ipojo.annotations.ServiceProperty;
 import org.apache.felix.ipojo.annotations.Validate;
 import org.apache.felix.service.command.Descriptor;
+import org.apache.felix.service.command.Parameter;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
 import org.psem2m.isolates.base.CAbstractGoGoCommand;
 import org.psem2m.isolates.base.IGoGoCommand;
 import org.psem2m.isolates.base.IIsolateLoggerSvc;
+import org.psem2m.isolates.services.monitoring.IServiceRegistryIndex;
 
 /**
  * Implementations of Gogo shell commands to simplify OSGi debugging
@@ -47,6 +55,27 @@ import org.psem2m.isolates.base.IIsolateLoggerSvc;
 @Provides(specifications = { IGoGoCommand.class })
 public class CCpntFelixPlusCommands extends CAbstractGoGoCommand implements IGoGoCommand {
 
+	/** The default max number of services printed by a command */
+	private static final String DEFAULT_LIMIT = "100";
+
+	/** Sorts the service references by service ID */
+	private static final Comparator<ServiceReference<?>> SERVICE_ID_ORDER = new Comparator<ServiceReference<?>>() {
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.Comparator#compare(java.lang.Object, java.lang.Object)
+		 */
+		@Override
+		public int compare(final ServiceReference<?> aReference, final ServiceReference<?> aOther) {
+
+			final Long svcId1 = (Long) aReference.getProperty(Constants.SERVICE_ID);
+			final Long svcId2 = (Long) aOther.getProperty(Constants.SERVICE_ID);
+
+			return svcId1.compareTo(svcId2);
+		}
+	};
+
 	/**
 	 * The Gogo commands name. ATTENTION : look at the name of the methods and the
 	 * declaration
@@ -63,6 +92,10 @@ public class CCpntFelixPlusCommands extends CAbstractGoGoCommand implements IGoG
 	@Requires
 	private IIsolateLoggerSvc pLogger;
 
+	/** the index of the service registry, if any */
+	@Requires(optional = true, nullable = false)
+	private IServiceRegistryIndex pServicesIndex;
+
 	/**
 	 * The Gogo commands scope
 	 */
@@ -80,6 +113,39 @@ public class CCpntFelixPlusCommands extends CAbstractGoGoCommand implements IGoG
 		pContext = aContext;
 	}
 
+	/**
+	 * @param aFilter
+	 *            an LDAP filter given to a command
+	 * @return the filter, null if empty
+	 * @throws InvalidSyntaxException
+	 *             invalid filter
+	 */
+	private Filter createFilter(final String aFilter) throws InvalidSyntaxException {
+		return (toFilter(aFilter) == null) ? null : pContext.createFilter(aFilter);
+	}
+
+	/**
+	 * Finds the services providing the given specification, in the index of
+	 * the registry if available: the index returns the services starting at the
+	 * given service ID without walking the ones before.
+	 *
+	 * @param aSpecification
+	 *            a specification, null for all the services
+	 * @param aFromId
+	 *            the ID of the first service to find
+	 * @return the references, sorted by service ID
+	 * @throws InvalidSyntaxException
+	 *             can't happen, no filter is given to the framework
+	 */
+	private Collection<ServiceReference<?>> findReferences(final String aSpecification, final long aFromId)
+			throws InvalidSyntaxException {
+		final IServiceRegistryIndex wIndex = pServicesIndex;
+		if (wIndex == null) {
+			return sortReferences(pContext.getAllServiceReferences(aSpecification, null));
+		}
+		return wIndex.getReferences(aSpecification, aFromId);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -170,6 +236,47 @@ public class CCpntFelixPlusCommands extends CAbstractGoGoCommand implements IGoG
 		pLogger.logInfo(this, "invalidate", "invalidated");
 	}
 
+	/**
+	 * Reads a page of the given references: skips the ones before the given
+	 * service ID, the ones not matching the filter and the offset, then reads
+	 * up to the limit. One more matching reference is read to know whether
+	 * some remain: neither the number of references is asked (it would walk
+	 * the index) nor the ones after the page are read.
+	 *
+	 * @param aServiceReferences
+	 *            service references sorted by service ID
+	 * @param aFilter
+	 *            the filter of the references, null for all
+	 * @param aFromId
+	 *            the ID of the first service of the page
+	 * @param aOffset
+	 *            the number of matching references to skip
+	 * @param aLimit
+	 *            the max number of references of the page (0 for all)
+	 * @param aPage
+	 *            the list filled with the references of the page
+	 * @return the service ID of the first reference after the page, -1 if none
+	 */
+	private static long readPage(final Collection<ServiceReference<?>> aServiceReferences, final Filter aFilter,
+			final long aFromId, final int aOffset, final int aLimit, final List<ServiceReference<?>> aPage) {
+		int wSkipped = 0;
+		for (final ServiceReference<?> wReference : aServiceReferences) {
+			final long wId = (Long) wReference.getProperty(Constants.SERVICE_ID);
+			if (wId < aFromId || (aFilter != null && !aFilter.match(wReference))) {
+				continue;
+			}
+			if (wSkipped < aOffset) {
+				wSkipped++;
+				continue;
+			}
+			if (aLimit > 0 && aPage.size() >= aLimit) {
+				return wId;
+			}
+			aPage.add(wReference);
+		}
+		return -1;
+	}
+
 	/**
 	 * Prints the details of the given service reference
 	 *
@@ -197,43 +304,9 @@ public class CCpntFelixPlusCommands extends CAbstractGoGoCommand implements IGoG
 			System.out.println("\t* " + key);
 
 			// Convert value to a string
-			String strValue;
-			String strClass;
 			final Object rawValue = aServiceReference.getProperty(key);
-			if (rawValue == null) {
-				// No value
-				strClass = "(null)";
-				strValue = "null";
-
-			} else {
-				// Keep class name
-				strClass = rawValue.getClass().getName();
-				if (rawValue.getClass().isArray()) {
-					// Convert the array to an array of Object
-					Object[] rawArray;
-					if (rawValue.getClass().getComponentType().isPrimitive()) {
-						// Primitive can't be cast to Object
-						final int length = Array.getLength(rawValue);
-						rawArray = new Object[length];
-						for (int i = 0; i < length; i++) {
-							rawArray[i] = Array.get(rawValue, i);
-						}
-
-					} else {
-						// Nothing to do
-						rawArray = (Object[]) rawValue;
-					}
-
-					// Convert the array to strings
-					strValue = Arrays.deepToString(rawArray);
-
-				} else {
-					// Get the string value as is
-					strValue = rawValue.toString();
-				}
-			}
-
-			System.out.println("\t\t-> " + strValue + " (" + strClass + ")");
+			final String strClass = (rawValue == null) ? "(null)" : rawValue.getClass().getName();
+			System.out.println("\t\t-> " + valueToString(rawValue) + " (" + strClass + ")");
 		}
 
 		// Service usage
@@ -247,105 +320,190 @@ public class CCpntFelixPlusCommands extends CAbstractGoGoCommand implements IGoG
 	}
 
 	/**
-	 * Prints the ID and the specifications of the given service references on the
-	 * standard output
+	 * Prints a page of the given service references, sorted by service ID, on
+	 * the standard output: one line per reference, written as soon as it is
+	 * formatted.
 	 *
+	 * The service objects are only got (then ungot) if their implementation is
+	 * asked for.
+	 *
+	 * @param aWhat
+	 *            the name of the command
 	 * @param aServiceReferences
-	 *            Some service references
+	 *            Some service references, sorted by service ID
+	 * @param aFilter
+	 *            the filter of the references, null for all
+	 * @param aFromId
+	 *            the ID of the first service to print
+	 * @param aOffset
+	 *            the number of references to skip
+	 * @param aLimit
+	 *            the max number of references to print (0 for all)
+	 * @param aWithImpl
+	 *            print the implementation of the services
+	 * @return false if no reference was found
 	 */
-	private String printReferences(final ServiceReference<?>[] aServiceReferences) {
-
-		// Sort the array
-		Arrays.sort(aServiceReferences, new Comparator<ServiceReference<?>>() {
+	private boolean printReferences(final String aWhat, final Collection<ServiceReference<?>> aServiceReferences,
+			final Filter aFilter, final long aFromId, final int aOffset, final int aLimit, final boolean aWithImpl) {
 
-			/*
-			 * (non-Javadoc)
-			 *
-			 * @see java.util.Comparator#compare(java.lang.Object, java.lang.Object)
-			 */
-			@Override
-			public int compare(final ServiceReference<?> aReference, final ServiceReference<?> aOther) {
+		final List<ServiceReference<?>> wPage = new ArrayList<>();
+		final long wNextId = readPage(aServiceReferences, aFilter, aFromId, aOffset, aLimit, wPage);
+		if (wPage.isEmpty()) {
+			return false;
+		}
 
-				final Long svcId1 = (Long) aReference.getProperty(Constants.SERVICE_ID);
-				final Long svcId2 = (Long) aOther.getProperty(Constants.SERVICE_ID);
+		final PrintStream wOut = System.out;
+		final Formatter wFormatter = new Formatter(wOut);
+		int wNbPrinted = 0;
+		for (final ServiceReference<?> wReference : wPage) {
+			final Bundle wBundle = wReference.getBundle();
+			if (wBundle == null) {
+				// Unregistered meanwhile
+				continue;
+			}
 
-				return svcId1.compareTo(svcId2);
+			wFormatter.format("- service id:[%4d] bdl:[%4d %-50s]", wReference.getProperty(Constants.SERVICE_ID),
+					wBundle.getBundleId(), wBundle.getSymbolicName());
+			if (aWithImpl) {
+				final Object wService = pContext.getService(wReference);
+				if (wService != null) {
+					try {
+						wFormatter.format(" impl:[%s@%s]", wService.getClass().getSimpleName(),
+								Integer.toHexString(System.identityHashCode(wService)));
+					} finally {
+						pContext.ungetService(wReference);
+					}
+				}
 			}
-		});
-		StringBuilder wSB = new StringBuilder();
-		// Print details
-		for (final ServiceReference<?> reference : aServiceReferences) {
-
-			// Extract properties
-			final Long svcId = (Long) reference.getProperty(Constants.SERVICE_ID);
-			final String[] specs = (String[]) reference.getProperty(Constants.OBJECTCLASS);
-			final Bundle bundle = reference.getBundle();
-			final Object wService = pContext.getService(reference);
-			final String wImpl = String.format("%s@%s", wService.getClass().getSimpleName(),
-					Integer.toHexString(wService.hashCode()));
-
-			// Print the result
-			wSB.append(String.format("\n- service id:[%4d] bdl:[%4d %-50s] impl:[%-50s] sepcs:%s", svcId,
-					bundle.getBundleId(), bundle.getSymbolicName(), wImpl, Arrays.asList(specs)));
+			wFormatter.format(" specs:%s", Arrays.toString((String[]) wReference.getProperty(Constants.OBJECTCLASS)));
+			wFormatter.flush();
+			wOut.println();
+			wNbPrinted++;
+		}
+
+		printPageEnd(aWhat, wNbPrinted, wNextId);
+		return true;
+	}
+
+	/**
+	 * Prints the end of a page: the service ID to give to --from to print the
+	 * next one, if some references remain
+	 *
+	 * @param aWhat
+	 *            the name of the command
+	 * @param aPrinted
+	 *            the number of references printed, without the ones
+	 *            unregistered while printing the page
+	 * @param aNextId
+	 *            the service ID of the first reference after the page, -1 if
+	 *            none
+	 */
+	private void printPageEnd(final String aWhat, final int aPrinted, final long aNextId) {
+		if (aNextId < 0) {
+			logTwiceInfo(aWhat, "Printed the last [%d] services", aPrinted);
+		} else {
+			System.out.println(String.format("... more, use --from %d", aNextId));
+			logTwiceInfo(aWhat, "Printed [%d] services, next one is [%d]", aPrinted, aNextId);
 		}
-		return wSB.toString();
 	}
 
 	/**
 	 * Prints the references that matches the given specification
 	 * 
+	 * @param aFromId
+	 *            the ID of the first reference to print
+	 * @param aOffset
+	 *            the number of references to skip
+	 * @param aLimit
+	 *            the max number of references to print (0 for all)
+	 * @param aFilter
+	 *            an LDAP filter on the service properties
+	 * @param aWithImpl
+	 *            print the implementation of the services
 	 * @param aSpecification
 	 *            A service specification
 	 */
 	@Descriptor("Prints the references that matches the given specification")
-	public void providers(@Descriptor("A service specification") final String aSpecification) {
+	public void providers(
+			@Descriptor("the ID of the first reference to print") @Parameter(names = { "-s",
+					"--from" }, absentValue = "0") final long aFromId,
+			@Descriptor("the number of references to skip") @Parameter(names = { "-o",
+					"--offset" }, absentValue = "0") final int aOffset,
+			@Descriptor("the max number of references to print, 0 for all") @Parameter(names = { "-l",
+					"--limit" }, absentValue = DEFAULT_LIMIT) final int aLimit,
+			@Descriptor("an LDAP filter on the service properties") @Parameter(names = { "-f",
+					"--filter" }, absentValue = "") final String aFilter,
+			@Descriptor("print the implementation of the services (gets them)") @Parameter(names = { "-i",
+					"--impl" }, presentValue = "true", absentValue = "false") final boolean aWithImpl,
+			@Descriptor("A service specification") final String aSpecification) {
 		logTwiceInfo("providers", "execute  providers(sepc:%s)", aSpecification);
 
 		// Get the references
-		ServiceReference<?>[] serviceReferences;
+		final Filter wFilter;
+		final Collection<ServiceReference<?>> serviceReferences;
 		try {
-			serviceReferences = pContext.getAllServiceReferences(aSpecification, null);
+			wFilter = createFilter(aFilter);
+			serviceReferences = findReferences(aSpecification, aFromId);
 
 		} catch (final InvalidSyntaxException ex) {
 			System.err.println("Error retrieving services: " + ex);
 			return;
 		}
 
-		if (serviceReferences == null || serviceReferences.length == 0) {
+		// Print'em
+		if (!printReferences("providers", serviceReferences, wFilter, aFromId, aOffset, aLimit, aWithImpl)) {
 			System.out.println("No matching service found");
-			return;
 		}
-
-		// Print'em
-		logTwiceInfo("providers", printReferences(serviceReferences));
 	}
 
 	/**
 	 * Prints the result of getServiceReferences()
 	 *
+	 * @param aFromId
+	 *            the ID of the first reference to print
+	 * @param aOffset
+	 *            the number of references to skip
+	 * @param aLimit
+	 *            the max number of references to print (0 for all)
+	 * @param aFilter
+	 *            an LDAP filter on the service properties
 	 * @param aSpecification
 	 *            Service specification
 	 */
 	@Descriptor("Prints the list of the service references mathing the given specification ")
-	public void references(@Descriptor("The specification of the service") final String aSpecification) {
+	public void references(
+			@Descriptor("the ID of the first reference to print") @Parameter(names = { "-s",
+					"--from" }, absentValue = "0") final long aFromId,
+			@Descriptor("the number of references to skip") @Parameter(names = { "-o",
+					"--offset" }, absentValue = "0") final int aOffset,
+			@Descriptor("the max number of references to print, 0 for all") @Parameter(names = { "-l",
+					"--limit" }, absentValue = DEFAULT_LIMIT) final int aLimit,
+			@Descriptor("an LDAP filter on the service properties") @Parameter(names = { "-f",
+					"--filter" }, absentValue = "") final String aFilter,
+			@Descriptor("The specification of the service") final String aSpecification) {
 		logTwiceInfo("references", "execute  references(spec:%s)", aSpecification);
 		try {
-			final ServiceReference<?>[] serviceReferences = pContext.getAllServiceReferences(aSpecification, null);
-			if (serviceReferences == null) {
+			final Filter wFilter = createFilter(aFilter);
+			final List<ServiceReference<?>> wPage = new ArrayList<>();
+			final long wNextId = readPage(findReferences(aSpecification, aFromId), wFilter, aFromId, aOffset, aLimit,
+					wPage);
+			if (wPage.isEmpty()) {
 				logTwiceWarn("references", "No reference found");
 
 			} else {
 				// Found some
-				for (final ServiceReference<?> svcRef : serviceReferences) {
-
-					String wRanking = String.valueOf(svcRef.getProperty(Constants.SERVICE_RANKING));
-					String[] wKeys = svcRef.getPropertyKeys();
-
-					logTwiceInfo("references", "- reference id:[%4s] Ranking:[%-5s] Specs:%-50s Props:%s",
-							svcRef.getProperty(Constants.SERVICE_ID), wRanking,
+				final PrintStream wOut = System.out;
+				final Formatter wFormatter = new Formatter(wOut);
+				for (final ServiceReference<?> svcRef : wPage) {
+					wFormatter.format("- reference id:[%4s] Ranking:[%-5s] Specs:%-50s Props:%s",
+							svcRef.getProperty(Constants.SERVICE_ID), svcRef.getProperty(Constants.SERVICE_RANKING),
 							Arrays.toString((String[]) svcRef.getProperty(Constants.OBJECTCLASS)),
-							Arrays.asList(wKeys));
+							Arrays.toString(svcRef.getPropertyKeys()));
+					wFormatter.flush();
+					wOut.println();
 				}
+
+				printPageEnd("references", wPage.size(), wNextId);
 			}
 		} catch (final Exception e) {
 			logTwiceSevere("references", e, "Error printing references");
@@ -384,26 +542,43 @@ public class CCpntFelixPlusCommands extends CAbstractGoGoCommand implements IGoG
 	}
 
 	/**
-	 * Prints all registered services
+	 * Prints the registered services
+	 *
+	 * @param aFromId
+	 *            the ID of the first service to print
+	 * @param aOffset
+	 *            the number of services to skip
+	 * @param aLimit
+	 *            the max number of services to print (0 for all)
+	 * @param aFilter
+	 *            an LDAP filter on the service properties
+	 * @param aWithImpl
+	 *            print the implementation of the services
 	 */
 	@Descriptor("Prints all registered services")
-	public void services() {
+	public void services(
+			@Descriptor("the ID of the first service to print") @Parameter(names = { "-s",
+					"--from" }, absentValue = "0") final long aFromId,
+			@Descriptor("the number of services to skip") @Parameter(names = { "-o",
+					"--offset" }, absentValue = "0") final int aOffset,
+			@Descriptor("the max number of services to print, 0 for all") @Parameter(names = { "-l",
+					"--limit" }, absentValue = DEFAULT_LIMIT) final int aLimit,
+			@Descriptor("an LDAP filter on the service properties") @Parameter(names = { "-f",
+					"--filter" }, absentValue = "") final String aFilter,
+			@Descriptor("print the implementation of the services (gets them)") @Parameter(names = { "-i",
+					"--impl" }, presentValue = "true", absentValue = "false") final boolean aWithImpl) {
 		logTwiceInfo("services", "execute  services()");
 
 		// Get the references
-		ServiceReference<?>[] serviceReferences;
 		try {
-			serviceReferences = pContext.getAllServiceReferences(null, null);
+			final Filter wFilter = createFilter(aFilter);
+			final Collection<ServiceReference<?>> serviceReferences = findReferences(null, aFromId);
 
-			if (serviceReferences == null || serviceReferences.length == 0) {
+			// Print'em
+			if (!printReferences("services", serviceReferences, wFilter, aFromId, aOffset, aLimit, aWithImpl)) {
 				System.out.println("No service registered");
-				return;
 			}
 
-			// Print'em
-			logTwiceInfo("services", printReferences(serviceReferences));
-			logTwiceInfo("services", "Found [%d] services", serviceReferences.length);
-
 		} catch (final Exception e) {
 			logTwiceSevere("services", e, "Error retrieving services");
 		}
@@ -412,24 +587,75 @@ public class CCpntFelixPlusCommands extends CAbstractGoGoCommand implements IGoG
 	/**
 	 * Prints the services registered by the given bundle
 	 *
+	 * @param aFromId
+	 *            the ID of the first service to print
+	 * @param aOffset
+	 *            the number of services to skip
+	 * @param aLimit
+	 *            the max number of services to print (0 for all)
+	 * @param aFilter
+	 *            an LDAP filter on the service properties
+	 * @param aWithImpl
+	 *            print the implementation of the services
 	 * @param aBundle
 	 *            A bundle
 	 */
 	@Descriptor("Prints the services registered by the given bundle")
-	public void services(final Bundle aBundle) {
+	public void services(
+			@Descriptor("the ID of the first service to print") @Parameter(names = { "-s",
+					"--from" }, absentValue = "0") final long aFromId,
+			@Descriptor("the number of services to skip") @Parameter(names = { "-o",
+					"--offset" }, absentValue = "0") final int aOffset,
+			@Descriptor("the max number of services to print, 0 for all") @Parameter(names = { "-l",
+					"--limit" }, absentValue = DEFAULT_LIMIT) final int aLimit,
+			@Descriptor("an LDAP filter on the service properties") @Parameter(names = { "-f",
+					"--filter" }, absentValue = "") final String aFilter,
+			@Descriptor("print the implementation of the services (gets them)") @Parameter(names = { "-i",
+					"--impl" }, presentValue = "true", absentValue = "false") final boolean aWithImpl,
+			final Bundle aBundle) {
 		logTwiceInfo("services", "execute  services(bndl:%s)", aBundle.getSymbolicName());
 
 		// Get the references
-		final ServiceReference<?>[] serviceReferences = aBundle.getRegisteredServices();
-		if (serviceReferences == null || serviceReferences.length == 0) {
-			logTwiceWarn("services", "No service registered by the bundle [%s]", aBundle.getSymbolicName());
+		final Filter wFilter;
+		try {
+			wFilter = createFilter(aFilter);
+
+		} catch (final InvalidSyntaxException ex) {
+			System.err.println("Invalid filter: " + ex);
 			return;
 		}
 
+		final IServiceRegistryIndex wIndex = pServicesIndex;
+		final Collection<ServiceReference<?>> serviceReferences = (wIndex != null)
+				? wIndex.getBundleReferences(aBundle.getBundleId(), aFromId)
+				: sortReferences(aBundle.getRegisteredServices());
+
 		// Print'em
-		logTwiceInfo("services", printReferences(serviceReferences));
-		logTwiceInfo("services", "Bundle [%s] registered [%d] services", aBundle.getSymbolicName(),
-				serviceReferences.length);
+		if (!printReferences("services", serviceReferences, wFilter, aFromId, aOffset, aLimit, aWithImpl)) {
+			logTwiceWarn("services", "No service registered by the bundle [%s]", aBundle.getSymbolicName());
+		}
+	}
+
+	/**
+	 * @param aServiceReferences
+	 *            service references, can be null
+	 * @return the references sorted by service ID
+	 */
+	private static Collection<ServiceReference<?>> sortReferences(final ServiceReference<?>[] aServiceReferences) {
+		if (aServiceReferences == null) {
+			return Collections.emptyList();
+		}
+		Arrays.sort(aServiceReferences, SERVICE_ID_ORDER);
+		return Arrays.asList(aServiceReferences);
+	}
+
+	/**
+	 * @param aFilter
+	 *            an LDAP filter given to a command
+	 * @return the filter, null if empty
+	 */
+	private static String toFilter(final String aFilter) {
+		return (aFilter == null || aFilter.trim().isEmpty()) ? null : aFilter;
 	}
 
 	/**
@@ -439,4 +665,35 @@ public class CCpntFelixPlusCommands extends CAbstractGoGoCommand implements IGoG
 	public void validate() {
 		pLogger.logInfo(this, "validate", "validated");
 	}
+
+	/**
+	 * Converts a property value to a string. The arrays of primitives are
+	 * converted directly, without boxing their elements.
+	 *
+	 * @param aValue
+	 *            a property value
+	 * @return the string form of the value
+	 */
+	private static String valueToString(final Object aValue) {
+		if (aValue instanceof Object[]) {
+			return Arrays.deepToString((Object[]) aValue);
+		} else if (aValue instanceof int[]) {
+			return Arrays.toString((int[]) aValue);
+		} else if (aValue instanceof long[]) {
+			return Arrays.toString((long[]) aValue);
+		} else if (aValue instanceof byte[]) {
+			return Arrays.toString((byte[]) aValue);
+		} else if (aValue instanceof boolean[]) {
+			return Arrays.toString((boolean[]) aValue);
+		} else if (aValue instanceof double[]) {
+			return Arrays.toString((double[]) aValue);
+		} else if (aValue instanceof float[]) {
+			return Arrays.toString((float[]) aValue);
+		} else if (aValue instanceof short[]) {
+			return Arrays.toString((short[]) aValue);
+		} else if (aValue instanceof char[]) {
+			return Arrays.toString((char[]) aValue);
+		}
+		return String.valueOf(aValue);
+	}
 }
@@ -0,0 +1,252 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cohorte.remote.shell;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.cohorte.remote.shell.BatchSessionPool.PooledSession;
+import org.psem2m.utilities.json.JSONException;
+import org.psem2m.utilities.json.JSONObject;
+
+/**
+ * Batch client thread: runs one command per request, on a pooled Gogo
+ * session, without login shell nor prompt.
+ *
+ * A request is a 4 bytes big-endian length followed by the UTF-8 command
+ * line. A response is a 4 bytes big-endian length followed by a UTF-8 JSON
+ * object:
+ *
+ * <pre>
+ * {"status": 0, "output": "...", "error": "...", "duration-ms": 12,
+ *  "truncated": false}
+ * </pre>
+ *
+ * The status is 0 if the command succeeded, 1 if it raised an error (its
+ * message is appended to "error") or if no session has been available in
+ * time, 2 if the request is invalid (the connection is then closed). The client can send several requests on the
+ * same connection.
+ *
+ * As the commands are shorter than 16 MB, the first byte sent by a batch
+ * client is 0, which a terminal doesn't send: see {@link #isBatchClient(int)}.
+ *
+ * @author ogattaz
+ */
+class BatchClientHandler implements Runnable {
+
+    /** Max length of a command line */
+    static final int MAX_COMMAND_LENGTH = 64 * 1024;
+
+    /** Status: the command succeeded */
+    static final int STATUS_OK = 0;
+
+    /** Status: the command raised an error */
+    static final int STATUS_ERROR = 1;
+
+    /** Status: invalid request */
+    static final int STATUS_INVALID = 2;
+
+    /**
+     * Tests if a client is a batch client, according to the first byte it
+     * sent
+     *
+     * @param aFirstByte
+     *            The first byte sent by the client (-1 if none)
+     * @return True for a batch client
+     */
+    static boolean isBatchClient(final int aFirstByte) {
+
+        return aFirstByte == 0;
+    }
+
+    /** The client connection */
+    private final ShellConnection pClient;
+
+    /** The session pool */
+    private final BatchSessionPool pSessions;
+
+    /** The remote shell service */
+    private final RemoteShellService pShellService;
+
+    /**
+     * Sets up the client handler
+     *
+     * @param aOwner
+     *            The remote shell service
+     * @param aClient
+     *            The client connection
+     * @param aSessions
+     *            The session pool
+     */
+    BatchClientHandler(final RemoteShellService aOwner,
+            final ShellConnection aClient, final BatchSessionPool aSessions) {
+
+        pShellService = aOwner;
+        pClient = aClient;
+        pSessions = aSessions;
+    }
+
+    /**
+     * Runs a command on a pooled session
+     *
+     * @param aCommand
+     *            The command line
+     * @return The result of the command
+     * @throws IOException
+     *             Error creating a session, or interrupted waiting for one
+     */
+    private JSONObject execute(final String aCommand) throws IOException {
+
+        final PooledSession session;
+        try {
+            session = pSessions.acquire();
+
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a session");
+        }
+
+        if (session == null) {
+            return result(STATUS_ERROR, "", "All the "
+                    + BatchSessionPool.MAX_SESSIONS
+                    + " batch sessions are busy, retry later", 0, false);
+        }
+
+        final long start = System.nanoTime();
+        int status = STATUS_OK;
+        String errorMessage = null;
+        try {
+            session.execute(aCommand);
+
+        } catch (final Exception ex) {
+            status = STATUS_ERROR;
+            errorMessage = String.valueOf(ex);
+        }
+
+        try {
+            final long duration = (System.nanoTime() - start) / 1000000L;
+            String error = session.getError();
+            if (errorMessage != null) {
+                error += errorMessage;
+            }
+            return result(status, session.getOutput(), error, duration,
+                    session.isTruncated());
+
+        } finally {
+            pSessions.release(session);
+        }
+    }
+
+    /**
+     * Builds a response
+     *
+     * @param aStatus
+     *            The status of the command
+     * @param aOutput
+     *            The standard output of the command
+     * @param aError
+     *            The error output of the command
+     * @param aDuration
+     *            The duration of the command (ms)
+     * @param aTruncated
+     *            True if an output of the command has been truncated
+     * @return The response
+     */
+    private JSONObject result(final int aStatus, final String aOutput,
+            final String aError, final long aDuration, final boolean aTruncated) {
+
+        final JSONObject result = new JSONObject();
+        try {
+            result.put("status", aStatus);
+            result.put("output", aOutput);
+            result.put("error", aError);
+            result.put("duration-ms", aDuration);
+            result.put("truncated", aTruncated);
+
+        } catch (final JSONException ex) {
+            pShellService.error("BatchClientHandler::result()", ex);
+        }
+        return result;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+
+        final DataInputStream input = new DataInputStream(
+                pClient.getInputStream());
+        final OutputStream output = pClient.getOutputStream();
+        try {
+            while (true) {
+                final int length;
+                try {
+                    length = input.readInt();
+
+                } catch (final EOFException ex) {
+                    // Client done
+                    break;
+                }
+
+                if (length < 0 || length > MAX_COMMAND_LENGTH) {
+                    send(output, result(STATUS_INVALID, "",
+                            "Invalid command length: " + length, 0, false));
+                    break;
+                }
+
+                final byte[] command = new byte[length];
+                input.readFully(command);
+                send(output, execute(new String(command, "UTF-8")));
+            }
+
+        } catch (final IOException ex) {
+            // Client gone, or connection closed by the server
+            pShellService.warning("BatchClientHandler::run()",
+                    "Batch client error:", ex);
+
+        } finally {
+            pClient.close();
+        }
+    }
+
+    /**
+     * Sends a response
+     *
+     * @param aOutput
+     *            The client output
+     * @param aResult
+     *            The response
+     * @throws IOException
+     *             Error writing the response
+     */
+    private void send(final OutputStream aOutput, final JSONObject aResult)
+            throws IOException {
+
+        final byte[] content = aResult.toString().getBytes("UTF-8");
+        final ByteBuffer frame = ByteBuffer.allocate(4 + content.length);
+        frame.putInt(content.length).put(content);
+        aOutput.write(frame.array());
+        aOutput.flush();
+    }
+}
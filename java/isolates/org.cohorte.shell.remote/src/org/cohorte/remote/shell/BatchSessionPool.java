@@ -0,0 +1,385 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cohorte.remote.shell;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.service.command.CommandSession;
+import org.apache.felix.service.command.Converter;
+
+/**
+ * A pool of Gogo sessions used to run the commands of the batch clients: a
+ * session is created once and reused by the next commands, instead of a
+ * login shell per client.
+ *
+ * The sessions write in memory: their outputs are read after each command.
+ *
+ * At most {@link #MAX_SESSIONS} sessions run commands at the same time, the
+ * other clients wait for one of them. The variables set by the commands of a
+ * client are reset when its session is released, so that they aren't seen by
+ * the next client.
+ *
+ * @author ogattaz
+ */
+class BatchSessionPool {
+
+    /**
+     * An output in memory, dropping what exceeds its limit
+     */
+    static class BoundedOutput extends ByteArrayOutputStream {
+
+        /** Max number of bytes kept */
+        private final int pLimit;
+
+        /** Set when bytes have been dropped */
+        private boolean pTruncated;
+
+        /**
+         * Sets up the output
+         *
+         * @param aLimit
+         *            Max number of bytes kept
+         */
+        BoundedOutput(final int aLimit) {
+
+            pLimit = aLimit;
+        }
+
+        /**
+         * @return True if bytes have been dropped since the last reset
+         */
+        synchronized boolean isTruncated() {
+
+            return pTruncated;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.ByteArrayOutputStream#reset()
+         */
+        @Override
+        public synchronized void reset() {
+
+            super.reset();
+            pTruncated = false;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.ByteArrayOutputStream#write(byte[], int, int)
+         */
+        @Override
+        public synchronized void write(final byte[] aBuffer,
+                final int aOffset, final int aLength) {
+
+            final int kept = Math.min(aLength, pLimit - count);
+            if (kept < aLength) {
+                pTruncated = true;
+            }
+            if (kept > 0) {
+                super.write(aBuffer, aOffset, kept);
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.ByteArrayOutputStream#write(int)
+         */
+        @Override
+        public synchronized void write(final int aByte) {
+
+            write(new byte[] { (byte) aByte }, 0, 1);
+        }
+    }
+
+    /**
+     * A pooled session and its outputs
+     */
+    static class PooledSession {
+
+        /** The error output */
+        private final BoundedOutput pErr = new BoundedOutput(MAX_OUTPUT);
+
+        /** The variables of the session when created */
+        private final Map<String, Object> pInitialVariables = new HashMap<String, Object>();
+
+        /** The standard output */
+        private final BoundedOutput pOut = new BoundedOutput(MAX_OUTPUT);
+
+        /** The standard output stream of the session */
+        private final PrintStream pOutStream;
+
+        /** The Gogo session */
+        private final CommandSession pSession;
+
+        /**
+         * Creates the session
+         *
+         * @param aShellService
+         *            The shell service
+         * @throws UnsupportedEncodingException
+         *             UTF-8 not supported
+         */
+        PooledSession(final RemoteShellService aShellService)
+                throws UnsupportedEncodingException {
+
+            pOutStream = new PrintStream(pOut, true, CHARSET);
+            pSession = aShellService.createGogoSession(
+                    new ByteArrayInputStream(new byte[0]), pOutStream,
+                    new PrintStream(pErr, true, CHARSET));
+
+            for (final String name : getVariablesNames()) {
+                pInitialVariables.put(name, pSession.get(name));
+            }
+        }
+
+        /**
+         * Closes the session
+         */
+        void close() {
+
+            pSession.close();
+        }
+
+        /**
+         * Runs a command: its result is formatted in the standard output, as
+         * the Gogo shell does
+         *
+         * @param aCommand
+         *            The command line
+         * @throws Exception
+         *             The error raised by the command
+         */
+        void execute(final String aCommand) throws Exception {
+
+            reset();
+
+            final Object result = pSession.execute(aCommand);
+            if (result != null) {
+                pOutStream.println(pSession.format(result, Converter.INSPECT));
+            }
+        }
+
+        /**
+         * @return The error output of the last command
+         * @throws UnsupportedEncodingException
+         *             UTF-8 not supported
+         */
+        String getError() throws UnsupportedEncodingException {
+
+            return pErr.toString(CHARSET);
+        }
+
+        /**
+         * @return The names of the variables of the session
+         */
+        private Collection<String> getVariablesNames() {
+
+            final Collection<String> names = new ArrayList<String>();
+            final Object variables = pSession.get(VARIABLES);
+            if (variables instanceof Collection) {
+                for (final Object name : (Collection<?>) variables) {
+                    names.add(String.valueOf(name));
+                }
+            }
+            return names;
+        }
+
+        /**
+         * @return The standard output of the last command
+         * @throws UnsupportedEncodingException
+         *             UTF-8 not supported
+         */
+        String getOutput() throws UnsupportedEncodingException {
+
+            return pOut.toString(CHARSET);
+        }
+
+        /**
+         * @return True if an output of the last command has been truncated
+         */
+        boolean isTruncated() {
+
+            return pOut.isTruncated() || pErr.isTruncated();
+        }
+
+        /**
+         * Clears the outputs
+         */
+        void reset() {
+
+            pOut.reset();
+            pErr.reset();
+        }
+
+        /**
+         * Restores the variables of the session as they were when it was
+         * created. Gogo can't remove a variable: the new ones are set to
+         * null, which is what an unset variable gives.
+         *
+         * @return False if the session holds too many variables to be reused
+         */
+        boolean resetVariables() {
+
+            final Collection<String> names = getVariablesNames();
+            for (final String name : names) {
+                pSession.put(name, pInitialVariables.get(name));
+            }
+            return names.size() <= pInitialVariables.size()
+                    + MAX_RESET_VARIABLES;
+        }
+    }
+
+    /** The charset of the outputs */
+    private static final String CHARSET = "UTF-8";
+
+    /** Max number of bytes kept of each output of a command */
+    static final int MAX_OUTPUT = 4 * 1024 * 1024;
+
+    /** Max time to wait for a session (seconds) */
+    private static final long ACQUIRE_TIMEOUT = 30;
+
+    /** Max number of idle sessions */
+    private static final int MAX_IDLE = 8;
+
+    /**
+     * Max number of variables set to null by the reset of a session, before
+     * it is closed instead of being reused
+     */
+    private static final int MAX_RESET_VARIABLES = 64;
+
+    /** Max number of sessions running commands at the same time */
+    static final int MAX_SESSIONS = 16;
+
+    /** The session variable giving the names of the variables */
+    private static final String VARIABLES = ".variables";
+
+    /** Set once the pool is closed */
+    private boolean pClosed;
+
+    /** The idle sessions */
+    private final LinkedList<PooledSession> pIdle = new LinkedList<PooledSession>();
+
+    /** The shell service */
+    private final RemoteShellService pShellService;
+
+    /** The permits of the sessions in use */
+    private final Semaphore pPermits = new Semaphore(MAX_SESSIONS);
+
+    /**
+     * Sets up the pool
+     *
+     * @param aShellService
+     *            The shell service creating the sessions
+     */
+    BatchSessionPool(final RemoteShellService aShellService) {
+
+        pShellService = aShellService;
+    }
+
+    /**
+     * Gets an idle session, or creates one. Waits for a session to be
+     * released if {@link #MAX_SESSIONS} are in use.
+     *
+     * @return A session, or null if none has been released in time
+     * @throws UnsupportedEncodingException
+     *             UTF-8 not supported
+     * @throws InterruptedException
+     *             Interrupted while waiting for a session
+     */
+    PooledSession acquire() throws UnsupportedEncodingException,
+            InterruptedException {
+
+        if (!pPermits.tryAcquire(ACQUIRE_TIMEOUT, TimeUnit.SECONDS)) {
+            return null;
+        }
+
+        synchronized (pIdle) {
+            if (!pIdle.isEmpty()) {
+                return pIdle.removeFirst();
+            }
+        }
+
+        try {
+            return new PooledSession(pShellService);
+
+        } catch (final UnsupportedEncodingException ex) {
+            pPermits.release();
+            throw ex;
+
+        } catch (final RuntimeException ex) {
+            pPermits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Closes the idle sessions. The sessions in use are closed when released.
+     */
+    void close() {
+
+        final LinkedList<PooledSession> idle;
+        synchronized (pIdle) {
+            pClosed = true;
+            idle = new LinkedList<PooledSession>(pIdle);
+            pIdle.clear();
+        }
+
+        for (final PooledSession session : idle) {
+            session.close();
+        }
+    }
+
+    /**
+     * Gives back a session to the pool
+     *
+     * @param aSession
+     *            A session got from {@link #acquire()}
+     */
+    void release(final PooledSession aSession) {
+
+        try {
+            aSession.reset();
+            if (aSession.resetVariables()) {
+                synchronized (pIdle) {
+                    if (!pClosed && pIdle.size() < MAX_IDLE) {
+                        pIdle.addFirst(aSession);
+                        return;
+                    }
+                }
+            }
+
+            aSession.close();
+
+        } finally {
+            pPermits.release();
+        }
+    }
+}
@@ -45,6 +45,9 @@ public class RemoteShellService implements IRemoteShell {
     @ServiceProperty(name = IRemoteShell.SHELL_ADDRESS, value = "127.0.0.1")
     private String pAddress;
 
+    /** The sessions of the batch clients */
+    private BatchSessionPool pBatchSessions;
+
     /** Gogo shell command processor */
     @Requires
     private CommandProcessor pCommandProcessor;
@@ -119,6 +122,46 @@ public class RemoteShellService implements IRemoteShell {
         return pServer.getAddress();
     }
 
+    /**
+     * Reads a numeric framework property
+     *
+     * @param aKey
+     *            Property name
+     * @param aDefault
+     *            Value to use if the property is missing, invalid or negative
+     * @return The property value
+     */
+    private long getLongProperty(final String aKey, final long aDefault) {
+
+        final String value = pContext.getProperty(aKey);
+        if (value == null) {
+            return aDefault;
+        }
+
+        try {
+            final long parsed = Long.parseLong(value.trim());
+            if (parsed >= 0) {
+                return parsed;
+            }
+
+        } catch (final NumberFormatException ex) {
+            // Use the default value
+        }
+
+        warning("getLongProperty", "Invalid value for", aKey, ":", value);
+        return aDefault;
+    }
+
+    /**
+     * Returns the pool of sessions of the batch clients
+     *
+     * @return The batch sessions pool
+     */
+    BatchSessionPool getBatchSessions() {
+
+        return pBatchSessions;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -144,7 +187,8 @@ public class RemoteShellService implements IRemoteShell {
     }
 
     /**
-     * Stops the server, if not null
+     * Stops the server, if not null: the current sessions are given the drain
+     * timeout to end
      */
     private void stopServer() {
 
@@ -152,12 +196,22 @@ public class RemoteShellService implements IRemoteShell {
             try {
                 pServer.close();
 
+                pLogger.logInfo(this, "invalidate",
+                        "Remote Shell stopped: bytes sent=",
+                        pServer.getBytesSent(), "flushes=",
+                        pServer.getFlushesCount());
+
             } catch (final IOException ex) {
                 error("invalidate", "Error stopping the server:", ex);
             }
 
             pServer = null;
         }
+
+        if (pBatchSessions != null) {
+            pBatchSessions.close();
+            pBatchSessions = null;
+        }
     }
 
     /**
@@ -182,7 +236,14 @@ public class RemoteShellService implements IRemoteShell {
         }
 
         // Start the server
-        pServer = new Server(this);
+        pBatchSessions = new BatchSessionPool(this);
+        pServer = new Server(this, (int) getLongProperty(SHELL_BACKLOG,
+                Server.DEFAULT_BACKLOG), (int) getLongProperty(
+                SHELL_MAX_CONNECTIONS, Server.DEFAULT_MAX_CONNECTIONS),
+                getLongProperty(SHELL_IDLE_TIMEOUT,
+                        Server.DEFAULT_IDLE_TIMEOUT / 1000) * 1000,
+                getLongProperty(SHELL_DRAIN_TIMEOUT,
+                        Server.DEFAULT_DRAIN_TIMEOUT));
         try {
             pServer.open(pAddress, pPort);
 
@@ -18,70 +18,276 @@ package org.cohorte.remote.shell;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
-import java.net.Socket;
 import java.net.SocketException;
-import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * The shell server: accepts clients and starts shell session threads
+ * The shell server: a selector thread accepts the clients and does all the
+ * socket reads and writes, and a session thread runs the Gogo shell of each
+ * client (the Gogo sessions are blocking).
+ *
+ * The number of sessions is bounded, the sessions waiting for a command for
+ * too long are closed, and the sessions are given some time to end when the
+ * server is closed.
+ *
+ * A client sending a batch request as soon as it is connected gets a batch
+ * session instead of a shell (see {@link BatchClientHandler}).
  *
  * @author Thomas Calmant
  */
 public class Server implements Runnable {
 
-    /** The client acceptance thread */
+    /** Default length of the queue of the connections to accept */
+    public static final int DEFAULT_BACKLOG = 50;
+
+    /** Default time given to the sessions to end on close (ms) */
+    public static final long DEFAULT_DRAIN_TIMEOUT = 5000;
+
+    /** Default idle timeout of the sessions (ms) */
+    public static final long DEFAULT_IDLE_TIMEOUT = 3600000;
+
+    /** Default max number of sessions */
+    public static final int DEFAULT_MAX_CONNECTIONS = 16;
+
+    /** Max time a client is given to identify itself as a batch client (ms) */
+    private static final long BATCH_DETECTION_DELAY = 200;
+
+    /** Max time the selector thread waits for an event (ms) */
+    private static final long SELECT_TIMEOUT = 1000;
+
+    /** The length of the queue of the connections to accept */
+    private final int pBacklog;
+
+    /** Bytes sent by the ended sessions */
+    private final AtomicLong pBytesSent = new AtomicLong();
+
+    /** The opened connections */
+    private final Set<ShellConnection> pConnections = Collections
+            .newSetFromMap(new ConcurrentHashMap<ShellConnection, Boolean>());
+
+    /** The end of the drain (System.currentTimeMillis()), 0 while running */
+    private volatile long pDrainDeadline;
+
+    /** The time given to the sessions to end on close (ms) */
+    private final long pDrainTimeout;
+
+    /** The flush timer of the sessions outputs */
+    private ScheduledExecutorService pFlushScheduler;
+
+    /** Output flushes of the ended sessions */
+    private final AtomicLong pFlushes = new AtomicLong();
+
+    /** The idle timeout of the sessions (ms), 0 to keep idle sessions */
+    private final long pIdleTimeout;
+
+    /** Time of the last look for idle sessions */
+    private long pLastIdleCheck;
+
+    /** The selector thread */
     private Thread pListeningThread;
 
+    /** The max number of sessions */
+    private final int pMaxConnections;
+
+    /** The buffer the clients are read into, used by the selector thread */
+    private final ByteBuffer pReadBuffer = ByteBuffer.allocateDirect(4096);
+
+    /** The selector */
+    private Selector pSelector;
+
     /** The server socket */
-    private ServerSocket pServer;
+    private ServerSocketChannel pServer;
+
+    /** The session threads */
+    private final Map<ShellConnection, Thread> pSessions = new ConcurrentHashMap<ShellConnection, Thread>();
 
     /** The parent shell service */
     private final RemoteShellService pShellService;
 
     /** The stop flag */
-    private boolean pStop;
+    private volatile boolean pStop;
+
+    /** The connections which interest operations must be updated */
+    private final Queue<ShellConnection> pUpdates = new ConcurrentLinkedQueue<ShellConnection>();
 
     /**
-     * Sets up the server members
+     * Sets up the server members, with the default limits
      *
      * @param aShellService
      *            The parent shell service
      */
     public Server(final RemoteShellService aShellService) {
 
+        this(aShellService, DEFAULT_BACKLOG, DEFAULT_MAX_CONNECTIONS,
+                DEFAULT_IDLE_TIMEOUT, DEFAULT_DRAIN_TIMEOUT);
+    }
+
+    /**
+     * Sets up the server members
+     *
+     * @param aShellService
+     *            The parent shell service
+     * @param aBacklog
+     *            Length of the queue of the connections to accept
+     * @param aMaxConnections
+     *            Max number of sessions
+     * @param aIdleTimeout
+     *            Idle timeout of the sessions (ms), 0 to keep idle sessions
+     * @param aDrainTimeout
+     *            Time given to the sessions to end on close (ms)
+     */
+    public Server(final RemoteShellService aShellService, final int aBacklog,
+            final int aMaxConnections, final long aIdleTimeout,
+            final long aDrainTimeout) {
+
         pShellService = aShellService;
+        pBacklog = Math.max(1, aBacklog);
+        pMaxConnections = Math.max(1, aMaxConnections);
+        pIdleTimeout = Math.max(0, aIdleTimeout);
+        pDrainTimeout = Math.max(0, aDrainTimeout);
     }
 
     /**
-     * Closes the server socket
+     * Accepts the waiting clients and starts their sessions
      *
      * @throws IOException
-     *             Error closing the socket
+     *             Error accepting a client
      */
-    public void close() throws IOException {
+    private void accept() throws IOException {
 
-        // Set up the stop flag
-        pStop = true;
+        SocketChannel client;
+        while ((client = pServer.accept()) != null) {
+            if (pConnections.size() >= pMaxConnections) {
+                refuse(client);
+                continue;
+            }
 
-        if (pServer != null) {
-            try {
-                pServer.close();
+            client.configureBlocking(false);
+            final ShellConnection connection = new ShellConnection(this,
+                    client);
+            connection.register(pSelector);
+            pConnections.add(connection);
 
-            } finally {
-                pServer = null;
-            }
+            // Start the session thread
+            final Thread clientThread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    try {
+                        runSession(connection);
+
+                    } finally {
+                        pSessions.remove(connection);
+                    }
+                }
+            });
+            clientThread.setName("cohorte.remote.shell="
+                    + connection.getRemoteAddress());
+            pSessions.put(connection, clientThread);
+            clientThread.start();
+        }
+    }
+
+    /**
+     * Closes the server: stops accepting clients and waits for the current
+     * sessions to end, at most the drain timeout, before closing them.
+     *
+     * @throws IOException
+     *             Error closing the socket
+     */
+    public void close() throws IOException {
+
+        final Thread listeningThread = pListeningThread;
+        if (listeningThread == null) {
+            return;
         }
 
-        // Wait for the listening thread
+        // Start the drain
+        pDrainDeadline = System.currentTimeMillis() + pDrainTimeout;
+        pStop = true;
+        pSelector.wakeup();
+
+        // Wait for the selector thread
         try {
-            pListeningThread.join();
+            listeningThread.join();
+
+            // Give the session threads the rest of the drain time
+            for (final Thread sessionThread : new ArrayList<Thread>(
+                    pSessions.values())) {
+                final long remaining = pDrainDeadline
+                        - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                sessionThread.join(remaining);
+            }
 
         } catch (final InterruptedException ex) {
             // Ignore
+            Thread.currentThread().interrupt();
+        }
+
+        if (!pSessions.isEmpty()) {
+            pShellService.warning("close", "Sessions still running:",
+                    pSessions.size());
         }
 
+        pFlushScheduler.shutdownNow();
+        pFlushScheduler = null;
+
         pListeningThread = null;
+        pServer = null;
+        pSelector = null;
+    }
+
+    /**
+     * Notifies the server that a connection has been closed
+     *
+     * @param aConnection
+     *            The closed connection
+     */
+    void connectionClosed(final ShellConnection aConnection) {
+
+        pConnections.remove(aConnection);
+    }
+
+    /**
+     * Closes the server socket and ends the input of all the sessions. Called
+     * by the selector thread.
+     */
+    private void drain() {
+
+        if (pServer.isOpen()) {
+            try {
+                pServer.close();
+
+            } catch (final IOException ex) {
+                pShellService.error("drain", "Error closing the server:", ex);
+            }
+
+            for (final ShellConnection connection : pConnections) {
+                connection.endInput();
+            }
+        }
     }
 
     /**
@@ -92,11 +298,12 @@ public class Server implements Runnable {
      */
     public String getAddress() {
 
-        if (pServer == null) {
+        final ServerSocketChannel server = pServer;
+        if (server == null) {
             return null;
         }
 
-        final InetAddress boundAddress = pServer.getInetAddress();
+        final InetAddress boundAddress = server.socket().getInetAddress();
         if (boundAddress == null) {
             return null;
         }
@@ -104,6 +311,37 @@ public class Server implements Runnable {
         return boundAddress.toString();
     }
 
+    /**
+     * Returns the number of bytes sent by the ended sessions
+     *
+     * @return The number of bytes sent
+     */
+    public long getBytesSent() {
+
+        return pBytesSent.get();
+    }
+
+    /**
+     * Returns the number of opened connections
+     *
+     * @return The number of connections
+     */
+    public int getConnectionsCount() {
+
+        return pConnections.size();
+    }
+
+    /**
+     * Returns the number of output flushes of the ended sessions, i.e. the
+     * number of writes of their output to the client
+     *
+     * @return The number of flushes
+     */
+    public long getFlushesCount() {
+
+        return pFlushes.get();
+    }
+
     /**
      * Returns the port the server is listening to. Returns -1 if the server is
      * down.
@@ -112,11 +350,30 @@ public class Server implements Runnable {
      */
     public int getPort() {
 
-        if (pServer == null) {
+        final ServerSocketChannel server = pServer;
+        if (server == null) {
             return -1;
         }
 
-        return pServer.getLocalPort();
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Notifies the server that the buffers of a connection changed: the
+     * selector thread will update its interest operations. Can be called by
+     * any thread.
+     *
+     * @param aConnection
+     *            The updated connection
+     */
+    void interestChanged(final ShellConnection aConnection) {
+
+        pUpdates.add(aConnection);
+
+        final Selector selector = pSelector;
+        if (selector != null) {
+            selector.wakeup();
+        }
     }
 
     /**
@@ -137,21 +394,52 @@ public class Server implements Runnable {
         }
 
         // Compute the binding address
-        final InetAddress bindAddr;
+        final InetSocketAddress bindAddr;
         if (aAddress == null) {
             // Accept all connections
-            bindAddr = null;
+            bindAddr = new InetSocketAddress(aPort);
 
         } else {
             // Bind to a specific address
-            bindAddr = InetAddress.getByName(aAddress);
+            bindAddr = new InetSocketAddress(InetAddress.getByName(aAddress),
+                    aPort);
         }
 
         // Reset the stop flag
         pStop = false;
+        pDrainDeadline = 0;
 
         // Create the server
-        pServer = new ServerSocket(aPort, 1, bindAddr);
+        pSelector = Selector.open();
+        try {
+            pServer = ServerSocketChannel.open();
+            pServer.configureBlocking(false);
+            pServer.socket().bind(bindAddr, pBacklog);
+            pServer.register(pSelector, SelectionKey.OP_ACCEPT);
+
+        } catch (final IOException ex) {
+            if (pServer != null) {
+                pServer.close();
+                pServer = null;
+            }
+            pSelector.close();
+            pSelector = null;
+            throw ex;
+        }
+
+        // The sessions outputs are flushed by a shared timer
+        pFlushScheduler = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(final Runnable aRunnable) {
+
+                        final Thread thread = new Thread(aRunnable,
+                                "cohorte.remote.shell.flusher");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
 
         // Wait for clients in another thread
         pListeningThread = new Thread(this, "cohorte.remote.shell.acceptor");
@@ -159,7 +447,57 @@ public class Server implements Runnable {
     }
 
     /**
-     * The server client acceptance loop
+     * Closes the sessions waiting for a command for too long. Called by the
+     * selector thread.
+     */
+    private void reapIdleSessions() {
+
+        final long now = System.currentTimeMillis();
+        if (pIdleTimeout <= 0 || now - pLastIdleCheck < SELECT_TIMEOUT) {
+            return;
+        }
+        pLastIdleCheck = now;
+
+        for (final ShellConnection connection : pConnections) {
+            if (connection.isIdle(now, pIdleTimeout)) {
+                pShellService.warning("reapIdleSessions",
+                        "Closing idle session:",
+                        connection.getRemoteAddress());
+                connection.closeNow();
+            }
+        }
+    }
+
+    /**
+     * Refuses a client over the connections limit
+     *
+     * @param aClient
+     *            The refused client
+     */
+    private void refuse(final SocketChannel aClient) {
+
+        pShellService.warning("accept", "Too many connections, refusing:",
+                aClient.socket().getRemoteSocketAddress());
+        try {
+            // Best effort: the message fits in the socket buffer
+            aClient.configureBlocking(false);
+            aClient.write(ByteBuffer.wrap("Too many connections\r\n"
+                    .getBytes("UTF-8")));
+
+        } catch (final IOException ex) {
+            // Ignore
+        }
+
+        try {
+            aClient.close();
+
+        } catch (final IOException ex) {
+            // Ignore
+        }
+    }
+
+    /**
+     * The selector loop
      *
      * @see java.lang.Runnable#run()
      */
@@ -167,39 +505,124 @@ public class Server implements Runnable {
     public void run() {
 
         try {
-            while (!pStop) {
-                try {
-                    final Socket client = pServer.accept();
-
-                    // Start a new client thread
-                    final Thread clientThread = new Thread(
-                            new ShellClientHandler(pShellService, client));
-                    clientThread.setName("cohorte.remote.shell="
-                            + client.getRemoteSocketAddress());
-                    clientThread.start();
-
-                } catch (final SocketException ex) {
-                    // Log the exception
-                    pShellService.error("acceptLoop",
-                            "Error accepting client:", ex);
-
-                } catch (final SocketTimeoutException ex) {
-                    // Ignore
+            while (true) {
+                if (pStop) {
+                    drain();
+                    if (pConnections.isEmpty()
+                            || System.currentTimeMillis() >= pDrainDeadline) {
+                        break;
+                    }
+                }
+
+                pSelector.select(SELECT_TIMEOUT);
+
+                // Apply the changes made by the session threads
+                ShellConnection updated;
+                while ((updated = pUpdates.poll()) != null) {
+                    updated.updateInterest();
+                }
+
+                final Iterator<SelectionKey> iterator = pSelector
+                        .selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    final SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        try {
+                            accept();
+
+                        } catch (final IOException ex) {
+                            pShellService.error("accept",
+                                    "Error accepting client:", ex);
+                        }
+                        continue;
+                    }
+
+                    final ShellConnection connection = (ShellConnection) key
+                            .attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read(pReadBuffer);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+
+                    } catch (final IOException ex) {
+                        // Client gone
+                        connection.closeNow();
+                    }
                 }
+
+                reapIdleSessions();
             }
 
         } catch (final IOException ex) {
             // Log the exception
-            pStop = true;
-            pShellService.error("acceptLoop", "Error waiting for clients:", ex);
+            pShellService.error("run", "Error waiting for clients:", ex);
+
+        } finally {
+            // Close the remaining connections
+            for (final ShellConnection connection : new ArrayList<ShellConnection>(
+                    pConnections)) {
+                connection.closeNow();
+            }
 
             try {
-                // Kill the server
-                close();
+                pServer.close();
 
-            } catch (final IOException ex2) {
+            } catch (final IOException ex) {
                 // Ignore
             }
+
+            try {
+                pSelector.close();
+
+            } catch (final IOException ex) {
+                // Ignore
+            }
+
+            pStop = true;
+        }
+    }
+
+    /**
+     * Runs the session of a client: a batch session if the client sends a
+     * batch request as soon as it is connected, else a shell session. Called
+     * by the session thread.
+     *
+     * @param aConnection
+     *            The client connection
+     */
+    private void runSession(final ShellConnection aConnection) {
+
+        final int firstByte;
+        try {
+            firstByte = aConnection.peek(BATCH_DETECTION_DELAY);
+
+        } catch (final InterruptedException ex) {
+            aConnection.close();
+            return;
+        }
+
+        if (BatchClientHandler.isBatchClient(firstByte)) {
+            new BatchClientHandler(pShellService, aConnection,
+                    pShellService.getBatchSessions()).run();
+            return;
+        }
+
+        final ShellClientHandler handler = new ShellClientHandler(
+                pShellService, aConnection, pFlushScheduler);
+        handler.run();
+
+        final TerminalPrintStream output = handler.getOutput();
+        if (output != null) {
+            pBytesSent.addAndGet(output.getBytesCount());
+            pFlushes.addAndGet(output.getFlushesCount());
         }
     }
 
@@ -213,8 +636,10 @@ public class Server implements Runnable {
      */
     public void setSocketTimeout(final int aTimeout) throws SocketException {
 
-        if (pServer != null) {
-            pServer.setSoTimeout(aTimeout);
+        final ServerSocketChannel server = pServer;
+        if (server != null) {
+            final ServerSocket socket = server.socket();
+            socket.setSoTimeout(aTimeout);
         }
     }
 }
@@ -16,8 +16,11 @@
 
 package org.cohorte.remote.shell;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.net.Socket;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.apache.felix.service.command.CommandSession;
 
@@ -28,12 +31,71 @@ import org.apache.felix.service.command.CommandSession;
  */
 public class ShellClientHandler implements Runnable {
 
-    /** The client socket */
-    private final Socket pClient;
+    /**
+     * The session input: sends the pending output when the session waits for
+     * the client (i.e. on prompt)
+     */
+    private class PromptInputStream extends FilterInputStream {
+
+        /**
+         * Sets up the stream
+         *
+         * @param aInput
+         *            The client input
+         */
+        PromptInputStream(final InputStream aInput) {
+
+            super(aInput);
+        }
+
+        /**
+         * Sends the pending output if the next read will wait for the client
+         *
+         * @throws IOException
+         *             Error reading the input
+         */
+        private void prompt() throws IOException {
+
+            if (in.available() == 0) {
+                pOutput.flushOutput();
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.FilterInputStream#read()
+         */
+        @Override
+        public int read() throws IOException {
+
+            prompt();
+            return super.read();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.FilterInputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read(final byte[] aBuffer, final int aOffset,
+                final int aLength) throws IOException {
+
+            prompt();
+            return super.read(aBuffer, aOffset, aLength);
+        }
+    }
+
+    /** The client connection */
+    private final ShellConnection pClient;
 
     /** The client output */
     private volatile TerminalPrintStream pOutput;
 
+    /** The output flush timer */
+    private final ScheduledExecutorService pScheduler;
+
     /** The remote shell service that owns this session */
     private RemoteShellService pShellService;
 
@@ -43,35 +105,47 @@ public class ShellClientHandler implements Runnable {
      * @param aOwner
      *            The remote shell service that owns this session
      * @param aClient
-     *            The client socket
+     *            The client connection
+     * @param aScheduler
+     *            The output flush timer
      */
-    public ShellClientHandler(final RemoteShellService aOwner,
-            final Socket aClient) {
+    ShellClientHandler(final RemoteShellService aOwner,
+            final ShellConnection aClient,
+            final ScheduledExecutorService aScheduler) {
 
         pShellService = aOwner;
         pClient = aClient;
+        pScheduler = aScheduler;
     }
 
     /**
-     * Print an exit message and closes the socket
+     * Print an exit message and closes the connection, once the message is
+     * sent
      */
     private void exit() {
 
         // Farewell message
-        pOutput.println("Good Bye!");
-        pOutput.close();
-
-        try {
-            pClient.close();
-
-        } catch (final IOException ex) {
-            pShellService.error("Shell::exit()", ex);
+        if (pOutput != null) {
+            pOutput.println("Good Bye!");
+            pOutput.close();
         }
 
+        pClient.close();
+
         // Clean up
         pShellService = null;
     }
 
+    /**
+     * Returns the output of the session
+     *
+     * @return The session output, null if the session didn't start
+     */
+    TerminalPrintStream getOutput() {
+
+        return pOutput;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -82,17 +156,22 @@ public class ShellClientHandler implements Runnable {
 
         try {
             // Create the shell output
-            pOutput = new TerminalPrintStream(pShellService,
-                    pClient.getOutputStream());
+            pOutput = new TerminalPrintStream(pShellService, pClient,
+                    pScheduler);
 
             // Create a command session
             final CommandSession session = pShellService.createGogoSession(
-                    pClient.getInputStream(), pOutput, pOutput);
+                    new PromptInputStream(pClient.getInputStream()), pOutput,
+                    pOutput);
 
             // Run it
             runGogoShell(session);
 
-        } catch (final IOException ex) {
+        } catch (final UnsupportedEncodingException ex) {
+            // Something went wrong
+            pShellService.error("ShellClientHandler::run()", ex);
+
+        } catch (final RuntimeException ex) {
             // Something went wrong
             pShellService.error("ShellClientHandler::run()", ex);
 
@@ -0,0 +1,557 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cohorte.remote.shell;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+
+/**
+ * A client connection of the shell server. The socket is only read and
+ * written by the selector thread of the {@link Server}; the shell session
+ * thread uses blocking streams on top of an input buffer and an output
+ * queue.
+ *
+ * The session thread blocks while the input buffer is empty, or while the
+ * output queue is full: the selector thread stops reading a client which
+ * doesn't consume its input, and never blocks on a slow client.
+ *
+ * @author ogattaz
+ */
+class ShellConnection {
+
+    /**
+     * The input of the session: reads the input buffer
+     */
+    private class ConnectionInputStream extends InputStream {
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.InputStream#available()
+         */
+        @Override
+        public int available() {
+
+            synchronized (pLock) {
+                return pInputEnd - pInputStart;
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.InputStream#close()
+         */
+        @Override
+        public void close() {
+
+            ShellConnection.this.close();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.InputStream#read()
+         */
+        @Override
+        public int read() throws IOException {
+
+            final byte[] single = new byte[1];
+            final int read = read(single, 0, 1);
+            return read < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.InputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read(final byte[] aBuffer, final int aOffset,
+                final int aLength) throws IOException {
+
+            if (aLength == 0) {
+                return 0;
+            }
+
+            final boolean wasFull;
+            final int read;
+            synchronized (pLock) {
+                pWaitingInput = true;
+                try {
+                    while (pInputStart == pInputEnd && !pInputEnded) {
+                        try {
+                            pLock.wait();
+
+                        } catch (final InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException("Interrupted");
+                        }
+                    }
+
+                } finally {
+                    pWaitingInput = false;
+                }
+
+                if (pInputStart == pInputEnd) {
+                    // End of input
+                    return -1;
+                }
+
+                wasFull = pInputEnd - pInputStart == pInput.length;
+                read = Math.min(aLength, pInputEnd - pInputStart);
+                System.arraycopy(pInput, pInputStart, aBuffer, aOffset, read);
+                pInputStart += read;
+                if (pInputStart == pInputEnd) {
+                    // Drained: the whole buffer is free again
+                    pInputStart = 0;
+                    pInputEnd = 0;
+                }
+                pLastActivity = System.currentTimeMillis();
+            }
+
+            if (wasFull) {
+                // Read the client again
+                pServer.interestChanged(ShellConnection.this);
+            }
+            return read;
+        }
+    }
+
+    /**
+     * The output of the session: fills the output queue
+     */
+    private class ConnectionOutputStream extends OutputStream {
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.OutputStream#close()
+         */
+        @Override
+        public void close() {
+
+            ShellConnection.this.close();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.OutputStream#write(byte[], int, int)
+         */
+        @Override
+        public void write(final byte[] aBuffer, final int aOffset,
+                final int aLength) throws IOException {
+
+            queueOutput(aBuffer, aOffset, aLength, true);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.OutputStream#write(int)
+         */
+        @Override
+        public void write(final int aByte) throws IOException {
+
+            write(new byte[] { (byte) aByte }, 0, 1);
+        }
+    }
+
+    /** Size of the input buffer */
+    private static final int INPUT_CAPACITY = 8192;
+
+    /** Size of the output queue above which the session thread waits */
+    private static final int OUTPUT_LIMIT = 256 * 1024;
+
+    /** The client socket */
+    private final SocketChannel pChannel;
+
+    /** Set once the socket is closed */
+    private boolean pClosed;
+
+    /** Set when the socket must be closed once the output queue is empty */
+    private boolean pClosing;
+
+    /** The input buffer */
+    private final byte[] pInput = new byte[INPUT_CAPACITY];
+
+    /** The end of the unread input */
+    private int pInputEnd;
+
+    /** Set at the end of the input (end of stream, server drain) */
+    private boolean pInputEnded;
+
+    /** The beginning of the unread input */
+    private int pInputStart;
+
+    /** The input stream given to the session */
+    private final InputStream pInputStream = new ConnectionInputStream();
+
+    /** The selection key of the socket, used by the selector thread only */
+    private SelectionKey pKey;
+
+    /** Time of the last read or write of the session */
+    private volatile long pLastActivity = System.currentTimeMillis();
+
+    /** The lock of the buffers and of the flags */
+    private final Object pLock = new Object();
+
+    /** The output queue */
+    private final LinkedList<ByteBuffer> pOutput = new LinkedList<ByteBuffer>();
+
+    /** Number of bytes in the output queue */
+    private int pOutputSize;
+
+    /** The output stream given to the session */
+    private final OutputStream pOutputStream = new ConnectionOutputStream();
+
+    /** The parent server */
+    private final Server pServer;
+
+    /** True while the session thread waits for input */
+    private boolean pWaitingInput;
+
+    /**
+     * Sets up the connection
+     *
+     * @param aServer
+     *            The parent server
+     * @param aChannel
+     *            The client socket, in non-blocking mode
+     */
+    ShellConnection(final Server aServer, final SocketChannel aChannel) {
+
+        pServer = aServer;
+        pChannel = aChannel;
+    }
+
+    /**
+     * Closes the connection once the pending output is sent. Can be called by
+     * any thread.
+     */
+    void close() {
+
+        synchronized (pLock) {
+            if (pClosing || pClosed) {
+                return;
+            }
+            pClosing = true;
+        }
+        pServer.interestChanged(this);
+    }
+
+    /**
+     * Closes the socket immediately, unblocking the session thread. Called by
+     * the selector thread.
+     */
+    void closeNow() {
+
+        synchronized (pLock) {
+            if (pClosed) {
+                return;
+            }
+            pClosed = true;
+            pInputEnded = true;
+            pOutput.clear();
+            pOutputSize = 0;
+            pLock.notifyAll();
+        }
+
+        if (pKey != null) {
+            pKey.cancel();
+        }
+        try {
+            pChannel.close();
+
+        } catch (final IOException ex) {
+            // Ignore
+        }
+        pServer.connectionClosed(this);
+    }
+
+    /**
+     * Ends the input of the session: the session ends once its current
+     * command is done. Called by the selector thread.
+     */
+    void endInput() {
+
+        synchronized (pLock) {
+            pInputEnded = true;
+            pLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return The input stream of the session
+     */
+    InputStream getInputStream() {
+
+        return pInputStream;
+    }
+
+    /**
+     * @return The output stream of the session
+     */
+    OutputStream getOutputStream() {
+
+        return pOutputStream;
+    }
+
+    /**
+     * @return The address of the client, or null
+     */
+    SocketAddress getRemoteAddress() {
+
+        return pChannel.socket().getRemoteSocketAddress();
+    }
+
+    /**
+     * Tests if the session has been waiting for input for longer than the
+     * given time
+     *
+     * @param aNow
+     *            Current time (ms)
+     * @param aTimeout
+     *            Idle timeout (ms)
+     * @return True if the session is idle
+     */
+    boolean isIdle(final long aNow, final long aTimeout) {
+
+        synchronized (pLock) {
+            return pWaitingInput && aNow - pLastActivity > aTimeout;
+        }
+    }
+
+    /**
+     * Waits for the first byte of input, without consuming it
+     *
+     * @param aTimeout
+     *            Max time to wait (ms)
+     * @return The next input byte, or -1 if none came in time
+     * @throws InterruptedException
+     *             Interrupted while waiting
+     */
+    int peek(final long aTimeout) throws InterruptedException {
+
+        final long deadline = System.currentTimeMillis() + aTimeout;
+        synchronized (pLock) {
+            while (pInputStart == pInputEnd && !pInputEnded) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return -1;
+                }
+                pLock.wait(remaining);
+            }
+
+            if (pInputStart == pInputEnd) {
+                return -1;
+            }
+            return pInput[pInputStart] & 0xFF;
+        }
+    }
+
+    /**
+     * Adds output to the queue of the client
+     *
+     * @param aBuffer
+     *            The output
+     * @param aOffset
+     *            Offset of the output in the buffer
+     * @param aLength
+     *            Length of the output
+     * @param aWait
+     *            If true, waits while the output queue is full
+     * @return False if the output queue is full and aWait is false
+     * @throws IOException
+     *             Interrupted or connection closed
+     */
+    private boolean queueOutput(final byte[] aBuffer, final int aOffset,
+            final int aLength, final boolean aWait) throws IOException {
+
+        if (aLength == 0) {
+            return true;
+        }
+
+        synchronized (pLock) {
+            while (pOutputSize >= OUTPUT_LIMIT && !pClosed) {
+                if (!aWait) {
+                    return false;
+                }
+                try {
+                    pLock.wait();
+
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted");
+                }
+            }
+
+            if (pClosed) {
+                // Closed by the server (idle, drain, client gone): the
+                // session ends on the end of its input
+                return true;
+            }
+            if (pClosing) {
+                throw new IOException("Connection closed");
+            }
+
+            final byte[] copy = new byte[aLength];
+            System.arraycopy(aBuffer, aOffset, copy, 0, aLength);
+            pOutput.add(ByteBuffer.wrap(copy));
+            pOutputSize += aLength;
+            pLastActivity = System.currentTimeMillis();
+        }
+
+        pServer.interestChanged(this);
+        return true;
+    }
+
+    /**
+     * Reads the client into the input buffer. Called by the selector thread.
+     *
+     * @param aBuffer
+     *            The read buffer of the selector thread
+     * @throws IOException
+     *             Error reading the socket
+     */
+    void read(final ByteBuffer aBuffer) throws IOException {
+
+        synchronized (pLock) {
+            if (pInputStart > 0) {
+                // Compact the buffer
+                System.arraycopy(pInput, pInputStart, pInput, 0, pInputEnd
+                        - pInputStart);
+                pInputEnd -= pInputStart;
+                pInputStart = 0;
+            }
+
+            aBuffer.clear();
+            aBuffer.limit(Math.min(aBuffer.capacity(), pInput.length
+                    - pInputEnd));
+            final int read = pChannel.read(aBuffer);
+            if (read < 0) {
+                // Client disconnected its output
+                pInputEnded = true;
+
+            } else if (read > 0) {
+                aBuffer.flip();
+                aBuffer.get(pInput, pInputEnd, read);
+                pInputEnd += read;
+            }
+            pLock.notifyAll();
+        }
+        updateInterest();
+    }
+
+    /**
+     * Registers the socket to the selector. Called by the selector thread.
+     *
+     * @param aSelector
+     *            The selector of the server
+     * @throws IOException
+     *             Error registering the socket
+     */
+    void register(final Selector aSelector) throws IOException {
+
+        pKey = pChannel.register(aSelector, SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * Adds output to the queue of the client, unless the queue is full. Used
+     * by the flush timer, shared by all the sessions, which must never wait
+     * for a slow client.
+     *
+     * @param aBuffer
+     *            The output
+     * @param aOffset
+     *            Offset of the output in the buffer
+     * @param aLength
+     *            Length of the output
+     * @return False if the output queue is full: nothing was queued
+     * @throws IOException
+     *             Connection closed
+     */
+    boolean tryWrite(final byte[] aBuffer, final int aOffset,
+            final int aLength) throws IOException {
+
+        return queueOutput(aBuffer, aOffset, aLength, false);
+    }
+
+    /**
+     * Updates the operations the selector waits for, according to the
+     * buffers. Called by the selector thread.
+     */
+    void updateInterest() {
+
+        final boolean close;
+        int ops = 0;
+        synchronized (pLock) {
+            if (pClosed) {
+                return;
+            }
+            if (!pInputEnded && !pClosing
+                    && pInputEnd - pInputStart < pInput.length) {
+                // Some free space, read() compacts the buffer before use
+                ops |= SelectionKey.OP_READ;
+            }
+            if (pOutputSize > 0) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            close = pClosing && pOutputSize == 0;
+        }
+
+        if (close) {
+            closeNow();
+
+        } else if (pKey != null && pKey.isValid()) {
+            pKey.interestOps(ops);
+        }
+    }
+
+    /**
+     * Writes the output queue to the client, without blocking. Called by the
+     * selector thread.
+     *
+     * @throws IOException
+     *             Error writing the socket
+     */
+    void write() throws IOException {
+
+        synchronized (pLock) {
+            while (!pOutput.isEmpty()) {
+                final ByteBuffer buffer = pOutput.getFirst();
+                final int written = pChannel.write(buffer);
+                pOutputSize -= written;
+                if (buffer.hasRemaining()) {
+                    // Socket buffer full
+                    break;
+                }
+                pOutput.removeFirst();
+            }
+            pLock.notifyAll();
+        }
+        updateInterest();
+    }
+}
@@ -16,59 +16,233 @@
 
 package org.cohorte.remote.shell;
 
-import java.io.OutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Class implementing a <tt>TerminalPrintStream</tt>.
+ *
+ * The output is encoded in UTF-8 into a buffer, which is sent to the client
+ * when the session waits for a command (see {@link #flushOutput()}), when
+ * enough lines have been printed, or by the flush timer. A call to
+ * {@link #flush()} only arms the timer, so that commands flushing each line
+ * don't send a TCP segment per line.
+ *
+ * The flush timer is shared by all the sessions: it never waits for a client
+ * whose output queue is full, it tries again later. Only the session thread
+ * waits for its client, on its own writes.
  */
 class TerminalPrintStream extends PrintStream {
 
+    /** Size of the output buffer */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** The output charset */
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /** Max time the output stays in the buffer (ms) */
+    private static final long FLUSH_DELAY = 50;
+
+    /** Number of lines sent at once */
+    private static final int FLUSH_LINES = 100;
+
+    /** The output buffer */
+    private final ByteBuffer pBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /** Number of bytes sent to the client */
+    private long pBytesCount;
+
+    /** The client connection */
+    private final ShellConnection pConnection;
+
+    /** The output encoder */
+    private final CharsetEncoder pEncoder = CHARSET.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /** Number of flushes of the output */
+    private long pFlushesCount;
+
     /** Close stream flag */
     private volatile boolean pIsClosed = false;
 
+    /** Number of lines in the buffer */
+    private int pLines;
+
+    /** The lock of the buffer (the flush timer doesn't wait for it) */
+    private final ReentrantLock pLock = new ReentrantLock();
+
+    /** The flush timer */
+    private final ScheduledExecutorService pScheduler;
+
+    /** Set while a flush is scheduled */
+    private boolean pScheduled;
+
     /** The client session owner */
     private final RemoteShellService pShellService;
 
+    /** Flush timer task */
+    private final Runnable pTimerTask = new Runnable() {
+
+        @Override
+        public void run() {
+
+            if (!pLock.tryLock()) {
+                // The session is writing: try later
+                schedule(true);
+                return;
+            }
+
+            try {
+                pScheduled = false;
+                if (!tryFlushOutput()) {
+                    // The client doesn't read its output: try later
+                    schedule(true);
+                }
+
+            } finally {
+                pLock.unlock();
+            }
+        }
+    };
+
     /**
-     * Constructs a new instance wrapping the given <tt>OutputStream</tt>.
+     * Constructs a new instance wrapping the output of the given connection.
      *
      * @param aOwner
      *            The client session owner
-     * @param aOutputStream
-     *            the <tt>OutputStream</tt> to be wrapped.
+     * @param aConnection
+     *            The client connection, whose output stream is wrapped
+     * @param aScheduler
+     *            The flush timer
+     * @throws UnsupportedEncodingException
+     *             UTF-8 not supported
      */
     public TerminalPrintStream(final RemoteShellService aOwner,
-            final OutputStream aOutputStream) {
+            final ShellConnection aConnection,
+            final ScheduledExecutorService aScheduler)
+            throws UnsupportedEncodingException {
 
-        super(aOutputStream);
+        super(aConnection.getOutputStream(), false, CHARSET.name());
         pShellService = aOwner;
+        pConnection = aConnection;
+        pScheduler = aScheduler;
     }
 
     /**
-     * Closes the stream
+     * Closes the stream, after having sent the buffer
      */
     @Override
     public void close() {
 
-        pIsClosed = true;
+        pLock.lock();
+        try {
+            flushOutput();
+            pIsClosed = true;
+
+        } finally {
+            pLock.unlock();
+        }
         super.close();
     }
 
     /**
-     * Flushes the output
+     * Schedules the flush of the output
      */
     @Override
     public void flush() {
 
-        if (out != null) {
-            try {
-                out.flush();
-            } catch (final Exception ex) {
-                if (!pIsClosed) {
-                    pShellService.error("TerminalPrintStream::flush()", ex);
-                }
+        pLock.lock();
+        try {
+            if (pBuffer.position() > 0) {
+                schedule(false);
             }
+
+        } finally {
+            pLock.unlock();
+        }
+    }
+
+    /**
+     * Sends the buffer to the client
+     */
+    void flushOutput() {
+
+        pLock.lock();
+        try {
+            if (pBuffer.position() == 0 || out == null) {
+                return;
+            }
+
+            writeBuffer();
+            out.flush();
+            pFlushesCount++;
+            pLines = 0;
+
+        } catch (final Exception ex) {
+            pBuffer.clear();
+            if (!pIsClosed) {
+                pShellService.error("TerminalPrintStream::flush()", ex);
+            }
+
+        } finally {
+            pLock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of bytes sent to the client
+     */
+    public long getBytesCount() {
+
+        pLock.lock();
+        try {
+            return pBytesCount;
+
+        } finally {
+            pLock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of flushes of the output
+     */
+    public long getFlushesCount() {
+
+        pLock.lock();
+        try {
+            return pFlushesCount;
+
+        } finally {
+            pLock.unlock();
+        }
+    }
+
+    /**
+     * Counts the printed lines, and sends them if there are enough of them
+     *
+     * @param aNewLines
+     *            Number of printed lines
+     */
+    private void linesPrinted(final int aNewLines) {
+
+        pLines += aNewLines;
+        if (pLines >= FLUSH_LINES) {
+            flushOutput();
+
+        } else if (pBuffer.position() > 0) {
+            schedule(false);
         }
     }
 
@@ -81,21 +255,67 @@ class TerminalPrintStream extends PrintStream {
     @Override
     public void print(final String aString) {
 
-        if (out != null) {
-            try {
-                // Send the string as bytes
-                final byte[] bytes = aString.getBytes();
-                out.write(bytes, 0, bytes.length);
-                flush();
-
-            } catch (final Exception ex) {
-                if (!pIsClosed) {
-                    pShellService.error("TerminalPrintStream::print()", ex);
+        if (out == null) {
+            return;
+        }
+
+        final String string = String.valueOf(aString);
+        int newLines = 0;
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) == '\n') {
+                newLines++;
+            }
+        }
+
+        pLock.lock();
+        try {
+            final CharBuffer chars = CharBuffer.wrap(string);
+            pEncoder.reset();
+            CoderResult result;
+            do {
+                result = pEncoder.encode(chars, pBuffer, true);
+                if (result.isOverflow()) {
+                    writeBuffer();
                 }
+            } while (result.isOverflow());
+
+            while (pEncoder.flush(pBuffer).isOverflow()) {
+                writeBuffer();
             }
+
+            linesPrinted(newLines);
+
+        } catch (final Exception ex) {
+            if (!pIsClosed) {
+                pShellService.error("TerminalPrintStream::print()", ex);
+            }
+
+        } finally {
+            pLock.unlock();
         }
     }
 
+    /**
+     * Prints a new line
+     */
+    @Override
+    public void println() {
+
+        print("\r\n");
+    }
+
+    /**
+     * Prints an object with a new line
+     *
+     * @param aObject
+     *            Object to print
+     */
+    @Override
+    public void println(final Object aObject) {
+
+        println(String.valueOf(aObject));
+    }
+
     /**
      * Simple print with a new line
      *
@@ -105,6 +325,139 @@ class TerminalPrintStream extends PrintStream {
     @Override
     public void println(final String aString) {
 
-        print(aString + "\r\n");
+        pLock.lock();
+        try {
+            print(aString);
+            print("\r\n");
+
+        } finally {
+            pLock.unlock();
+        }
+    }
+
+    /**
+     * Schedules the flush timer, if needed
+     *
+     * @param aForce
+     *            Reschedule even if a flush is scheduled (called by the timer)
+     */
+    private void schedule(final boolean aForce) {
+
+        if (pScheduled && !aForce) {
+            return;
+        }
+
+        try {
+            pScheduler.schedule(pTimerTask, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+            pScheduled = true;
+
+        } catch (final RejectedExecutionException ex) {
+            // Timer stopped: the buffer is sent on prompt or on close
+            pScheduled = false;
+        }
+    }
+
+    /**
+     * Sends the buffer to the client, unless its output queue is full. Called
+     * by the flush timer, with the lock held.
+     *
+     * @return False if the buffer has not been sent
+     */
+    private boolean tryFlushOutput() {
+
+        final int length = pBuffer.position();
+        if (length == 0 || out == null) {
+            return true;
+        }
+
+        try {
+            if (!pConnection.tryWrite(pBuffer.array(), 0, length)) {
+                return false;
+            }
+            pBuffer.clear();
+            pBytesCount += length;
+            pFlushesCount++;
+            pLines = 0;
+
+        } catch (final IOException ex) {
+            pBuffer.clear();
+            if (!pIsClosed) {
+                pShellService.error("TerminalPrintStream::flush()", ex);
+            }
+        }
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.PrintStream#write(byte[], int, int)
+     */
+    @Override
+    public void write(final byte[] aBuffer, final int aOffset,
+            final int aLength) {
+
+        if (out == null) {
+            return;
+        }
+
+        pLock.lock();
+        try {
+            int newLines = 0;
+            int offset = aOffset;
+            final int end = aOffset + aLength;
+            while (offset < end) {
+                if (!pBuffer.hasRemaining()) {
+                    writeBuffer();
+                }
+
+                final int length = Math.min(end - offset, pBuffer.remaining());
+                for (int i = offset; i < offset + length; i++) {
+                    if (aBuffer[i] == '\n') {
+                        newLines++;
+                    }
+                }
+                pBuffer.put(aBuffer, offset, length);
+                offset += length;
+            }
+
+            linesPrinted(newLines);
+
+        } catch (final Exception ex) {
+            if (!pIsClosed) {
+                pShellService.error("TerminalPrintStream::write()", ex);
+            }
+
+        } finally {
+            pLock.unlock();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.PrintStream#write(int)
+     */
+    @Override
+    public void write(final int aByte) {
+
+        write(new byte[] { (byte) aByte }, 0, 1);
+    }
+
+    /**
+     * Writes the content of the buffer to the output stream, without flushing
+     * it
+     *
+     * @throws IOException
+     *             Error writing the output
+     */
+    private void writeBuffer() throws IOException {
+
+        final int length = pBuffer.position();
+        if (length > 0) {
+            pBuffer.clear();
+            pBytesCount += length;
+            out.write(pBuffer.array(), 0, length);
+        }
     }
 }
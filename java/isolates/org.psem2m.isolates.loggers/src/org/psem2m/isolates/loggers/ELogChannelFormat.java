@@ -0,0 +1,99 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.isolates.loggers;
+
+/**
+ * The formats of the files of a log channel
+ *
+ * @author ogattaz
+ *
+ */
+public enum ELogChannelFormat {
+
+	/**
+	 * Compact length-prefixed binary records ("channel_<id>/<id>_%g.bin")
+	 * holding the raw arguments of the log calls. Nothing is formatted while
+	 * logging: the files are rendered as text on demand by the decoder (see
+	 * the gogo command "logchannels:lcdecode").
+	 */
+	BINARY("bin"),
+
+	/**
+	 * Human readable text, one line per record ("<id>_%g.txt"), written in
+	 * memory-mapped segments: logging a record doesn't make a system call.
+	 * The current file (index 0) is preallocated to the size of the channel
+	 * and ends with zeros until the channel is closed or rotated.
+	 */
+	MAPPED_MONOLINE("txt"),
+
+	/**
+	 * Human readable text, multi-lines records ("<id>_%g.txt"), written in
+	 * memory-mapped segments (see MAPPED_MONOLINE)
+	 */
+	MAPPED_MULTILINES("txt"),
+
+	/** Human readable text, one line per record ("<id>_%g.txt") */
+	MONOLINE("txt"),
+
+	/** Human readable text, multi-lines records ("<id>_%g.txt") */
+	MULTILINES("txt");
+
+	/**
+	 * @param aMultiline
+	 * @return the text format corresponding to the historical multiline flag
+	 */
+	public static ELogChannelFormat fromMultiline(final boolean aMultiline) {
+		return aMultiline ? MULTILINES : MONOLINE;
+	}
+
+	private final String pFileExtension;
+
+	/**
+	 * @param aFileExtension
+	 */
+	private ELogChannelFormat(final String aFileExtension) {
+		pFileExtension = aFileExtension;
+	}
+
+	/**
+	 * @return the extension of the files of the channel
+	 */
+	public String getFileExtension() {
+		return pFileExtension;
+	}
+
+	/**
+	 * @return true if the text files are written in memory-mapped segments
+	 */
+	public boolean isMapped() {
+		return this == MAPPED_MONOLINE || this == MAPPED_MULTILINES;
+	}
+
+	/**
+	 * @return true if the text records are written on several lines
+	 */
+	public boolean isMultilines() {
+		return this == MULTILINES || this == MAPPED_MULTILINES;
+	}
+
+	/**
+	 * @return true if the files are written as text
+	 */
+	public boolean isText() {
+		return this != BINARY;
+	}
+}
@@ -81,6 +81,25 @@ public interface ILogChannelsSvc {
 			final int aFileCount, final boolean aMultiline)
 			throws CLogChannelException;
 
+	/**
+	 * @param aChannelId
+	 *            the channel id of the logger to retrieve
+	 * @param aFileSize
+	 *            the size of each file
+	 * @param aFileCount
+	 *            the number of files of the channel
+	 * @param aFormat
+	 *            the format of the files: monoline or multilines text,
+	 *            written by the jul file handler or in memory-mapped segments,
+	 *            or binary records rendered on demand
+	 * @return the instance of Logger corresponding to the channel id
+	 * @throws CLogChannelException
+	 *             if an error occurs during the creation of the channel
+	 */
+	ILogChannelSvc getLogChannel(String aChannelId, final int aFileSize,
+			final int aFileCount, final ELogChannelFormat aFormat)
+			throws CLogChannelException;
+
 	/**
 	 * @param aChannelId
 	 *            the channel id of the logger
@@ -51,6 +51,26 @@ public interface ILoggingConditions extends IXDescriber {
 	 */
 	String getId();
 
+	/**
+	 * The handle of a condition is kept by the callers to test it without any
+	 * lookup:
+	 *
+	 * <pre>
+	 * private final ILoggingCondition pStuffCondition = pLoggingConditions
+	 * 		.handleFor(ISubSystemStuff.class);
+	 * ...
+	 * if (pStuffCondition.isOn(Level.FINE)) {
+	 * </pre>
+	 *
+	 * @param aConditionId
+	 *            The ID of the condition.
+	 * @return the condition itself, cached by id. Its method isOn(Level) is a
+	 *         single comparison with a volatile value. If the condition
+	 *         doesn't exist, a shared handle always off (the miss is warned
+	 *         once).
+	 */
+	ILoggingCondition handleFor(final Class<?> aConditionId);
+
 	/**
 	 * @param aConditionId
 	 *            The ID of the condition to test.
@@ -0,0 +1,296 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.isolates.loggers.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.IllegalFormatException;
+import java.util.logging.Level;
+
+/**
+ * Renders the binary files of the log channels as text, on demand.
+ *
+ * Usable offline:
+ *
+ * <pre>
+ * java -cp org.psem2m.isolates.loggers.jar org.psem2m.isolates.loggers.impl.CLogChannelBinaryDecoder aId_0.bin [aId_1.bin ...]
+ * </pre>
+ *
+ * or in an isolate with the gogo command "logchannels:lcdecode".
+ *
+ * @author ogattaz
+ *
+ */
+public class CLogChannelBinaryDecoder {
+
+	private static final String DATE_FORMAT = "yyyy/MM/dd HH:mm:ss:SSS";
+
+	/**
+	 * @param aArgs
+	 *            the paths of the binary files to render
+	 */
+	public static void main(final String[] aArgs) {
+
+		final PrintStream wOut = System.out;
+		for (final String wPath : aArgs) {
+			try {
+				final CLogChannelBinaryDecoder wDecoder = new CLogChannelBinaryDecoder(
+						new File(wPath));
+				wDecoder.decode(wOut, 0, Integer.MAX_VALUE);
+				wOut.println();
+				if (wDecoder.isTruncated()) {
+					System.err.printf("%s: truncated after %d records\n",
+							wPath, wDecoder.getNbRecords());
+				}
+			} catch (final IOException e) {
+				System.err.printf("%s: %s\n", wPath, e.getMessage());
+			}
+		}
+	}
+
+	private final SimpleDateFormat pDateFormat = new SimpleDateFormat(
+			DATE_FORMAT);
+
+	private final File pFile;
+
+	/** the number of complete records read */
+	private int pNbRecords = 0;
+
+	/** true if the last record is incomplete */
+	private boolean pTruncated = false;
+
+	/**
+	 * @param aFile
+	 *            a binary file of a log channel
+	 */
+	public CLogChannelBinaryDecoder(final File aFile) {
+		super();
+		pFile = aFile;
+	}
+
+	/**
+	 * Renders the records of the file as text lines
+	 *
+	 * @param aOut
+	 *            the destination
+	 * @param aFirst
+	 *            the index of the first record to render
+	 * @param aMax
+	 *            the max number of records to render
+	 * @return the number of rendered records
+	 * @throws IOException
+	 *             if the file can't be read or isn't a binary log file
+	 */
+	public int decode(final Appendable aOut, final int aFirst, final int aMax)
+			throws IOException {
+
+		final ByteBuffer wBuffer = map();
+		pNbRecords = 0;
+		pTruncated = false;
+		int wNbRendered = 0;
+		while (wBuffer.remaining() >= 4 && wNbRendered < aMax) {
+			final int wLength = wBuffer.getInt();
+			if (wLength <= 0) {
+				// end of the records
+				break;
+			}
+			if (wLength > wBuffer.remaining()) {
+				pTruncated = true;
+				break;
+			}
+			final ByteBuffer wBody = wBuffer.slice();
+			wBody.limit(wLength);
+			wBuffer.position(wBuffer.position() + wLength);
+			try {
+				if (pNbRecords >= aFirst) {
+					aOut.append('\n');
+					renderRecord(wBody, aOut);
+					wNbRendered++;
+				}
+			} catch (final BufferUnderflowException e) {
+				pTruncated = true;
+				break;
+			}
+			pNbRecords++;
+		}
+		return wNbRendered;
+	}
+
+	/**
+	 * @return the number of records read by the last decoding
+	 */
+	public int getNbRecords() {
+		return pNbRecords;
+	}
+
+	/**
+	 * @return true if the last decoding found an incomplete record
+	 */
+	public boolean isTruncated() {
+		return pTruncated;
+	}
+
+	/**
+	 * @return the content of the file after its header
+	 * @throws IOException
+	 */
+	private ByteBuffer map() throws IOException {
+
+		final FileChannel wChannel = FileChannel.open(pFile.toPath(),
+				StandardOpenOption.READ);
+		try {
+			final ByteBuffer wBuffer = wChannel.map(
+					FileChannel.MapMode.READ_ONLY, 0, wChannel.size());
+			if (!CLogChannelBinaryFormat.hasHeader(wBuffer)) {
+				throw new IOException(String.format(
+						"The file [%s] isn't a binary log channel file",
+						pFile.getAbsolutePath()));
+			}
+			return wBuffer;
+		} finally {
+			wChannel.close();
+		}
+	}
+
+	/**
+	 * @param aIntValue
+	 * @return the name of the standard level or the int value
+	 */
+	private String levelName(final int aIntValue) {
+
+		final Level[] wLevels = { Level.SEVERE, Level.WARNING, Level.INFO,
+				Level.CONFIG, Level.FINE, Level.FINER, Level.FINEST,
+				Level.ALL, Level.OFF };
+		for (final Level wLevel : wLevels) {
+			if (wLevel.intValue() == aIntValue) {
+				return wLevel.getName();
+			}
+		}
+		return String.valueOf(aIntValue);
+	}
+
+	/**
+	 * @param aBody
+	 * @return the next argument of the record
+	 */
+	private Object readInfo(final ByteBuffer aBody) {
+
+		final byte wTag = aBody.get();
+		switch (wTag) {
+		case CLogChannelBinaryFormat.TAG_STRING:
+			return CLogChannelBinaryFormat.getString(aBody);
+		case CLogChannelBinaryFormat.TAG_INTEGER:
+			return aBody.getInt();
+		case CLogChannelBinaryFormat.TAG_LONG:
+			return aBody.getLong();
+		case CLogChannelBinaryFormat.TAG_DOUBLE:
+			return aBody.getDouble();
+		case CLogChannelBinaryFormat.TAG_FLOAT:
+			return aBody.getFloat();
+		case CLogChannelBinaryFormat.TAG_BOOLEAN:
+			return aBody.get() != 0;
+		case CLogChannelBinaryFormat.TAG_THROWABLE:
+			CLogChannelBinaryFormat.getString(aBody); // class name
+			CLogChannelBinaryFormat.getString(aBody); // message
+			// the stack trace begins with the class name and the message
+			return CLogChannelBinaryFormat.getString(aBody);
+		case CLogChannelBinaryFormat.TAG_OBJECT:
+			return CLogChannelBinaryFormat.getString(aBody);
+		case CLogChannelBinaryFormat.TAG_NULL:
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Renders one record like the text channels:
+	 *
+	 * <pre>
+	 * 2014/10/14 16:02:34:587;INFO;main;org.foo.CBar_1a2b3c;doIt;the message
+	 * </pre>
+	 *
+	 * The message is the first argument used as format of the other ones if
+	 * it is possible, otherwise the arguments separated by spaces.
+	 *
+	 * @param aBody
+	 * @param aOut
+	 * @throws IOException
+	 */
+	private void renderRecord(final ByteBuffer aBody, final Appendable aOut)
+			throws IOException {
+
+		final long wMillis = aBody.getLong();
+		final int wLevel = aBody.getInt();
+		final String wThread = CLogChannelBinaryFormat.getString(aBody);
+		final String wWhoClass = CLogChannelBinaryFormat.getString(aBody);
+		final int wWhoId = aBody.getInt();
+		final String wWhat = CLogChannelBinaryFormat.getString(aBody);
+		final int wNbInfos = aBody.getInt();
+		// each argument takes at least its tag
+		if (wNbInfos < 0 || wNbInfos > aBody.remaining()) {
+			// corrupt count: handled like a truncated record
+			throw new BufferUnderflowException();
+		}
+		final Object[] wInfos = new Object[wNbInfos];
+		for (int wIdx = 0; wIdx < wNbInfos; wIdx++) {
+			wInfos[wIdx] = readInfo(aBody);
+		}
+
+		aOut.append(pDateFormat.format(new Date(wMillis))).append(';');
+		aOut.append(levelName(wLevel)).append(';');
+		aOut.append(wThread).append(';');
+		aOut.append(wWhoClass);
+		if (wWhoId != 0) {
+			aOut.append('_').append(Integer.toHexString(wWhoId));
+		}
+		aOut.append(';').append(wWhat).append(';');
+		aOut.append(renderText(wInfos));
+	}
+
+	/**
+	 * @param aInfos
+	 * @return the text of the record
+	 */
+	private String renderText(final Object[] aInfos) {
+
+		if (aInfos.length > 1 && aInfos[0] instanceof String
+				&& ((String) aInfos[0]).indexOf('%') > -1) {
+			final Object[] wArgs = new Object[aInfos.length - 1];
+			System.arraycopy(aInfos, 1, wArgs, 0, wArgs.length);
+			try {
+				return String.format((String) aInfos[0], wArgs);
+			} catch (final IllegalFormatException e) {
+				// rendered as the other records
+			}
+		}
+		final StringBuilder wSB = new StringBuilder();
+		for (final Object wInfo : aInfos) {
+			if (wSB.length() > 0) {
+				wSB.append(' ');
+			}
+			wSB.append(wInfo);
+		}
+		return wSB.toString();
+	}
+}
@@ -0,0 +1,243 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.isolates.loggers.impl;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.logging.Level;
+
+/**
+ * The binary format of the files of the log channels.
+ *
+ * <pre>
+ * file   := header record*
+ * header := 'C' 'L' 'C' 'B' version(byte)
+ * record := length(int) body          length: the size of the body
+ * body   := millis(long) level(int) thread(str) whoclass(str) whoid(int)
+ *           what(str) nbinfos(int) info*
+ * info   := tag(byte) value           see the TAG_XXX constants
+ * str    := size(int) utf8-bytes      size -1: null
+ * </pre>
+ *
+ * All the numbers are big-endian. A length of zero marks the end of the
+ * records.
+ *
+ * @author ogattaz
+ *
+ */
+final class CLogChannelBinaryFormat {
+
+	/** the size of the header of the files */
+	static final int HEADER_SIZE = 5;
+
+	/** the first bytes of the files */
+	static final byte[] MAGIC = { 'C', 'L', 'C', 'B' };
+
+	static final byte TAG_BOOLEAN = 'Z';
+
+	static final byte TAG_DOUBLE = 'D';
+
+	static final byte TAG_FLOAT = 'F';
+
+	static final byte TAG_INTEGER = 'I';
+
+	static final byte TAG_LONG = 'J';
+
+	static final byte TAG_NULL = 'N';
+
+	/** any other object, stored as its toString() */
+	static final byte TAG_OBJECT = 'O';
+
+	static final byte TAG_STRING = 'S';
+
+	/** class name, message and stack trace */
+	static final byte TAG_THROWABLE = 'T';
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	static final byte VERSION = 1;
+
+	/**
+	 * @param aBuffer
+	 * @return the string read in the buffer
+	 * @throws BufferUnderflowException
+	 */
+	static String getString(final ByteBuffer aBuffer)
+			throws BufferUnderflowException {
+
+		final int wSize = aBuffer.getInt();
+		if (wSize < 0) {
+			return null;
+		}
+		if (wSize > aBuffer.remaining()) {
+			// corrupt size: not allocated
+			throw new BufferUnderflowException();
+		}
+		final byte[] wBytes = new byte[wSize];
+		aBuffer.get(wBytes);
+		return new String(wBytes, UTF8);
+	}
+
+	/**
+	 * @param aBuffer
+	 * @return true if the buffer starts with a valid header
+	 */
+	static boolean hasHeader(final ByteBuffer aBuffer) {
+
+		if (aBuffer.remaining() < HEADER_SIZE) {
+			return false;
+		}
+		for (final byte wByte : MAGIC) {
+			if (aBuffer.get() != wByte) {
+				return false;
+			}
+		}
+		return aBuffer.get() == VERSION;
+	}
+
+	/**
+	 * @param aBuffer
+	 */
+	static void putHeader(final ByteBuffer aBuffer) {
+
+		aBuffer.put(MAGIC);
+		aBuffer.put(VERSION);
+	}
+
+	/**
+	 * @param aBuffer
+	 * @param aInfo
+	 * @throws BufferOverflowException
+	 */
+	private static void putInfo(final ByteBuffer aBuffer, final Object aInfo)
+			throws BufferOverflowException {
+
+		if (aInfo == null) {
+			aBuffer.put(TAG_NULL);
+		} else if (aInfo instanceof CharSequence) {
+			aBuffer.put(TAG_STRING);
+			putString(aBuffer, (CharSequence) aInfo);
+		} else if (aInfo instanceof Integer || aInfo instanceof Short
+				|| aInfo instanceof Byte) {
+			aBuffer.put(TAG_INTEGER);
+			aBuffer.putInt(((Number) aInfo).intValue());
+		} else if (aInfo instanceof Long) {
+			aBuffer.put(TAG_LONG);
+			aBuffer.putLong(((Long) aInfo).longValue());
+		} else if (aInfo instanceof Double) {
+			aBuffer.put(TAG_DOUBLE);
+			aBuffer.putDouble(((Double) aInfo).doubleValue());
+		} else if (aInfo instanceof Float) {
+			aBuffer.put(TAG_FLOAT);
+			aBuffer.putFloat(((Float) aInfo).floatValue());
+		} else if (aInfo instanceof Boolean) {
+			aBuffer.put(TAG_BOOLEAN);
+			aBuffer.put((byte) (((Boolean) aInfo).booleanValue() ? 1 : 0));
+		} else if (aInfo instanceof Throwable) {
+			final Throwable wThrowable = (Throwable) aInfo;
+			final StringWriter wStack = new StringWriter();
+			wThrowable.printStackTrace(new PrintWriter(wStack));
+			aBuffer.put(TAG_THROWABLE);
+			putString(aBuffer, wThrowable.getClass().getName());
+			putString(aBuffer, wThrowable.getMessage());
+			putString(aBuffer, wStack.toString());
+		} else {
+			aBuffer.put(TAG_OBJECT);
+			putString(aBuffer, String.valueOf(aInfo));
+		}
+	}
+
+	/**
+	 * Writes a record (length and body) at the position of the buffer.
+	 *
+	 * @param aBuffer
+	 * @param aMillis
+	 * @param aLevel
+	 * @param aThreadName
+	 * @param aWho
+	 *            the object, the class or the name of the logging entity
+	 * @param aWhat
+	 *            the method
+	 * @param aInfos
+	 *            the raw arguments of the log call
+	 * @return the size of the record
+	 * @throws BufferOverflowException
+	 *             if the record doesn't fit in the buffer
+	 */
+	static int putRecord(final ByteBuffer aBuffer, final long aMillis,
+			final Level aLevel, final String aThreadName, final Object aWho,
+			final CharSequence aWhat, final Object[] aInfos)
+			throws BufferOverflowException {
+
+		final int wStart = aBuffer.position();
+		aBuffer.putInt(0);
+		aBuffer.putLong(aMillis);
+		aBuffer.putInt(aLevel != null ? aLevel.intValue() : Level.INFO
+				.intValue());
+		putString(aBuffer, aThreadName);
+		if (aWho == null) {
+			putString(aBuffer, null);
+			aBuffer.putInt(0);
+		} else if (aWho instanceof Class) {
+			putString(aBuffer, ((Class<?>) aWho).getName());
+			aBuffer.putInt(0);
+		} else if (aWho instanceof CharSequence) {
+			putString(aBuffer, (CharSequence) aWho);
+			aBuffer.putInt(0);
+		} else {
+			putString(aBuffer, aWho.getClass().getName());
+			aBuffer.putInt(System.identityHashCode(aWho));
+		}
+		putString(aBuffer, aWhat);
+		final int wNbInfos = (aInfos != null) ? aInfos.length : 0;
+		aBuffer.putInt(wNbInfos);
+		for (int wIdx = 0; wIdx < wNbInfos; wIdx++) {
+			putInfo(aBuffer, aInfos[wIdx]);
+		}
+		final int wSize = aBuffer.position() - wStart;
+		aBuffer.putInt(wStart, wSize - 4);
+		return wSize;
+	}
+
+	/**
+	 * @param aBuffer
+	 * @param aString
+	 * @throws BufferOverflowException
+	 */
+	static void putString(final ByteBuffer aBuffer, final CharSequence aString)
+			throws BufferOverflowException {
+
+		if (aString == null) {
+			aBuffer.putInt(-1);
+			return;
+		}
+		final byte[] wBytes = aString.toString().getBytes(UTF8);
+		aBuffer.putInt(wBytes.length);
+		aBuffer.put(wBytes);
+	}
+
+	/**
+	 * no instance
+	 */
+	private CLogChannelBinaryFormat() {
+		super();
+	}
+}
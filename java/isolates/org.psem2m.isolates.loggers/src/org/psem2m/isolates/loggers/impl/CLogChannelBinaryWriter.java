@@ -0,0 +1,364 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.isolates.loggers.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Writes the binary records of a log channel (see
+ * {@link CLogChannelBinaryFormat}) in rolling files named like the text ones:
+ * the file 0 is the current one, the file "count-1" the oldest one.
+ *
+ * The records are encoded in a preallocated direct buffer written through a
+ * FileChannel when it is full, when a record of level WARNING or more is
+ * logged, when the last write is older than FLUSH_DELAY_MS and on flush()
+ * and close().
+ *
+ * The delay is also checked every FLUSH_DELAY_MS by a daemon thread shared by
+ * the opened writers, so the records of a quiet channel don't stay in the
+ * buffer.
+ *
+ * @author ogattaz
+ *
+ */
+class CLogChannelBinaryWriter {
+
+	/** the size of the preallocated buffer */
+	static final int BUFFER_SIZE = 64 * 1024;
+
+	/** the max delay between two writes of the buffer */
+	static final long FLUSH_DELAY_MS = 1000;
+
+	/** the scheduler of the periodic flushes, shared by the opened writers */
+	private static ScheduledExecutorService sFlusher;
+
+	/** the number of opened writers using the scheduler */
+	private static int sNbFlusherUsers = 0;
+
+	/**
+	 * @return the scheduler of the periodic flushes, created if needed
+	 */
+	private static synchronized ScheduledExecutorService acquireFlusher() {
+
+		if (sFlusher == null) {
+			sFlusher = Executors
+					.newSingleThreadScheduledExecutor(new ThreadFactory() {
+						@Override
+						public Thread newThread(final Runnable aRunnable) {
+							final Thread wThread = new Thread(aRunnable,
+									"cohorte-log-channel-flusher");
+							wThread.setDaemon(true);
+							return wThread;
+						}
+					});
+		}
+		sNbFlusherUsers++;
+		return sFlusher;
+	}
+
+	/**
+	 * Stops the scheduler of the periodic flushes if no writer uses it
+	 */
+	private static synchronized void releaseFlusher() {
+
+		sNbFlusherUsers--;
+		if (sNbFlusherUsers == 0 && sFlusher != null) {
+			sFlusher.shutdownNow();
+			sFlusher = null;
+		}
+	}
+
+	private final ByteBuffer pBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	private FileChannel pChannel;
+
+	private final int pFileCount;
+
+	private final int pFileLimit;
+
+	private final String pFilePathPattern;
+
+	/** the periodic flush of the writer */
+	private ScheduledFuture<?> pFlushTask;
+
+	/** the size of the current file including the buffered records */
+	private long pFileSize;
+
+	private long pLastWriteMillis;
+
+	private long pNbRecords = 0;
+
+	/**
+	 * @param aFilePathPattern
+	 *            something like ".../channel_aId/aId_%g.bin"
+	 * @param aFileLimit
+	 *            the max size of a file (no limit if less than 1)
+	 * @param aFileCount
+	 *            the number of files
+	 * @throws IOException
+	 */
+	CLogChannelBinaryWriter(final String aFilePathPattern,
+			final int aFileLimit, final int aFileCount) throws IOException {
+
+		super();
+		pFilePathPattern = aFilePathPattern;
+		pFileLimit = aFileLimit;
+		pFileCount = Math.max(1, aFileCount);
+
+		// like the FileHandler of jul, a new file 0 at each opening
+		rotate();
+
+		pFlushTask = acquireFlusher().scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				flushIfDelayed();
+			}
+		}, FLUSH_DELAY_MS, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Writes the buffered records and closes the current file
+	 */
+	synchronized void close() {
+
+		if (pChannel == null) {
+			return;
+		}
+		pFlushTask.cancel(false);
+		releaseFlusher();
+		try {
+			writeBuffer(pBuffer.position());
+			pChannel.close();
+		} catch (final IOException e) {
+			// nothing to do, the channel is closed
+		}
+		pChannel = null;
+	}
+
+	/**
+	 * @param aFileIdx
+	 * @return the file having the index
+	 */
+	private File file(final int aFileIdx) {
+		return new File(pFilePathPattern.replace("%g",
+				String.valueOf(aFileIdx)));
+	}
+
+	/**
+	 * Writes the buffered records
+	 *
+	 * @throws IOException
+	 */
+	synchronized void flush() throws IOException {
+
+		if (pChannel != null) {
+			writeBuffer(pBuffer.position());
+		}
+	}
+
+	/**
+	 * Writes the buffered records if the last write is older than
+	 * FLUSH_DELAY_MS. Called by the flusher thread.
+	 */
+	synchronized void flushIfDelayed() {
+
+		if (pChannel == null || pBuffer.position() == 0
+				|| System.currentTimeMillis() - pLastWriteMillis < FLUSH_DELAY_MS) {
+			return;
+		}
+		try {
+			writeBuffer(pBuffer.position());
+		} catch (final IOException e) {
+			// the records stay in the buffer, the next write reports the error
+		}
+	}
+
+	/**
+	 * @return the number of written records
+	 */
+	synchronized long getNbRecords() {
+		return pNbRecords;
+	}
+
+	/**
+	 * @return true if the writer is closed
+	 */
+	synchronized boolean isClosed() {
+		return pChannel == null;
+	}
+
+	/**
+	 * Shifts the files (0 becomes 1 ... the last one is deleted) and opens a
+	 * new file 0
+	 *
+	 * @throws IOException
+	 */
+	private void rotate() throws IOException {
+
+		if (pChannel != null) {
+			pChannel.close();
+		}
+		for (int wIdx = pFileCount - 2; wIdx >= 0; wIdx--) {
+			final File wFile = file(wIdx);
+			if (wFile.isFile()) {
+				final File wTarget = file(wIdx + 1);
+				if (wTarget.exists() && !wTarget.delete()) {
+					throw new IOException(String.format(
+							"Unable to delete the file [%s]", wTarget));
+				}
+				if (!wFile.renameTo(wTarget)) {
+					throw new IOException(String.format(
+							"Unable to rename the file [%s] to [%s]", wFile,
+							wTarget));
+				}
+			}
+		}
+		pChannel = FileChannel.open(file(0).toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+
+		final ByteBuffer wHeader = ByteBuffer
+				.allocate(CLogChannelBinaryFormat.HEADER_SIZE);
+		CLogChannelBinaryFormat.putHeader(wHeader);
+		wHeader.flip();
+		while (wHeader.hasRemaining()) {
+			pChannel.write(wHeader);
+		}
+		pFileSize = CLogChannelBinaryFormat.HEADER_SIZE;
+	}
+
+	/**
+	 * Encodes and buffers a record.
+	 *
+	 * @param aMillis
+	 * @param aLevel
+	 * @param aThreadName
+	 * @param aWho
+	 * @param aWhat
+	 * @param aInfos
+	 * @throws IOException
+	 */
+	synchronized void write(final long aMillis, final Level aLevel,
+			final String aThreadName, final Object aWho,
+			final CharSequence aWhat, final Object[] aInfos)
+			throws IOException {
+
+		if (pChannel == null) {
+			throw new IOException("The binary log channel writer is closed");
+		}
+
+		int wStart = pBuffer.position();
+		int wSize;
+		try {
+			wSize = CLogChannelBinaryFormat.putRecord(pBuffer, aMillis,
+					aLevel, aThreadName, aWho, aWhat, aInfos);
+		} catch (final BufferOverflowException e1) {
+			// write the previous records and retry in the empty buffer
+			pBuffer.position(wStart);
+			writeBuffer(wStart);
+			wStart = 0;
+			try {
+				wSize = CLogChannelBinaryFormat.putRecord(pBuffer, aMillis,
+						aLevel, aThreadName, aWho, aWhat, aInfos);
+			} catch (final BufferOverflowException e2) {
+				pBuffer.clear();
+				writeLargeRecord(aMillis, aLevel, aThreadName, aWho, aWhat,
+						aInfos);
+				return;
+			}
+		}
+
+		if (pFileLimit > 0 && pFileSize + wSize > pFileLimit
+				&& pFileSize > CLogChannelBinaryFormat.HEADER_SIZE) {
+			// the record goes in the next file
+			writeBuffer(wStart);
+			rotate();
+		}
+		pFileSize += wSize;
+		pNbRecords++;
+
+		final long wNow = System.currentTimeMillis();
+		if (aLevel != null && aLevel.intValue() >= Level.WARNING.intValue()
+				|| wNow - pLastWriteMillis >= FLUSH_DELAY_MS) {
+			writeBuffer(pBuffer.position());
+		}
+	}
+
+	/**
+	 * Writes the first bytes of the buffer in the current file and moves the
+	 * remaining ones at the beginning of the buffer
+	 *
+	 * @param aNbBytes
+	 * @throws IOException
+	 */
+	private void writeBuffer(final int aNbBytes) throws IOException {
+
+		final int wEnd = pBuffer.position();
+		pBuffer.flip();
+		pBuffer.limit(aNbBytes);
+		while (pBuffer.hasRemaining()) {
+			pChannel.write(pBuffer);
+		}
+		pBuffer.limit(wEnd);
+		pBuffer.compact();
+		pLastWriteMillis = System.currentTimeMillis();
+	}
+
+	/**
+	 * Encodes and writes a record bigger than the buffer
+	 *
+	 * @throws IOException
+	 */
+	private void writeLargeRecord(final long aMillis, final Level aLevel,
+			final String aThreadName, final Object aWho,
+			final CharSequence aWhat, final Object[] aInfos) throws IOException {
+
+		int wCapacity = BUFFER_SIZE * 4;
+		while (true) {
+			final ByteBuffer wBuffer = ByteBuffer.allocate(wCapacity);
+			try {
+				final int wSize = CLogChannelBinaryFormat.putRecord(wBuffer,
+						aMillis, aLevel, aThreadName, aWho, aWhat, aInfos);
+				if (pFileLimit > 0 && pFileSize + wSize > pFileLimit
+						&& pFileSize > CLogChannelBinaryFormat.HEADER_SIZE) {
+					rotate();
+				}
+				wBuffer.flip();
+				while (wBuffer.hasRemaining()) {
+					pChannel.write(wBuffer);
+				}
+				pFileSize += wSize;
+				pNbRecords++;
+				pLastWriteMillis = System.currentTimeMillis();
+				return;
+			} catch (final BufferOverflowException e) {
+				wCapacity *= 2;
+			}
+		}
+	}
+}
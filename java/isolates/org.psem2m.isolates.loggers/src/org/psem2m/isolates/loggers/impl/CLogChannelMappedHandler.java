@@ -0,0 +1,367 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.isolates.loggers.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+import org.psem2m.isolates.loggers.ILogChannelsSvc;
+
+/**
+ * A jul handler writing the formatted records of a text log channel in
+ * memory-mapped rolling segments.
+ *
+ * Each segment is a file preallocated to the limit size of the channel and
+ * mapped once: writing a record is a copy in the mapping, without system
+ * call. The files keep the names of the FileHandler of jul: the file 0 is the
+ * current one, the file "count-1" the oldest one.
+ *
+ * The preallocated file ends with a trailer holding the end of the committed
+ * records, updated after each copied record: a record can contain line feeds
+ * (multi-lines format), so the text itself can't tell where the last
+ * complete one ends. A full or closed segment is unmapped, then truncated to
+ * its records before the rotation: the rotated files are plain text.
+ *
+ * If the isolate dies, the current segment keeps its preallocated tail and
+ * its trailer. At the opening, it is truncated to the committed end read in
+ * the trailer before the rotation.
+ *
+ * @author ogattaz
+ *
+ */
+class CLogChannelMappedHandler extends Handler {
+
+	/**
+	 * the mark ending the trailer of a live segment ("CLGMAPED"): a closed
+	 * segment ends with the line feed of its last record
+	 */
+	private static final long TRAILER_MARK = 0x434C474D41504544L;
+
+	/** the size of the trailer: the end of the committed records, the mark */
+	static final int TRAILER_SIZE = 16;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The end of the committed records of a segment left by a dead isolate,
+	 * read in its trailer
+	 *
+	 * @param aChannel
+	 *            the opened segment
+	 * @return the size of the complete records, -1 if the segment has no
+	 *         trailer (closed segment)
+	 * @throws IOException
+	 */
+	static long findRecordsEnd(final FileChannel aChannel) throws IOException {
+
+		final long wSize = aChannel.size();
+		if (wSize < TRAILER_SIZE) {
+			return -1;
+		}
+		final ByteBuffer wTrailer = ByteBuffer.allocate(TRAILER_SIZE);
+		while (wTrailer.hasRemaining()) {
+			if (aChannel.read(wTrailer, wSize - TRAILER_SIZE
+					+ wTrailer.position()) < 0) {
+				return -1;
+			}
+		}
+		wTrailer.flip();
+		final long wEnd = wTrailer.getLong();
+		if (wTrailer.getLong() != TRAILER_MARK || wEnd < 0
+				|| wEnd > wSize - TRAILER_SIZE) {
+			return -1;
+		}
+		return wEnd;
+	}
+
+	/**
+	 * Releases the mapping of a segment at once, instead of at its garbage
+	 * collection: some systems refuse to truncate or to rename a mapped file.
+	 * The buffer mustn't be used afterwards.
+	 *
+	 * @param aBuffer
+	 *            a mapping
+	 * @return false if this JVM can't release the mapping
+	 */
+	static boolean unmap(final MappedByteBuffer aBuffer) {
+
+		try {
+			// loaded by the boot class loader, not imported by the bundle
+			final Class<?> wUnsafeClass = Class.forName("sun.misc.Unsafe",
+					true, null);
+			Method wInvokeCleaner = null;
+			for (final Method wMethod : wUnsafeClass.getMethods()) {
+				if ("invokeCleaner".equals(wMethod.getName())) {
+					wInvokeCleaner = wMethod;
+				}
+			}
+			if (wInvokeCleaner != null) {
+				// java 9+
+				final Field wTheUnsafe = wUnsafeClass
+						.getDeclaredField("theUnsafe");
+				wTheUnsafe.setAccessible(true);
+				wInvokeCleaner.invoke(wTheUnsafe.get(null), aBuffer);
+			} else {
+				// java 8: the cleaner of the direct buffer
+				final Method wGetCleaner = aBuffer.getClass().getMethod(
+						"cleaner");
+				wGetCleaner.setAccessible(true);
+				final Object wCleaner = wGetCleaner.invoke(aBuffer);
+				wCleaner.getClass().getMethod("clean").invoke(wCleaner);
+			}
+			return true;
+
+		} catch (final Exception e) {
+			return false;
+		}
+	}
+
+	private FileChannel pChannel;
+
+	private final int pFileCount;
+
+	private final int pFileLimit;
+
+	private final String pFilePathPattern;
+
+	/** the mapping of the current segment */
+	private MappedByteBuffer pSegment;
+
+	/** the offset of the trailer in the current segment */
+	private int pTrailer;
+
+	/**
+	 * @param aFilePathPattern
+	 *            something like ".../channel_aId/aId_%g.txt"
+	 * @param aFileLimit
+	 *            the size of the segments (LOGCHANNEL_FILE_SIZE if less than
+	 *            1)
+	 * @param aFileCount
+	 *            the number of segments
+	 * @throws IOException
+	 */
+	public CLogChannelMappedHandler(final String aFilePathPattern,
+			final int aFileLimit, final int aFileCount) throws IOException {
+
+		super();
+		pFilePathPattern = aFilePathPattern;
+		pFileLimit = (aFileLimit > 0) ? aFileLimit
+				: ILogChannelsSvc.LOGCHANNEL_FILE_SIZE;
+		pFileCount = Math.max(1, aFileCount);
+
+		recover(file(0));
+
+		// like the FileHandler of jul, a new file 0 at each opening
+		rotate(pFileLimit);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.logging.Handler#close()
+	 */
+	@Override
+	public synchronized void close() {
+
+		if (pChannel == null) {
+			return;
+		}
+		try {
+			closeSegment();
+		} catch (final IOException e) {
+			reportError(null, e, ErrorManager.CLOSE_FAILURE);
+		}
+	}
+
+	/**
+	 * Forces the written records on the disk, releases the mapping, then
+	 * truncates the current segment to its records and closes it.
+	 *
+	 * @throws IOException
+	 */
+	private void closeSegment() throws IOException {
+
+		final MappedByteBuffer wSegment = pSegment;
+		final FileChannel wChannel = pChannel;
+		pSegment = null;
+		pChannel = null;
+		try {
+			final int wSize = wSegment.position();
+			wSegment.force();
+			unmap(wSegment);
+			wChannel.truncate(wSize);
+		} finally {
+			wChannel.close();
+		}
+	}
+
+	/**
+	 * @param aFileIdx
+	 * @return the file having the index
+	 */
+	private File file(final int aFileIdx) {
+		return new File(pFilePathPattern.replace("%g",
+				String.valueOf(aFileIdx)));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.logging.Handler#flush()
+	 */
+	@Override
+	public synchronized void flush() {
+
+		if (pSegment != null) {
+			pSegment.force();
+		}
+	}
+
+	/**
+	 * @return the number of bytes written in the current segment
+	 */
+	public synchronized int getSegmentPosition() {
+		return (pSegment != null) ? pSegment.position() : 0;
+	}
+
+	/**
+	 * @param aSize
+	 *            the size of the records of the segment
+	 * @throws IOException
+	 */
+	private void openSegment(final int aSize) throws IOException {
+
+		pChannel = FileChannel.open(file(0).toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		// the mapping extends the file to its size
+		pSegment = pChannel.map(FileChannel.MapMode.READ_WRITE, 0, aSize
+				+ TRAILER_SIZE);
+		pTrailer = aSize;
+		pSegment.putLong(pTrailer, 0);
+		pSegment.putLong(pTrailer + 8, TRAILER_MARK);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.logging.Handler#publish(java.util.logging.LogRecord)
+	 */
+	@Override
+	public void publish(final LogRecord aRecord) {
+
+		if (!isLoggable(aRecord)) {
+			return;
+		}
+		String wText;
+		try {
+			wText = getFormatter().format(aRecord);
+		} catch (final Exception e) {
+			reportError(null, e, ErrorManager.FORMAT_FAILURE);
+			return;
+		}
+		// a record ends with a line feed and contains no zero
+		if (!wText.endsWith("\n")) {
+			wText = wText + '\n';
+		}
+		if (wText.indexOf('\0') > -1) {
+			wText = wText.replace('\0', ' ');
+		}
+		final byte[] wBytes = wText.getBytes(UTF8);
+
+		synchronized (this) {
+			if (pSegment == null) {
+				return;
+			}
+			try {
+				if (pTrailer - pSegment.position() < wBytes.length) {
+					rotate(Math.max(pFileLimit, wBytes.length));
+				}
+				pSegment.put(wBytes);
+				// commits the record
+				pSegment.putLong(pTrailer, pSegment.position());
+			} catch (final IOException e) {
+				reportError(null, e, ErrorManager.WRITE_FAILURE);
+			}
+		}
+	}
+
+	/**
+	 * Truncates a segment left by a dead isolate after its last committed
+	 * record. The trailer is read without mapping the file.
+	 *
+	 * @param aFile
+	 * @throws IOException
+	 */
+	private void recover(final File aFile) throws IOException {
+
+		if (!aFile.isFile()) {
+			return;
+		}
+		final FileChannel wChannel = FileChannel.open(aFile.toPath(),
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			final long wEnd = findRecordsEnd(wChannel);
+			if (wEnd >= 0) {
+				wChannel.truncate(wEnd);
+			}
+		} finally {
+			wChannel.close();
+		}
+	}
+
+	/**
+	 * Closes (and unmaps) the current segment, shifts the files (0 becomes 1 ... the last
+	 * one is deleted) and opens a new segment 0
+	 *
+	 * @param aSize
+	 *            the size of the new segment
+	 * @throws IOException
+	 */
+	private void rotate(final int aSize) throws IOException {
+
+		if (pChannel != null) {
+			closeSegment();
+		}
+		for (int wIdx = pFileCount - 2; wIdx >= 0; wIdx--) {
+			final File wFile = file(wIdx);
+			if (wFile.isFile()) {
+				final File wTarget = file(wIdx + 1);
+				if (wTarget.exists() && !wTarget.delete()) {
+					throw new IOException(String.format(
+							"Unable to delete the file [%s]", wTarget));
+				}
+				if (!wFile.renameTo(wTarget)) {
+					throw new IOException(String.format(
+							"Unable to rename the file [%s] to [%s]", wFile,
+							wTarget));
+				}
+			}
+		}
+		openSegment(aSize);
+	}
+}
@@ -19,18 +19,30 @@ package org.psem2m.isolates.loggers.impl;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
 
 import org.psem2m.isolates.base.IIsolateLoggerSvc;
 import org.psem2m.isolates.base.activators.CPojoBase;
 import org.psem2m.isolates.loggers.CLogChannelException;
+import org.psem2m.isolates.loggers.ELogChannelFormat;
 import org.psem2m.isolates.loggers.ILogChannelSvc;
 import org.psem2m.isolates.loggers.ILogChannelsSvc;
 import org.psem2m.isolates.services.dirs.IPlatformDirsSvc;
 import org.psem2m.utilities.CXException;
+import org.psem2m.utilities.CXStringUtils;
 import org.psem2m.utilities.files.CXFileDir;
+import org.psem2m.utilities.logging.CActivityFormaterHuman;
 import org.psem2m.utilities.logging.CActivityLoggerBasic;
 import org.psem2m.utilities.logging.IActivityFormater;
 import org.psem2m.utilities.logging.IActivityLoggerBase;
@@ -55,9 +67,16 @@ public class CLogChannelsSvc extends CPojoBase implements ILogChannelsSvc {
 	class CLogChannelLogger extends CActivityLoggerBasic implements
 			ILogChannelSvc {
 
+		/** the writer of the records if the format is binary */
+		private final CLogChannelBinaryWriter pBinaryWriter;
+		/** true if an error of the binary writer is already logged */
+		private boolean pBinaryWriterErrorLogged = false;
 		private final String pChannelId;
 		private final String pFilePatternPath;
+		private final ELogChannelFormat pFormat;
 		private final CXFileDir pLogChannelDir;
+		/** the handler of the text records if the files are mapped */
+		private final CLogChannelMappedHandler pMappedHandler;
 
 		/**
 		 * @param aLoggerId
@@ -65,22 +84,24 @@ public class CLogChannelsSvc extends CPojoBase implements ILogChannelsSvc {
 		 * @param aLevel
 		 * @param aFileLimit
 		 * @param aFileCount
-		 * @param aMultiline
-		 *            the flag to control the format of the logger: monline or
-		 *            multilines
+		 * @param aFormat
+		 *            the format of the logger: monline or multilines text,
+		 *            written by the jul file handler or in memory-mapped
+		 *            segments, or binary
 		 * @see IActivityFormater.MULTILINES_TEXT)
 		 * @throws Exception
 		 */
 		CLogChannelLogger(final String aChannelId, final File aFilePattern,
 				final String aLevel, final int aFileLimit,
-				final int aFileCount, final boolean aMultiline)
+				final int aFileCount, final ELogChannelFormat aFormat)
 				throws Exception {
 
 			super(aChannelId, aFilePattern.getAbsolutePath(), aLevel,
 					aFileLimit, aFileCount, IActivityFormater.LINE_SHORT,
-					aMultiline);
+					aFormat.isMultilines());
 
 			pChannelId = aChannelId;
+			pFormat = aFormat;
 
 			// something like ".../logsdir/aLoggerName/aLoggerName_%g.txt"
 			pFilePatternPath = aFilePattern.getAbsolutePath();
@@ -88,9 +109,51 @@ public class CLogChannelsSvc extends CPojoBase implements ILogChannelsSvc {
 			// something like ".../logsdir/aLoggerName/"
 			pLogChannelDir = new CXFileDir(aFilePattern.getParentFile());
 
-			initFileHandler();
+			if (!aFormat.isText()) {
+				// no formatter nor jul handler: the raw records are written
+				pBinaryWriter = new CLogChannelBinaryWriter(pFilePatternPath,
+						aFileLimit, aFileCount);
+				pMappedHandler = null;
+
+			} else if (aFormat.isMapped()) {
+				// the formatted records are copied in the mapped segments
+				pBinaryWriter = null;
+				pMappedHandler = new CLogChannelMappedHandler(pFilePatternPath,
+						aFileLimit, aFileCount);
+				// the same format as the jul file handler of the channel
+				pMappedHandler.setFormatter((Formatter) CActivityFormaterHuman
+						.getInstance(IActivityFormater.LINE_SHORT,
+								aFormat.isMultilines()));
+				getJulLogger().setUseParentHandlers(false);
+				getJulLogger().addHandler(pMappedHandler);
+
+			} else {
+				pBinaryWriter = null;
+				pMappedHandler = null;
+
+				initFileHandler();
+
+				open();
+			}
+		}
 
-			open();
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * org.psem2m.utilities.logging.CActivityLoggerBasic#addDescriptionInBuffer
+		 * (java.lang.Appendable)
+		 */
+		@Override
+		public Appendable addDescriptionInBuffer(final Appendable aBuffer) {
+
+			super.addDescriptionInBuffer(aBuffer);
+			CXStringUtils.appendKeyValInBuff(aBuffer, "format", pFormat.name());
+			if (pBinaryWriter != null) {
+				CXStringUtils.appendKeyValInBuff(aBuffer, "nbrecords",
+						pBinaryWriter.getNbRecords());
+			}
+			return aBuffer;
 		}
 
 		/**
@@ -102,12 +165,38 @@ public class CLogChannelsSvc extends CPojoBase implements ILogChannelsSvc {
 			return getLogChannelDir().remove();
 		}
 
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see org.psem2m.utilities.logging.CActivityLoggerBasic#close()
+		 */
+		@Override
+		public void close() {
+
+			if (pBinaryWriter != null) {
+				pBinaryWriter.close();
+			}
+			if (pMappedHandler != null) {
+				getJulLogger().removeHandler(pMappedHandler);
+				pMappedHandler.close();
+			}
+			super.close();
+		}
+
 		/**
 		 * @param aFileIdx
 		 * @return
 		 * @throws IOException
 		 */
 		File getChannelFile(final int aFileIdx) throws IOException {
+			// the buffered binary records are written in the file
+			if (pBinaryWriter != null) {
+				pBinaryWriter.flush();
+			}
+			// the current mapped segment is forced on the disk
+			if (pMappedHandler != null) {
+				pMappedHandler.flush();
+			}
 			final String wFilePath = pFilePatternPath.replace("%g",
 					String.valueOf(aFileIdx));
 			final File wFile = new File(wFilePath);
@@ -126,7 +215,7 @@ public class CLogChannelsSvc extends CPojoBase implements ILogChannelsSvc {
 		List<File> getChannelFiles() throws IOException {
 
 			return getLogChannelDir().getMySortedFiles(
-					CXFileDir.getFilterExtension(LOG_FILE_EXTENSION),
+					CXFileDir.getFilterExtension(pFormat.getFileExtension()),
 					!CXFileDir.WITH_DIR, CXFileDir.WITH_TEXTFILE);
 		}
 
@@ -142,14 +231,144 @@ public class CLogChannelsSvc extends CPojoBase implements ILogChannelsSvc {
 			return pLogChannelDir;
 		}
 
-	}
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * org.psem2m.utilities.logging.CActivityLoggerBasic#log(java.util.logging
+		 * .Level, java.lang.Object, java.lang.CharSequence, java.lang.Object[])
+		 */
+		@Override
+		public void log(final Level aLevel, final Object aWho,
+				final CharSequence aWhat, final Object... aInfos) {
+
+			if (pBinaryWriter == null) {
+				super.log(aLevel, aWho, aWhat, aInfos);
+			} else if (isLoggable(aLevel)) {
+				writeBinary(System.currentTimeMillis(), aLevel, aWho, aWhat,
+						aInfos);
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * org.psem2m.utilities.logging.CActivityLoggerBasic#log(java.util.logging
+		 * .LogRecord)
+		 */
+		@Override
+		public void log(final LogRecord aRecord) {
+
+			if (pBinaryWriter == null) {
+				super.log(aRecord);
+			} else if (isLoggable(aRecord.getLevel())) {
+				final Object[] wParams = aRecord.getParameters();
+				final int wNbParams = (wParams != null) ? wParams.length : 0;
+				final Object[] wInfos = new Object[wNbParams
+						+ (aRecord.getThrown() != null ? 2 : 1)];
+				wInfos[0] = aRecord.getMessage();
+				if (wNbParams > 0) {
+					System.arraycopy(wParams, 0, wInfos, 1, wNbParams);
+				}
+				if (aRecord.getThrown() != null) {
+					wInfos[wInfos.length - 1] = aRecord.getThrown();
+				}
+				writeBinary(aRecord.getMillis(), aRecord.getLevel(),
+						aRecord.getSourceClassName(),
+						aRecord.getSourceMethodName(), wInfos);
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * org.psem2m.utilities.logging.CActivityLoggerBasic#logDebug(java.lang
+		 * .Object, java.lang.CharSequence, java.lang.Object[])
+		 */
+		@Override
+		public void logDebug(final Object aWho, final CharSequence aWhat,
+				final Object... aInfos) {
+			log(Level.FINE, aWho, aWhat, aInfos);
+		}
 
-	private final String LOG_FILE_EXTENSION = "txt";
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * org.psem2m.utilities.logging.CActivityLoggerBasic#logInfo(java.lang
+		 * .Object, java.lang.CharSequence, java.lang.Object[])
+		 */
+		@Override
+		public void logInfo(final Object aWho, final CharSequence aWhat,
+				final Object... aInfos) {
+			log(Level.INFO, aWho, aWhat, aInfos);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * org.psem2m.utilities.logging.CActivityLoggerBasic#logSevere(java.lang
+		 * .Object, java.lang.CharSequence, java.lang.Object[])
+		 */
+		@Override
+		public void logSevere(final Object aWho, final CharSequence aWhat,
+				final Object... aInfos) {
+			log(Level.SEVERE, aWho, aWhat, aInfos);
+		}
 
-	private final String LOG_FILE_SUFFIX = "_%g." + LOG_FILE_EXTENSION;
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * org.psem2m.utilities.logging.CActivityLoggerBasic#logWarn(java.lang
+		 * .Object, java.lang.CharSequence, java.lang.Object[])
+		 */
+		@Override
+		public void logWarn(final Object aWho, final CharSequence aWhat,
+				final Object... aInfos) {
+			log(Level.WARNING, aWho, aWhat, aInfos);
+		}
+
+		/**
+		 * @param aMillis
+		 * @param aLevel
+		 * @param aWho
+		 * @param aWhat
+		 * @param aInfos
+		 */
+		private void writeBinary(final long aMillis, final Level aLevel,
+				final Object aWho, final CharSequence aWhat,
+				final Object[] aInfos) {
+
+			try {
+				pBinaryWriter.write(aMillis, aLevel, Thread.currentThread()
+						.getName(), aWho, aWhat, aInfos);
+			} catch (final IOException e) {
+				// logged once in the isolate log
+				if (!pBinaryWriterErrorLogged) {
+					pBinaryWriterErrorLogged = true;
+					pIsolateLoggerSvc.logSevere(this, "writeBinary",
+							"Unable to write in the log channel [%s]: %s",
+							pChannelId, e);
+				}
+			}
+		}
+
+	}
+
+	private final String LOG_FILE_SUFFIX = "_%g.";
 
 	private final String LOG_FOLDER_PREFIX = "channel_";
 
+	/**
+	 * the creations in progress: the first caller asking a channel runs its
+	 * creation, the concurrent ones wait for its result
+	 **/
+	private final ConcurrentMap<String, FutureTask<ILogChannelSvc>> pCreations = new ConcurrentHashMap<String, FutureTask<ILogChannelSvc>>();
+
 	/**
 	 * Service reference managed by iPojo (see metadata.xml)
 	 *
@@ -157,8 +376,16 @@ public class CLogChannelsSvc extends CPojoBase implements ILogChannelsSvc {
 	 **/
 	private IIsolateLoggerSvc pIsolateLoggerSvc;
 
-	/** the "repository" of the opened logging channels **/
-	TreeMap<String, ILogChannelSvc> pLoggers = new TreeMap<String, ILogChannelSvc>();
+	/**
+	 * the "repository" of the opened logging channels: an unmodifiable sorted
+	 * map replaced at each change (copy on write), so the readers never lock
+	 * and always see a consistent state
+	 **/
+	private volatile SortedMap<String, ILogChannelSvc> pLoggers = Collections
+			.unmodifiableSortedMap(new TreeMap<String, ILogChannelSvc>());
+
+	/** guards the replacements of pLoggers, never held during an I/O **/
+	private final Object pLoggersLock = new Object();
 
 	/** Service reference managed by iPojo (see metadata.xml) **/
 	private IPlatformDirsSvc pPlatformDirsSvc;
@@ -248,15 +475,18 @@ public class CLogChannelsSvc extends CPojoBase implements ILogChannelsSvc {
 	/**
 	 * @param aLogDir
 	 * @param aChannelId
+	 * @param aFormat
 	 * @return
 	 * @throws IOException
 	 */
 	private File getChannelFilePattern(final File aLogDir,
-			final String aChannelId) throws IOException {
+			final String aChannelId, final ELogChannelFormat aFormat)
+			throws IOException {
 
 		final File wChannelDir = getChannelDir(aLogDir, aChannelId);
 
-		return new File(wChannelDir, aChannelId + LOG_FILE_SUFFIX);
+		return new File(wChannelDir, aChannelId + LOG_FILE_SUFFIX
+				+ aFormat.getFileExtension());
 	}
 
 	/*
@@ -267,13 +497,7 @@ public class CLogChannelsSvc extends CPojoBase implements ILogChannelsSvc {
 	@Override
 	public List<ILogChannelSvc> getChannels() {
 
-		final List<ILogChannelSvc> wLoggers = new ArrayList<ILogChannelSvc>();
-		for (final Entry<String, ILogChannelSvc> wLoggerEntry : pLoggers
-				.entrySet()) {
-			wLoggers.add(wLoggerEntry.getValue());
-		}
-
-		return wLoggers;
+		return new ArrayList<ILogChannelSvc>(pLoggers.values());
 	}
 
 	/*
@@ -284,12 +508,7 @@ public class CLogChannelsSvc extends CPojoBase implements ILogChannelsSvc {
 	@Override
 	public List<String> getChannelsIds() {
 
-		final List<String> wIds = new ArrayList<String>();
-		for (final Entry<String, ILogChannelSvc> wLoggerEntry : pLoggers
-				.entrySet()) {
-			wIds.add(wLoggerEntry.getKey());
-		}
-		return wIds;
+		return new ArrayList<String>(pLoggers.keySet());
 	}
 
 	/*
@@ -303,13 +522,9 @@ public class CLogChannelsSvc extends CPojoBase implements ILogChannelsSvc {
 	public ILogChannelSvc getLogChannel(final String aChannelId)
 			throws CLogChannelException {
 
-		final ILogChannelSvc wLogger = findLogChannel(aChannelId);
-		if (wLogger != null) {
-			return wLogger;
-		}
-
-		return newLogChannel(aChannelId, LOGCHANNEL_FILE_SIZE,
-				LOGCHANNEL_FILE_COUNT_MAX, IActivityFormater.MULTILINES_TEXT);
+		return getOrCreateLogChannel(aChannelId, LOGCHANNEL_FILE_SIZE,
+				LOGCHANNEL_FILE_COUNT_MAX,
+				ELogChannelFormat.fromMultiline(IActivityFormater.MULTILINES_TEXT));
 	}
 
 	/*
@@ -324,12 +539,23 @@ public class CLogChannelsSvc extends CPojoBase implements ILogChannelsSvc {
 			final int aFileCount, boolean aMultiline)
 			throws CLogChannelException {
 
-		final ILogChannelSvc wLogger = pLoggers.get(aChannelId);
-		if (wLogger != null) {
-			return wLogger;
-		}
+		return getLogChannel(aChannelId, aFileSize, aFileCount,
+				ELogChannelFormat.fromMultiline(aMultiline));
+	}
 
-		return newLogChannel(aChannelId, aFileSize, aFileCount, aMultiline);
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.psem2m.isolates.loggers.ILogChannelsSvc#getLogChannel(java.lang.String
+	 * , int, int, org.psem2m.isolates.loggers.ELogChannelFormat)
+	 */
+	@Override
+	public ILogChannelSvc getLogChannel(String aChannelId, final int aFileSize,
+			final int aFileCount, final ELogChannelFormat aFormat)
+			throws CLogChannelException {
+
+		return getOrCreateLogChannel(aChannelId, aFileSize, aFileCount, aFormat);
 	}
 
 	/*
@@ -385,25 +611,90 @@ public class CLogChannelsSvc extends CPojoBase implements ILogChannelsSvc {
 		}
 	}
 
+	/**
+	 * Returns the opened channel or creates it once: the first caller runs the
+	 * creation (directory and files) without any global lock, the concurrent
+	 * callers asking the same channel wait for its result.
+	 *
+	 * @param aChannelId
+	 * @param aFileSize
+	 * @param aFileCount
+	 * @param aFormat
+	 * @return the channel
+	 * @throws CLogChannelException
+	 */
+	private ILogChannelSvc getOrCreateLogChannel(final String aChannelId,
+			final int aFileSize, final int aFileCount,
+			final ELogChannelFormat aFormat) throws CLogChannelException {
+
+		ILogChannelSvc wLogger = findLogChannel(aChannelId);
+		if (wLogger != null) {
+			return wLogger;
+		}
+
+		final FutureTask<ILogChannelSvc> wNewTask = new FutureTask<ILogChannelSvc>(
+				new Callable<ILogChannelSvc>() {
+					@Override
+					public ILogChannelSvc call() throws CLogChannelException {
+						// created by a creation ended since the first lookup
+						final ILogChannelSvc wCreated = findLogChannel(aChannelId);
+						if (wCreated != null) {
+							return wCreated;
+						}
+						return newLogChannel(aChannelId, aFileSize,
+								aFileCount, aFormat);
+					}
+				});
+		final FutureTask<ILogChannelSvc> wRunningTask = pCreations.putIfAbsent(
+				aChannelId, wNewTask);
+		final FutureTask<ILogChannelSvc> wTask = (wRunningTask != null) ? wRunningTask
+				: wNewTask;
+		if (wRunningTask == null) {
+			try {
+				wNewTask.run();
+			} finally {
+				// the channel is registered (or failed): the next callers
+				// find it in the repository
+				pCreations.remove(aChannelId, wNewTask);
+			}
+		}
+
+		try {
+			wLogger = wTask.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CLogChannelException(e,
+					"Interrupted while waiting the creation of the log channel [%s]",
+					aChannelId);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof CLogChannelException) {
+				throw (CLogChannelException) e.getCause();
+			}
+			throw new CLogChannelException(e.getCause(),
+					"Unable to instanciate the log channel [%s]", aChannelId);
+		}
+		return wLogger;
+	}
+
 	/**
 	 * @param aChannelId
 	 * @param aLogDir
 	 * @param aFileSize
 	 * @param aFileCount
-	 * @param aMultiline
+	 * @param aFormat
 	 * @return
 	 * @throws CLogChannelException
 	 */
 	private ILogChannelSvc instanciateLogChannel(final String aChannelId,
 			final File aLogDir, final int aFileSize, final int aFileCount,
-			final boolean aMultiline) throws CLogChannelException {
+			final ELogChannelFormat aFormat) throws CLogChannelException {
 
 		try {
 			final File wLogFilePattern = getChannelFilePattern(aLogDir,
-					aChannelId);
+					aChannelId, aFormat);
 
 			return new CLogChannelLogger(aChannelId, wLogFilePattern,
-					IActivityLoggerBase.ALL, aFileSize, aFileCount, aMultiline);
+					IActivityLoggerBase.ALL, aFileSize, aFileCount, aFormat);
 
 		} catch (final Exception e) {
 			throw new CLogChannelException(e,
@@ -435,34 +726,44 @@ public class CLogChannelsSvc extends CPojoBase implements ILogChannelsSvc {
 	 * @param aChannelId
 	 * @param aFileSize
 	 * @param aFileCount
-	 * @param aMultiline
+	 * @param aFormat
 	 * @return
 	 * @throws CLogChannelException
 	 */
 	private ILogChannelSvc newLogChannel(final String aChannelId,
-			final int aFileSize, final int aFileCount, final boolean aMultiline)
-			throws CLogChannelException {
+			final int aFileSize, final int aFileCount,
+			final ELogChannelFormat aFormat) throws CLogChannelException {
 
 		final File wLogDir = pPlatformDirsSvc.getIsolateLogDir();
 
 		final ILogChannelSvc wLogger = instanciateLogChannel(aChannelId,
-				wLogDir, aFileSize, aFileCount, aMultiline);
+				wLogDir, aFileSize, aFileCount, aFormat);
 
-		pLoggers.put(aChannelId, wLogger);
+		synchronized (pLoggersLock) {
+			final TreeMap<String, ILogChannelSvc> wLoggers = new TreeMap<String, ILogChannelSvc>(
+					pLoggers);
+			wLoggers.put(aChannelId, wLogger);
+			pLoggers = Collections.unmodifiableSortedMap(wLoggers);
+		}
 
 		return wLogger;
 	}
 
 	/**
-	 *
+	 * Empties the repository and closes all the channels it contained
 	 */
 	public void removeAll() {
 
-		for (final Entry<String, ILogChannelSvc> wLoggerEntry : pLoggers
-				.entrySet()) {
-			wLoggerEntry.getValue().close();
+		final SortedMap<String, ILogChannelSvc> wLoggers;
+		synchronized (pLoggersLock) {
+			wLoggers = pLoggers;
+			pLoggers = Collections
+					.unmodifiableSortedMap(new TreeMap<String, ILogChannelSvc>());
+		}
+		// closed outside the lock
+		for (final ILogChannelSvc wLogger : wLoggers.values()) {
+			wLogger.close();
 		}
-		pLoggers.clear();
 	}
 
 	/*
@@ -476,7 +777,15 @@ public class CLogChannelsSvc extends CPojoBase implements ILogChannelsSvc {
 	public boolean removeLogChannel(String aChannelId)
 			throws CLogChannelException {
 
-		final ILogChannelSvc wLogChannel = pLoggers.remove(aChannelId);
+		final ILogChannelSvc wLogChannel;
+		synchronized (pLoggersLock) {
+			final TreeMap<String, ILogChannelSvc> wLoggers = new TreeMap<String, ILogChannelSvc>(
+					pLoggers);
+			wLogChannel = wLoggers.remove(aChannelId);
+			if (wLogChannel != null) {
+				pLoggers = Collections.unmodifiableSortedMap(wLoggers);
+			}
+		}
 		if (wLogChannel == null) {
 			throw new CLogChannelException("The channel [%s] doesn't exist",
 					aChannelId);
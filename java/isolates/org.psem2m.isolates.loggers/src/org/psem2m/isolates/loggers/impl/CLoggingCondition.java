@@ -45,6 +45,22 @@ public class CLoggingCondition implements ILoggingCondition {
 
 	private static final String PROP_LEVEL = "level";
 
+	/**
+	 * @param aLevel
+	 * @return the int value under the levels matching the given level of
+	 *         condition: Integer.MAX_VALUE (the value of OFF) for OFF, so that
+	 *         no level matches. The pseudo level ALL matches all the levels
+	 *         of the records but ALL itself.
+	 */
+	private static int toThreshold(final Level aLevel) {
+
+		if (aLevel == Level.OFF) {
+			return Integer.MAX_VALUE;
+		}
+		final int wValue = aLevel.intValue();
+		return (wValue == Integer.MIN_VALUE) ? wValue : wValue - 1;
+	}
+
 	private final String pComment;
 
 	private final AtomicReference<Level> pConfitionLevel = new AtomicReference<Level>(
@@ -52,6 +68,9 @@ public class CLoggingCondition implements ILoggingCondition {
 
 	private final String pId;
 
+	/** the threshold of the current level, tested by isOn() */
+	private volatile int pThreshold = toThreshold(DEFAULT_LEVEL);
+
 	/**
 	 * @param aDef
 	 * @throws JSONException
@@ -134,13 +153,8 @@ public class CLoggingCondition implements ILoggingCondition {
 	@Override
 	public boolean isOn(final Level aLevel) {
 
-		final Level wCurrentLevel = pConfitionLevel.get();
-
-		if (wCurrentLevel == Level.OFF) {
-			return false;
-		}
-		// eg FINE (500) <= INFO (800)
-		return wCurrentLevel.intValue() <= aLevel.intValue();
+		// eg FINE (500) <= INFO (800), never true if the condition is OFF
+		return aLevel.intValue() > pThreshold;
 	}
 
 	/*
@@ -151,8 +165,11 @@ public class CLoggingCondition implements ILoggingCondition {
 	 * util.logging.Level)
 	 */
 	@Override
-	public Level setLevel(final Level aLevel) {
-		return pConfitionLevel.getAndSet(aLevel);
+	public synchronized Level setLevel(final Level aLevel) {
+
+		final Level wPrevious = pConfitionLevel.getAndSet(aLevel);
+		pThreshold = toThreshold(aLevel);
+		return wPrevious;
 	}
 
 	/**
@@ -3,10 +3,13 @@ package org.psem2m.isolates.loggers.impl;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Map.Entry;
-import java.util.TreeMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.logging.Level;
 
 import org.psem2m.isolates.base.IIsolateLoggerSvc;
@@ -28,8 +31,40 @@ import org.psem2m.utilities.json.JSONObject;
  */
 public class CLoggingConditions implements ILoggingConditions {
 
+	/**
+	 * The handle returned for a missing condition: always off, its level
+	 * can't be changed
+	 */
+	private static final class CAbsentCondition extends CLoggingCondition {
+
+		/**
+		 *
+		 */
+		CAbsentCondition() {
+			super(ID_ABSENT, "The handle of the missing logging conditions");
+			super.setLevel(Level.OFF);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * org.psem2m.isolates.loggers.impl.CLoggingCondition#setLevel(java.util
+		 * .logging.Level)
+		 */
+		@Override
+		public Level setLevel(final Level aLevel) {
+			return Level.OFF;
+		}
+	}
+
+	/** the shared handle of the missing conditions */
+	private static final ILoggingCondition ABSENT = new CAbsentCondition();
+
 	private static final String FILE_NAME_FORMAT = "LoggingConditions_%s.js";
 
+	private static final String ID_ABSENT = "<Absent condition>";
+
 	private static final String ID_NULL = "<Null id condition>";
 
 	private static final String LIB_FILENAME = "filename";
@@ -53,10 +88,13 @@ public class CLoggingConditions implements ILoggingConditions {
 
 	private static final String PROP_SIZE = "size";
 
-	private final Map<String, ILoggingCondition> pConditions = new TreeMap<String, ILoggingCondition>();
+	private final ConcurrentMap<String, ILoggingCondition> pConditions = new ConcurrentSkipListMap<String, ILoggingCondition>();
 
 	private final CXFileUtf8 pFileMemoDefs;
 
+	/** the handles returned by handleFor(), by class name */
+	private final ConcurrentMap<String, ILoggingCondition> pHandles = new ConcurrentHashMap<String, ILoggingCondition>();
+
 	private final String pId;
 
 	/**
@@ -65,6 +103,10 @@ public class CLoggingConditions implements ILoggingConditions {
 	 * This service is the general logger of the current isolate
 	 **/
 	private final IIsolateLoggerSvc pIsolateLoggerSvc;
+	/** the ids of the missing conditions already warned */
+	private final Set<String> pMissingIds = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
 	/**
 	 * Service reference managed by iPojo (see metadata.xml)
 	 *
@@ -194,8 +236,7 @@ public class CLoggingConditions implements ILoggingConditions {
 		final ILoggingCondition wCondition = pConditions.get(wConfitionId);
 
 		if (wCondition == null) {
-			pIsolateLoggerSvc.logWarn(this, "getCondition", MESS_CANT_FIND,
-					aConditionId);
+			warnMissing("getCondition", wConfitionId);
 			return null;
 		}
 
@@ -247,6 +288,33 @@ public class CLoggingConditions implements ILoggingConditions {
 		return pId;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.psem2m.isolates.loggers.ILoggingConditions#handleFor(java.lang.Class)
+	 */
+	@Override
+	public ILoggingCondition handleFor(final Class<?> aConditionId) {
+
+		final String wConditionId = validConditionId(aConditionId);
+
+		final ILoggingCondition wHandle = pHandles.get(wConditionId);
+		if (wHandle != null) {
+			return wHandle;
+		}
+
+		final ILoggingCondition wCondition = pConditions.get(wConditionId);
+		if (wCondition == null) {
+			// not cached: the condition can be created later
+			warnMissing("handleFor", wConditionId);
+			return ABSENT;
+		}
+		final ILoggingCondition wPrevious = pHandles.putIfAbsent(wConditionId,
+				wCondition);
+		return (wPrevious != null) ? wPrevious : wCondition;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -255,7 +323,7 @@ public class CLoggingConditions implements ILoggingConditions {
 	 */
 	@Override
 	public boolean isOn(final Class<?> aConditionId, Level aLevel) {
-		return isOn(validConditionId(aConditionId), aLevel);
+		return handleFor(aConditionId).isOn(aLevel);
 	}
 
 	/*
@@ -273,8 +341,7 @@ public class CLoggingConditions implements ILoggingConditions {
 		final ILoggingCondition wCondition = pConditions.get(wConfitionId);
 
 		if (wCondition == null) {
-			pIsolateLoggerSvc.logWarn(this, "isOn", MESS_CANT_FIND,
-					aConditionId);
+			warnMissing("isOn", wConfitionId);
 			return false;
 		}
 
@@ -308,7 +375,12 @@ public class CLoggingConditions implements ILoggingConditions {
 
 				final ILoggingCondition wCondition = new CLoggingCondition(
 						wConditionDef);
-				pConditions.put(wCondition.getId(), wCondition);
+				final ILoggingCondition wExisting = pConditions.putIfAbsent(
+						wCondition.getId(), wCondition);
+				if (wExisting != null) {
+					// keeps the instance: it may be held as a handle
+					wExisting.setLevel(wCondition.getLevel());
+				}
 			}
 		}
 		return wMax;
@@ -341,20 +413,20 @@ public class CLoggingConditions implements ILoggingConditions {
 
 		final String wConfitionId = validConditionId(aConditionId);
 
-		ILoggingCondition wCondition = pConditions.get(wConfitionId);
+		final ILoggingCondition wCondition = new CLoggingCondition(
+				wConfitionId, aComments);
 
-		if (wCondition != null) {
+		wCondition.setLevel(aInitialLevel);
+
+		final ILoggingCondition wExisting = pConditions.putIfAbsent(
+				wConfitionId, wCondition);
+
+		if (wExisting != null) {
 			pIsolateLoggerSvc.logWarn(this, "newLoggingCondition",
 					MESS_ALREADY_EXISTS, aConditionId);
-			return wCondition;
+			return wExisting;
 		}
 
-		wCondition = new CLoggingCondition(wConfitionId, aComments);
-
-		wCondition.setLevel(aInitialLevel);
-
-		pConditions.put(wConfitionId, wCondition);
-
 		return wCondition;
 	}
 
@@ -445,8 +517,7 @@ public class CLoggingConditions implements ILoggingConditions {
 		final ILoggingCondition wCondition = pConditions.get(wConfitionId);
 
 		if (wCondition == null) {
-			pIsolateLoggerSvc.logWarn(this, "setConditionLevel",
-					MESS_CANT_FIND, aConditionId);
+			warnMissing("setConditionLevel", wConfitionId);
 			return null;
 		}
 
@@ -546,4 +617,18 @@ public class CLoggingConditions implements ILoggingConditions {
 				.logWarn(this, "validConditionId", MESS_STRING_ID_NULL);
 		return ID_NULL;
 	}
+
+	/**
+	 * Warns once per id that a condition doesn't exist
+	 *
+	 * @param aWhat
+	 * @param aConditionId
+	 */
+	private void warnMissing(final String aWhat, final String aConditionId) {
+
+		if (pMissingIds.add(aConditionId)) {
+			pIsolateLoggerSvc.logWarn(this, aWhat, MESS_CANT_FIND,
+					aConditionId);
+		}
+	}
 }
@@ -249,6 +249,18 @@ public class CLoggingConditionsManager implements ILoggingConditions,
 		return null;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * org.psem2m.isolates.loggers.ILoggingConditions#handleFor(java.lang.Class)
+	 */
+	@Override
+	public ILoggingCondition handleFor(final Class<?> aConditionId) {
+
+		return pDefaultLoggingConditions.handleFor(aConditionId);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -14,6 +14,7 @@ import org.apache.felix.service.command.Descriptor;
 import org.psem2m.isolates.base.IIsolateLoggerSvc;
 import org.psem2m.isolates.loggers.ILogChannelSvc;
 import org.psem2m.isolates.loggers.ILogChannelsSvc;
+import org.psem2m.isolates.loggers.impl.CLogChannelBinaryDecoder;
 import org.psem2m.utilities.CXException;
 import org.psem2m.utilities.CXLoremIpsum;
 import org.psem2m.utilities.CXStringUtils;
@@ -31,7 +32,7 @@ import org.psem2m.utilities.CXStringUtils;
 public class CCpntLogChannelCommands extends CAbstractCommands {
 
 	/** The Gogo commands */
-	@ServiceProperty(name = "osgi.command.function", value = "{lclist,lcclean,lcfile,lcfiles,lclog,lcnew,lcremove,lcsimulate}")
+	@ServiceProperty(name = "osgi.command.function", value = "{lclist,lcclean,lcdecode,lcfile,lcfiles,lclog,lcnew,lcremove,lcsimulate}")
 	private String[] pCommands;
 
 	@Requires
@@ -132,6 +133,59 @@ public class CCpntLogChannelCommands extends CAbstractCommands {
 		return wSB.toString();
 	}
 
+	/**
+	 * @param aArgs
+	 *            the 4 optionnal arguments of the command
+	 * @return the text having to be displayed in the console
+	 */
+	@Descriptor("Render as text the records of a file of a binary channel.")
+	public String lcdecode(
+			@Descriptor("4 args: channelId or * + file index + first record + max records") final String[] aArgs) {
+
+		final StringBuilder wSB = appendArgsInSB(new StringBuilder(
+				"iotlogchannel:lcdecode: "), aArgs);
+
+		try {
+
+			final String wChannelId = checkChannelIdInArg0(aArgs);
+
+			int wFileIdx = 0;
+			if (aArgs.length >= 2) {
+				wFileIdx = Integer.parseInt(aArgs[1]);
+			}
+			int wFirst = 0;
+			if (aArgs.length >= 3) {
+				wFirst = Integer.parseInt(aArgs[2]);
+			}
+			int wMax = 100;
+			if (aArgs.length >= 4) {
+				wMax = Integer.parseInt(aArgs[3]);
+			}
+
+			final ILogChannelSvc wLogChannel = pILogChannels
+					.getLogChannel(wChannelId);
+
+			logCurrentChannelDescription(wSB, wLogChannel);
+
+			final File wLogFile = pILogChannels.getLogChannelFile(wChannelId,
+					wFileIdx);
+
+			final CLogChannelBinaryDecoder wDecoder = new CLogChannelBinaryDecoder(
+					wLogFile);
+			final int wNbRendered = wDecoder.decode(wSB, wFirst, wMax);
+
+			addLineInSB(wSB,
+					" - LogChannel[%s]: LogFile=[%s] rendered=[%d] truncated=[%b]",
+					wChannelId, wLogFile.getName(), wNbRendered,
+					wDecoder.isTruncated());
+
+		} catch (Exception | Error e) {
+			logErrorInSB(wSB, e);
+		}
+
+		return wSB.toString();
+	}
+
 	/**
 	 * @param aArgs
 	 *            the 2 optionnal arguments of the command
@@ -17,9 +17,14 @@
 package org.psem2m.isolates.slave.agent.core;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -68,6 +73,20 @@ import org.psem2m.isolates.slave.agent.ISvcAgent;
 public class AgentCore implements ISvcAgent, IMessageListener,
         IDirectoryListener, BundleListener {
 
+    /**
+     * Max time a restart can be postponed by the stops of other bundles (ms)
+     */
+    private static final long RESTART_MAX_DELAY = 10000;
+
+    /** Max number of bundles started at the same time by startBundles() */
+    private static final int MAX_START_THREADS = 8;
+
+    /**
+     * Time to wait after the last stop of a bundle before restarting the
+     * stopped bundles (ms)
+     */
+    private static final long RESTART_QUIET_DELAY = 1500;
+
     /** Agent bundle context */
     private final BundleContext pContext;
 
@@ -94,16 +113,28 @@ public class AgentCore implements ISvcAgent, IMessageListener,
     /** Local node UID */
     private String pNodeUid;
 
+    /**
+     * Bundle ID -&gt; time of its first stop (System.nanoTime()), for the
+     * bundles to restart. Also the lock of the restart batch scheduling.
+     */
+    private final ConcurrentMap<Long, Long> pPendingRestarts = new ConcurrentHashMap<Long, Long>();
+
     /** Platform directories service, injected by iPOJO */
     @Requires
     private IPlatformDirsSvc pPlatformDirs;
 
+    /** The next restart batch, null if none is scheduled */
+    private ScheduledFuture<?> pRestartBatch;
+
+    /** The time (System.nanoTime()) the next batch can't be postponed after */
+    private long pRestartDeadline;
+
+    /** The restart counters */
+    private final RestartMetrics pRestartMetrics = new RestartMetrics();
+
     /** The scheduler */
     private ScheduledExecutorService pScheduler;
 
-    /** The update timeouts */
-    private final Map<Long, ScheduledFuture<?>> pUpdateTimeouts = new HashMap<Long, ScheduledFuture<?>>();
-
     /**
      * Sets up the agent (called by iPOJO)
      *
@@ -149,36 +180,10 @@ public class AgentCore implements ISvcAgent, IMessageListener,
         case BundleEvent.STOPPED: {
             /*
              * A bundle has stopped or unresolved. It can be for an update so
-             * wait a little
-             * 
-             * Prepare a ScheduledFuture based timeout
+             * wait a little: the restarts are coalesced in one batch, run
+             * once the stops are over
              */
-            // Cancel previous timeout
-            cancelTimeout(bundleId);
-
-            // Prepare a new one
-            final ScheduledFuture<?> future = pScheduler.schedule(
-                    new Runnable() {
-
-                        @Override
-                        public void run() {
-
-                            // Remove ourself from the timeouts map
-                            pUpdateTimeouts.remove(bundleId);
-
-                            // Try to restart the bundle
-                            try {
-                                startBundle(bundleId);
-
-                            } catch (final Exception e) {
-                                pLogger.logSevere(this, "bundleChanged",
-                                        "Can't restart bundle", bundleId, e);
-                            }
-                        }
-
-                    }, 1500, TimeUnit.MILLISECONDS);
-
-            pUpdateTimeouts.put(bundleId, future);
+            requestRestart(bundleId);
             break;
         }
 
@@ -207,23 +212,17 @@ public class AgentCore implements ISvcAgent, IMessageListener,
     }
 
     /**
-     * Cancels a bundle event timeout
+     * Cancels the pending restart of a bundle
      *
      * @param aBundleId
      *            Bundle ID
      */
     protected void cancelTimeout(final long aBundleId) {
 
-        final ScheduledFuture<?> future = pUpdateTimeouts.get(aBundleId);
-        if (future != null) {
-            final boolean cancelled = future.cancel(false);
-
+        if (pPendingRestarts.remove(aBundleId) != null) {
             pLogger.logDebug(this, "bundleChanged",
-                    "Bundle timeout cancellation=", cancelled);
+                    "Bundle restart cancelled=", aBundleId);
         }
-
-        // Remove it from the map
-        pUpdateTimeouts.remove(aBundleId);
     }
 
     /**
@@ -262,6 +261,16 @@ public class AgentCore implements ISvcAgent, IMessageListener,
         return bundlesInfo;
     }
 
+    /**
+     * Retrieves the counters of the bundle restarts
+     *
+     * @return Counter name -&gt; value (latencies in milliseconds)
+     */
+    public Map<String, Long> getRestartMetrics() {
+
+        return pRestartMetrics.snapshot();
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -323,13 +332,16 @@ public class AgentCore implements ISvcAgent, IMessageListener,
                     "Error sending the 'stopping' message to monitors: ", ex);
         }
 
-        // Stop the scheduled timeouts
-        pScheduler.shutdownNow();
-        pScheduler = null;
+        // Stop the scheduled restarts
+        synchronized (pPendingRestarts) {
+            pScheduler.shutdownNow();
+            pScheduler = null;
+            pRestartBatch = null;
+        }
 
         // Unregister the bundle listener
         pContext.removeBundleListener(this);
-        pUpdateTimeouts.clear();
+        pPendingRestarts.clear();
 
         // Clean up
         pNodeUid = null;
@@ -494,6 +506,136 @@ public class AgentCore implements ISvcAgent, IMessageListener,
         return true;
     }
 
+    /**
+     * Schedules the restart of a stopped bundle. The restart batch is
+     * postponed until no bundle stopped during {@link #RESTART_QUIET_DELAY},
+     * but not more than {@link #RESTART_MAX_DELAY} after the first stop.
+     *
+     * @param aBundleId
+     *            ID of the stopped bundle
+     */
+    private void requestRestart(final long aBundleId) {
+
+        pPendingRestarts.putIfAbsent(aBundleId, System.nanoTime());
+
+        synchronized (pPendingRestarts) {
+            if (pScheduler == null) {
+                // Invalidated
+                return;
+            }
+
+            final long now = System.nanoTime();
+            if (pRestartBatch != null) {
+                if (now + RESTART_QUIET_DELAY * 1000000L > pRestartDeadline) {
+                    // Can't be postponed anymore: the batch will take it
+                    return;
+                }
+                if (!pRestartBatch.cancel(false)) {
+                    // The batch is starting: a new one is needed
+                    pRestartDeadline = now + RESTART_MAX_DELAY * 1000000L;
+                }
+
+            } else {
+                pRestartDeadline = now + RESTART_MAX_DELAY * 1000000L;
+            }
+
+            pRestartBatch = pScheduler.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    try {
+                        restartBundles();
+
+                    } catch (final Exception e) {
+                        pLogger.logSevere(AgentCore.this, "restartBundles",
+                                "Error restarting the bundles", e);
+                    }
+                }
+            }, RESTART_QUIET_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Restarts the pending bundles in one batch: they are resolved at once,
+     * then started in dependency order (providers first)
+     */
+    private void restartBundles() {
+
+        synchronized (pPendingRestarts) {
+            // The next stop will schedule a new batch
+            pRestartBatch = null;
+        }
+
+        if (pCriticalSection.get()) {
+            // Stopping the isolate
+            pPendingRestarts.clear();
+            return;
+        }
+
+        // Take the pending requests, in bundle ID (installation) order
+        final List<Long> bundleIds = new ArrayList<Long>(
+                pPendingRestarts.keySet());
+        Collections.sort(bundleIds);
+
+        final Map<Bundle, Long> requests = new LinkedHashMap<Bundle, Long>();
+        for (final Long bundleId : bundleIds) {
+            final Long since = pPendingRestarts.remove(bundleId);
+            final Bundle bundle = pContext.getBundle(bundleId);
+            if (since == null || bundle == null || isFragment(bundle)) {
+                // Cancelled, uninstalled or can't be started
+                continue;
+            }
+
+            final int state = bundle.getState();
+            if (state == Bundle.INSTALLED || state == Bundle.RESOLVED) {
+                requests.put(bundle, since);
+            }
+        }
+
+        if (requests.isEmpty()) {
+            return;
+        }
+        pRestartMetrics.batch();
+
+        // Resolve all the bundles at once
+        final FrameworkWiring fwWiring = pContext.getBundle(0).adapt(
+                FrameworkWiring.class);
+        if (fwWiring != null) {
+            fwWiring.resolveBundles(requests.keySet());
+        }
+
+        int failures = 0;
+        for (final Bundle bundle : BundleStartOrder.sort(requests.keySet())) {
+            boolean started = false;
+            try {
+                bundle.start();
+                started = true;
+
+            } catch (final BundleException e) {
+                pLogger.logSevere(this, "restartBundles",
+                        "Can't restart bundle", bundle.getBundleId(), e);
+
+            } catch (final IllegalStateException e) {
+                // Uninstalled meanwhile
+                pLogger.logWarn(this, "restartBundles",
+                        "Bundle uninstalled before its restart",
+                        bundle.getBundleId());
+            }
+
+            if (!started) {
+                failures++;
+            }
+            pRestartMetrics.restart(System.nanoTime() - requests.get(bundle),
+                    started);
+        }
+
+        pLogger.logInfo(this, "restartBundles",
+                "Restarted %d bundle(s) in one batch (%d failed) - %s",
+                requests.size() - failures, failures,
+                pRestartMetrics.snapshot());
+    }
+
     /**
      * Starts the given bundle
      *
@@ -519,6 +661,58 @@ public class AgentCore implements ISvcAgent, IMessageListener,
         return true;
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.isolates.slave.agent.ISvcAgent#startBundles(long[])
+     */
+    @Override
+    public Map<Long, Long> startBundles(final long[] aBundleIds)
+            throws InterruptedException {
+
+        final Set<Bundle> bundles = new LinkedHashSet<Bundle>();
+        for (final long bundleId : aBundleIds) {
+            final Bundle bundle = pContext.getBundle(bundleId);
+            if (bundle != null && !isFragment(bundle)) {
+                bundles.add(bundle);
+            }
+        }
+
+        if (bundles.isEmpty()) {
+            return new LinkedHashMap<Long, Long>();
+        }
+
+        // Resolve all the bundles at once
+        final FrameworkWiring fwWiring = pContext.getBundle(0).adapt(
+                FrameworkWiring.class);
+        if (fwWiring != null) {
+            fwWiring.resolveBundles(bundles);
+        }
+
+        final int nbThreads = Math.min(MAX_START_THREADS, Math.min(
+                bundles.size(), Runtime.getRuntime().availableProcessors()));
+        final long start = System.nanoTime();
+        final Map<Long, Long> times = new ParallelBundleStarter(bundles,
+                pLogger).start(nbThreads);
+
+        long sumTimes = 0;
+        int failures = 0;
+        for (final Long time : times.values()) {
+            if (time < 0) {
+                failures++;
+            } else {
+                sumTimes += time;
+            }
+        }
+
+        pLogger.logInfo(this, "startBundles",
+                "Started %d bundle(s) in %d ms with %d thread(s) "
+                        + "(activations: %d ms, failures: %d)", times.size()
+                        - failures, (System.nanoTime() - start) / 1000000L,
+                nbThreads, sumTimes, failures);
+        return times;
+    }
+
     /**
      * Stops the given bundle
      *
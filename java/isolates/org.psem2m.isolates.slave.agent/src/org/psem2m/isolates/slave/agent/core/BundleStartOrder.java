@@ -0,0 +1,130 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.isolates.slave.agent.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+
+/**
+ * Orders bundles to be started, according to their wiring: the bundles
+ * providing packages or capabilities to other bundles of the set are started
+ * first.
+ *
+ * Only the resolved bundles have a wiring: the others have no known provider.
+ * The bundles without dependency between them, or in a dependency cycle, keep
+ * their original order.
+ *
+ * @author ogattaz
+ */
+final class BundleStartOrder {
+
+    /**
+     * Computes the providers of each bundle, among the given bundles
+     *
+     * @param aBundles
+     *            Bundles to start
+     * @return Bundle -&gt; providers of the bundle in the set (without
+     *         itself), in the order of the given bundles
+     */
+    static Map<Bundle, Set<Bundle>> getProviders(
+            final Collection<Bundle> aBundles) {
+
+        final Set<Bundle> set = new HashSet<Bundle>(aBundles);
+        final Map<Bundle, Set<Bundle>> providers = new LinkedHashMap<Bundle, Set<Bundle>>();
+
+        for (final Bundle bundle : aBundles) {
+            final Set<Bundle> bundleProviders = new HashSet<Bundle>();
+            final BundleWiring wiring = bundle.adapt(BundleWiring.class);
+            if (wiring != null) {
+                final List<BundleWire> wires = wiring.getRequiredWires(null);
+                if (wires != null) {
+                    for (final BundleWire wire : wires) {
+                        final Bundle provider = wire.getProviderWiring()
+                                .getBundle();
+                        if (provider != bundle && set.contains(provider)) {
+                            bundleProviders.add(provider);
+                        }
+                    }
+                }
+            }
+            providers.put(bundle, bundleProviders);
+        }
+        return providers;
+    }
+
+    /**
+     * Sorts the given bundles: providers before their consumers
+     *
+     * @param aBundles
+     *            Bundles to start
+     * @return The bundles in start order
+     */
+    static List<Bundle> sort(final Collection<Bundle> aBundles) {
+
+        final Map<Bundle, Set<Bundle>> providers = getProviders(aBundles);
+        final List<Bundle> sorted = new ArrayList<Bundle>(aBundles.size());
+
+        final Set<Bundle> visited = new HashSet<Bundle>();
+        for (final Bundle bundle : providers.keySet()) {
+            visit(bundle, providers, visited, sorted);
+        }
+        return sorted;
+    }
+
+    /**
+     * Depth-first visit: adds the providers of a bundle, then the bundle
+     *
+     * @param aBundle
+     *            The visited bundle
+     * @param aProviders
+     *            The providers of each bundle
+     * @param aVisited
+     *            The bundles visited or being visited
+     * @param aSorted
+     *            The bundles in start order
+     */
+    private static void visit(final Bundle aBundle,
+            final Map<Bundle, Set<Bundle>> aProviders,
+            final Set<Bundle> aVisited, final List<Bundle> aSorted) {
+
+        if (!aVisited.add(aBundle)) {
+            // Done, or a cycle: keep the current order
+            return;
+        }
+
+        for (final Bundle provider : aProviders.get(aBundle)) {
+            visit(provider, aProviders, aVisited, aSorted);
+        }
+        aSorted.add(aBundle);
+    }
+
+    /**
+     * Hidden constructor
+     */
+    private BundleStartOrder() {
+
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.isolates.slave.agent.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+import org.psem2m.isolates.base.IIsolateLoggerSvc;
+
+/**
+ * Starts bundles concurrently on a bounded pool, a bundle being started once
+ * all the bundles of the set it is wired to are started (or failed to).
+ *
+ * The graph is built from the wiring of the bundles (see
+ * {@link BundleStartOrder}): only the edges to a bundle preceding in the
+ * start order are kept, so that a dependency cycle can't block the start.
+ *
+ * An instance is used for one start.
+ *
+ * @author ogattaz
+ */
+final class ParallelBundleStarter {
+
+    /** The starter threads counter, to name them */
+    private static final AtomicInteger sThreadsCounter = new AtomicInteger();
+
+    /** Bundle ID -&gt; activation time (ms), -1 on failure */
+    private final Map<Long, Long> pActivationTimes = new ConcurrentHashMap<Long, Long>();
+
+    /** The bundles to start, in start order */
+    private final List<Bundle> pBundles;
+
+    /** Bundle -&gt; the bundles waiting for it */
+    private final Map<Bundle, List<Bundle>> pConsumers = new HashMap<Bundle, List<Bundle>>();
+
+    /** The start threads */
+    private ExecutorService pExecutor;
+
+    /** Counts down the started bundles */
+    private final CountDownLatch pLatch;
+
+    /** The logger */
+    private final IIsolateLoggerSvc pLogger;
+
+    /** Bundle -&gt; number of providers not yet started */
+    private final Map<Bundle, AtomicInteger> pPendingProviders = new HashMap<Bundle, AtomicInteger>();
+
+    /**
+     * Builds the start graph
+     *
+     * @param aBundles
+     *            The bundles to start (resolved, not fragments)
+     * @param aLogger
+     *            The logger
+     */
+    ParallelBundleStarter(final Set<Bundle> aBundles,
+            final IIsolateLoggerSvc aLogger) {
+
+        pLogger = aLogger;
+        pBundles = BundleStartOrder.sort(aBundles);
+        pLatch = new CountDownLatch(pBundles.size());
+
+        final Map<Bundle, Set<Bundle>> providers = BundleStartOrder
+                .getProviders(pBundles);
+        final Map<Bundle, Integer> ranks = new HashMap<Bundle, Integer>();
+        for (final Bundle bundle : pBundles) {
+            ranks.put(bundle, ranks.size());
+            pConsumers.put(bundle, new ArrayList<Bundle>());
+        }
+
+        for (final Bundle bundle : pBundles) {
+            int nbProviders = 0;
+            for (final Bundle provider : providers.get(bundle)) {
+                if (ranks.get(provider) < ranks.get(bundle)) {
+                    // Ignore the edges closing a cycle
+                    pConsumers.get(provider).add(bundle);
+                    nbProviders++;
+                }
+            }
+            pPendingProviders.put(bundle, new AtomicInteger(nbProviders));
+        }
+    }
+
+    /**
+     * Starts the bundles
+     *
+     * @param aNbThreads
+     *            The max number of bundles started at the same time
+     * @return Bundle ID -&gt; activation time (ms), -1 if the bundle couldn't be
+     *         started, in start order
+     * @throws InterruptedException
+     *             Interrupted while waiting for the starts
+     */
+    Map<Long, Long> start(final int aNbThreads) throws InterruptedException {
+
+        pExecutor = Executors.newFixedThreadPool(Math.max(1, aNbThreads),
+                new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(final Runnable aRunnable) {
+
+                        final Thread thread = new Thread(aRunnable,
+                                "psem2m-agent-bundle-starter-"
+                                        + sThreadsCounter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        try {
+            for (final Bundle bundle : pBundles) {
+                if (pPendingProviders.get(bundle).get() == 0) {
+                    submit(bundle);
+                }
+            }
+            pLatch.await();
+
+        } finally {
+            pExecutor.shutdownNow();
+        }
+
+        final Map<Long, Long> times = new LinkedHashMap<Long, Long>();
+        for (final Bundle bundle : pBundles) {
+            times.put(bundle.getBundleId(),
+                    pActivationTimes.get(bundle.getBundleId()));
+        }
+        return times;
+    }
+
+    /**
+     * Starts a bundle, then submits its consumers which don't wait for
+     * another bundle anymore
+     *
+     * @param aBundle
+     *            A bundle
+     */
+    private void startBundle(final Bundle aBundle) {
+
+        final long start = System.nanoTime();
+        long time = -1;
+        try {
+            aBundle.start();
+            time = (System.nanoTime() - start) / 1000000L;
+
+        } catch (final BundleException e) {
+            pLogger.logSevere(this, "startBundle", "Can't start bundle",
+                    aBundle.getSymbolicName(), e);
+
+        } catch (final RuntimeException e) {
+            // Uninstalled meanwhile, or activator error
+            pLogger.logSevere(this, "startBundle", "Can't start bundle",
+                    aBundle.getSymbolicName(), e);
+
+        } finally {
+            pActivationTimes.put(aBundle.getBundleId(), time);
+            for (final Bundle consumer : pConsumers.get(aBundle)) {
+                if (pPendingProviders.get(consumer).decrementAndGet() == 0) {
+                    submit(consumer);
+                }
+            }
+            pLatch.countDown();
+        }
+    }
+
+    /**
+     * Submits the start of a bundle to the pool
+     *
+     * @param aBundle
+     *            A bundle without provider to wait for
+     */
+    private void submit(final Bundle aBundle) {
+
+        pExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+
+                startBundle(aBundle);
+            }
+        });
+    }
+}
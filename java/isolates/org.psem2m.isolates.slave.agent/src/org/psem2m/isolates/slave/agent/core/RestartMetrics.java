@@ -0,0 +1,90 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.isolates.slave.agent.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counters of the bundle restarts done by the agent. The latency of a restart
+ * is the time between the first stop of the bundle and the end of its
+ * restart.
+ *
+ * @author ogattaz
+ */
+class RestartMetrics {
+
+    /** Number of restart batches */
+    private long pBatches;
+
+    /** Number of failed restarts */
+    private long pFailures;
+
+    /** Highest restart latency (ns) */
+    private long pMaxLatency;
+
+    /** Number of restarted bundles */
+    private long pRestarts;
+
+    /** Sum of the restart latencies (ns) */
+    private long pTotalLatency;
+
+    /**
+     * Counts a restart batch
+     */
+    synchronized void batch() {
+
+        pBatches++;
+    }
+
+    /**
+     * Counts a restart
+     *
+     * @param aLatency
+     *            Time since the first stop of the bundle (ns)
+     * @param aSuccess
+     *            True if the bundle has been restarted
+     */
+    synchronized void restart(final long aLatency, final boolean aSuccess) {
+
+        if (!aSuccess) {
+            pFailures++;
+            return;
+        }
+
+        pRestarts++;
+        pTotalLatency += aLatency;
+        pMaxLatency = Math.max(pMaxLatency, aLatency);
+    }
+
+    /**
+     * Returns the current values of the counters
+     *
+     * @return Counter name -&gt; value (latencies in milliseconds)
+     */
+    synchronized Map<String, Long> snapshot() {
+
+        final Map<String, Long> values = new LinkedHashMap<String, Long>();
+        values.put("batches", pBatches);
+        values.put("restarts", pRestarts);
+        values.put("failures", pFailures);
+        values.put("latency.avg.ms", pRestarts == 0 ? 0 : pTotalLatency
+                / pRestarts / 1000000L);
+        values.put("latency.max.ms", pMaxLatency / 1000000L);
+        return values;
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.isolates.slave.agent.threads;
+
+import java.lang.management.ThreadMXBean;
+
+/**
+ * The batched calls of the HotSpot thread MXBean
+ * (com.sun.management.ThreadMXBean), which read the times or the allocated
+ * memory of many threads at once.
+ *
+ * The package com.sun.management is optionally imported: this class must
+ * only be used once {@link #isSupported(ThreadMXBean)} returned true, a
+ * {@link LinkageError} being thrown by this call if the package isn't
+ * visible.
+ *
+ * @author ogattaz
+ */
+final class HotSpotThreads {
+
+    /**
+     * Reads the allocated memory of the given threads
+     *
+     * @param aThreadBean
+     *            A supported thread MXBean
+     * @param aThreadsIds
+     *            The IDs of the threads
+     * @return The allocated bytes of each thread, -1 for a dead thread
+     */
+    static long[] getAllocatedBytes(final ThreadMXBean aThreadBean,
+            final long[] aThreadsIds) {
+
+        return ((com.sun.management.ThreadMXBean) aThreadBean)
+                .getThreadAllocatedBytes(aThreadsIds);
+    }
+
+    /**
+     * Reads the allocated memory of the given thread
+     *
+     * @param aThreadBean
+     *            A supported thread MXBean
+     * @param aThreadId
+     *            The ID of the thread
+     * @return The allocated bytes of the thread, -1 for a dead thread
+     */
+    static long getAllocatedBytes(final ThreadMXBean aThreadBean,
+            final long aThreadId) {
+
+        return ((com.sun.management.ThreadMXBean) aThreadBean)
+                .getThreadAllocatedBytes(aThreadId);
+    }
+
+    /**
+     * Reads the CPU time of the given threads
+     *
+     * @param aThreadBean
+     *            A supported thread MXBean
+     * @param aThreadsIds
+     *            The IDs of the threads
+     * @return The CPU time of each thread (ns), -1 for a dead thread
+     */
+    static long[] getCpuTimes(final ThreadMXBean aThreadBean,
+            final long[] aThreadsIds) {
+
+        return ((com.sun.management.ThreadMXBean) aThreadBean)
+                .getThreadCpuTime(aThreadsIds);
+    }
+
+    /**
+     * Tests if the batched calls are supported, and enables the measurement
+     * of the allocated memory
+     *
+     * @param aThreadBean
+     *            The thread MXBean of the JVM
+     * @return True if the batched calls can be used
+     * @throws LinkageError
+     *             The package com.sun.management isn't visible
+     */
+    static boolean isSupported(final ThreadMXBean aThreadBean) {
+
+        if (!(aThreadBean instanceof com.sun.management.ThreadMXBean)) {
+            return false;
+        }
+
+        final com.sun.management.ThreadMXBean hotSpotBean = (com.sun.management.ThreadMXBean) aThreadBean;
+        if (!hotSpotBean.isThreadAllocatedMemorySupported()) {
+            return false;
+        }
+
+        if (!hotSpotBean.isThreadAllocatedMemoryEnabled()) {
+            hotSpotBean.setThreadAllocatedMemoryEnabled(true);
+        }
+        return true;
+    }
+
+    /**
+     * Hidden constructor
+     */
+    private HotSpotThreads() {
+
+    }
+}
@@ -17,7 +17,8 @@
 package org.psem2m.isolates.slave.agent.threads;
 
 /**
- * The thread that polls the threads monitor
+ * The thread that polls the threads monitor, pausing between two updates for
+ * the interval computed by the last one (at least the min poll interval)
  *
  * @author Thomas Calmant
  */
@@ -26,11 +27,16 @@ public class MonitorPollerThread extends Thread {
     /** The parent monitor */
     private final ThreadsMonitor pMonitor;
 
-    /** The poll interval */
+    /** The min poll interval */
     private final long pPollInterval;
 
     /**
      * Sets up members
+     *
+     * @param aParent
+     *            The parent monitor
+     * @param aPollInterval
+     *            The min poll interval, in milliseconds
      */
     public MonitorPollerThread(final ThreadsMonitor aParent,
             final long aPollInterval) {
@@ -53,11 +59,11 @@ public class MonitorPollerThread extends Thread {
         while (!isInterrupted()) {
 
             // Update the monitor
-            pMonitor.updateMonitor();
+            final long interval = pMonitor.updateMonitor();
 
             try {
                 // Make a pause
-                Thread.sleep(pPollInterval);
+                Thread.sleep(Math.max(pPollInterval, interval));
 
             } catch (final InterruptedException e) {
                 // Stop working on interruption
@@ -0,0 +1,484 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.isolates.slave.agent.threads;
+
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.psem2m.isolates.services.monitoring.IThreadCpuUsageMonitor;
+import org.psem2m.isolates.services.monitoring.IThreadsActivityMonitor;
+
+/**
+ * The samples of the activity of the threads (allocated bytes, blocked and
+ * waited counts and times, locks) over a sliding window.
+ *
+ * A sample holds the cumulative values of each live thread, in primitive
+ * arrays sorted by thread ID: the activity during the window is the
+ * difference between the newest and the oldest samples. Only the newest
+ * sample keeps the {@link ThreadInfo} of the threads, to name them and to
+ * follow the lock-owner chains.
+ *
+ * The samples of the ring and their arrays are reused: they only grow with
+ * the number of threads.
+ *
+ * @author ogattaz
+ */
+class ThreadActivityWindow {
+
+    /**
+     * The cumulative values of the live threads at a given time
+     */
+    private static final class Sample {
+
+        /** Allocated bytes, -1 if not measured */
+        private long[] pAllocated = new long[0];
+
+        /** Blocked counts */
+        private long[] pBlockedCount = new long[0];
+
+        /** Blocked times (ms), -1 if not monitored */
+        private long[] pBlockedTime = new long[0];
+
+        /** Thread IDs, sorted */
+        private long[] pIds = new long[0];
+
+        /** Thread infos, only kept by the newest sample */
+        private ThreadInfo[] pInfos = new ThreadInfo[0];
+
+        /** Time of the sample */
+        private long pNanoTime;
+
+        /** Number of live threads */
+        private int pNbThreads;
+
+        /** Waited counts */
+        private long[] pWaitedCount = new long[0];
+
+        /** Waited times (ms), -1 if not monitored */
+        private long[] pWaitedTime = new long[0];
+
+        /**
+         * Drops the thread infos
+         */
+        void clearInfos() {
+
+            Arrays.fill(pInfos, 0, pNbThreads, null);
+        }
+
+        /**
+         * Grows the arrays if needed
+         *
+         * @param aCapacity
+         *            The number of threads to store
+         */
+        void ensureCapacity(final int aCapacity) {
+
+            if (pIds.length >= aCapacity) {
+                return;
+            }
+
+            final int capacity = Math.max(aCapacity, pIds.length * 3 / 2);
+            pIds = new long[capacity];
+            pInfos = new ThreadInfo[capacity];
+            pAllocated = new long[capacity];
+            pBlockedCount = new long[capacity];
+            pBlockedTime = new long[capacity];
+            pWaitedCount = new long[capacity];
+            pWaitedTime = new long[capacity];
+        }
+
+        /**
+         * @param aThreadId
+         *            A thread ID
+         * @return The index of the thread, negative if unknown
+         */
+        int indexOf(final long aThreadId) {
+
+            return Arrays.binarySearch(pIds, 0, pNbThreads, aThreadId);
+        }
+    }
+
+    /** Max length of a lock-owner chain */
+    private static final int MAX_CHAIN_LENGTH = 32;
+
+    /** True if the allocated bytes can be read */
+    private final boolean pAllocationSupported;
+
+    /** Number of samples in the ring */
+    private int pNbSamples;
+
+    /** Index of the oldest sample in the ring */
+    private int pOldest;
+
+    /** The samples ring, whose samples are reused */
+    private final Sample[] pSamples;
+
+    /** The JVM threads bean */
+    private final ThreadMXBean pThreadMXBean;
+
+    /** Duration of the window, in nanoseconds */
+    private final long pWindowNanos;
+
+    /**
+     * Sets up the window
+     *
+     * @param aThreadMXBean
+     *            The JVM threads bean
+     * @param aAllocationSupported
+     *            True if the HotSpot calls can read the allocated bytes
+     * @param aWindowMs
+     *            The duration of the window, in milliseconds
+     * @param aPeriodMs
+     *            The min period of the samples, in milliseconds
+     */
+    ThreadActivityWindow(final ThreadMXBean aThreadMXBean,
+            final boolean aAllocationSupported, final long aWindowMs,
+            final long aPeriodMs) {
+
+        pThreadMXBean = aThreadMXBean;
+        pAllocationSupported = aAllocationSupported;
+        pWindowNanos = aWindowMs * 1000000L;
+
+        // The samples of the window, and the one before it
+        pSamples = new Sample[(int) (aWindowMs / aPeriodMs) + 2];
+    }
+
+    /**
+     * Drops the samples
+     */
+    synchronized void clear() {
+
+        if (pNbSamples > 0) {
+            pSamples[(pOldest + pNbSamples - 1) % pSamples.length]
+                    .clearInfos();
+        }
+        pOldest = 0;
+        pNbSamples = 0;
+    }
+
+    /**
+     * Computes the activity of a thread during the window
+     *
+     * @param aNewest
+     *            The newest value
+     * @param aOldest
+     *            The oldest value, or a negative value if the thread was born
+     *            during the window
+     * @return The difference, -1 if the newest value isn't measured
+     */
+    private long delta(final long aNewest, final long aOldest) {
+
+        if (aNewest < 0) {
+            return -1;
+        }
+        return aNewest - Math.max(0, aOldest);
+    }
+
+    /**
+     * Follows the lock owners, from a waiting thread
+     *
+     * @param aSample
+     *            The newest sample
+     * @param aStart
+     *            The index of the first thread of the chain
+     * @param aVisited
+     *            The threads already in a chain
+     * @return The description of the chain
+     */
+    private Map<String, Object> getChain(final Sample aSample,
+            final int aStart, final boolean[] aVisited) {
+
+        final List<String> threads = new ArrayList<String>();
+        final boolean[] inChain = new boolean[aSample.pNbThreads];
+        boolean deadlock = false;
+
+        int current = aStart;
+        while (threads.size() < MAX_CHAIN_LENGTH) {
+            final ThreadInfo info = aSample.pInfos[current];
+            threads.add(info.getThreadName() + "#" + info.getThreadId());
+            inChain[current] = true;
+            aVisited[current] = true;
+
+            final long ownerId = info.getLockOwnerId();
+            if (ownerId == -1) {
+                // End of the chain
+                break;
+            }
+
+            final int owner = aSample.indexOf(ownerId);
+            if (owner < 0) {
+                // Owner born or dead since the sample
+                threads.add(info.getLockOwnerName() + "#" + ownerId);
+                break;
+            }
+
+            if (inChain[owner]) {
+                // Back to a thread of the chain
+                final ThreadInfo ownerInfo = aSample.pInfos[owner];
+                threads.add(ownerInfo.getThreadName() + "#" + ownerId);
+                deadlock = true;
+                break;
+            }
+            current = owner;
+        }
+
+        final Map<String, Object> chain = new LinkedHashMap<String, Object>();
+        chain.put(IThreadsActivityMonitor.KEY_LOCK,
+                aSample.pInfos[aStart].getLockName());
+        chain.put(IThreadsActivityMonitor.KEY_THREADS, threads);
+        chain.put(IThreadsActivityMonitor.KEY_DEADLOCK, deadlock);
+        return chain;
+    }
+
+    /**
+     * Computes the lock-owner chains of the newest sample. A chain starts
+     * with a thread waiting for a lock owned by another thread, which no
+     * thread waits for; the chains of the threads waiting for each other
+     * (deadlocks) are reported too.
+     *
+     * @param aSample
+     *            The newest sample
+     * @param aMaxChains
+     *            The max number of chains
+     * @return The chains
+     */
+    private List<Map<String, Object>> getChains(final Sample aSample,
+            final int aMaxChains) {
+
+        final int nbThreads = aSample.pNbThreads;
+        final boolean[] waitedFor = new boolean[nbThreads];
+        for (int i = 0; i < nbThreads; i++) {
+            final int owner = aSample.indexOf(aSample.pInfos[i]
+                    .getLockOwnerId());
+            if (owner >= 0) {
+                waitedFor[owner] = true;
+            }
+        }
+
+        final List<Map<String, Object>> chains = new ArrayList<Map<String, Object>>();
+        final boolean[] visited = new boolean[nbThreads];
+
+        // Chain heads first, then the cycles
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < nbThreads && chains.size() < aMaxChains; i++) {
+                if (visited[i] || aSample.pInfos[i].getLockOwnerId() == -1
+                        || (pass == 0 && waitedFor[i])) {
+                    continue;
+                }
+                chains.add(getChain(aSample, i, visited));
+            }
+        }
+        return chains;
+    }
+
+    /**
+     * Computes the activity report of the window
+     *
+     * @param aMaxThreads
+     *            The max number of threads in each top list and of chains
+     * @param aCpuMonitor
+     *            The CPU usage monitor
+     * @return The report (see {@link IThreadsActivityMonitor})
+     */
+    synchronized Map<String, Object> getReport(final int aMaxThreads,
+            final IThreadCpuUsageMonitor aCpuMonitor) {
+
+        final Map<String, Object> report = new LinkedHashMap<String, Object>();
+        if (pNbSamples == 0) {
+            report.put(IThreadsActivityMonitor.KEY_WINDOW, 0L);
+            report.put(IThreadsActivityMonitor.KEY_NB_THREADS, 0);
+            return report;
+        }
+
+        final Sample oldest = pSamples[pOldest];
+        final Sample newest = pSamples[(pOldest + pNbSamples - 1)
+                % pSamples.length];
+        final int nbThreads = newest.pNbThreads;
+
+        // Activity of each live thread during the window
+        final long[] allocated = new long[nbThreads];
+        final long[] blockedTime = new long[nbThreads];
+        final long[] blockedCount = new long[nbThreads];
+        final long[] waitedTime = new long[nbThreads];
+        final long[] waitedCount = new long[nbThreads];
+        for (int i = 0; i < nbThreads; i++) {
+            final int old = (oldest == newest) ? i : oldest
+                    .indexOf(newest.pIds[i]);
+            final boolean known = old >= 0;
+            allocated[i] = delta(newest.pAllocated[i],
+                    known ? oldest.pAllocated[old] : -1);
+            blockedTime[i] = delta(newest.pBlockedTime[i],
+                    known ? oldest.pBlockedTime[old] : -1);
+            blockedCount[i] = delta(newest.pBlockedCount[i],
+                    known ? oldest.pBlockedCount[old] : -1);
+            waitedTime[i] = delta(newest.pWaitedTime[i],
+                    known ? oldest.pWaitedTime[old] : -1);
+            waitedCount[i] = delta(newest.pWaitedCount[i],
+                    known ? oldest.pWaitedCount[old] : -1);
+        }
+
+        report.put(IThreadsActivityMonitor.KEY_WINDOW,
+                (newest.pNanoTime - oldest.pNanoTime) / 1000000L);
+        report.put(IThreadsActivityMonitor.KEY_NB_THREADS, nbThreads);
+
+        // Top offenders
+        final long[][] activity = { allocated, blockedCount, blockedTime,
+                waitedCount, waitedTime };
+        report.put(IThreadsActivityMonitor.KEY_ALLOCATION,
+                getTop(newest, allocated, allocated, aMaxThreads, activity,
+                        aCpuMonitor));
+        report.put(IThreadsActivityMonitor.KEY_BLOCKED_TOP,
+                getTop(newest, blockedTime, blockedCount, aMaxThreads,
+                        activity, aCpuMonitor));
+        report.put(IThreadsActivityMonitor.KEY_WAITED_TOP,
+                getTop(newest, waitedTime, waitedCount, aMaxThreads,
+                        activity, aCpuMonitor));
+
+        report.put(IThreadsActivityMonitor.KEY_LOCK_CHAINS,
+                getChains(newest, aMaxThreads));
+        return report;
+    }
+
+    /**
+     * Selects the threads with the highest activity
+     *
+     * @param aSample
+     *            The newest sample
+     * @param aKey
+     *            The activity to sort on
+     * @param aFallbackKey
+     *            The activity to sort on if the first one isn't measured
+     * @param aMaxThreads
+     *            The max number of threads
+     * @param aActivity
+     *            All the activities (allocated, blocked count and time, waited
+     *            count and time)
+     * @param aCpuMonitor
+     *            The CPU usage monitor
+     * @return The description of the selected threads, in decreasing order
+     */
+    private List<Map<String, Object>> getTop(final Sample aSample,
+            final long[] aKey, final long[] aFallbackKey,
+            final int aMaxThreads, final long[][] aActivity,
+            final IThreadCpuUsageMonitor aCpuMonitor) {
+
+        final int nbThreads = aSample.pNbThreads;
+        final boolean measured = nbThreads > 0 && aKey[0] >= 0;
+        final long[] key = measured ? aKey : aFallbackKey;
+        final boolean[] selected = new boolean[nbThreads];
+
+        final List<Map<String, Object>> top = new ArrayList<Map<String, Object>>();
+        while (top.size() < aMaxThreads) {
+            // Partial selection: the top lists are short
+            int best = -1;
+            for (int i = 0; i < nbThreads; i++) {
+                if (!selected[i] && key[i] > 0
+                        && (best == -1 || key[i] > key[best])) {
+                    best = i;
+                }
+            }
+            if (best == -1) {
+                break;
+            }
+            selected[best] = true;
+
+            final ThreadInfo info = aSample.pInfos[best];
+            final Map<String, Object> thread = new LinkedHashMap<String, Object>();
+            thread.put(IThreadsActivityMonitor.KEY_ID, info.getThreadId());
+            thread.put(IThreadsActivityMonitor.KEY_NAME, info.getThreadName());
+            thread.put(IThreadsActivityMonitor.KEY_STATE, info
+                    .getThreadState().name());
+            thread.put(IThreadsActivityMonitor.KEY_CPU_USAGE,
+                    aCpuMonitor.getThreadCpuUsage(info.getThreadId()));
+            thread.put(IThreadsActivityMonitor.KEY_ALLOCATED_BYTES,
+                    aActivity[0][best]);
+            thread.put(IThreadsActivityMonitor.KEY_BLOCKED_COUNT,
+                    aActivity[1][best]);
+            thread.put(IThreadsActivityMonitor.KEY_BLOCKED_TIME,
+                    aActivity[2][best]);
+            thread.put(IThreadsActivityMonitor.KEY_WAITED_COUNT,
+                    aActivity[3][best]);
+            thread.put(IThreadsActivityMonitor.KEY_WAITED_TIME,
+                    aActivity[4][best]);
+            top.add(thread);
+        }
+        return top;
+    }
+
+    /**
+     * Samples the live threads, and drops the samples older than the window
+     */
+    synchronized void sample() {
+
+        final long[] ids = pThreadMXBean.getAllThreadIds();
+        Arrays.sort(ids);
+        final ThreadInfo[] infos = pThreadMXBean.getThreadInfo(ids);
+        final long nanoTime = System.nanoTime();
+
+        // Only the newest sample keeps the thread infos
+        if (pNbSamples > 0) {
+            pSamples[(pOldest + pNbSamples - 1) % pSamples.length]
+                    .clearInfos();
+        }
+
+        if (pNbSamples == pSamples.length) {
+            // Ring full: reuse the oldest sample
+            pOldest = (pOldest + 1) % pSamples.length;
+            pNbSamples--;
+        }
+        final int slot = (pOldest + pNbSamples) % pSamples.length;
+        if (pSamples[slot] == null) {
+            pSamples[slot] = new Sample();
+        }
+        final Sample sample = pSamples[slot];
+        sample.ensureCapacity(ids.length);
+        sample.pNanoTime = nanoTime;
+
+        // Keep the live threads only
+        int idx = 0;
+        for (int i = 0; i < ids.length; i++) {
+            final ThreadInfo info = infos[i];
+            if (info == null) {
+                continue;
+            }
+            sample.pIds[idx] = ids[i];
+            sample.pInfos[idx] = info;
+            sample.pAllocated[idx] = pAllocationSupported ? HotSpotThreads
+                    .getAllocatedBytes(pThreadMXBean, ids[i]) : -1;
+            sample.pBlockedCount[idx] = info.getBlockedCount();
+            sample.pBlockedTime[idx] = info.getBlockedTime();
+            sample.pWaitedCount[idx] = info.getWaitedCount();
+            sample.pWaitedTime[idx] = info.getWaitedTime();
+            idx++;
+        }
+        sample.pNbThreads = idx;
+        pNbSamples++;
+
+        // Keep the last sample taken before the beginning of the window
+        while (pNbSamples > 1
+                && pSamples[(pOldest + 1) % pSamples.length].pNanoTime <= nanoTime
+                        - pWindowNanos) {
+            pOldest = (pOldest + 1) % pSamples.length;
+            pNbSamples--;
+        }
+    }
+}
@@ -0,0 +1,466 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.isolates.slave.agent.threads;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.apache.felix.ipojo.annotations.Validate;
+import org.psem2m.isolates.base.IIsolateLoggerSvc;
+import org.psem2m.isolates.services.monitoring.IThreadCpuUsageMonitor;
+
+/**
+ * Thread CPU usage monitor sampling all the threads at once.
+ *
+ * On HotSpot, the CPU times and the allocated memory of all the threads are
+ * read by one batched call each. The samples are kept in primitive arrays,
+ * sorted by thread ID: a thread is looked up by binary search, there is no
+ * object per thread. The arrays are swapped with a second set on each update,
+ * and only grow with the number of threads.
+ *
+ * The IDs of the live threads are only read again when a thread has been
+ * started or has died since the last update. From Java 9, the per-thread
+ * reads of the MXBean don't allocate: they are used instead of the batched
+ * calls, which return new arrays, so that a steady update allocates nothing.
+ *
+ * @author ogattaz
+ */
+@Component(name = "psem2m-thread-cpu-usage-monitor-factory")
+@Provides(specifications = IThreadCpuUsageMonitor.class)
+@Instantiate(name = "psem2m-thread-cpu-usage-monitor")
+public class ThreadCpuUsageMonitor implements IThreadCpuUsageMonitor {
+
+    /**
+     * The samples of the known threads, as parallel arrays sorted by thread ID
+     */
+    private static final class Samples {
+
+        /** Allocated bytes on the first sample (-1 if not measured) */
+        private long[] pFirstAlloc = new long[0];
+
+        /** CPU time on the first sample */
+        private long[] pFirstCpu = new long[0];
+
+        /** Time of the first sample */
+        private long[] pFirstNanoTime = new long[0];
+
+        /** Thread IDs, sorted */
+        private long[] pIds = new long[0];
+
+        /** Allocated bytes on the last sample (-1 if not measured) */
+        private long[] pLastAlloc = new long[0];
+
+        /** CPU time on the last sample */
+        private long[] pLastCpu = new long[0];
+
+        /** Number of known threads */
+        private int pNbThreads;
+
+        /** Allocated bytes on the previous sample (-1 if not measured) */
+        private long[] pPrevAlloc = new long[0];
+
+        /** CPU time on the previous sample */
+        private long[] pPrevCpu = new long[0];
+
+        /** Time of the previous sample */
+        private long[] pPrevNanoTime = new long[0];
+
+        /**
+         * Grows the arrays if needed
+         *
+         * @param aCapacity
+         *            The number of threads to store
+         */
+        void ensureCapacity(final int aCapacity) {
+
+            if (pIds.length >= aCapacity) {
+                return;
+            }
+
+            final int capacity = Math.max(aCapacity, pIds.length * 3 / 2);
+            pIds = new long[capacity];
+            pFirstNanoTime = new long[capacity];
+            pFirstCpu = new long[capacity];
+            pPrevNanoTime = new long[capacity];
+            pPrevCpu = new long[capacity];
+            pLastCpu = new long[capacity];
+            pFirstAlloc = new long[capacity];
+            pPrevAlloc = new long[capacity];
+            pLastAlloc = new long[capacity];
+        }
+
+        /**
+         * @param aThreadId
+         *            A thread ID
+         * @return The index of the thread, negative if unknown
+         */
+        int indexOf(final long aThreadId) {
+
+            return Arrays.binarySearch(pIds, 0, pNbThreads, aThreadId);
+        }
+    }
+
+    /** True if the allocated memory is read with the HotSpot calls */
+    private boolean pAllocationSupported;
+
+    /** The allocated bytes read by the last update, -1 if not measured */
+    private long[] pAllocatedBytes = new long[0];
+
+    /** True if the HotSpot batched calls are used */
+    private boolean pBatched;
+
+    /** The CPU times read by the last update, -1 for a dead thread */
+    private long[] pCpuTimes = new long[0];
+
+    /** Time of the last update */
+    private long pLastNanoTime;
+
+    /** The logger */
+    @Requires
+    private IIsolateLoggerSvc pLogger;
+
+    /** The samples of the last update */
+    private Samples pSamples = new Samples();
+
+    /** The samples being computed (the ones of the update before the last) */
+    private Samples pSpareSamples = new Samples();
+
+    /** Number of threads started in the JVM when the IDs have been read */
+    private long pStartedCount = -1;
+
+    /** JMX Thread MXBean */
+    private ThreadMXBean pThreadBean;
+
+    /** Number of live threads when the IDs have been read */
+    private int pThreadsCount = -1;
+
+    /** The IDs of the live threads, sorted */
+    private long[] pThreadsIds = new long[0];
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.isolates.services.monitoring.IThreadCpuUsageMonitor#
+     * getAverageCpuUsage()
+     */
+    @Override
+    public synchronized double getAverageCpuUsage() {
+
+        double averageCpuTime = 0;
+        int validThreads = 0;
+
+        for (int i = 0; i < pSamples.pNbThreads; i++) {
+
+            // Sum all average CPU usage
+            final double threadCpuUsage = usage(pSamples.pLastCpu[i]
+                    - pSamples.pPrevCpu[i], pSamples.pPrevNanoTime[i]);
+            if (threadCpuUsage > 0) {
+                // Only use valid thread times
+                validThreads++;
+                averageCpuTime += threadCpuUsage;
+            }
+        }
+
+        if (validThreads == 0) {
+            // No valid data...
+            return 0;
+        }
+
+        return averageCpuTime / validThreads;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.isolates.services.monitoring.IThreadCpuUsageMonitor#
+     * getKnownThreadsIds()
+     */
+    @Override
+    public synchronized long[] getKnownThreadsIds() {
+
+        return Arrays.copyOf(pSamples.pIds, pSamples.pNbThreads);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.isolates.services.monitoring.IThreadCpuUsageMonitor#
+     * getKnownThreadsIds(long[])
+     */
+    @Override
+    public synchronized int getKnownThreadsIds(final long[] aThreadsIds) {
+
+        System.arraycopy(pSamples.pIds, 0, aThreadsIds, 0,
+                Math.min(pSamples.pNbThreads, aThreadsIds.length));
+        return pSamples.pNbThreads;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.isolates.services.monitoring.IThreadCpuUsageMonitor#
+     * getThreadAllocationRate(long)
+     */
+    @Override
+    public synchronized double getThreadAllocationRate(final long aThreadId) {
+
+        final int idx = pSamples.indexOf(aThreadId);
+        if (idx < 0 || pSamples.pLastAlloc[idx] < 0
+                || pSamples.pPrevAlloc[idx] < 0) {
+            return -1;
+        }
+
+        final long elapsed = pLastNanoTime - pSamples.pPrevNanoTime[idx];
+        if (elapsed <= 0) {
+            // Avoid a division by zero
+            return 0;
+        }
+
+        return (pSamples.pLastAlloc[idx] - pSamples.pPrevAlloc[idx]) * 1e9
+                / elapsed;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.isolates.services.monitoring.IThreadCpuUsageMonitor#
+     * getThreadAverageCpuUsage(long)
+     */
+    @Override
+    public synchronized double getThreadAverageCpuUsage(final long aThreadId) {
+
+        final int idx = pSamples.indexOf(aThreadId);
+        if (idx < 0) {
+            return -1;
+        }
+
+        return usage(pSamples.pLastCpu[idx] - pSamples.pFirstCpu[idx],
+                pSamples.pFirstNanoTime[idx]);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.isolates.services.monitoring.IThreadCpuUsageMonitor#
+     * getThreadCpuUsage(long)
+     */
+    @Override
+    public synchronized double getThreadCpuUsage(final long aThreadId) {
+
+        final int idx = pSamples.indexOf(aThreadId);
+        if (idx < 0) {
+            return -1;
+        }
+
+        return usage(pSamples.pLastCpu[idx] - pSamples.pPrevCpu[idx],
+                pSamples.pPrevNanoTime[idx]);
+    }
+
+    /**
+     * Component invalidated
+     */
+    @Invalidate
+    public void invalidate() {
+
+        synchronized (this) {
+            pSamples = new Samples();
+            pSpareSamples = new Samples();
+            pThreadsIds = new long[0];
+            pThreadsCount = -1;
+            pStartedCount = -1;
+        }
+        pLogger.logInfo(this, "invalidate", "Thread CPU usage monitor gone");
+    }
+
+    /**
+     * Reads the CPU times and the allocated memory of the given threads in
+     * {@link #pCpuTimes} and {@link #pAllocatedBytes}
+     *
+     * @param aThreadsIds
+     *            The IDs of the threads
+     */
+    private void readThreads(final long[] aThreadsIds) {
+
+        if (pBatched) {
+            pCpuTimes = HotSpotThreads.getCpuTimes(pThreadBean, aThreadsIds);
+            pAllocatedBytes = HotSpotThreads.getAllocatedBytes(pThreadBean,
+                    aThreadsIds);
+            return;
+        }
+
+        if (pCpuTimes.length < aThreadsIds.length) {
+            pCpuTimes = new long[aThreadsIds.length];
+            pAllocatedBytes = new long[aThreadsIds.length];
+        }
+        for (int i = 0; i < aThreadsIds.length; i++) {
+            pCpuTimes[i] = pThreadBean.getThreadCpuTime(aThreadsIds[i]);
+            pAllocatedBytes[i] = pAllocationSupported ? HotSpotThreads
+                    .getAllocatedBytes(pThreadBean, aThreadsIds[i]) : -1;
+        }
+    }
+
+    /**
+     * Reads the IDs of the live threads if a thread has been started or has
+     * died since the last read
+     *
+     * @return The IDs of the live threads, sorted
+     */
+    private long[] readThreadsIds() {
+
+        // No thread started and the same count: no thread died
+        final long startedCount = pThreadBean.getTotalStartedThreadCount();
+        final int threadsCount = pThreadBean.getThreadCount();
+        if (startedCount != pStartedCount || threadsCount != pThreadsCount) {
+            pThreadsIds = pThreadBean.getAllThreadIds();
+            Arrays.sort(pThreadsIds);
+            pStartedCount = startedCount;
+            pThreadsCount = threadsCount;
+        }
+        return pThreadsIds;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.psem2m.isolates.services.monitoring.IThreadCpuUsageMonitor#update()
+     */
+    @Override
+    public synchronized void update() {
+
+        if (pThreadBean == null || !pThreadBean.isThreadCpuTimeSupported()) {
+            // Thread CPU Time not supported, do nothing
+            return;
+        }
+
+        // Sample all live threads
+        final long[] threadsIds = readThreadsIds();
+        readThreads(threadsIds);
+        final long[] cpuTimes = pCpuTimes;
+        final long[] allocatedBytes = pAllocatedBytes;
+        final long nanoTime = System.nanoTime();
+
+        // Merge the sample with the previous ones (both sorted)
+        final Samples previous = pSamples;
+        final Samples next = pSpareSamples;
+        next.ensureCapacity(threadsIds.length);
+
+        int nbThreads = 0;
+        int prevIdx = 0;
+        for (int i = 0; i < threadsIds.length; i++) {
+            if (cpuTimes[i] == -1) {
+                // Dead thread
+                continue;
+            }
+
+            final long threadId = threadsIds[i];
+            final long allocated = allocatedBytes[i];
+            while (prevIdx < previous.pNbThreads
+                    && previous.pIds[prevIdx] < threadId) {
+                prevIdx++;
+            }
+
+            next.pIds[nbThreads] = threadId;
+            next.pLastCpu[nbThreads] = cpuTimes[i];
+            next.pLastAlloc[nbThreads] = allocated;
+
+            if (prevIdx < previous.pNbThreads
+                    && previous.pIds[prevIdx] == threadId) {
+                // Known thread
+                next.pFirstNanoTime[nbThreads] = previous.pFirstNanoTime[prevIdx];
+                next.pFirstCpu[nbThreads] = previous.pFirstCpu[prevIdx];
+                next.pFirstAlloc[nbThreads] = previous.pFirstAlloc[prevIdx];
+                next.pPrevNanoTime[nbThreads] = pLastNanoTime;
+                next.pPrevCpu[nbThreads] = previous.pLastCpu[prevIdx];
+                next.pPrevAlloc[nbThreads] = previous.pLastAlloc[prevIdx];
+
+            } else {
+                // New thread
+                next.pFirstNanoTime[nbThreads] = nanoTime;
+                next.pFirstCpu[nbThreads] = cpuTimes[i];
+                next.pFirstAlloc[nbThreads] = allocated;
+                next.pPrevNanoTime[nbThreads] = nanoTime;
+                next.pPrevCpu[nbThreads] = cpuTimes[i];
+                next.pPrevAlloc[nbThreads] = allocated;
+            }
+            nbThreads++;
+        }
+        next.pNbThreads = nbThreads;
+
+        pSpareSamples = previous;
+        pSamples = next;
+        pLastNanoTime = nanoTime;
+    }
+
+    /**
+     * Computes a CPU usage up to the last update
+     *
+     * @param aCpuTime
+     *            The CPU time consumed since the given time (ns)
+     * @param aSinceNanoTime
+     *            The beginning of the period
+     * @return The CPU usage (%), 0 if the period is empty
+     */
+    private double usage(final long aCpuTime, final long aSinceNanoTime) {
+
+        final long elapsed = pLastNanoTime - aSinceNanoTime;
+        if (elapsed <= 0) {
+            // Avoid a division by zero
+            return 0;
+        }
+
+        return (aCpuTime * 100.0) / elapsed;
+    }
+
+    /**
+     * Component validated
+     */
+    @Validate
+    public void validate() {
+
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        boolean allocationSupported;
+        try {
+            allocationSupported = HotSpotThreads.isSupported(threadBean);
+
+        } catch (final LinkageError ex) {
+            // com.sun.management not visible
+            allocationSupported = false;
+        }
+
+        // Before Java 9, a per-thread read allocates a batch of one thread
+        final boolean batched = allocationSupported
+                && System.getProperty("java.specification.version", "")
+                        .startsWith("1.");
+
+        synchronized (this) {
+            pThreadBean = threadBean;
+            pAllocationSupported = allocationSupported;
+            pBatched = batched;
+        }
+
+        pLogger.logInfo(this, "validate",
+                "Thread CPU usage monitor ready (allocated memory=%s, batched HotSpot sampling=%s)",
+                allocationSupported, batched);
+    }
+}
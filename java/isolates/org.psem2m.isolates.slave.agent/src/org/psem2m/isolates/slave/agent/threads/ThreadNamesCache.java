@@ -0,0 +1,163 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.isolates.slave.agent.threads;
+
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Thread ID -&gt; thread name cache, without boxing: an open addressing table
+ * of primitive IDs. A name is read from the {@link ThreadMXBean} the first
+ * time its thread is looked up, the names of the dead threads are dropped
+ * when the table is full.
+ *
+ * The renaming of a thread once cached is ignored. Not thread-safe: used by
+ * the poller thread only.
+ *
+ * @author ogattaz
+ */
+class ThreadNamesCache {
+
+    /** The initial capacity of the table (a power of 2) */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** The name returned for a dead thread */
+    static final String UNKNOWN_NAME = "<null>";
+
+    /** Slot -> Thread ID */
+    private long[] pIds = new long[INITIAL_CAPACITY];
+
+    /** Slot -> Thread name, null for a free slot */
+    private String[] pNames = new String[INITIAL_CAPACITY];
+
+    /** Number of used slots */
+    private int pSize;
+
+    /** The source of the names */
+    private final ThreadMXBean pThreadMXBean;
+
+    /**
+     * Sets up the cache
+     *
+     * @param aThreadMXBean
+     *            The source of the names
+     */
+    ThreadNamesCache(final ThreadMXBean aThreadMXBean) {
+
+        pThreadMXBean = aThreadMXBean;
+    }
+
+    /**
+     * Retrieves the name of the given thread
+     *
+     * @param aThreadId
+     *            A thread ID
+     * @return The name of the thread, {@link #UNKNOWN_NAME} if it is dead
+     */
+    String getName(final long aThreadId) {
+
+        final int mask = pIds.length - 1;
+        int slot = index(aThreadId, mask);
+        while (pNames[slot] != null) {
+            if (pIds[slot] == aThreadId) {
+                return pNames[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // Unknown thread: first lookup
+        final ThreadInfo info = pThreadMXBean.getThreadInfo(aThreadId);
+        if (info == null) {
+            return UNKNOWN_NAME;
+        }
+
+        final String name = info.getThreadName();
+        if ((pSize + 1) * 2 > pIds.length) {
+            rebuild();
+        }
+        put(aThreadId, name);
+        return name;
+    }
+
+    /**
+     * Computes the first slot of a thread ID
+     *
+     * @param aThreadId
+     *            A thread ID
+     * @param aMask
+     *            The capacity of the table minus one
+     * @return The first slot to probe
+     */
+    private int index(final long aThreadId, final int aMask) {
+
+        return (int) ((aThreadId * 0x9E3779B97F4A7C15L) >>> 32) & aMask;
+    }
+
+    /**
+     * Stores a name in a table with a free slot
+     *
+     * @param aThreadId
+     *            A thread ID
+     * @param aName
+     *            The name of the thread
+     */
+    private void put(final long aThreadId, final String aName) {
+
+        final int mask = pIds.length - 1;
+        int slot = index(aThreadId, mask);
+        while (pNames[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        pIds[slot] = aThreadId;
+        pNames[slot] = aName;
+        pSize++;
+    }
+
+    /**
+     * Drops the names of the dead threads, and doubles the capacity of the
+     * table if it stays half full
+     */
+    private void rebuild() {
+
+        final long[] liveIds = pThreadMXBean.getAllThreadIds();
+        final long[] oldIds = pIds;
+        final String[] oldNames = pNames;
+
+        // Keep at most a quarter of the capacity used
+        int capacity = oldIds.length;
+        while (Math.min(pSize, liveIds.length) * 4 >= capacity) {
+            capacity *= 2;
+        }
+
+        pIds = new long[capacity];
+        pNames = new String[capacity];
+        pSize = 0;
+
+        // Re-insert the live threads
+        for (final long liveId : liveIds) {
+            final int mask = oldIds.length - 1;
+            int slot = index(liveId, mask);
+            while (oldNames[slot] != null) {
+                if (oldIds[slot] == liveId) {
+                    put(liveId, oldNames[slot]);
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+    }
+}
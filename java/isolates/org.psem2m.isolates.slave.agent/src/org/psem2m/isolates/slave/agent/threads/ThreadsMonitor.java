@@ -16,26 +16,89 @@
 
 package org.psem2m.isolates.slave.agent.threads;
 
-import java.util.HashMap;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
 import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Provides;
 import org.apache.felix.ipojo.annotations.Requires;
 import org.apache.felix.ipojo.annotations.Validate;
+import org.osgi.framework.BundleContext;
 import org.psem2m.isolates.base.IIsolateLoggerSvc;
 import org.psem2m.isolates.services.monitoring.IThreadCpuUsageMonitor;
+import org.psem2m.isolates.services.monitoring.IThreadsActivityMonitor;
 
 /**
  * Calls the JMX monitor to get the average isolate CPU load
  *
+ * The sampling period is adaptive: it falls back to {@link #MIN_PERIOD} as
+ * soon as a thread has a high activity, and doubles up to {@link #MAX_PERIOD}
+ * while the isolate is idle. The threads are counted and named using the
+ * {@link ThreadMXBean}, the names being cached: a sample doesn't enumerate
+ * the thread groups.
+ *
+ * While the activity window is in use (see {@link IThreadsActivityMonitor}),
+ * the allocated bytes, the blocked and waited counts and times and the locks
+ * of the threads are also sampled, every {@link #ACTIVITY_PERIOD} at most
+ * (the contention monitoring is enabled if supported). The top offenders of
+ * the last {@link #WINDOW} are then logged once per window, and returned by
+ * {@link #getActivityReport(int)}.
+ *
  * @author Thomas Calmant
  */
 @Component(name = "psem2m-threads-monitor-factory")
-public class ThreadsMonitor {
+@Provides(specifications = IThreadsActivityMonitor.class)
+@Instantiate(name = "psem2m-threads-monitor")
+public class ThreadsMonitor implements IThreadsActivityMonitor {
+
+    /** Idle time after which an unused activity window is stopped (ms) */
+    private static final long ACTIVITY_IDLE = 10 * 60000;
+
+    /** Min period of the activity samples (ms) */
+    private static final long ACTIVITY_PERIOD = 10000;
+
+    /** Thread CPU usage (%) of a heavy activity */
+    private static final double HEAVY_USAGE = 80;
+
+    /** Thread CPU usage (%) of a high activity */
+    private static final double HIGH_USAGE = 50;
+
+    /** Average CPU usage (%) under which the isolate is idle */
+    private static final double IDLE_USAGE = 10;
+
+    /** Slowest sampling period, reached while the isolate is idle (ms) */
+    private static final long MAX_PERIOD = 8000;
+
+    /** Fastest sampling period, used while a thread is active (ms) */
+    private static final long MIN_PERIOD = 500;
+
+    /** Number of threads in each top list of the logged reports */
+    private static final int REPORT_THREADS = 5;
+
+    /** Duration of the activity window, and period of its report (ms) */
+    private static final long WINDOW = 60000;
+
+    /** True while the activity window is sampled */
+    private boolean pActivityActive;
+
+    /** True if the activity window is always sampled */
+    private final boolean pActivityEnabled;
+
+    /** True if the contention monitoring has been enabled by this monitor */
+    private boolean pContentionEnabled;
+
+    /** Time of the last call to getActivityReport() */
+    private volatile long pLastQueryTime;
+
+    /** Time of the last logged report (used by the poll thread only) */
+    private long pLastReportTime;
+
+    /** Time of the last activity sample (used by the poll thread only) */
+    private long pLastSampleTime;
 
     /** The logger */
     @Requires
@@ -45,101 +108,126 @@ public class ThreadsMonitor {
     @Requires
     private IThreadCpuUsageMonitor pMonitor;
 
+    /** Thread ID -> name (used by the poll thread only) */
+    private ThreadNamesCache pNamesCache;
+
+    /** The current sampling period (used by the poll thread only) */
+    private long pPeriod = MIN_PERIOD;
+
     /** The poll thread */
-    private ScheduledExecutorService pScheduledExecutor;
+    private MonitorPollerThread pPoller;
+
+    /** The JVM threads bean */
+    private ThreadMXBean pThreadMXBean;
+
+    /** The IDs of the known threads (used by the poll thread only) */
+    private long[] pThreadsIds = new long[64];
+
+    /** The activity samples */
+    private ThreadActivityWindow pWindow;
 
     /**
-     * Enumerates all threads in the given group and sub-groups
+     * Sets up the monitor
      *
-     * @param aResultMap
-     *            The result id -&gt; thread map (must not be null)
-     * @param aThreadGroup
-     *            A root thread group
+     * @param aBundleContext
+     *            The bundle context
      */
-    protected void enumerateThreadGroup(final Map<Long, Thread> aResultMap,
-            final ThreadGroup aThreadGroup) {
+    public ThreadsMonitor(final BundleContext aBundleContext) {
 
-        if (aResultMap == null || aThreadGroup == null) {
-            // Forbid invalid parameters
+        pActivityEnabled = Boolean.parseBoolean(aBundleContext
+                .getProperty(PROP_ENABLED));
+    }
+
+    /**
+     * Starts sampling the activity window, if not yet done
+     */
+    private synchronized void activate() {
+
+        if (pActivityActive || pWindow == null) {
             return;
         }
 
-        try {
-            // Count group threads
-            final int nbThreads = aThreadGroup.activeCount() * 2;
-            final Thread[] threads = new Thread[nbThreads];
+        // Measure the time spent blocked or waiting
+        if (pThreadMXBean.isThreadContentionMonitoringSupported()
+                && !pThreadMXBean.isThreadContentionMonitoringEnabled()) {
+            pThreadMXBean.setThreadContentionMonitoringEnabled(true);
+            pContentionEnabled = true;
+        }
 
-            // Retrieve all threads in group
-            aThreadGroup.enumerate(threads, false);
+        pWindow.sample();
+        pActivityActive = true;
+        pLogger.logInfo(this, "activate",
+                "Activity window started (contention monitoring=%s)",
+                pThreadMXBean.isThreadContentionMonitoringEnabled());
+    }
 
-            // Fill the map
-            for (final Thread thread : threads) {
-                if (thread != null) {
-                    aResultMap.put(thread.getId(), thread);
-                }
-            }
+    /**
+     * Stops sampling the activity window, and disables the contention
+     * monitoring if this monitor enabled it
+     */
+    private synchronized void deactivate() {
 
-        } catch (final SecurityException ex) {
-            // Ignore security exception...
-            pLogger.logWarn(this, "enumerateThreadGroup",
-                    "Not allowed to read thread group ",
-                    aThreadGroup.getName(), " :", ex);
+        if (!pActivityActive) {
+            return;
         }
 
-        // Count sub-groups
-        final int nbThreadGroups = aThreadGroup.activeGroupCount() * 2;
-        final ThreadGroup[] threadGroups = new ThreadGroup[nbThreadGroups];
-
-        // Retrieve all sub-groups
-        aThreadGroup.enumerate(threadGroups, false);
-
-        // Recursive calls on sub-groups
-        for (final ThreadGroup group : threadGroups) {
-            enumerateThreadGroup(aResultMap, group);
+        pActivityActive = false;
+        pWindow.clear();
+        if (pContentionEnabled) {
+            pThreadMXBean.setThreadContentionMonitoringEnabled(false);
+            pContentionEnabled = false;
         }
+        pLogger.logInfo(this, "deactivate", "Activity window stopped");
     }
 
-    protected String findThreadStarter(final Thread aThread) {
-
-        // final ClassLoader classLoader = aThread.getContextClassLoader();
-        //
-        // StackTraceElement[] stack = aThread.getStackTrace();
-        // for (StackTraceElement s : stack) {
-        // System.out.println("Trace : " + s);
-        // }
-        //
-        // System.out.println(aThread + " - CL=" + classLoader + " - CLClass="
-        // + (classLoader != null ? classLoader.getClass() : "null")
-        // + "Class=" + aThread.getClass() + "- ClassCL="
-        // + aThread.getClass().getClassLoader() + " - Bundle : "
-        // + FrameworkUtil.getBundle(aThread.getClass()));
-
-        return "<unknown>";
+    /**
+     * Stops sampling the activity window if no report has been asked for
+     * {@link #ACTIVITY_IDLE}. The idle time is checked again under the lock,
+     * as a report can be asked meanwhile.
+     */
+    private synchronized void deactivateIfIdle() {
+
+        if (System.currentTimeMillis() - pLastQueryTime >= ACTIVITY_IDLE) {
+            deactivate();
+        }
     }
 
     /**
-     * Retrieves all running threads in the JVM.
-     *
-     * Code from
-     * http://stackoverflow.com/questions/1323408/get-a-list-of-all-threads
-     * -currently-running-in-java
+     * Formats a list of threads of a report
      *
-     * @return all running threads in the JVM
+     * @param aThreads
+     *            Threads of a report
+     * @param aKey
+     *            The activity to show
+     * @return The formatted threads
      */
-    protected Map<Long, Thread> getAllThreads() {
+    private String formatThreads(final Object aThreads, final String aKey) {
 
-        // Find the root thread group
-        ThreadGroup rootGroup = Thread.currentThread().getThreadGroup();
-        ThreadGroup parentGroup;
-        while ((parentGroup = rootGroup.getParent()) != null) {
-            rootGroup = parentGroup;
+        final StringBuilder builder = new StringBuilder();
+        for (final Object thread : (List<?>) aThreads) {
+            final Map<?, ?> threadMap = (Map<?, ?>) thread;
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(threadMap.get(KEY_NAME)).append('#')
+                    .append(threadMap.get(KEY_ID)).append('=')
+                    .append(threadMap.get(aKey));
         }
+        return builder.toString();
+    }
 
-        // List all threads
-        final Map<Long, Thread> resultMap = new HashMap<Long, Thread>();
-        enumerateThreadGroup(resultMap, rootGroup);
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.isolates.services.monitoring.IThreadsActivityMonitor#
+     * getActivityReport(int)
+     */
+    @Override
+    public Map<String, Object> getActivityReport(final int aMaxThreads) {
 
-        return resultMap;
+        pLastQueryTime = System.currentTimeMillis();
+        activate();
+        return pWindow.getReport(aMaxThreads, pMonitor);
     }
 
     /*
@@ -150,70 +238,150 @@ public class ThreadsMonitor {
     @Invalidate
     public void invalidatePojo() {
 
-        pScheduledExecutor.shutdownNow();
+        pPoller.interrupt();
+        pPoller = null;
+
+        deactivate();
         pLogger.logInfo(this, "invalidatePojo", "Threads Monitor Gone");
     }
 
+    /**
+     * Computes the next sampling period
+     *
+     * @param aAverageUsage
+     *            The average CPU usage
+     * @param aMaxThreadUsage
+     *            The highest CPU usage of a thread
+     * @return The next sampling period, in milliseconds
+     */
+    private long nextPeriod(final double aAverageUsage,
+            final double aMaxThreadUsage) {
+
+        if (aMaxThreadUsage > HIGH_USAGE) {
+            // Follow the active threads closely
+            return MIN_PERIOD;
+        }
+
+        if (aAverageUsage < IDLE_USAGE) {
+            // Back off
+            return Math.min(MAX_PERIOD, pPeriod * 2);
+        }
+        return pPeriod;
+    }
+
+    /**
+     * @return True while the activity window is sampled
+     */
+    private synchronized boolean isActivityActive() {
+
+        return pActivityActive;
+    }
+
+    /**
+     * Logs the top offenders of the activity window
+     */
+    private void logReport() {
+
+        final Map<String, Object> report = pWindow.getReport(REPORT_THREADS,
+                pMonitor);
+
+        pLogger.logInfo(this, "logReport",
+                "Activity over %d ms of %d threads - allocated bytes: [%s]",
+                report.get(KEY_WINDOW), report.get(KEY_NB_THREADS),
+                formatThreads(report.get(KEY_ALLOCATION), KEY_ALLOCATED_BYTES));
+        pLogger.logInfo(this, "logReport",
+                "Blocked time (ms): [%s] - Waited time (ms): [%s]",
+                formatThreads(report.get(KEY_BLOCKED_TOP), KEY_BLOCKED_TIME),
+                formatThreads(report.get(KEY_WAITED_TOP), KEY_WAITED_TIME));
+
+        for (final Object chain : (List<?>) report.get(KEY_LOCK_CHAINS)) {
+            final Map<?, ?> chainMap = (Map<?, ?>) chain;
+            pLogger.logWarn(this, "logReport",
+                    "%s on %s : %s",
+                    Boolean.TRUE.equals(chainMap.get(KEY_DEADLOCK)) ? "DEADLOCK"
+                            : "Lock chain", chainMap.get(KEY_LOCK),
+                    chainMap.get(KEY_THREADS));
+        }
+    }
+
     /**
      * Update the monitor values
+     *
+     * @return The time to wait before the next update, in milliseconds
      */
-    protected void updateMonitor() {
+    protected long updateMonitor() {
 
-        // pLogger.logInfo(this, "updateMonitor", "Update Monitor...");
+        final double averageUsage;
+        double maxThreadUsage = 0;
 
         synchronized (pMonitor) {
 
             // Update the monitor
             pMonitor.update();
+            averageUsage = pMonitor.getAverageCpuUsage();
 
-            // Get the list of active threads
-            final Map<Long, Thread> allThreads = getAllThreads();
-
-            pLogger.logInfo(this, "updateMonitor",
-                    "Average CPU Usage : %3.2f for %d threads",
-                    pMonitor.getAverageCpuUsage(), allThreads.size());
-
-            for (final long id : pMonitor.getKnownThreadsIds()) {
+            if (pLogger.isLogDebugOn()) {
+                pLogger.logDebug(this, "updateMonitor",
+                        "Average CPU Usage : %3.2f for %d threads",
+                        averageUsage, pThreadMXBean.getThreadCount());
+            }
 
-                // Find the correspond JVM thread
-                final Thread thread = allThreads.get(id);
+            // Copy the IDs in the reused array, grown if needed
+            int nbThreads = pMonitor.getKnownThreadsIds(pThreadsIds);
+            if (nbThreads > pThreadsIds.length) {
+                pThreadsIds = new long[nbThreads * 3 / 2];
+                nbThreads = Math.min(pThreadsIds.length,
+                        pMonitor.getKnownThreadsIds(pThreadsIds));
+            }
 
-                // Compute the thread name
-                final String threadName;
-                if (thread == null) {
-                    threadName = "<null>";
-                } else {
-                    threadName = thread.getName();
-                }
+            for (int i = 0; i < nbThreads; i++) {
 
                 // Get thread CPU usage information
+                final long id = pThreadsIds[i];
                 final double threadCpuUsage = pMonitor.getThreadCpuUsage(id);
+                maxThreadUsage = Math.max(maxThreadUsage, threadCpuUsage);
+                if (threadCpuUsage <= HIGH_USAGE) {
+                    continue;
+                }
 
                 final double threadAverageCpuUsage = pMonitor
                         .getThreadAverageCpuUsage(id);
 
-                if (threadCpuUsage > 80) {
+                if (threadCpuUsage > HEAVY_USAGE) {
                     // > 80% CPU usage
-                    pLogger.logWarn(
-                            this,
-                            "updateMonitor",
-                            "HEAVY  ACTIVITY FOR %3d (%15.15s) - %5.2f / %5.2f - %s",
-                            id, threadName, threadCpuUsage,
-                            threadAverageCpuUsage, findThreadStarter(thread));
-
-                } else if (threadCpuUsage > 50) {
+                    pLogger.logWarn(this, "updateMonitor",
+                            "HEAVY  ACTIVITY FOR %3d (%15.15s) - %5.2f / %5.2f",
+                            id, pNamesCache.getName(id), threadCpuUsage,
+                            threadAverageCpuUsage);
+
+                } else {
                     // > 50% CPU usage
-                    pLogger.logWarn(
-                            this,
-                            "updateMonitor",
-                            "HIGH   activity for %3d (%15.15s) - %5.2f / %5.2f - %s",
-                            id, threadName, threadCpuUsage,
-                            threadAverageCpuUsage, findThreadStarter(thread));
+                    pLogger.logWarn(this, "updateMonitor",
+                            "HIGH   activity for %3d (%15.15s) - %5.2f / %5.2f",
+                            id, pNamesCache.getName(id), threadCpuUsage,
+                            threadAverageCpuUsage);
+                }
+            }
+        }
+
+        // Sample the activity while in use, and report it once per window
+        if (isActivityActive()) {
+            final long now = System.currentTimeMillis();
+            if (!pActivityEnabled && now - pLastQueryTime >= ACTIVITY_IDLE) {
+                deactivateIfIdle();
+
+            } else if (now - pLastSampleTime >= ACTIVITY_PERIOD) {
+                pLastSampleTime = now;
+                pWindow.sample();
+                if (now - pLastReportTime >= WINDOW) {
+                    pLastReportTime = now;
+                    logReport();
                 }
             }
         }
 
-        // pLogger.logInfo(this, "updateMonitor", "Update Monitor DONE");
+        pPeriod = nextPeriod(averageUsage, maxThreadUsage);
+        return pPeriod;
     }
 
     /*
@@ -224,16 +392,29 @@ public class ThreadsMonitor {
     @Validate
     public void validatePojo() {
 
-        // Prepare the scheduled update
-        pScheduledExecutor = Executors.newScheduledThreadPool(1);
-        pScheduledExecutor.scheduleAtFixedRate(new Runnable() {
+        pThreadMXBean = ManagementFactory.getThreadMXBean();
+        pNamesCache = new ThreadNamesCache(pThreadMXBean);
+        pPeriod = MIN_PERIOD;
+        pLastReportTime = System.currentTimeMillis();
+        pLastSampleTime = pLastReportTime;
 
-            @Override
-            public void run() {
+        boolean allocationSupported;
+        try {
+            allocationSupported = HotSpotThreads.isSupported(pThreadMXBean);
 
-                updateMonitor();
-            }
-        }, 0, 500, TimeUnit.MILLISECONDS);
+        } catch (final LinkageError ex) {
+            // com.sun.management not visible
+            allocationSupported = false;
+        }
+        pWindow = new ThreadActivityWindow(pThreadMXBean,
+                allocationSupported, WINDOW, ACTIVITY_PERIOD);
+        if (pActivityEnabled) {
+            activate();
+        }
+
+        // Start the adaptive updates
+        pPoller = new MonitorPollerThread(this, MIN_PERIOD);
+        pPoller.start();
 
         pLogger.logInfo(this, "validatePojo", "Threads Monitor Ready");
     }
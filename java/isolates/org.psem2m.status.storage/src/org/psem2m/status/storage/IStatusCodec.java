@@ -0,0 +1,67 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.status.storage;
+
+/**
+ * Converts the states and the values of a persistent status storage to and
+ * from strings
+ *
+ * @author ogattaz
+ *
+ * @param <S>
+ *            Enumeration defining states
+ * @param <T>
+ *            Type of the values associated to each entry
+ */
+public interface IStatusCodec<S extends State, T> {
+
+    /**
+     * Parses a state
+     *
+     * @param aState
+     *            A string returned by {@link #stateToString(State)}
+     * @return The state
+     */
+    S stateFromString(String aState);
+
+    /**
+     * Converts a state to a string
+     *
+     * @param aState
+     *            A state (never null)
+     * @return The string representing the state
+     */
+    String stateToString(S aState);
+
+    /**
+     * Parses a value
+     *
+     * @param aValue
+     *            A string returned by {@link #valueToString(Object)}
+     * @return The value
+     */
+    T valueFromString(String aValue);
+
+    /**
+     * Converts a value to a string
+     *
+     * @param aValue
+     *            A value (never null)
+     * @return The string representing the value
+     */
+    String valueToString(T aValue);
+}
@@ -17,6 +17,7 @@
 package org.psem2m.status.storage;
 
 import java.util.Collection;
+import java.util.List;
 
 /**
  * Defines a status storage service.
@@ -101,6 +102,41 @@ public interface IStatusStorage<S extends State, T> {
      */
     S getState(final String aId) throws InvalidIdException;
 
+    /**
+     * Retrieves the transitions logged after the given sequence number, in
+     * their order: storage (without previous state), state changes and removal
+     * (without new state) of IDs.
+     *
+     * The storage keeps a bounded number of transitions: the first returned
+     * sequence number is greater than aAfter + 1 if the following ones have
+     * been dropped.
+     *
+     * @param aAfter
+     *            The sequence number of the last transition known by the
+     *            caller (0 to start from the oldest one)
+     * @param aMax
+     *            The max number of transitions to return
+     * @return The transitions, possibly empty
+     */
+    List<StateTransition<S>> getTransitions(long aAfter, int aMax);
+
+    /**
+     * Retrieves the sequence number of the last logged transition
+     *
+     * @return The sequence number of the last transition, 0 if none
+     */
+    long getTransitionSequence();
+
+    /**
+     * Retrieves the sequence number of the oldest transition still kept. A
+     * consumer that knows the transitions up to aAfter has missed some of them
+     * if it is greater than aAfter + 1.
+     *
+     * @return The sequence number of the oldest kept transition, the last one
+     *         + 1 if none
+     */
+    long getTransitionsStart();
+
     /**
      * Retrieves the stored values
      *
@@ -152,4 +188,24 @@ public interface IStatusStorage<S extends State, T> {
     boolean store(final String aId, final T aValue, final S aInitialState)
             throws InvalidIdException, InvalidStateException;
 
+    /**
+     * Retrieves the transitions logged after the given sequence number, waiting
+     * for the next one if there is none yet
+     *
+     * @param aAfter
+     *            The sequence number of the last transition known by the
+     *            caller
+     * @param aMax
+     *            The max number of transitions to return, nothing is returned
+     *            nor waited for if it is not positive
+     * @param aTimeout
+     *            The max time to wait, in milliseconds
+     * @return The transitions, empty if the timeout expired
+     * @throws InterruptedException
+     *             The waiting thread has been interrupted
+     * @see #getTransitions(long, int)
+     * @see #getTransitionsStart()
+     */
+    List<StateTransition<S>> waitTransitions(long aAfter, int aMax,
+            long aTimeout) throws InterruptedException;
 }
@@ -16,6 +16,8 @@
 
 package org.psem2m.status.storage;
 
+import java.io.IOException;
+
 /**
  * Defines a status storage creator service
  *
@@ -31,7 +33,35 @@ public interface IStatusStorageCreator {
     <S extends State, T> IStatusStorage<S, T> createStorage();
 
     /**
-     * Clears the given status storage
+     * Instantiates a new status storage for the states defined by the given
+     * enumeration, indexed by their ordinal
+     *
+     * @param aStateClass
+     *            The enumeration defining states
+     * @return A new status storage
+     */
+    <S extends Enum<S> & State, T> IStatusStorage<S, T> createStorage(
+            Class<S> aStateClass);
+
+    /**
+     * Opens a persistent status storage, kept in the storage directory of the
+     * isolate. Its content is recovered if it already exists.
+     *
+     * @param aName
+     *            The name of the storage, unique in the isolate (letters,
+     *            digits, '.', '_' and '-')
+     * @param aCodec
+     *            Converts the states and the values to strings
+     * @return The persistent status storage
+     * @throws IOException
+     *             Invalid or already opened name, or error reading or writing
+     *             the files of the storage
+     */
+    <S extends State, T> IStatusStorage<S, T> createStorage(String aName,
+            IStatusCodec<S, T> aCodec) throws IOException;
+
+    /**
+     * Clears the given status storage, and closes it if it is persistent
      *
      * @param aStorage
      *            A status storage
@@ -0,0 +1,122 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.status.storage;
+
+/**
+ * A state transition of an ID, as logged by a status storage.
+ *
+ * The storage of an ID is logged as a transition without previous state, its
+ * removal as a transition without new state.
+ *
+ * @author ogattaz
+ *
+ * @param <S>
+ *            Enumeration defining states
+ */
+public final class StateTransition<S extends State> {
+
+    /** The ID */
+    private final String pId;
+
+    /** The value of System.nanoTime() when the transition was logged */
+    private final long pNanoTime;
+
+    /** The new state, null if the ID has been removed */
+    private final S pNewState;
+
+    /** The previous state, null if the ID has been stored */
+    private final S pOldState;
+
+    /** The sequence number of the transition in its storage (from 1) */
+    private final long pSequence;
+
+    /**
+     * Sets up the transition
+     *
+     * @param aSequence
+     *            The sequence number of the transition
+     * @param aId
+     *            The ID
+     * @param aOldState
+     *            The previous state
+     * @param aNewState
+     *            The new state
+     * @param aNanoTime
+     *            The value of System.nanoTime()
+     */
+    public StateTransition(final long aSequence, final String aId,
+            final S aOldState, final S aNewState, final long aNanoTime) {
+
+        pSequence = aSequence;
+        pId = aId;
+        pOldState = aOldState;
+        pNewState = aNewState;
+        pNanoTime = aNanoTime;
+    }
+
+    /**
+     * @return the ID
+     */
+    public String getId() {
+
+        return pId;
+    }
+
+    /**
+     * @return the value of System.nanoTime() when the transition was logged
+     */
+    public long getNanoTime() {
+
+        return pNanoTime;
+    }
+
+    /**
+     * @return the new state, null if the ID has been removed
+     */
+    public S getNewState() {
+
+        return pNewState;
+    }
+
+    /**
+     * @return the previous state, null if the ID has been stored
+     */
+    public S getOldState() {
+
+        return pOldState;
+    }
+
+    /**
+     * @return the sequence number of the transition in its storage
+     */
+    public long getSequence() {
+
+        return pSequence;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+
+        return String.format("#%d %s: %s -> %s", pSequence, pId, pOldState,
+                pNewState);
+    }
+}
@@ -0,0 +1,513 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.status.storage.impl;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.psem2m.status.storage.IStatusStorage;
+import org.psem2m.status.storage.InvalidIdException;
+import org.psem2m.status.storage.InvalidStateException;
+import org.psem2m.status.storage.State;
+import org.psem2m.status.storage.StateTransition;
+
+/**
+ * Thread-safe status storage without global lock.
+ *
+ * Each ID is a record holding its value and its state: a state change only
+ * locks the record of the ID, to update the concurrent set of the IDs of each
+ * state in O(1) and to log the transition in the order of the changes of the
+ * ID. The reads never lock.
+ *
+ * {@link #getIdsInStates(State...)} and {@link #getValuesInStates(State...)}
+ * return snapshots of the sets of IDs, which may miss a concurrent change.
+ *
+ * @author ogattaz
+ *
+ * @param <S>
+ *            Enumeration defining states
+ * @param <T>
+ *            Type of the values associated to each entry
+ */
+public class ConcurrentStatusStorage<S extends State, T> implements
+        IStatusStorage<S, T> {
+
+    /**
+     * The value and the state of an ID
+     *
+     * @param <S>
+     *            Enumeration defining states
+     * @param <T>
+     *            Type of the value
+     */
+    private static final class Record<S extends State, T> {
+
+        /** True once the ID has been removed (guarded by the record) */
+        private boolean pRemoved;
+
+        /** The current state (written under the lock of the record) */
+        private volatile S pState;
+
+        /** The value */
+        private final T pValue;
+
+        /**
+         * Sets up the record
+         *
+         * @param aValue
+         *            The value
+         * @param aState
+         *            The initial state
+         */
+        Record(final T aValue, final S aState) {
+
+            pValue = aValue;
+            pState = aState;
+        }
+    }
+
+    /** The transitions log */
+    private final StatusHistory<S> pHistory;
+
+    /** IDs -> Record */
+    private final ConcurrentMap<String, Record<S, T>> pRecords = new ConcurrentHashMap<String, Record<S, T>>();
+
+    /** States -> IDs */
+    private final ConcurrentMap<S, Set<String>> pStates = new ConcurrentHashMap<S, Set<String>>();
+
+    /**
+     * Sets up a storage keeping the default number of transitions
+     */
+    public ConcurrentStatusStorage() {
+
+        this(StatusHistory.DEFAULT_SIZE);
+    }
+
+    /**
+     * Sets up the storage
+     *
+     * @param aHistorySize
+     *            The max number of transitions kept in the log
+     */
+    public ConcurrentStatusStorage(final int aHistorySize) {
+
+        pHistory = new StatusHistory<S>(aHistorySize);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.psem2m.status.storage.IStatusStorage#changeState(java.lang.String,
+     * org.psem2m.status.storage.State)
+     */
+    @Override
+    public void changeState(final String aId, final S aNewState)
+            throws InvalidStateException, InvalidIdException {
+
+        // Validate the new state
+        if (aNewState == null) {
+            throw new InvalidStateException("Null state given");
+        }
+
+        final Record<S, T> record = getRecord(aId);
+        synchronized (record) {
+            if (record.pRemoved) {
+                // Removed concurrently
+                throw new InvalidIdException(MessageFormat.format(
+                        "Unknown ID: ''{0}''", aId));
+            }
+
+            // Test if new state is allowed
+            final S oldState = record.pState;
+            if (!oldState.canChangeTo(aNewState)) {
+                // Invalid state change
+                throw new InvalidStateException(
+                        MessageFormat.format(
+                                "Can''t change state of ID ''{0}'' from ''{1}'' to ''{2}''",
+                                aId, oldState, aNewState), oldState,
+                        aNewState);
+            }
+
+            record.pState = aNewState;
+            getStateSet(oldState).remove(aId);
+            getStateSet(aNewState).add(aId);
+            pHistory.append(aId, oldState, aNewState);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#clear()
+     */
+    @Override
+    public void clear() {
+
+        for (final Map.Entry<String, Record<S, T>> entry : pRecords.entrySet()) {
+            removeRecord(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#contains(java.lang.String)
+     */
+    @Override
+    public boolean contains(final String aId) {
+
+        return aId != null && pRecords.containsKey(aId);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#get(java.lang.String)
+     */
+    @Override
+    public T get(final String aId) throws InvalidIdException {
+
+        return getRecord(aId).pValue;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.psem2m.status.storage.IStatusStorage#getdefault(java.lang.String,
+     * java.lang.Object)
+     */
+    @Override
+    public T getdefault(final String aId, final T aDefault) {
+
+        final Record<S, T> record = (aId != null) ? pRecords.get(aId) : null;
+        return (record != null) ? record.pValue : aDefault;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.psem2m.status.storage.IStatusStorage#getIdsInStates(org.psem2m.status
+     * .storage.State[])
+     */
+    @Override
+    public String[] getIdsInStates(final State... aStates) {
+
+        // Do nothing if the aStates is null
+        if (aStates == null) {
+            return null;
+        }
+
+        final Set<String> keys = snapshotIds(aStates);
+        return keys.toArray(new String[keys.size()]);
+    }
+
+    /**
+     * Retrieves the record of the given ID
+     *
+     * @param aId
+     *            An ID
+     * @return The record of the ID
+     * @throws InvalidIdException
+     *             The given ID wasn't found
+     */
+    private Record<S, T> getRecord(final String aId) throws InvalidIdException {
+
+        final Record<S, T> record = (aId != null) ? pRecords.get(aId) : null;
+        if (record == null) {
+            throw new InvalidIdException(MessageFormat.format(
+                    "Unknown ID: ''{0}''", aId));
+        }
+        return record;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#getState(java.lang.String)
+     */
+    @Override
+    public S getState(final String aId) throws InvalidIdException {
+
+        return getRecord(aId).pState;
+    }
+
+    /**
+     * Retrieves the set of the IDs in the given state, creates it if needed
+     *
+     * @param aState
+     *            A state
+     * @return The concurrent set of the IDs in the state
+     */
+    private Set<String> getStateSet(final S aState) {
+
+        final Set<String> stateSet = pStates.get(aState);
+        if (stateSet != null) {
+            return stateSet;
+        }
+
+        final Set<String> newSet = Collections
+                .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final Set<String> previousSet = pStates.putIfAbsent(aState, newSet);
+        return (previousSet != null) ? previousSet : newSet;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#getTransitions(long, int)
+     */
+    @Override
+    public List<StateTransition<S>> getTransitions(final long aAfter,
+            final int aMax) {
+
+        return pHistory.getTransitions(aAfter, aMax);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#getTransitionSequence()
+     */
+    @Override
+    public long getTransitionSequence() {
+
+        return pHistory.getLastSequence();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#getTransitionsStart()
+     */
+    @Override
+    public long getTransitionsStart() {
+
+        return pHistory.getFirstSequence();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#getValues()
+     */
+    @Override
+    public Collection<T> getValues() {
+
+        final Collection<T> values = new ArrayList<T>(pRecords.size());
+        for (final Record<S, T> record : pRecords.values()) {
+            values.add(record.pValue);
+        }
+        return values;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.psem2m.status.storage.IStatusStorage#getValuesInStates(org.psem2m
+     * .status.storage.State[])
+     */
+    @Override
+    public Collection<T> getValuesInStates(final State... aStates) {
+
+        // Do nothing if the aStates is null
+        if (aStates == null) {
+            return null;
+        }
+
+        final Set<T> values = new HashSet<T>();
+        for (final String key : snapshotIds(aStates)) {
+
+            final Record<S, T> record = pRecords.get(key);
+            if (record != null && record.pValue != null) {
+                // Be sure to have valid values...
+                values.add(record.pValue);
+            }
+        }
+        return values;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#remove(java.lang.String)
+     */
+    @Override
+    public void remove(final String aId) throws InvalidIdException {
+
+        if (!removeRecord(aId, getRecord(aId))) {
+            // Removed concurrently
+            throw new InvalidIdException(MessageFormat.format(
+                    "Unknown ID: ''{0}''", aId));
+        }
+    }
+
+    /**
+     * Removes the record of an ID from the set of its state, logs the removal
+     * then removes it from the records map.
+     *
+     * The map is updated last, under the lock of the record: a concurrent
+     * {@link #store(String, Object, State)} of the same ID can't succeed
+     * before the ID left the set of its state, so its membership is kept.
+     *
+     * @param aId
+     *            The ID to remove
+     * @param aRecord
+     *            Its record
+     * @return False if the record had already been removed
+     */
+    private boolean removeRecord(final String aId, final Record<S, T> aRecord) {
+
+        synchronized (aRecord) {
+            if (aRecord.pRemoved) {
+                return false;
+            }
+
+            aRecord.pRemoved = true;
+            getStateSet(aRecord.pState).remove(aId);
+            pHistory.append(aId, aRecord.pState, null);
+            pRecords.remove(aId, aRecord);
+        }
+        return true;
+    }
+
+    /**
+     * Stores the given IDs without logging their transitions: the content of
+     * a recovered storage is its initial state. Must be called before the
+     * storage is shared.
+     *
+     * @param aStates
+     *            IDs -> State
+     * @param aValues
+     *            IDs -> Value
+     */
+    void restore(final Map<String, S> aStates, final Map<String, T> aValues) {
+
+        for (final Map.Entry<String, S> entry : aStates.entrySet()) {
+            pRecords.put(entry.getKey(), new Record<S, T>(aValues.get(entry
+                    .getKey()), entry.getValue()));
+            getStateSet(entry.getValue()).add(entry.getKey());
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#size()
+     */
+    @Override
+    public int size() {
+
+        return pRecords.size();
+    }
+
+    /**
+     * Copies the states and the values of the stored IDs
+     *
+     * @param aStates
+     *            Receives IDs -> State
+     * @param aValues
+     *            Receives IDs -> Value
+     */
+    void snapshot(final Map<String, S> aStates, final Map<String, T> aValues) {
+
+        for (final Map.Entry<String, Record<S, T>> entry : pRecords.entrySet()) {
+            final Record<S, T> record = entry.getValue();
+            aStates.put(entry.getKey(), record.pState);
+            aValues.put(entry.getKey(), record.pValue);
+        }
+    }
+
+    /**
+     * Copies the IDs of the sets of the given states
+     *
+     * @param aStates
+     *            An array of states
+     * @return The IDs in the given states
+     */
+    private Set<String> snapshotIds(final State... aStates) {
+
+        final Set<String> keys = new HashSet<String>();
+        for (final State state : aStates) {
+
+            final Set<String> stateIds = pStates.get(state);
+            if (stateIds != null) {
+                keys.addAll(stateIds);
+            }
+        }
+        return keys;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#store(java.lang.String,
+     * java.lang.Object, org.psem2m.status.storage.State)
+     */
+    @Override
+    public boolean store(final String aId, final T aValue,
+            final S aInitialState) throws InvalidIdException,
+            InvalidStateException {
+
+        // Check parameters
+        if (aId == null || aId.isEmpty()) {
+            throw new InvalidIdException("Null or empty IDs are forbidden.");
+        }
+
+        if (aInitialState == null) {
+            throw new InvalidStateException("Null initial state is forbidden");
+        }
+
+        final Record<S, T> record = new Record<S, T>(aValue, aInitialState);
+        synchronized (record) {
+            // Published under its lock: the storage is logged before any
+            // change of the ID
+            if (pRecords.putIfAbsent(aId, record) != null) {
+                throw new InvalidIdException(MessageFormat.format(
+                        "ID ''{0}'' is already in use.", aId));
+            }
+
+            getStateSet(aInitialState).add(aId);
+            pHistory.append(aId, null, aInitialState);
+        }
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#waitTransitions(long, int,
+     * long)
+     */
+    @Override
+    public List<StateTransition<S>> waitTransitions(final long aAfter,
+            final int aMax, final long aTimeout) throws InterruptedException {
+
+        return pHistory.waitTransitions(aAfter, aMax, aTimeout);
+    }
+}
@@ -0,0 +1,519 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.status.storage.impl;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.psem2m.status.storage.IStatusStorage;
+import org.psem2m.status.storage.InvalidIdException;
+import org.psem2m.status.storage.InvalidStateException;
+import org.psem2m.status.storage.State;
+import org.psem2m.status.storage.StateTransition;
+
+/**
+ * Status storage specialized for the states defined by an enumeration.
+ *
+ * Each ID has an int slot, its value and the ordinal of its state are stored
+ * in arrays indexed by slot. The IDs in a state are a {@link BitSet} of
+ * slots, indexed by the ordinal of the state: an ID being in one state only,
+ * these sets are disjoint and the IDs in several states are read by iterating
+ * over their bits, without intermediate collection.
+ *
+ * The slots of the removed IDs are reused.
+ *
+ * @author ogattaz
+ *
+ * @param <S>
+ *            Enumeration defining states
+ * @param <T>
+ *            Type of the values associated to each entry
+ */
+public class EnumStatusStorage<S extends Enum<S> & State, T> implements
+        IStatusStorage<S, T> {
+
+    /** The initial number of slots */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Stack of the free slots below pNbSlots */
+    private int[] pFreeSlots = new int[INITIAL_CAPACITY];
+
+    /** The transitions log */
+    private final StatusHistory<S> pHistory;
+
+    /** Slot -> ID */
+    private String[] pIds = new String[INITIAL_CAPACITY];
+
+    /** Number of free slots in the stack */
+    private int pNbFreeSlots;
+
+    /** Number of slots used at least once */
+    private int pNbSlots;
+
+    /** IDs -> Slot */
+    private final Map<String, Integer> pSlots = new HashMap<String, Integer>();
+
+    /** The enumeration defining states */
+    private final Class<S> pStateClass;
+
+    /** Slot -> state ordinal (-1 for a free slot) */
+    private int[] pStateOrdinals = new int[INITIAL_CAPACITY];
+
+    /** State ordinal -> slots of the IDs */
+    private final BitSet[] pStateSets;
+
+    /** State ordinal -> state */
+    private final S[] pStates;
+
+    /** Slot -> Value */
+    private Object[] pValues = new Object[INITIAL_CAPACITY];
+
+    /**
+     * Sets up a storage keeping the default number of transitions
+     *
+     * @param aStateClass
+     *            The enumeration defining states
+     */
+    public EnumStatusStorage(final Class<S> aStateClass) {
+
+        this(aStateClass, StatusHistory.DEFAULT_SIZE);
+    }
+
+    /**
+     * Sets up the storage
+     *
+     * @param aStateClass
+     *            The enumeration defining states
+     * @param aHistorySize
+     *            The max number of transitions kept in the log
+     */
+    public EnumStatusStorage(final Class<S> aStateClass, final int aHistorySize) {
+
+        pStateClass = aStateClass;
+        pStates = aStateClass.getEnumConstants();
+        pStateSets = new BitSet[pStates.length];
+        for (int i = 0; i < pStateSets.length; i++) {
+            pStateSets[i] = new BitSet();
+        }
+        pHistory = new StatusHistory<S>(aHistorySize);
+    }
+
+    /**
+     * Allocates a slot, reusing the one of a removed ID if possible
+     *
+     * @return A free slot
+     */
+    private int allocateSlot() {
+
+        if (pNbFreeSlots > 0) {
+            return pFreeSlots[--pNbFreeSlots];
+        }
+
+        if (pNbSlots == pIds.length) {
+            final int capacity = pIds.length * 2;
+            pIds = Arrays.copyOf(pIds, capacity);
+            pValues = Arrays.copyOf(pValues, capacity);
+            pStateOrdinals = Arrays.copyOf(pStateOrdinals, capacity);
+        }
+        return pNbSlots++;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.psem2m.status.storage.IStatusStorage#changeState(java.lang.String,
+     * org.psem2m.status.storage.State)
+     */
+    @Override
+    public synchronized void changeState(final String aId, final S aNewState)
+            throws InvalidStateException, InvalidIdException {
+
+        // Validate the new state
+        if (aNewState == null) {
+            throw new InvalidStateException("Null state given");
+        }
+
+        final int slot = getSlot(aId);
+        final S oldState = pStates[pStateOrdinals[slot]];
+
+        // Test if new state is allowed
+        if (!oldState.canChangeTo(aNewState)) {
+            // Invalid state change
+            throw new InvalidStateException(
+                    MessageFormat.format(
+                            "Can''t change state of ID ''{0}'' from ''{1}'' to ''{2}''",
+                            aId, oldState, aNewState), oldState, aNewState);
+        }
+
+        pStateSets[oldState.ordinal()].clear(slot);
+        pStateSets[aNewState.ordinal()].set(slot);
+        pStateOrdinals[slot] = aNewState.ordinal();
+
+        pHistory.append(aId, oldState, aNewState);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#clear()
+     */
+    @Override
+    public synchronized void clear() {
+
+        for (int slot = 0; slot < pNbSlots; slot++) {
+            if (pStateOrdinals[slot] >= 0) {
+                pHistory.append(pIds[slot], pStates[pStateOrdinals[slot]],
+                        null);
+            }
+        }
+
+        pSlots.clear();
+        for (final BitSet stateSet : pStateSets) {
+            stateSet.clear();
+        }
+        Arrays.fill(pIds, 0, pNbSlots, null);
+        Arrays.fill(pValues, 0, pNbSlots, null);
+        pNbSlots = 0;
+        pNbFreeSlots = 0;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#contains(java.lang.String)
+     */
+    @Override
+    public synchronized boolean contains(final String aId) {
+
+        return pSlots.containsKey(aId);
+    }
+
+    /**
+     * Counts the IDs in the selected states
+     *
+     * @param aSelected
+     *            State ordinal -> selected
+     * @return The number of IDs in the selected states
+     */
+    private int countInStates(final boolean[] aSelected) {
+
+        int count = 0;
+        for (int ordinal = 0; ordinal < aSelected.length; ordinal++) {
+            if (aSelected[ordinal]) {
+                count += pStateSets[ordinal].cardinality();
+            }
+        }
+        return count;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#get(java.lang.String)
+     */
+    @Override
+    public synchronized T get(final String aId) throws InvalidIdException {
+
+        return getValue(getSlot(aId));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.psem2m.status.storage.IStatusStorage#getdefault(java.lang.String,
+     * java.lang.Object)
+     */
+    @Override
+    public synchronized T getdefault(final String aId, final T aDefault) {
+
+        final Integer slot = pSlots.get(aId);
+        return (slot != null) ? getValue(slot) : aDefault;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.psem2m.status.storage.IStatusStorage#getIdsInStates(org.psem2m.status
+     * .storage.State[])
+     */
+    @Override
+    public synchronized String[] getIdsInStates(final State... aStates) {
+
+        // Do nothing if the aStates is null
+        if (aStates == null) {
+            return null;
+        }
+
+        final boolean[] selected = selectStates(aStates);
+        final String[] ids = new String[countInStates(selected)];
+        int idx = 0;
+        for (int ordinal = 0; ordinal < selected.length; ordinal++) {
+            if (selected[ordinal]) {
+                final BitSet stateSet = pStateSets[ordinal];
+                for (int slot = stateSet.nextSetBit(0); slot >= 0; slot = stateSet
+                        .nextSetBit(slot + 1)) {
+                    ids[idx++] = pIds[slot];
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Retrieves the slot of the given ID
+     *
+     * @param aId
+     *            An ID
+     * @return The slot of the ID
+     * @throws InvalidIdException
+     *             The given ID wasn't found
+     */
+    private int getSlot(final String aId) throws InvalidIdException {
+
+        final Integer slot = pSlots.get(aId);
+        if (slot == null) {
+            throw new InvalidIdException(MessageFormat.format(
+                    "Unknown ID: ''{0}''", aId));
+        }
+        return slot;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#getState(java.lang.String)
+     */
+    @Override
+    public synchronized S getState(final String aId) throws InvalidIdException {
+
+        return pStates[pStateOrdinals[getSlot(aId)]];
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#getTransitions(long, int)
+     */
+    @Override
+    public List<StateTransition<S>> getTransitions(final long aAfter,
+            final int aMax) {
+
+        return pHistory.getTransitions(aAfter, aMax);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#getTransitionSequence()
+     */
+    @Override
+    public long getTransitionSequence() {
+
+        return pHistory.getLastSequence();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#getTransitionsStart()
+     */
+    @Override
+    public long getTransitionsStart() {
+
+        return pHistory.getFirstSequence();
+    }
+
+    /**
+     * @param aSlot
+     *            A slot
+     * @return The value stored in the slot
+     */
+    @SuppressWarnings("unchecked")
+    private T getValue(final int aSlot) {
+
+        return (T) pValues[aSlot];
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#getValues()
+     */
+    @Override
+    public synchronized Collection<T> getValues() {
+
+        final Collection<T> values = new ArrayList<T>(pSlots.size());
+        for (int slot = 0; slot < pNbSlots; slot++) {
+            if (pStateOrdinals[slot] >= 0) {
+                values.add(getValue(slot));
+            }
+        }
+        return values;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.psem2m.status.storage.IStatusStorage#getValuesInStates(org.psem2m
+     * .status.storage.State[])
+     */
+    @Override
+    public synchronized Collection<T> getValuesInStates(final State... aStates) {
+
+        // Do nothing if the aStates is null
+        if (aStates == null) {
+            return null;
+        }
+
+        final boolean[] selected = selectStates(aStates);
+        final Set<T> values = new HashSet<T>(
+                Math.max(16, countInStates(selected) * 4 / 3 + 1));
+        for (int ordinal = 0; ordinal < selected.length; ordinal++) {
+            if (selected[ordinal]) {
+                final BitSet stateSet = pStateSets[ordinal];
+                for (int slot = stateSet.nextSetBit(0); slot >= 0; slot = stateSet
+                        .nextSetBit(slot + 1)) {
+
+                    final T value = getValue(slot);
+                    if (value != null) {
+                        // Be sure to have valid values...
+                        values.add(value);
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#remove(java.lang.String)
+     */
+    @Override
+    public synchronized void remove(final String aId) throws InvalidIdException {
+
+        final int slot = getSlot(aId);
+        final S oldState = pStates[pStateOrdinals[slot]];
+
+        pSlots.remove(aId);
+        pStateSets[oldState.ordinal()].clear(slot);
+        pStateOrdinals[slot] = -1;
+        pIds[slot] = null;
+        pValues[slot] = null;
+
+        // Free the slot
+        if (pNbFreeSlots == pFreeSlots.length) {
+            pFreeSlots = Arrays.copyOf(pFreeSlots, pFreeSlots.length * 2);
+        }
+        pFreeSlots[pNbFreeSlots++] = slot;
+
+        pHistory.append(aId, oldState, null);
+    }
+
+    /**
+     * Computes the ordinals of the given states, ignoring those which are not
+     * constants of the enumeration
+     *
+     * @param aStates
+     *            An array of states
+     * @return State ordinal -> selected
+     */
+    private boolean[] selectStates(final State... aStates) {
+
+        final boolean[] selected = new boolean[pStates.length];
+        for (final State state : aStates) {
+            if (pStateClass.isInstance(state)) {
+                selected[pStateClass.cast(state).ordinal()] = true;
+            }
+        }
+        return selected;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#size()
+     */
+    @Override
+    public synchronized int size() {
+
+        return pSlots.size();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#store(java.lang.String,
+     * java.lang.Object, org.psem2m.status.storage.State)
+     */
+    @Override
+    public synchronized boolean store(final String aId, final T aValue,
+            final S aInitialState) throws InvalidIdException,
+            InvalidStateException {
+
+        // Check parameters
+        if (aId == null || aId.isEmpty()) {
+            throw new InvalidIdException("Null or empty IDs are forbidden.");
+        }
+
+        if (pSlots.containsKey(aId)) {
+            throw new InvalidIdException(MessageFormat.format(
+                    "ID ''{0}'' is already in use.", aId));
+        }
+
+        if (aInitialState == null) {
+            throw new InvalidStateException("Null initial state is forbidden");
+        }
+
+        final int slot = allocateSlot();
+        pSlots.put(aId, slot);
+        pIds[slot] = aId;
+        pValues[slot] = aValue;
+        pStateOrdinals[slot] = aInitialState.ordinal();
+        pStateSets[aInitialState.ordinal()].set(slot);
+
+        pHistory.append(aId, null, aInitialState);
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#waitTransitions(long, int,
+     * long)
+     */
+    @Override
+    public List<StateTransition<S>> waitTransitions(final long aAfter,
+            final int aMax, final long aTimeout) throws InterruptedException {
+
+        // Not synchronized: the storage stays usable while waiting
+        return pHistory.waitTransitions(aAfter, aMax, aTimeout);
+    }
+}
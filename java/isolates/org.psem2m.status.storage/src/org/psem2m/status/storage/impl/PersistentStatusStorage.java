@@ -0,0 +1,757 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.status.storage.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.psem2m.isolates.base.IIsolateLoggerSvc;
+import org.psem2m.status.storage.IStatusCodec;
+import org.psem2m.status.storage.IStatusStorage;
+import org.psem2m.status.storage.InvalidIdException;
+import org.psem2m.status.storage.InvalidStateException;
+import org.psem2m.status.storage.State;
+import org.psem2m.status.storage.StateTransition;
+
+/**
+ * Status storage surviving the restart of its isolate.
+ *
+ * The storage is kept in memory by a {@link ConcurrentStatusStorage}. Each
+ * change is appended to a write-ahead log, one record per change, once it has
+ * been applied. When the log is larger than twice the storage, a new log
+ * generation is started and the content of the storage is written in a
+ * snapshot of this generation, out of the lock of the writers. The files of
+ * the previous generations are deleted once the snapshot has been read back.
+ *
+ * On startup, the last complete snapshot is loaded and only the logs of its
+ * generation and the following ones are replayed. The recovered content is the
+ * initial state of the storage: the replayed records are not transitions.
+ *
+ * A record is in the OS buffers once the change method returns: the storage
+ * survives a crash of the isolate. Only the snapshots are forced to the disk.
+ *
+ * @author ogattaz
+ *
+ * @param <S>
+ *            Enumeration defining states
+ * @param <T>
+ *            Type of the values associated to each entry
+ */
+public class PersistentStatusStorage<S extends State, T> implements
+        IStatusStorage<S, T> {
+
+    /** The min number of log records triggering a compaction */
+    static final int MIN_COMPACTION_RECORDS = 1024;
+
+    /** Extension of the snapshot files */
+    private static final String SNAPSHOT_EXT = ".snapshot";
+
+    /** Extension of the snapshot files being written */
+    private static final String TMP_EXT = ".tmp";
+
+    /** Extension of the log files */
+    private static final String WAL_EXT = ".wal";
+
+    /** Converts states and values to strings */
+    private final IStatusCodec<S, T> pCodec;
+
+    /** True while a compaction is running */
+    private final AtomicBoolean pCompacting = new AtomicBoolean();
+
+    /** The in-memory storage */
+    private final ConcurrentStatusStorage<S, T> pDelegate;
+
+    /** The directory of the files of the storage */
+    private final File pDirectory;
+
+    /** Name -> Generation, extension, temporary extension */
+    private final Pattern pFilePattern;
+
+    /** The current log, null once closed (guarded by this) */
+    private StatusJournal pJournal;
+
+    /** True if the current log misses a change (guarded by this) */
+    private boolean pJournalBroken;
+
+    /** The logger */
+    private final IIsolateLoggerSvc pLogger;
+
+    /** The name of the storage, prefix of its files */
+    private final String pName;
+
+    /**
+     * Sets up the storage, recovering the content stored in the given
+     * directory
+     *
+     * @param aDirectory
+     *            The directory of the files of the storage
+     * @param aName
+     *            The name of the storage, prefix of its files
+     * @param aCodec
+     *            Converts states and values to strings
+     * @param aLogger
+     *            The logger
+     * @throws IOException
+     *             Error reading the files of the storage or writing its new
+     *             snapshot
+     */
+    public PersistentStatusStorage(final File aDirectory, final String aName,
+            final IStatusCodec<S, T> aCodec, final IIsolateLoggerSvc aLogger)
+            throws IOException {
+
+        pDirectory = aDirectory;
+        pName = aName;
+        pCodec = aCodec;
+        pLogger = aLogger;
+        pFilePattern = Pattern.compile(Pattern.quote(aName)
+                + "-(\\d+)(\\Q" + WAL_EXT + "\\E|\\Q" + SNAPSHOT_EXT
+                + "\\E)(\\Q" + TMP_EXT + "\\E)?");
+
+        if (!aDirectory.isDirectory() && !aDirectory.mkdirs()) {
+            throw new IOException("Can't create the status storage directory "
+                    + aDirectory);
+        }
+
+        final SortedMap<Long, File> snapshots = new TreeMap<Long, File>();
+        final SortedMap<Long, File> logs = new TreeMap<Long, File>();
+        final long lastGeneration = listFiles(snapshots, logs, Long.MAX_VALUE);
+
+        // Load the last complete snapshot
+        ConcurrentStatusStorage<S, T> storage = null;
+        long replayGeneration = 0;
+        final Long[] generations = snapshots.keySet().toArray(
+                new Long[snapshots.size()]);
+        for (int i = generations.length - 1; i >= 0 && storage == null; i--) {
+            storage = loadSnapshot(snapshots.get(generations[i]));
+            replayGeneration = generations[i];
+        }
+        if (storage == null) {
+            if (lastGeneration != 0 && !logs.containsKey(1L)) {
+                // Only the first generation starts from an empty storage
+                throw new IOException(
+                        "No complete snapshot of the status storage '" + aName
+                                + "' in " + aDirectory);
+            }
+            storage = new ConcurrentStatusStorage<S, T>();
+            replayGeneration = 0;
+        }
+
+        // Replay the following logs
+        int nbRecords = 0;
+        for (final File logFile : logs.tailMap(replayGeneration).values()) {
+            nbRecords += replay(storage, logFile);
+        }
+
+        // The history starts after the recovered content
+        final Map<String, S> states = new HashMap<String, S>();
+        final Map<String, T> values = new HashMap<String, T>();
+        storage.snapshot(states, values);
+        pDelegate = new ConcurrentStatusStorage<S, T>();
+        pDelegate.restore(states, values);
+
+        pLogger.logInfo(this, "<init>",
+                "Status storage '%s' recovered: %d IDs, %d log records replayed",
+                aName, states.size(), nbRecords);
+
+        // Start a new generation from the recovered content
+        synchronized (this) {
+            pJournal = new StatusJournal(logFile(lastGeneration + 1),
+                    lastGeneration + 1);
+        }
+        writeSnapshot(lastGeneration + 1, states, values);
+    }
+
+    /**
+     * Applies a record to a storage being recovered
+     *
+     * @param aStorage
+     *            The storage being recovered
+     * @param aOperation
+     *            The operation code
+     * @param aFields
+     *            The fields of the record
+     * @return True if the record has been applied
+     */
+    private boolean apply(final ConcurrentStatusStorage<S, T> aStorage,
+            final byte aOperation, final String[] aFields) {
+
+        try {
+            switch (aOperation) {
+            case StatusJournal.OP_STORE:
+                aStorage.store(aFields[0],
+                        (aFields[2] != null) ? pCodec
+                                .valueFromString(aFields[2]) : null, pCodec
+                                .stateFromString(aFields[1]));
+                return true;
+
+            case StatusJournal.OP_STATE:
+                aStorage.changeState(aFields[0],
+                        pCodec.stateFromString(aFields[1]));
+                return true;
+
+            case StatusJournal.OP_REMOVE:
+                aStorage.remove(aFields[0]);
+                return true;
+
+            case StatusJournal.OP_CLEAR:
+                aStorage.clear();
+                return true;
+
+            default:
+                pLogger.logWarn(this, "apply",
+                        "Unknown status record operation: %d", aOperation);
+                return false;
+            }
+
+        } catch (final Exception ex) {
+            // Invalid ID or state, or decoding error
+            pLogger.logWarn(this, "apply",
+                    "Can't apply the status record %d %s: %s", aOperation,
+                    Arrays.toString(aFields), ex);
+            return false;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.psem2m.status.storage.IStatusStorage#changeState(java.lang.String,
+     * org.psem2m.status.storage.State)
+     */
+    @Override
+    public void changeState(final String aId, final S aNewState)
+            throws InvalidStateException, InvalidIdException {
+
+        synchronized (this) {
+            pDelegate.changeState(aId, aNewState);
+            journal(StatusJournal.OP_STATE, aId,
+                    pCodec.stateToString(aNewState));
+        }
+        compactIfNeeded();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#clear()
+     */
+    @Override
+    public void clear() {
+
+        synchronized (this) {
+            pDelegate.clear();
+            journal(StatusJournal.OP_CLEAR);
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Closes the log of the storage: the following changes are kept in memory
+     * only
+     */
+    public synchronized void close() {
+
+        if (pJournal != null) {
+            try {
+                pJournal.close();
+
+            } catch (final IOException ex) {
+                pLogger.logWarn(this, "close",
+                        "Error closing the status log '%s': %s",
+                        pJournal.getFile(), ex);
+            }
+            pJournal = null;
+        }
+    }
+
+    /**
+     * Starts a new generation and writes its snapshot if the log is too large
+     * or misses a change. Only one compaction runs at a time.
+     */
+    private void compactIfNeeded() {
+
+        if (pCompacting.get() || !pCompacting.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            final long generation;
+            final Map<String, S> states = new HashMap<String, S>();
+            final Map<String, T> values = new HashMap<String, T>();
+            synchronized (this) {
+                if (pJournal == null
+                        || (!pJournalBroken && pJournal.getNbRecords() <= Math
+                                .max(MIN_COMPACTION_RECORDS,
+                                        2L * pDelegate.size()))) {
+                    return;
+                }
+
+                // Switch to the new generation
+                generation = pJournal.getGeneration() + 1;
+                final StatusJournal journal = new StatusJournal(
+                        logFile(generation), generation);
+                try {
+                    pJournal.close();
+                } catch (final IOException ex) {
+                    pLogger.logWarn(this, "compactIfNeeded",
+                            "Error closing the status log '%s': %s",
+                            pJournal.getFile(), ex);
+                }
+                pJournal = journal;
+
+                // The following changes are logged in the new generation
+                pDelegate.snapshot(states, values);
+            }
+
+            try {
+                writeSnapshot(generation, states, values);
+                synchronized (this) {
+                    pJournalBroken = false;
+                }
+
+            } catch (final IOException ex) {
+                // The log of the new generation misses the previous changes
+                synchronized (this) {
+                    pJournalBroken = true;
+                }
+                throw ex;
+            }
+
+        } catch (final IOException ex) {
+            pLogger.logSevere(this, "compactIfNeeded",
+                    "Can't compact the status storage '%s': %s", pName, ex);
+
+        } finally {
+            pCompacting.set(false);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#contains(java.lang.String)
+     */
+    @Override
+    public boolean contains(final String aId) {
+
+        return pDelegate.contains(aId);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#get(java.lang.String)
+     */
+    @Override
+    public T get(final String aId) throws InvalidIdException {
+
+        return pDelegate.get(aId);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.psem2m.status.storage.IStatusStorage#getdefault(java.lang.String,
+     * java.lang.Object)
+     */
+    @Override
+    public T getdefault(final String aId, final T aDefault) {
+
+        return pDelegate.getdefault(aId, aDefault);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.psem2m.status.storage.IStatusStorage#getIdsInStates(org.psem2m.status
+     * .storage.State[])
+     */
+    @Override
+    public String[] getIdsInStates(final State... aStates) {
+
+        return pDelegate.getIdsInStates(aStates);
+    }
+
+    /**
+     * @return The name of the storage
+     */
+    public String getName() {
+
+        return pName;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#getState(java.lang.String)
+     */
+    @Override
+    public S getState(final String aId) throws InvalidIdException {
+
+        return pDelegate.getState(aId);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#getTransitions(long, int)
+     */
+    @Override
+    public List<StateTransition<S>> getTransitions(final long aAfter,
+            final int aMax) {
+
+        return pDelegate.getTransitions(aAfter, aMax);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#getTransitionSequence()
+     */
+    @Override
+    public long getTransitionSequence() {
+
+        return pDelegate.getTransitionSequence();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#getTransitionsStart()
+     */
+    @Override
+    public long getTransitionsStart() {
+
+        return pDelegate.getTransitionsStart();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#getValues()
+     */
+    @Override
+    public Collection<T> getValues() {
+
+        return pDelegate.getValues();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.psem2m.status.storage.IStatusStorage#getValuesInStates(org.psem2m
+     * .status.storage.State[])
+     */
+    @Override
+    public Collection<T> getValuesInStates(final State... aStates) {
+
+        return pDelegate.getValuesInStates(aStates);
+    }
+
+    /**
+     * Logs an applied change. On error, the log is marked as broken: the next
+     * compaction writes a complete snapshot.
+     *
+     * @param aOperation
+     *            The operation code
+     * @param aFields
+     *            The fields of the record
+     */
+    private void journal(final byte aOperation, final String... aFields) {
+
+        if (pJournal == null) {
+            // Closed
+            return;
+        }
+
+        try {
+            pJournal.append(aOperation, aFields);
+
+        } catch (final IOException ex) {
+            if (!pJournalBroken) {
+                pLogger.logSevere(this, "journal",
+                        "Can't write the status log '%s': %s",
+                        pJournal.getFile(), ex);
+            }
+            pJournalBroken = true;
+        }
+    }
+
+    /**
+     * Lists the files of the storage by generation, deleting the snapshots
+     * left unfinished by a previous compaction
+     *
+     * @param aSnapshots
+     *            Receives generation -> snapshot
+     * @param aLogs
+     *            Receives generation -> log
+     * @param aCurrentGeneration
+     *            The generation whose snapshot may be being written
+     * @return The last found generation, 0 if none
+     */
+    private long listFiles(final SortedMap<Long, File> aSnapshots,
+            final SortedMap<Long, File> aLogs, final long aCurrentGeneration) {
+
+        long lastGeneration = 0;
+        final File[] files = pDirectory.listFiles();
+        if (files == null) {
+            return lastGeneration;
+        }
+
+        for (final File file : files) {
+            final Matcher matcher = pFilePattern.matcher(file.getName());
+            if (!matcher.matches()) {
+                continue;
+            }
+
+            final long generation = Long.parseLong(matcher.group(1));
+            if (matcher.group(3) != null) {
+                if (generation < aCurrentGeneration) {
+                    // Interrupted compaction
+                    file.delete();
+                }
+                continue;
+            }
+
+            lastGeneration = Math.max(lastGeneration, generation);
+            if (SNAPSHOT_EXT.equals(matcher.group(2))) {
+                aSnapshots.put(generation, file);
+            } else {
+                aLogs.put(generation, file);
+            }
+        }
+        return lastGeneration;
+    }
+
+    /**
+     * Loads a snapshot
+     *
+     * @param aFile
+     *            A snapshot file
+     * @return The loaded storage, null if the snapshot is incomplete
+     * @throws IOException
+     *             Error reading the file
+     */
+    private ConcurrentStatusStorage<S, T> loadSnapshot(final File aFile)
+            throws IOException {
+
+        final ConcurrentStatusStorage<S, T> storage = new ConcurrentStatusStorage<S, T>();
+        final int[] nbEntries = { 0, -1 };
+        StatusJournal.readRecords(aFile, new StatusJournal.IRecordHandler() {
+
+            @Override
+            public void handle(final byte aOperation, final String[] aFields) {
+
+                if (aOperation == StatusJournal.OP_END) {
+                    nbEntries[1] = Integer.parseInt(aFields[0]);
+                } else if (apply(storage, aOperation, aFields)) {
+                    nbEntries[0]++;
+                }
+            }
+        });
+
+        if (nbEntries[0] != nbEntries[1]) {
+            pLogger.logWarn(this, "loadSnapshot",
+                    "Incomplete status snapshot '%s': %d/%d entries", aFile,
+                    nbEntries[0], nbEntries[1]);
+            return null;
+        }
+        return storage;
+    }
+
+    /**
+     * @param aGeneration
+     *            A generation
+     * @return The log file of the generation
+     */
+    private File logFile(final long aGeneration) {
+
+        return new File(pDirectory, pName + "-" + aGeneration + WAL_EXT);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#remove(java.lang.String)
+     */
+    @Override
+    public void remove(final String aId) throws InvalidIdException {
+
+        synchronized (this) {
+            pDelegate.remove(aId);
+            journal(StatusJournal.OP_REMOVE, aId);
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Replays a log
+     *
+     * @param aStorage
+     *            The storage being recovered
+     * @param aFile
+     *            A log file
+     * @return The number of replayed records
+     * @throws IOException
+     *             Error reading the file
+     */
+    private int replay(final ConcurrentStatusStorage<S, T> aStorage,
+            final File aFile) throws IOException {
+
+        final int[] nbRecords = { 0 };
+        StatusJournal.readRecords(aFile, new StatusJournal.IRecordHandler() {
+
+            @Override
+            public void handle(final byte aOperation, final String[] aFields) {
+
+                if (apply(aStorage, aOperation, aFields)) {
+                    nbRecords[0]++;
+                }
+            }
+        });
+        return nbRecords[0];
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#size()
+     */
+    @Override
+    public int size() {
+
+        return pDelegate.size();
+    }
+
+    /**
+     * @param aGeneration
+     *            A generation
+     * @return The snapshot file of the generation
+     */
+    private File snapshotFile(final long aGeneration) {
+
+        return new File(pDirectory, pName + "-" + aGeneration + SNAPSHOT_EXT);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#store(java.lang.String,
+     * java.lang.Object, org.psem2m.status.storage.State)
+     */
+    @Override
+    public boolean store(final String aId, final T aValue,
+            final S aInitialState) throws InvalidIdException,
+            InvalidStateException {
+
+        synchronized (this) {
+            pDelegate.store(aId, aValue, aInitialState);
+            journal(StatusJournal.OP_STORE, aId,
+                    pCodec.stateToString(aInitialState),
+                    (aValue != null) ? pCodec.valueToString(aValue) : null);
+        }
+        compactIfNeeded();
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#waitTransitions(long, int,
+     * long)
+     */
+    @Override
+    public List<StateTransition<S>> waitTransitions(final long aAfter,
+            final int aMax, final long aTimeout) throws InterruptedException {
+
+        return pDelegate.waitTransitions(aAfter, aMax, aTimeout);
+    }
+
+    /**
+     * Writes the snapshot of a generation and reads it back, then deletes the
+     * files of the previous ones. The snapshot must have been taken when the
+     * log of the generation was started.
+     *
+     * @param aGeneration
+     *            The generation of the current log
+     * @param aStates
+     *            IDs -> State
+     * @param aValues
+     *            IDs -> Value
+     * @throws IOException
+     *             Error writing the snapshot or reading it back: the previous
+     *             generations are kept
+     */
+    private void writeSnapshot(final long aGeneration,
+            final Map<String, S> aStates, final Map<String, T> aValues)
+            throws IOException {
+
+        final File tmpFile = new File(pDirectory, snapshotFile(aGeneration)
+                .getName() + TMP_EXT);
+        final StatusJournal snapshot = new StatusJournal(tmpFile, aGeneration);
+        try {
+            for (final Map.Entry<String, S> entry : aStates.entrySet()) {
+                final T value = aValues.get(entry.getKey());
+                snapshot.append(StatusJournal.OP_STORE, entry.getKey(),
+                        pCodec.stateToString(entry.getValue()),
+                        (value != null) ? pCodec.valueToString(value) : null);
+            }
+            snapshot.append(StatusJournal.OP_END,
+                    Integer.toString(aStates.size()));
+            snapshot.force();
+
+        } finally {
+            snapshot.close();
+        }
+
+        if (loadSnapshot(tmpFile) == null) {
+            tmpFile.delete();
+            throw new IOException("Can't read back the status snapshot "
+                    + tmpFile);
+        }
+
+        if (!tmpFile.renameTo(snapshotFile(aGeneration))) {
+            throw new IOException("Can't rename the status snapshot "
+                    + tmpFile);
+        }
+
+        // Delete the previous generations
+        final SortedMap<Long, File> snapshots = new TreeMap<Long, File>();
+        final SortedMap<Long, File> logs = new TreeMap<Long, File>();
+        listFiles(snapshots, logs, aGeneration);
+        for (final File file : snapshots.headMap(aGeneration).values()) {
+            file.delete();
+        }
+        for (final File file : logs.headMap(aGeneration).values()) {
+            file.delete();
+        }
+    }
+}
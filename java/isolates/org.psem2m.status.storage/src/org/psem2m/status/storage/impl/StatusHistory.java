@@ -0,0 +1,201 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.status.storage.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.psem2m.status.storage.State;
+import org.psem2m.status.storage.StateTransition;
+
+/**
+ * The append-only log of the transitions of a status storage, held in a
+ * bounded ring: the oldest transitions are overwritten.
+ *
+ * The consumers read the transitions following the last sequence number they
+ * know. The writers never lock: the waiting consumers are only notified if
+ * there are some.
+ *
+ * @author ogattaz
+ *
+ * @param <S>
+ *            Enumeration defining states
+ */
+class StatusHistory<S extends State> {
+
+    /** The default number of transitions kept */
+    static final int DEFAULT_SIZE = 1024;
+
+    /** The sequence number of the last logged transition */
+    private final AtomicLong pLastSequence = new AtomicLong();
+
+    /** The number of consumers waiting for a transition */
+    private final AtomicInteger pNbWaiters = new AtomicInteger();
+
+    /** The ring of transitions, indexed by sequence number modulo its size */
+    private final AtomicReferenceArray<StateTransition<S>> pRing;
+
+    /** The monitor of the waiting consumers */
+    private final Object pWaitLock = new Object();
+
+    /**
+     * Sets up the history
+     *
+     * @param aSize
+     *            The max number of transitions kept
+     */
+    StatusHistory(final int aSize) {
+
+        pRing = new AtomicReferenceArray<StateTransition<S>>(Math.max(1, aSize));
+    }
+
+    /**
+     * Logs a transition
+     *
+     * @param aId
+     *            The ID
+     * @param aOldState
+     *            The previous state (null for a storage)
+     * @param aNewState
+     *            The new state (null for a removal)
+     * @return The sequence number of the transition
+     */
+    long append(final String aId, final S aOldState, final S aNewState) {
+
+        final long sequence = pLastSequence.incrementAndGet();
+        pRing.set(index(sequence), new StateTransition<S>(sequence, aId,
+                aOldState, aNewState, System.nanoTime()));
+
+        if (pNbWaiters.get() > 0) {
+            synchronized (pWaitLock) {
+                pWaitLock.notifyAll();
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * @return The sequence number of the oldest transition kept in the ring,
+     *         the last one + 1 if none
+     */
+    long getFirstSequence() {
+
+        return Math.max(1, pLastSequence.get() - pRing.length() + 1);
+    }
+
+    /**
+     * @return The sequence number of the last logged transition (0 if none)
+     */
+    long getLastSequence() {
+
+        return pLastSequence.get();
+    }
+
+    /**
+     * Retrieves the transitions following the given sequence number, in their
+     * order. The first returned sequence number is greater than aAfter + 1 if
+     * the following transitions have been overwritten: see
+     * {@link #getFirstSequence()}.
+     *
+     * @param aAfter
+     *            The last sequence number known by the consumer (0 at first)
+     * @param aMax
+     *            The max number of transitions to return
+     * @return The transitions, possibly empty
+     */
+    List<StateTransition<S>> getTransitions(final long aAfter, final int aMax) {
+
+        final List<StateTransition<S>> transitions = new ArrayList<StateTransition<S>>();
+        final long last = pLastSequence.get();
+
+        // The oldest transition possibly kept in the ring
+        long sequence = Math.max(Math.max(0, aAfter) + 1,
+                last - pRing.length() + 1);
+        while (sequence <= last && transitions.size() < aMax) {
+            final StateTransition<S> transition = pRing.get(index(sequence));
+            if (transition == null || transition.getSequence() < sequence) {
+                // Not written yet: the next ones will be read later
+                break;
+            }
+            if (transition.getSequence() == sequence) {
+                transitions.add(transition);
+            }
+            // else overwritten while reading
+            sequence++;
+        }
+        return transitions;
+    }
+
+    /**
+     * @param aSequence
+     *            A sequence number
+     * @return The index of the transition in the ring
+     */
+    private int index(final long aSequence) {
+
+        return (int) (aSequence % pRing.length());
+    }
+
+    /**
+     * Retrieves the transitions following the given sequence number, waiting
+     * for the next one if there is none
+     *
+     * @param aAfter
+     *            The last sequence number known by the consumer
+     * @param aMax
+     *            The max number of transitions to return, nothing is waited
+     *            for if it is not positive
+     * @param aTimeout
+     *            The max time to wait, in milliseconds
+     * @return The transitions, empty if the timeout expired
+     * @throws InterruptedException
+     *             The waiting thread has been interrupted
+     */
+    List<StateTransition<S>> waitTransitions(final long aAfter,
+            final int aMax, final long aTimeout) throws InterruptedException {
+
+        List<StateTransition<S>> transitions = getTransitions(aAfter, aMax);
+        if (!transitions.isEmpty() || aTimeout <= 0 || aMax <= 0) {
+            return transitions;
+        }
+
+        final long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(aTimeout);
+
+        // Registered before testing again: a writer appending after the test
+        // sees the waiter
+        pNbWaiters.incrementAndGet();
+        try {
+            synchronized (pWaitLock) {
+                while (true) {
+                    transitions = getTransitions(aAfter, aMax);
+                    final long remaining = deadline - System.nanoTime();
+                    if (!transitions.isEmpty() || remaining <= 0) {
+                        return transitions;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(pWaitLock, remaining);
+                }
+            }
+        } finally {
+            pNbWaiters.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/**
+ * Copyright 2014 isandlaTech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.psem2m.status.storage.impl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * A file of records written by a persistent status storage: its write-ahead
+ * log or one of its snapshots.
+ *
+ * The file starts with a header (magic, generation), followed by records
+ * framed as (payload length, payload, CRC32 of the payload). A payload is an
+ * operation code followed by its string fields. A record is written in one
+ * call: a crash can only leave a torn last record, which is detected by its
+ * length or its CRC and ignored.
+ *
+ * @author ogattaz
+ */
+class StatusJournal {
+
+    /**
+     * Handles the records read from a journal
+     */
+    interface IRecordHandler {
+
+        /**
+         * Handles a record
+         *
+         * @param aOperation
+         *            The operation code
+         * @param aFields
+         *            The fields of the record
+         */
+        void handle(byte aOperation, String[] aFields);
+    }
+
+    /** The file magic: "PSJ1" */
+    private static final int MAGIC = 0x50534A31;
+
+    /** The max size of a record payload, larger lengths are corrupted data */
+    private static final int MAX_PAYLOAD = 64 * 1024 * 1024;
+
+    /** Clear the storage: no field */
+    static final byte OP_CLEAR = 4;
+
+    /** End of a complete snapshot: number of entries */
+    static final byte OP_END = 5;
+
+    /** Remove an ID: ID */
+    static final byte OP_REMOVE = 3;
+
+    /** Change the state of an ID: ID, state */
+    static final byte OP_STATE = 2;
+
+    /** Store an ID: ID, state, value (nullable) */
+    static final byte OP_STORE = 1;
+
+    /** The encoding of the fields */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Reads the valid records of a journal file, up to the first torn or
+     * corrupted one
+     *
+     * @param aFile
+     *            A journal file
+     * @param aHandler
+     *            The handler of the records
+     * @return The length of the valid part of the file, 0 if its header is
+     *         invalid
+     * @throws IOException
+     *             Error reading the file
+     */
+    static long readRecords(final File aFile, final IRecordHandler aHandler)
+            throws IOException {
+
+        final DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(aFile), 65536));
+        long validLength = 0;
+        try {
+            if (input.readInt() != MAGIC) {
+                return 0;
+            }
+            input.readLong();
+            validLength = 12;
+
+            final CRC32 crc = new CRC32();
+            while (true) {
+                final int length = input.readInt();
+                if (length <= 0 || length > MAX_PAYLOAD) {
+                    return validLength;
+                }
+
+                final byte[] payload = new byte[length];
+                input.readFully(payload);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if (input.readInt() != (int) crc.getValue()) {
+                    return validLength;
+                }
+
+                aHandler.handle(payload[0], readFields(payload));
+                validLength += length + 8;
+            }
+
+        } catch (final EOFException ex) {
+            // End of file or torn record: stop after the last valid record
+            return validLength;
+
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Decodes the fields of a payload
+     *
+     * @param aPayload
+     *            A record payload
+     * @return The fields of the record
+     * @throws IOException
+     *             Invalid payload
+     */
+    private static String[] readFields(final byte[] aPayload)
+            throws IOException {
+
+        final DataInputStream input = new DataInputStream(
+                new ByteArrayInputStream(aPayload, 1,
+                        aPayload.length - 1));
+
+        final String[] fields = new String[input.readInt()];
+        for (int i = 0; i < fields.length; i++) {
+            final int length = input.readInt();
+            if (length >= 0) {
+                final byte[] bytes = new byte[length];
+                input.readFully(bytes);
+                fields[i] = new String(bytes, UTF8);
+            }
+        }
+        return fields;
+    }
+
+    /** The written file */
+    private final File pFile;
+
+    /** The generation of the file */
+    private final long pGeneration;
+
+    /** Number of records written in the file */
+    private long pNbRecords;
+
+    /** The output file */
+    private final FileOutputStream pOutput;
+
+    /**
+     * Creates a journal file
+     *
+     * @param aFile
+     *            The journal file, replaced if it exists
+     * @param aGeneration
+     *            The generation written in the header of the file
+     * @throws IOException
+     *             Error creating the file
+     */
+    StatusJournal(final File aFile, final long aGeneration) throws IOException {
+
+        pFile = aFile;
+        pGeneration = aGeneration;
+        pOutput = new FileOutputStream(aFile);
+
+        final ByteArrayOutputStream header = new ByteArrayOutputStream(12);
+        final DataOutputStream output = new DataOutputStream(header);
+        output.writeInt(MAGIC);
+        output.writeLong(aGeneration);
+        pOutput.write(header.toByteArray());
+    }
+
+    /**
+     * Appends a record
+     *
+     * @param aOperation
+     *            The operation code
+     * @param aFields
+     *            The fields of the record, null fields are allowed
+     * @throws IOException
+     *             Error writing the record
+     */
+    void append(final byte aOperation, final String... aFields)
+            throws IOException {
+
+        final ByteArrayOutputStream payloadBuffer = new ByteArrayOutputStream(
+                64);
+        final DataOutputStream payloadOutput = new DataOutputStream(
+                payloadBuffer);
+        payloadOutput.writeByte(aOperation);
+        payloadOutput.writeInt(aFields.length);
+        for (final String field : aFields) {
+            if (field == null) {
+                payloadOutput.writeInt(-1);
+            } else {
+                final byte[] bytes = field.getBytes(UTF8);
+                payloadOutput.writeInt(bytes.length);
+                payloadOutput.write(bytes);
+            }
+        }
+        final byte[] payload = payloadBuffer.toByteArray();
+
+        final CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+
+        final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(
+                payload.length + 8);
+        final DataOutputStream recordOutput = new DataOutputStream(
+                recordBuffer);
+        recordOutput.writeInt(payload.length);
+        recordOutput.write(payload);
+        recordOutput.writeInt((int) crc.getValue());
+
+        // One write: the record is in the OS buffers once it returns
+        pOutput.write(recordBuffer.toByteArray());
+        pNbRecords++;
+    }
+
+    /**
+     * Closes the file
+     *
+     * @throws IOException
+     *             Error closing the file
+     */
+    void close() throws IOException {
+
+        pOutput.close();
+    }
+
+    /**
+     * Forces the written records to the disk
+     *
+     * @throws IOException
+     *             Error syncing the file
+     */
+    void force() throws IOException {
+
+        pOutput.getChannel().force(false);
+    }
+
+    /**
+     * @return The journal file
+     */
+    File getFile() {
+
+        return pFile;
+    }
+
+    /**
+     * @return The generation of the file
+     */
+    long getGeneration() {
+
+        return pGeneration;
+    }
+
+    /**
+     * @return The number of records written in the file
+     */
+    long getNbRecords() {
+
+        return pNbRecords;
+    }
+}
@@ -20,6 +20,7 @@ import java.text.MessageFormat;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -27,6 +28,7 @@ import org.psem2m.status.storage.IStatusStorage;
 import org.psem2m.status.storage.InvalidIdException;
 import org.psem2m.status.storage.InvalidStateException;
 import org.psem2m.status.storage.State;
+import org.psem2m.status.storage.StateTransition;
 
 /**
  * Describes the current status of the monitor
@@ -35,6 +37,10 @@ import org.psem2m.status.storage.State;
  */
 public class StatusStorage<S extends State, T> implements IStatusStorage<S, T> {
 
+    /** The transitions log */
+    private final StatusHistory<S> pHistory = new StatusHistory<S>(
+            StatusHistory.DEFAULT_SIZE);
+
     /** IDs -> State */
     private final Map<String, S> pIdStates = new HashMap<String, S>();
 
@@ -61,7 +67,7 @@ public class StatusStorage<S extends State, T> implements IStatusStorage<S, T> {
         }
 
         // Get the previous state
-        final State oldState = pIdStates.get(aId);
+        final S oldState = pIdStates.get(aId);
         if (oldState == null) {
             // Unknown ID
             throw new InvalidIdException(MessageFormat.format(
@@ -99,7 +105,8 @@ public class StatusStorage<S extends State, T> implements IStatusStorage<S, T> {
         previousSet.remove(aId);
         newSet.add(aId);
 
-        // TODO: store change in history
+        // Log the change
+        pHistory.append(aId, oldState, aNewState);
     }
 
     /*
@@ -110,6 +117,10 @@ public class StatusStorage<S extends State, T> implements IStatusStorage<S, T> {
     @Override
     public synchronized void clear() {
 
+        for (final Map.Entry<String, S> entry : pIdStates.entrySet()) {
+            pHistory.append(entry.getKey(), entry.getValue(), null);
+        }
+
         pIdStates.clear();
         pValues.clear();
         pStates.clear();
@@ -205,6 +216,40 @@ public class StatusStorage<S extends State, T> implements IStatusStorage<S, T> {
         return pIdStates.get(aId);
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#getTransitions(long, int)
+     */
+    @Override
+    public List<StateTransition<S>> getTransitions(final long aAfter,
+            final int aMax) {
+
+        return pHistory.getTransitions(aAfter, aMax);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#getTransitionSequence()
+     */
+    @Override
+    public long getTransitionSequence() {
+
+        return pHistory.getLastSequence();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#getTransitionsStart()
+     */
+    @Override
+    public long getTransitionsStart() {
+
+        return pHistory.getFirstSequence();
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -265,7 +310,7 @@ public class StatusStorage<S extends State, T> implements IStatusStorage<S, T> {
 
         // Remove the map entries
         pValues.remove(aId);
-        pIdStates.remove(aId);
+        pHistory.append(aId, pIdStates.remove(aId), null);
 
         // Remove from the state sets
         for (final Set<String> stateSet : pStates.values()) {
@@ -316,6 +361,7 @@ public class StatusStorage<S extends State, T> implements IStatusStorage<S, T> {
 
         // Associate the initial state to the ID
         pIdStates.put(aId, aInitialState);
+        pHistory.append(aId, null, aInitialState);
 
         // Associate the ID to the initial state
         return storeIdInState(aId, aInitialState);
@@ -340,4 +386,18 @@ public class StatusStorage<S extends State, T> implements IStatusStorage<S, T> {
 
         return stateSet.add(aId);
     }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.psem2m.status.storage.IStatusStorage#waitTransitions(long, int,
+     * long)
+     */
+    @Override
+    public List<StateTransition<S>> waitTransitions(final long aAfter,
+            final int aMax, final long aTimeout) throws InterruptedException {
+
+        // Not synchronized: the storage stays usable while waiting
+        return pHistory.waitTransitions(aAfter, aMax, aTimeout);
+    }
 }
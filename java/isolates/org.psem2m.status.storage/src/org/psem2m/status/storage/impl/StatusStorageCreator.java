@@ -16,6 +16,14 @@
 
 package org.psem2m.status.storage.impl;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Instantiate;
 import org.apache.felix.ipojo.annotations.Invalidate;
@@ -23,6 +31,8 @@ import org.apache.felix.ipojo.annotations.Provides;
 import org.apache.felix.ipojo.annotations.Requires;
 import org.apache.felix.ipojo.annotations.Validate;
 import org.psem2m.isolates.base.IIsolateLoggerSvc;
+import org.psem2m.isolates.services.dirs.IPlatformDirsSvc;
+import org.psem2m.status.storage.IStatusCodec;
 import org.psem2m.status.storage.IStatusStorage;
 import org.psem2m.status.storage.IStatusStorageCreator;
 import org.psem2m.status.storage.State;
@@ -38,10 +48,24 @@ import org.psem2m.status.storage.State;
 @Instantiate(name = "psem2m-status-storage-creator")
 public class StatusStorageCreator implements IStatusStorageCreator {
 
+    /** The valid names of persistent storages */
+    private static final Pattern STORAGE_NAME = Pattern
+            .compile("[A-Za-z0-9._-]+");
+
+    /** The sub-directory of the persistent storages */
+    private static final String STORAGE_DIR = "status";
+
     /** The logger */
     @Requires
     private IIsolateLoggerSvc pLogger;
 
+    /** Name -> Opened persistent storage */
+    private final Map<String, PersistentStatusStorage<?, ?>> pPersistentStorages = new HashMap<String, PersistentStatusStorage<?, ?>>();
+
+    /** The platform directories service */
+    @Requires
+    private IPlatformDirsSvc pPlatformDirs;
+
     /*
      * (non-Javadoc)
      *
@@ -50,7 +74,51 @@ public class StatusStorageCreator implements IStatusStorageCreator {
     @Override
     public <S extends State, T> IStatusStorage<S, T> createStorage() {
 
-        return new StatusStorage<S, T>();
+        return new ConcurrentStatusStorage<S, T>();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.psem2m.status.storage.IStatusStorageCreator#createStorage(java.lang
+     * .Class)
+     */
+    @Override
+    public <S extends Enum<S> & State, T> IStatusStorage<S, T> createStorage(
+            final Class<S> aStateClass) {
+
+        return new EnumStatusStorage<S, T>(aStateClass);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.psem2m.status.storage.IStatusStorageCreator#createStorage(java.lang
+     * .String, org.psem2m.status.storage.IStatusCodec)
+     */
+    @Override
+    public <S extends State, T> IStatusStorage<S, T> createStorage(
+            final String aName, final IStatusCodec<S, T> aCodec)
+            throws IOException {
+
+        if (aName == null || !STORAGE_NAME.matcher(aName).matches()) {
+            throw new IOException("Invalid status storage name: " + aName);
+        }
+
+        synchronized (pPersistentStorages) {
+            if (pPersistentStorages.containsKey(aName)) {
+                throw new IOException("Status storage already opened: "
+                        + aName);
+            }
+
+            final PersistentStatusStorage<S, T> storage = new PersistentStatusStorage<S, T>(
+                    new File(pPlatformDirs.getIsolateStorageDir(),
+                            STORAGE_DIR), aName, aCodec, pLogger);
+            pPersistentStorages.put(aName, storage);
+            return storage;
+        }
     }
 
     /*
@@ -66,6 +134,14 @@ public class StatusStorageCreator implements IStatusStorageCreator {
         if (aStorage != null) {
             aStorage.clear();
         }
+
+        if (aStorage instanceof PersistentStatusStorage) {
+            final PersistentStatusStorage<?, ?> storage = (PersistentStatusStorage<?, ?>) aStorage;
+            storage.close();
+            synchronized (pPersistentStorages) {
+                pPersistentStorages.remove(storage.getName());
+            }
+        }
     }
 
     /**
@@ -74,6 +150,16 @@ public class StatusStorageCreator implements IStatusStorageCreator {
     @Invalidate
     public void invalidate() {
 
+        final List<PersistentStatusStorage<?, ?>> storages;
+        synchronized (pPersistentStorages) {
+            storages = new ArrayList<PersistentStatusStorage<?, ?>>(
+                    pPersistentStorages.values());
+            pPersistentStorages.clear();
+        }
+        for (final PersistentStatusStorage<?, ?> storage : storages) {
+            storage.close();
+        }
+
         pLogger.logInfo(this, "invalidate", "Status Storage Creator gone");
     }
 